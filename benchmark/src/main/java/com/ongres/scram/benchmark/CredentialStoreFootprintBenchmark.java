@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.server.ScramCredentialStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Memory footprint of the verifiers of many users, kept in a {@code HashMap<String, byte[][]>} (salt, iteration
+ * count, StoredKey and ServerKey arrays) or in a {@link ScramCredentialStore}. Each iteration loads
+ * {@code -p users} users, and the time reported is the loading time. The store reserves {@code -p maxUserLength}
+ * bytes per username: 63 by default, which PostgreSQL role names need, while many deployments need much less.
+ *
+ * The footprint, in bytes per user, is printed after each iteration: the heap retained by the structure (measured
+ * as the used heap after a full GC) and, for the store, the off-heap memory of its slots.
+ * The store should need a fraction of the memory, and almost no heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class CredentialStoreFootprintBenchmark {
+    @Param({ "1000000" })
+    public int users;
+
+    @Param({ "16", "63" })
+    public int maxUserLength;
+
+    private long usedHeapBefore;
+    private Object retained;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static byte[] value(int user, int length, int fill) {
+        byte[] value = new byte[length];
+        value[0] = (byte) user;
+        value[1] = (byte) (user >>> 8);
+        value[2] = (byte) (user >>> 16);
+        value[length - 1] = (byte) fill;
+
+        return value;
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        retained = null;
+        usedHeapBefore = usedHeap();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        long heap = usedHeap() - usedHeapBefore;
+        long offHeap = retained instanceof ScramCredentialStore
+                ? ((ScramCredentialStore) retained).getOffHeapSize()
+                : 0;
+        System.out.printf(
+                "%n%s: %d heap + %d off-heap bytes per user%n",
+                retained.getClass().getSimpleName(), heap / users, offHeap / users
+        );
+        retained = null;
+    }
+
+    @Benchmark
+    public Object hashMap() {
+        Map<String, byte[][]> map = new HashMap<>(users / 3 * 4 + 1);
+        for(int i = 0; i < users; i++) {
+            map.put("user" + i, new byte[][] {
+                    value(i, 16, 0), ByteBuffer.allocate(4).putInt(4096).array(), value(i, 32, 1), value(i, 32, 2)
+            });
+        }
+        retained = map;
+
+        return map;
+    }
+
+    @Benchmark
+    public Object credentialStore() {
+        ScramCredentialStore store = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_256)
+                .expectedUsers(users)
+                .maxUserLength(maxUserLength)
+                .setup();
+        for(int i = 0; i < users; i++) {
+            store.put("user" + i, new ScramVerifier(
+                    ScramMechanisms.SCRAM_SHA_256, value(i, 16, 0), 4096, value(i, 32, 1), value(i, 32, 2)
+            ));
+        }
+        retained = store;
+
+        return store;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.client.ScramClient;
+import com.ongres.scram.client.ScramSession;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Event-loop stall caused by a client handshake: the time a trivial task, queued on a single-threaded "event loop"
+ * right after the task that computes the client-final-message, waits until it runs.
+ * {@code synchronous} computes the salted password on the event loop;
+ * {@code asynchronous} offloads it with {@link ScramSession.ServerFirstProcessor#clientFinalProcessorAsync(String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventLoopStallBenchmark {
+    private static final String CLIENT_NONCE = "fyko+d2lbbFgONRv9qkxdawL";
+    private static final String SERVER_FIRST_MESSAGE = "r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,"
+            + "s=QSXCR+Q6sek8bf92,i=4096";
+    private static final String PASSWORD = "pencil";
+    private static final Runnable PROBE = () -> { };
+
+    private ExecutorService eventLoop;
+    private ExecutorService worker;
+    private ScramClient scramClient;
+    private volatile CompletableFuture<String> pending;
+
+    @Setup
+    public void setup() {
+        eventLoop = Executors.newSingleThreadExecutor();
+        worker = Executors.newSingleThreadExecutor();
+        scramClient = ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectMechanismBasedOnServerAdvertised("SCRAM-SHA-256")
+                .nonceSupplier(() -> CLIENT_NONCE)
+                .executor(worker)
+                .setup();
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventLoop.shutdown();
+        worker.shutdown();
+    }
+
+    /**
+     * Waits, outside of the measurement, for the offloaded computation to finish, so that they don't pile up.
+     */
+    @TearDown(Level.Invocation)
+    public void awaitPending() throws InterruptedException, ExecutionException {
+        CompletableFuture<String> future = pending;
+        if(null != future) {
+            future.get();
+            pending = null;
+        }
+    }
+
+    private ScramSession.ServerFirstProcessor serverFirstProcessor() {
+        ScramSession scramSession = scramClient.scramSession("user");
+        scramSession.clientFirstMessage();
+        try {
+            return scramSession.receiveServerFirstMessage(SERVER_FIRST_MESSAGE);
+        } catch (ScramParseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public void synchronous() throws InterruptedException, ExecutionException {
+        eventLoop.execute(() -> serverFirstProcessor().clientFinalProcessor(PASSWORD).clientFinalMessage());
+        eventLoop.submit(PROBE).get();
+    }
+
+    @Benchmark
+    public void asynchronous() throws InterruptedException, ExecutionException {
+        eventLoop.execute(
+                () -> pending = serverFirstProcessor().clientFinalProcessorAsync(PASSWORD)
+                        .thenApply(ScramSession.ClientFinalProcessor::clientFinalMessage)
+        );
+        eventLoop.submit(PROBE).get();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.client.ReusableScramSession;
+import com.ongres.scram.client.ScramClient;
+import com.ongres.scram.client.ScramSession;
+import com.ongres.scram.common.ScramCredentials;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.exception.ScramException;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Bytes allocated per client handshake, with a pooled {@link ReusableScramSession} ({@code reusableSession})
+ * and with a new {@link ScramSession} per handshake ({@code scramSession}).
+ * Both authenticate with previously derived {@link ScramCredentials}, so that the salted password is not computed.
+ *
+ * Run it with the GC profiler, and compare the {@code gc.alloc.rate.norm} (bytes per operation) results:
+ *
+ *      java -jar benchmark/target/benchmarks.jar HandshakeAllocationBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeAllocationBenchmark {
+    private static final String USER = "user";
+    private static final String CLIENT_NONCE = "fyko+d2lbbFgONRv9qkxdawL";
+    private static final String SERVER_FIRST_MESSAGE = "r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,"
+            + "s=QSXCR+Q6sek8bf92,i=4096";
+    private static final String SERVER_FINAL_MESSAGE = "v=rmF9pqV8S7suAoZWja4dJRkFsKQ=";
+
+    private ScramClient scramClient;
+    private ScramCredentials credentials;
+    private final ByteBuffer output = ByteBuffer.allocateDirect(256);
+    private final ByteBuffer serverFirstMessage = ByteBuffer.wrap(
+            SERVER_FIRST_MESSAGE.getBytes(StandardCharsets.US_ASCII)
+    );
+    private final ByteBuffer serverFinalMessage = ByteBuffer.wrap(
+            SERVER_FINAL_MESSAGE.getBytes(StandardCharsets.US_ASCII)
+    );
+
+    @Setup
+    public void setup() {
+        scramClient = ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectClientMechanism(ScramMechanisms.SCRAM_SHA_1)
+                .nonceSupplier(() -> CLIENT_NONCE)
+                .setup();
+        credentials = ScramCredentials.fromPassword(
+                ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, "pencil",
+                Base64.getDecoder().decode("QSXCR+Q6sek8bf92"), 4096
+        );
+    }
+
+    @Benchmark
+    public ByteBuffer reusableSession() throws ScramException {
+        try(ReusableScramSession session = scramClient.reusableScramSession(USER)) {
+            output.clear();
+            session.clientFirstMessage(output);
+            serverFirstMessage.rewind();
+            session.receiveServerFirstMessage(serverFirstMessage);
+            output.clear();
+            session.clientFinalMessage(credentials, output);
+            serverFinalMessage.rewind();
+            session.receiveServerFinalMessage(serverFinalMessage);
+        }
+
+        return output;
+    }
+
+    @Benchmark
+    public String scramSession() throws ScramException {
+        ScramSession session = scramClient.scramSession(USER);
+        session.clientFirstMessage();
+        ScramSession.ClientFinalProcessor clientFinalProcessor = session
+                .receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                .clientFinalProcessor(credentials);
+        String clientFinalMessage = clientFinalProcessor.clientFinalMessage();
+        clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+
+        return clientFinalMessage;
+    }
+}
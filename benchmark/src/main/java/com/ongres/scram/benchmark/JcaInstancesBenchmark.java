@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.common.ScramFunctions;
+import com.ongres.scram.common.ScramMechanism;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Throughput of the cryptographic operations of a client handshake that follow the salted password computation,
+ * with the JCA instances provided by {@link ScramMechanisms} (cloned from a prototype)
+ * and with a provider lookup on every call.
+ *
+ * Run with different thread counts (e.g. {@code -t 1}, {@code -t 4}, {@code -t max}) to see how each scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JcaInstancesBenchmark {
+    static final String AUTH_MESSAGE = "n=user,r=fyko+d2lbbFgONRv9qkxdawL,"
+            + "r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,s=QSXCR+Q6sek8bf92,i=4096,"
+            + "c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j";
+    static final byte[] SALT = Base64.getDecoder().decode("QSXCR+Q6sek8bf92");
+
+    /**
+     * Delegates to a {@link ScramMechanisms}, but looks up a new MessageDigest and Mac on every call.
+     */
+    private static class ProviderLookupScramMechanism implements ScramMechanism {
+        private final ScramMechanisms scramMechanism;
+        private final String hashAlgorithm;
+        private final String hmacAlgorithm;
+
+        private ProviderLookupScramMechanism(ScramMechanisms scramMechanism) {
+            this.scramMechanism = scramMechanism;
+            this.hashAlgorithm = scramMechanism.getMessageDigestInstance().getAlgorithm();
+            this.hmacAlgorithm = scramMechanism.getMacInstance().getAlgorithm();
+        }
+
+        @Override
+        public String getName() {
+            return scramMechanism.getName();
+        }
+
+        @Override
+        public MessageDigest getMessageDigestInstance() {
+            try {
+                return MessageDigest.getInstance(hashAlgorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Mac getMacInstance() {
+            try {
+                return Mac.getInstance(hmacAlgorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public SecretKeySpec secretKeySpec(byte[] key) {
+            return scramMechanism.secretKeySpec(key);
+        }
+
+        @Override
+        public SecretKeyFactory secretKeyFactory() {
+            return scramMechanism.secretKeyFactory();
+        }
+
+        @Override
+        public int algorithmKeyLength() {
+            return scramMechanism.algorithmKeyLength();
+        }
+
+        @Override
+        public boolean supportsChannelBinding() {
+            return scramMechanism.supportsChannelBinding();
+        }
+    }
+
+    @Param({ "SCRAM_SHA_1", "SCRAM_SHA_256" })
+    public ScramMechanisms scramMechanism;
+
+    private ScramMechanism providerLookupScramMechanism;
+    private byte[] saltedPassword;
+    private byte[] serverSignature;
+
+    @Setup
+    public void setup() {
+        providerLookupScramMechanism = new ProviderLookupScramMechanism(scramMechanism);
+        saltedPassword = ScramFunctions.saltedPassword(
+                scramMechanism, StringPreparations.NO_PREPARATION, "pencil", SALT, 4096
+        );
+        serverSignature = ScramFunctions.serverSignature(
+                scramMechanism, ScramFunctions.serverKey(scramMechanism, saltedPassword), AUTH_MESSAGE
+        );
+    }
+
+    private boolean handshake(ScramMechanism scramMechanism) {
+        byte[] clientKey = ScramFunctions.clientKey(scramMechanism, saltedPassword);
+        byte[] storedKey = ScramFunctions.storedKey(scramMechanism, clientKey);
+        byte[] clientProof = ScramFunctions.clientProof(
+                clientKey, ScramFunctions.clientSignature(scramMechanism, storedKey, AUTH_MESSAGE)
+        );
+        byte[] serverKey = ScramFunctions.serverKey(scramMechanism, saltedPassword);
+
+        return clientProof.length > 0
+                && ScramFunctions.verifyServerSignature(scramMechanism, serverKey, AUTH_MESSAGE, serverSignature);
+    }
+
+    @Benchmark
+    public boolean pooledInstances() {
+        return handshake(scramMechanism);
+    }
+
+    @Benchmark
+    public boolean providerLookup() {
+        return handshake(providerLookupScramMechanism);
+    }
+}
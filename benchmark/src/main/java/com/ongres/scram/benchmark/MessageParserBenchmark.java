@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.message.ServerFinalMessage;
+import com.ongres.scram.common.message.ServerFirstMessage;
+import com.ongres.scram.common.message.ServerFirstMessageView;
+import com.ongres.scram.common.util.StringWritableCsv;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Latency of parsing a server-first-message with the table-driven
+ * {@link com.ongres.scram.common.message.ScramTokenizer}, as {@link ServerFirstMessage#tryParseFrom(String, String)}
+ * and {@link ServerFirstMessageView} do, and with the former parser, that split the message and looked attributes up in a map.
+ * Also compares looking up server-final-message errors by length with the former map lookup.
+ *
+ * Run with {@code -prof gc} to compare allocations too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageParserBenchmark {
+    private static final Map<Character, ScramAttributes> ATTRIBUTES_BY_CHAR = new HashMap<>();
+    private static final Map<String, ServerFinalMessage.Error> ERRORS_BY_MESSAGE = new HashMap<>();
+    static {
+        for(ScramAttributes attribute : ScramAttributes.values()) {
+            ATTRIBUTES_BY_CHAR.put(attribute.getChar(), attribute);
+        }
+        for(ServerFinalMessage.Error error : ServerFinalMessage.Error.values()) {
+            ERRORS_BY_MESSAGE.put(error.getErrorMessage(), error);
+        }
+    }
+
+    // Not final, so that they are not constant-folded
+    private String clientNonce = "fyko+d2lbbFgONRv9qkxdawL";
+    private String serverFirstMessage = "r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,s=QSXCR+Q6sek8bf92,i=4096";
+    private String errorMessage = "channel-binding-not-supported";
+
+    private final ServerFirstMessageView view = new ServerFirstMessageView();
+
+    private static String splitValue(String attributeValue, ScramAttributes attribute) {
+        if(attributeValue.length() < 3 || attributeValue.charAt(1) != '='
+                || ATTRIBUTES_BY_CHAR.get(attributeValue.charAt(0)) != attribute) {
+            throw new IllegalArgumentException("Invalid attribute-value");
+        }
+
+        return attributeValue.substring(2);
+    }
+
+    @Benchmark
+    public ServerFirstMessage splitParser() {
+        String[] attributeValues = StringWritableCsv.parseFrom(serverFirstMessage, 3, 0);
+        String nonce = splitValue(attributeValues[0], ScramAttributes.NONCE);
+        if(! nonce.startsWith(clientNonce)) {
+            throw new IllegalArgumentException("Invalid nonce");
+        }
+        String salt = splitValue(attributeValues[1], ScramAttributes.SALT);
+        int iteration = Integer.parseInt(splitValue(attributeValues[2], ScramAttributes.ITERATION));
+
+        return new ServerFirstMessage(clientNonce, nonce.substring(clientNonce.length()), salt, iteration);
+    }
+
+    @Benchmark
+    public ServerFirstMessage tokenizerParser() {
+        return ServerFirstMessage.tryParseFrom(serverFirstMessage, clientNonce).get();
+    }
+
+    @Benchmark
+    public int tokenizerView() throws ScramParseException {
+        return view.parse(serverFirstMessage).getIteration();
+    }
+
+    @Benchmark
+    public ServerFinalMessage.Error errorMapLookup() {
+        return ERRORS_BY_MESSAGE.get(errorMessage);
+    }
+
+    @Benchmark
+    public Optional<ServerFinalMessage.Error> errorLengthLookup() {
+        return ServerFinalMessage.Error.byErrorMessage(errorMessage, 0, errorMessage.length());
+    }
+}
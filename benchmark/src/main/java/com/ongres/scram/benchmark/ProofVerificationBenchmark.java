@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.common.ScramFunctions;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.ScramProofVerifier;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Throughput of the server side verification of a handshake (verifying the client proof and computing the server
+ * signature) with the allocating {@link ScramFunctions} methods ({@code scramFunctions}), with its scratch-buffer
+ * overloads, which key the Mac on every call ({@code scramFunctionsScratch}), and with a {@link ScramProofVerifier},
+ * either reused by the thread ({@code proofVerifier}) or copied from a per-credential prototype on every handshake,
+ * as a session per connection would ({@code proofVerifierCopy}).
+ *
+ * Add {@code -prof gc} to compare allocation rates: {@code proofVerifier} should allocate nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProofVerificationBenchmark {
+    @Param({ "SCRAM_SHA_1", "SCRAM_SHA_256" })
+    public ScramMechanisms scramMechanism;
+
+    private final byte[] authMessageBytes = JcaInstancesBenchmark.AUTH_MESSAGE.getBytes(StandardCharsets.UTF_8);
+    private byte[] storedKey;
+    private byte[] serverKey;
+    private byte[] clientProof;
+    private Mac mac;
+    private MessageDigest messageDigest;
+    private byte[] scratch;
+    private ScramProofVerifier prototype;
+    private ScramProofVerifier proofVerifier;
+
+    @Setup
+    public void setup() {
+        byte[] saltedPassword = ScramFunctions.saltedPassword(
+                scramMechanism, StringPreparations.NO_PREPARATION, "pencil", JcaInstancesBenchmark.SALT, 4096
+        );
+        byte[] clientKey = ScramFunctions.clientKey(scramMechanism, saltedPassword);
+        storedKey = ScramFunctions.storedKey(scramMechanism, clientKey);
+        serverKey = ScramFunctions.serverKey(scramMechanism, saltedPassword);
+        clientProof = ScramFunctions.clientProof(
+                clientKey, ScramFunctions.clientSignature(scramMechanism, storedKey, JcaInstancesBenchmark.AUTH_MESSAGE)
+        );
+        mac = scramMechanism.getMacInstance();
+        messageDigest = scramMechanism.getMessageDigestInstance();
+        scratch = new byte[clientProof.length];
+        prototype = new ScramProofVerifier(scramMechanism, storedKey, serverKey);
+        proofVerifier = prototype.copy();
+    }
+
+    @Benchmark
+    public byte[] scramFunctions() {
+        if(! ScramFunctions.verifyClientProof(
+                scramMechanism, clientProof, storedKey, JcaInstancesBenchmark.AUTH_MESSAGE
+        )) {
+            throw new IllegalStateException("Invalid proof");
+        }
+
+        return ScramFunctions.serverSignature(scramMechanism, serverKey, JcaInstancesBenchmark.AUTH_MESSAGE);
+    }
+
+    @Benchmark
+    public byte[] scramFunctionsScratch() {
+        if(! ScramFunctions.verifyClientProof(
+                scramMechanism, mac, messageDigest, clientProof, 0, storedKey, authMessageBytes, 0,
+                authMessageBytes.length, scratch
+        )) {
+            throw new IllegalStateException("Invalid proof");
+        }
+        ScramFunctions.serverSignature(
+                scramMechanism, mac, serverKey, authMessageBytes, 0, authMessageBytes.length, scratch, 0
+        );
+
+        return scratch;
+    }
+
+    private byte[] verify(ScramProofVerifier proofVerifier) {
+        if(! proofVerifier.verifyClientProof(authMessageBytes, 0, authMessageBytes.length, clientProof, 0)) {
+            throw new IllegalStateException("Invalid proof");
+        }
+        proofVerifier.serverSignature(authMessageBytes, 0, authMessageBytes.length, scratch, 0);
+
+        return scratch;
+    }
+
+    @Benchmark
+    public byte[] proofVerifier() {
+        return verify(proofVerifier);
+    }
+
+    @Benchmark
+    public byte[] proofVerifierCopy() {
+        return verify(prototype.copy());
+    }
+}
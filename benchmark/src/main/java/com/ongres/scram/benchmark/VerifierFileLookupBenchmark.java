@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.server.ScramVerifierFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Lookups on a {@link ScramVerifierFile} of {@code -p users} SCRAM-SHA-256 users (10 million by default), of random
+ * existing users ({@code lookup}) and of unknown users ({@code lookupUnknown}), and the time to open the file
+ * ({@code open}), which should not depend on the number of users.
+ *
+ * The file is written to the temporary directory on setup, which takes a while, and deleted on tear down.
+ * Run the lookups with several threads (e.g. {@code -t 4}): they share the mapping without synchronization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerifierFileLookupBenchmark {
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    @Param({ "10000000" })
+    public int users;
+
+    private Path path;
+    private ScramVerifierFile file;
+    private final String[] sample = new String[SAMPLE_SIZE];
+
+    private static byte[] value(int user, int length) {
+        byte[] value = new byte[length];
+        value[0] = (byte) user;
+        value[1] = (byte) (user >>> 8);
+        value[2] = (byte) (user >>> 16);
+
+        return value;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        path = Files.createTempFile("scram-verifiers", ".bin");
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            for(int i = 0; i < users; i++) {
+                writer.add("user" + i, new ScramVerifier(
+                        ScramMechanisms.SCRAM_SHA_256, value(i, 16), 4096, value(i, 32), value(i, 32)
+                ));
+            }
+            writer.commit();
+        }
+        file = ScramVerifierFile.open(path);
+        for(int i = 0; i < sample.length; i++) {
+            sample[i] = "user" + ThreadLocalRandom.current().nextInt(users);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public Optional<ScramVerifier> lookup() {
+        return file.lookup(sample[ThreadLocalRandom.current().nextInt(SAMPLE_SIZE)]);
+    }
+
+    @Benchmark
+    public Optional<ScramVerifier> lookupUnknown() {
+        return file.lookup("unknown" + sample[ThreadLocalRandom.current().nextInt(SAMPLE_SIZE)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Measurement(iterations = 10)
+    public int open() throws IOException {
+        return ScramVerifierFile.open(path).size();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.benchmark;
+
+
+import com.ongres.scram.client.ScramClient;
+import com.ongres.scram.client.ScramSession;
+import com.ongres.scram.common.ScramCredentials;
+import com.ongres.scram.common.ScramFunctions;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.exception.ScramException;
+import com.ongres.scram.common.message.ClientFirstMessage;
+import com.ongres.scram.common.message.ServerFirstMessage;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Time to run a batch of concurrent client handshakes, each on its own virtual thread, against an in-memory
+ * server stand-in that simulates a network round trip by parking the virtual thread.
+ * The client derives the salted password ({@code Hi}) on every handshake, as a driver does on a new connection.
+ *
+ * Virtual threads require Java 21 or later; the executor is looked up reflectively, as this project targets Java 8.
+ * To report the carrier threads pinned by virtual threads, record the {@code jdk.VirtualThreadPinned} JFR events
+ * with no threshold, and print them once the benchmark ends:
+ *
+ *      java -jar benchmark/target/benchmarks.jar VirtualThreadHandshakeBenchmark -jvmArgsAppend
+ *          "-XX:StartFlightRecording=filename=pinning.jfr,jdk.VirtualThreadPinned#threshold=0ms"
+ *      jfr summary pinning.jfr
+ *      jfr print --events jdk.VirtualThreadPinned pinning.jfr
+ *
+ * No {@code jdk.VirtualThreadPinned} events should be attributed to the SCRAM client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadHandshakeBenchmark {
+    private static final String USER = "user";
+    private static final String PASSWORD = "pencil";
+    private static final String SALT = "QSXCR+Q6sek8bf92";
+    private static final int ITERATION = 4096;
+    private static final String SERVER_NONCE = "3rfcNHYJY1ZVvWVs7j";
+
+    /**
+     * A minimal SCRAM server, that keeps the stored and server keys of a single user.
+     */
+    private static class InMemoryServer {
+        private final byte[] storedKey;
+        private final byte[] serverKey;
+        private final long roundTripNanos;
+
+        private InMemoryServer(ScramCredentials credentials, long roundTripNanos) {
+            this.storedKey = credentials.getStoredKey();
+            this.serverKey = credentials.getServerKey();
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        private void roundTrip() {
+            if(roundTripNanos > 0) {
+                LockSupport.parkNanos(roundTripNanos);
+            }
+        }
+
+        private String serverFirstMessage(String clientFirstMessage) throws ScramException {
+            roundTrip();
+            ClientFirstMessage message = ClientFirstMessage.parseFrom(clientFirstMessage);
+
+            return new ServerFirstMessage(message.getNonce(), SERVER_NONCE, SALT, ITERATION).toString();
+        }
+
+        private String serverFinalMessage(String clientFirstMessage, String serverFirstMessage,
+                String clientFinalMessage) {
+            roundTrip();
+            int proofStart = clientFinalMessage.lastIndexOf(",p=");
+            String authMessage = clientFirstMessage.substring(clientFirstMessage.indexOf(",,") + 2)
+                    + "," + serverFirstMessage + "," + clientFinalMessage.substring(0, proofStart);
+            byte[] proof = Base64.getDecoder().decode(clientFinalMessage.substring(proofStart + 3));
+            if(! ScramFunctions.verifyClientProof(ScramMechanisms.SCRAM_SHA_256, proof, storedKey, authMessage)) {
+                return "e=invalid-proof";
+            }
+
+            return "v=" + Base64.getEncoder().encodeToString(
+                    ScramFunctions.serverSignature(ScramMechanisms.SCRAM_SHA_256, serverKey, authMessage)
+            );
+        }
+    }
+
+    @Param({ "1000", "10000" })
+    public int handshakes;
+
+    @Param({ "0", "1000" })
+    public long roundTripMicros;
+
+    private ScramClient scramClient;
+    private InMemoryServer server;
+    private ExecutorService executor;
+    private Future<?>[] futures;
+
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available: Java 21 or later is required", e);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        scramClient = ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectClientMechanism(ScramMechanisms.SCRAM_SHA_256)
+                .setup();
+        server = new InMemoryServer(
+                ScramCredentials.fromPassword(
+                        ScramMechanisms.SCRAM_SHA_256, StringPreparations.NO_PREPARATION, PASSWORD,
+                        Base64.getDecoder().decode(SALT), ITERATION
+                ),
+                TimeUnit.MICROSECONDS.toNanos(roundTripMicros)
+        );
+        executor = virtualThreadPerTaskExecutor();
+        futures = new Future<?>[handshakes];
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private Void handshake() throws ScramException {
+        ScramSession session = scramClient.scramSession(USER);
+        String clientFirstMessage = session.clientFirstMessage();
+        String serverFirstMessage = server.serverFirstMessage(clientFirstMessage);
+        ScramSession.ClientFinalProcessor clientFinalProcessor = session
+                .receiveServerFirstMessage(serverFirstMessage)
+                .clientFinalProcessor(PASSWORD);
+        String clientFinalMessage = clientFinalProcessor.clientFinalMessage();
+        clientFinalProcessor.receiveServerFinalMessage(
+                server.serverFinalMessage(clientFirstMessage, serverFirstMessage, clientFinalMessage)
+        );
+
+        return null;
+    }
+
+    @Benchmark
+    public int concurrentHandshakes() throws InterruptedException, ExecutionException {
+        for(int i = 0; i < handshakes; i++) {
+            futures[i] = executor.submit(this::handshake);
+        }
+        for(Future<?> future : futures) {
+            future.get();
+        }
+
+        return handshakes;
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.client;
+
+
+import com.ongres.scram.common.ScramCredentials;
+import com.ongres.scram.common.ScramFunctions;
+import com.ongres.scram.common.ScramMechanism;
+import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.exception.ScramInvalidServerSignatureException;
+import com.ongres.scram.common.exception.ScramParseError;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.ScramServerErrorException;
+import com.ongres.scram.common.exception.StacklessScramParseException;
+import com.ongres.scram.common.message.ServerFinalMessageView;
+import com.ongres.scram.common.message.ServerFirstMessageView;
+import com.ongres.scram.common.stringprep.StringPreparation;
+import com.ongres.scram.common.util.ByteCharSequence;
+import com.ongres.scram.common.util.CryptoUtil;
+import com.ongres.scram.common.util.NonceGenerator;
+import com.ongres.scram.common.util.Utf8Utils;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A SCRAM client session that, unlike {@link ScramSession}, can be reset and reused for successive authentications,
+ * and works on bytes: messages are written to and read from {@link ByteBuffer}s (heap or direct).
+ *
+ * The state of the exchange (the auth message, the salt, the keys, the proof and the signatures) is kept in buffers
+ * that are allocated once, and only grown if a longer message requires it. JCA instances and message parsers are
+ * reused too, and the HMACs are not re-keyed while the same {@link ScramCredentials} are used.
+ * So, once warmed up, an authentication with credentials creates (almost) no garbage.
+ *
+ * Obtain instances from the pool of a {@link ScramClient} with {@link ScramClient#reusableScramSession(String)},
+ * and {@link #close()} them when done, which returns them to the pool.
+ * As {@link ScramSession#clientFirstMessage()} does, the GS2 header is "n,,": no channel binding nor authzid.
+ *
+ * This class is not thread-safe: an instance performs a single authentication at a time.
+ */
+public class ReusableScramSession implements AutoCloseable {
+    private static final int INITIAL_AUTH_MESSAGE_CAPACITY = 256;
+    private static final byte[] GS2_HEADER = { 'n', ',', ',' };
+    private static final byte[] CLIENT_FINAL_PREFIX = { ',', 'c', '=', 'b', 'i', 'w', 's', ',', 'r', '=' };
+    private static final byte[] PROOF_PREFIX = { ',', 'p', '=' };
+
+    private enum State { IDLE, INITIALIZED, CLIENT_FIRST, SERVER_FIRST, CLIENT_FINAL, COMPLETED }
+
+    private final ScramMechanism scramMechanism;
+    private final StringPreparation stringPreparation;
+    private final Optional<SaltedPasswordCache> saltedPasswordCache;
+    private final Optional<BlockingQueue<ReusableScramSession>> pool;
+    private final Mac clientMac;
+    private final Mac serverMac;
+    private final byte[] clientKey;
+    private final byte[] storedKey;
+    private final byte[] serverKey;
+    private final byte[] proof;
+    private final byte[] verifier;
+    private final byte[] serverSignature;
+    private final ServerFirstMessageView serverFirstMessageView = new ServerFirstMessageView();
+    private final ServerFinalMessageView serverFinalMessageView = new ServerFinalMessageView();
+    private final ByteCharSequence clientNonce = new ByteCharSequence();
+    private MessageDigest messageDigest;
+    private ByteBuffer authMessage = ByteBuffer.allocate(INITIAL_AUTH_MESSAGE_CAPACITY);
+    private byte[] salt = new byte[0];
+    private ScramCredentials keyedCredentials;
+    private State state = State.IDLE;
+    private int nonceStart;
+    private int clientFirstBareLength;
+    private int clientFinalStart;
+    private int saltLength;
+    private int iteration;
+
+    /**
+     * Constructs a reusable session that does not belong to any pool. Call {@link #reset(String, String)} to start
+     * each authentication.
+     * It is recommended that sessions are obtained from a {@link ScramClient} instead.
+     * @param scramMechanism The SCRAM mechanism
+     * @param stringPreparation The string preparation
+     * @throws IllegalArgumentException If any argument is null
+     */
+    public ReusableScramSession(ScramMechanism scramMechanism, StringPreparation stringPreparation)
+    throws IllegalArgumentException {
+        this(scramMechanism, stringPreparation, Optional.empty(), Optional.empty());
+    }
+
+    ReusableScramSession(
+            ScramMechanism scramMechanism, StringPreparation stringPreparation,
+            Optional<SaltedPasswordCache> saltedPasswordCache, Optional<BlockingQueue<ReusableScramSession>> pool
+    ) {
+        this.scramMechanism = checkNotNull(scramMechanism, "scramMechanism");
+        this.stringPreparation = checkNotNull(stringPreparation, "stringPreparation");
+        this.saltedPasswordCache = checkNotNull(saltedPasswordCache, "saltedPasswordCache");
+        this.pool = checkNotNull(pool, "pool");
+        this.clientMac = scramMechanism.getMacInstance();
+        this.serverMac = scramMechanism.getMacInstance();
+
+        int keyLength = clientMac.getMacLength();
+        this.clientKey = new byte[keyLength];
+        this.storedKey = new byte[keyLength];
+        this.serverKey = new byte[keyLength];
+        this.proof = new byte[keyLength];
+        this.verifier = new byte[keyLength];
+        this.serverSignature = new byte[keyLength];
+    }
+
+    private void checkState(State expected) throws IllegalStateException {
+        if(state != expected) {
+            throw new IllegalStateException("Invalid session state: expected " + expected + ", but is " + state);
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if(authMessage.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(
+                    Math.max(authMessage.capacity() * 2, authMessage.position() + length)
+            );
+            authMessage.flip();
+            authMessage = grown.put(authMessage);
+        }
+    }
+
+    private void writeUser(String user, int nonceLength) {
+        String saslName = user.indexOf(',') < 0 && user.indexOf('=') < 0 ?
+                user : ScramStringFormatting.toSaslName(user);
+
+        authMessage.clear();
+        ensureCapacity(2 + Utf8Utils.encodedLength(saslName) + 3 + nonceLength);
+        authMessage.put((byte) 'n').put((byte) '=');
+        Utf8Utils.encode(saslName, authMessage);
+        authMessage.put((byte) ',').put((byte) 'r').put((byte) '=');
+        nonceStart = authMessage.position();
+        clientFirstBareLength = nonceStart + nonceLength;
+    }
+
+    private ReusableScramSession initialized() {
+        authMessage.position(clientFirstBareLength);
+        state = State.INITIALIZED;
+
+        return this;
+    }
+
+    /**
+     * Starts a new authentication with this session, for the given user and nonce,
+     * discarding the state of any previous one.
+     * @param user The username
+     * @param nonce The client nonce, of ASCII printable characters except ','
+     * @return This same instance
+     * @throws IllegalArgumentException If the user or nonce are null or empty
+     */
+    public ReusableScramSession reset(String user, String nonce) throws IllegalArgumentException {
+        checkNotEmpty(user, "user");
+        checkNotEmpty(nonce, "nonce");
+
+        writeUser(user, Utf8Utils.encodedLength(nonce));
+        Utf8Utils.encode(nonce, authMessage);
+
+        return initialized();
+    }
+
+    /**
+     * Starts a new authentication with this session, for the given user and a nonce generated in place.
+     */
+    ReusableScramSession reset(String user, NonceGenerator nonceGenerator, int nonceLength) {
+        checkNotEmpty(user, "user");
+
+        writeUser(user, nonceLength);
+        nonceGenerator.nonce(authMessage.array(), nonceStart, nonceLength);
+
+        return initialized();
+    }
+
+    /**
+     * Writes the UTF-8 encoded client-first-message at the current position of the given buffer, advancing it.
+     * @param buffer Where to write the message
+     * @return The same buffer
+     * @throws IllegalArgumentException If the buffer is null or has not enough remaining space
+     * @throws IllegalStateException If the session was not reset, or the message was already written
+     */
+    public ByteBuffer clientFirstMessage(ByteBuffer buffer) throws IllegalArgumentException, IllegalStateException {
+        checkState(State.INITIALIZED);
+        checkNotNull(buffer, "buffer");
+        checkArgument(GS2_HEADER.length + clientFirstBareLength <= buffer.remaining(), "buffer remaining");
+
+        buffer.put(GS2_HEADER).put(authMessage.array(), 0, clientFirstBareLength);
+        state = State.CLIENT_FIRST;
+
+        return buffer;
+    }
+
+    /**
+     * Receives the server-first-message, contained in the remaining bytes of the buffer,
+     * whose position is advanced to its limit.
+     * @param buffer The buffer containing the message
+     * @throws ScramParseException If the message is not a valid server-first-message,
+     *                             or its nonce does not start with the client nonce
+     * @throws IllegalArgumentException If the buffer is null
+     * @throws IllegalStateException If the client-first-message was not written
+     */
+    public void receiveServerFirstMessage(ByteBuffer buffer)
+    throws ScramParseException, IllegalArgumentException, IllegalStateException {
+        checkState(State.CLIENT_FIRST);
+        ServerFirstMessageView view = serverFirstMessageView.parse(checkNotNull(buffer, "buffer"));
+
+        clientNonce.set(authMessage.array(), nonceStart, clientFirstBareLength - nonceStart);
+        if(view.getNonceLength() <= clientNonce.length() || ! view.nonceStartsWith(clientNonce)) {
+            throw new StacklessScramParseException(
+                    ScramParseError.INVALID_NONCE, "parsed serverNonce does not start with client serverNonce"
+            );
+        }
+        int saltDecodedLength = view.getSaltDecodedLength();
+        if(salt.length < saltDecodedLength) {
+            salt = new byte[saltDecodedLength];
+        }
+        saltLength = view.decodeSalt(salt, 0);
+        iteration = view.getIteration();
+
+        // auth-message = client-first-message-bare "," server-first-message "," client-final-message-without-proof
+        int nonceLength = view.getNonceLength();
+        int nonceOffset = view.getNonceOffset() - buffer.position();
+        ensureCapacity(1 + buffer.remaining() + CLIENT_FINAL_PREFIX.length + nonceLength);
+        authMessage.put((byte) ',');
+        nonceOffset += authMessage.position();
+        authMessage.put(buffer);
+        clientFinalStart = authMessage.position() + 1;
+        authMessage.put(CLIENT_FINAL_PREFIX).put(authMessage.array(), nonceOffset, nonceLength);
+        state = State.SERVER_FIRST;
+    }
+
+    public int getSaltLength() {
+        checkState(State.SERVER_FIRST);
+        return saltLength;
+    }
+
+    public int getIteration() {
+        checkState(State.SERVER_FIRST);
+        return iteration;
+    }
+
+    /**
+     * Checks whether the given credentials were derived with this session's mechanism and the salt and
+     * iteration count sent by the server, and thus can be used with
+     * {@link #clientFinalMessage(ScramCredentials, ByteBuffer)}.
+     * @param credentials The credentials
+     * @return True if the credentials can be used
+     * @throws IllegalArgumentException If the credentials are null
+     * @throws IllegalStateException If the server-first-message was not received
+     */
+    public boolean matches(ScramCredentials credentials) throws IllegalArgumentException, IllegalStateException {
+        checkState(State.SERVER_FIRST);
+
+        return checkNotNull(credentials, "credentials").matches(scramMechanism, salt, 0, saltLength, iteration);
+    }
+
+    /**
+     * Derives the user's credentials for the salt and iteration count sent by the server,
+     * to be used on later authentications with {@link #clientFinalMessage(ScramCredentials, ByteBuffer)}.
+     * @param password The user's password
+     * @return The credentials
+     * @throws IllegalArgumentException If the password is null or empty
+     * @throws IllegalStateException If the server-first-message was not received
+     */
+    public ScramCredentials credentials(String password) throws IllegalArgumentException, IllegalStateException {
+        checkState(State.SERVER_FIRST);
+
+        return ScramCredentials.fromPassword(
+                scramMechanism, stringPreparation, checkNotEmpty(password, "password"),
+                Arrays.copyOf(salt, saltLength), iteration
+        );
+    }
+
+    private void checkClientFinalMessageBuffer(ByteBuffer buffer) throws IllegalArgumentException {
+        checkNotNull(buffer, "buffer");
+        int length = authMessage.position() - clientFinalStart + PROOF_PREFIX.length
+                + ScramStringFormatting.base64EncodedLength(proof.length);
+        checkArgument(length <= buffer.remaining(), "buffer remaining");
+    }
+
+    private void keyMacs() {
+        try {
+            clientMac.init(scramMechanism.secretKeySpec(storedKey));
+            serverMac.init(scramMechanism.secretKeySpec(serverKey));
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException("Platform error: unsupported key for HMAC algorithm");
+        }
+    }
+
+    private ByteBuffer writeClientFinalMessage(ByteBuffer buffer) {
+        byte[] auth = authMessage.array();
+        int authLength = authMessage.position();
+
+        clientMac.update(auth, 0, authLength);
+        CryptoUtil.doFinal(clientMac, proof, 0);
+        ScramFunctions.clientProof(clientKey, 0, proof, 0, proof.length, proof, 0);
+
+        buffer.put(auth, clientFinalStart, authLength - clientFinalStart).put(PROOF_PREFIX);
+        ScramStringFormatting.base64Encode(proof, buffer);
+        state = State.CLIENT_FINAL;
+
+        return buffer;
+    }
+
+    /**
+     * Writes the UTF-8 encoded client-final-message at the current position of the given buffer, advancing it.
+     * The proof is computed from previously derived credentials, so the salted password is not computed.
+     * If the same credentials were used on the previous authentication of this session, no object is created.
+     * @param credentials The credentials
+     * @param buffer Where to write the message
+     * @return The same buffer
+     * @throws IllegalArgumentException If the credentials or buffer are null, the credentials do not match the salt
+     *                                  and iteration count sent by the server, or the buffer has not enough
+     *                                  remaining space (then nothing is written)
+     * @throws IllegalStateException If the server-first-message was not received
+     */
+    public ByteBuffer clientFinalMessage(ScramCredentials credentials, ByteBuffer buffer)
+    throws IllegalArgumentException, IllegalStateException {
+        checkArgument(matches(credentials), "credentials (salt, iteration or mechanism do not match)");
+        checkClientFinalMessageBuffer(buffer);
+
+        if(credentials != keyedCredentials) {
+            credentials.getClientKey(clientKey, 0);
+            credentials.getStoredKey(storedKey, 0);
+            credentials.getServerKey(serverKey, 0);
+            keyMacs();
+            keyedCredentials = credentials;
+        }
+
+        return writeClientFinalMessage(buffer);
+    }
+
+    /**
+     * Writes the UTF-8 encoded client-final-message at the current position of the given buffer, advancing it.
+     * The keys are derived from the password, or taken from the {@link SaltedPasswordCache} of the client.
+     * @param password The user's password
+     * @param buffer Where to write the message
+     * @return The same buffer
+     * @throws IllegalArgumentException If the password is null or empty, the buffer is null,
+     *                                  or the buffer has not enough remaining space (then nothing is written)
+     * @throws IllegalStateException If the server-first-message was not received
+     */
+    public ByteBuffer clientFinalMessage(String password, ByteBuffer buffer)
+    throws IllegalArgumentException, IllegalStateException {
+        checkState(State.SERVER_FIRST);
+        checkNotEmpty(password, "password");
+        checkClientFinalMessageBuffer(buffer);
+
+        byte[] salt = Arrays.copyOf(this.salt, saltLength);
+        if(saltedPasswordCache.isPresent()) {
+            SaltedPasswordCache.Keys keys = saltedPasswordCache.get().keys(
+                    scramMechanism, stringPreparation, password, salt, iteration
+            );
+            System.arraycopy(keys.clientKey(), 0, clientKey, 0, clientKey.length);
+            System.arraycopy(keys.serverKey(), 0, serverKey, 0, serverKey.length);
+        } else {
+            byte[] saltedPassword = ScramFunctions.saltedPassword(
+                    scramMechanism, stringPreparation, password, salt, iteration
+            );
+            ScramFunctions.clientKey(scramMechanism, clientMac, saltedPassword, clientKey, 0);
+            ScramFunctions.serverKey(scramMechanism, serverMac, saltedPassword, serverKey, 0);
+            Arrays.fill(saltedPassword, (byte) 0);
+        }
+        if(null == messageDigest) {
+            messageDigest = scramMechanism.getMessageDigestInstance();
+        }
+        ScramFunctions.storedKey(messageDigest, clientKey, 0, storedKey, 0);
+        keyMacs();
+        keyedCredentials = null;
+
+        return writeClientFinalMessage(buffer);
+    }
+
+    /**
+     * Receives the server-final-message, contained in the remaining bytes of the buffer,
+     * whose position is advanced to its limit, and verifies the server signature.
+     * @param buffer The buffer containing the message
+     * @throws ScramParseException If the message is not a valid server-final-message
+     * @throws ScramServerErrorException If the server-final-message contained an error
+     * @throws ScramInvalidServerSignatureException If the server signature is not valid
+     * @throws IllegalArgumentException If the buffer is null
+     * @throws IllegalStateException If the client-final-message was not written
+     */
+    public void receiveServerFinalMessage(ByteBuffer buffer)
+    throws ScramParseException, ScramServerErrorException, ScramInvalidServerSignatureException,
+    IllegalArgumentException, IllegalStateException {
+        checkState(State.CLIENT_FINAL);
+        ServerFinalMessageView view = serverFinalMessageView.parse(checkNotNull(buffer, "buffer"));
+        buffer.position(buffer.limit());
+
+        if(view.isError()) {
+            throw new ScramServerErrorException(view.getError());
+        }
+        if(view.getVerifierDecodedLength() != verifier.length) {
+            throw new ScramInvalidServerSignatureException("Invalid server SCRAM signature");
+        }
+        view.decodeVerifier(verifier, 0);
+        serverMac.update(authMessage.array(), 0, authMessage.position());
+        CryptoUtil.doFinal(serverMac, serverSignature, 0);
+        if(! CryptoUtil.constantTimeEquals(serverSignature, 0, verifier, 0, verifier.length)) {
+            throw new ScramInvalidServerSignatureException("Invalid server SCRAM signature");
+        }
+        state = State.COMPLETED;
+    }
+
+    /**
+     * Whether the authentication completed, with a valid server signature.
+     * @return True if the server-final-message was received and verified
+     */
+    public boolean isCompleted() {
+        return state == State.COMPLETED;
+    }
+
+    /**
+     * Ends the current authentication, and returns this session to the pool of the client it was obtained from,
+     * if any. The session must not be used after being closed, unless it does not belong to a pool,
+     * in which case it may be {@link #reset(String, String)}.
+     * Keys derived from a password are cleared. Closing an already closed session has no effect.
+     */
+    @Override
+    public void close() {
+        if(state == State.IDLE) {
+            return;
+        }
+
+        if(null == keyedCredentials) {
+            Arrays.fill(clientKey, (byte) 0);
+            Arrays.fill(storedKey, (byte) 0);
+            Arrays.fill(serverKey, (byte) 0);
+        }
+        authMessage.clear();
+        state = State.IDLE;
+        if(pool.isPresent()) {
+            pool.get().offer(this);
+        }
+    }
+}
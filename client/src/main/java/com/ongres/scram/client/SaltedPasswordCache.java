@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.client;
+
+
+import com.ongres.scram.common.ScramFunctions;
+import com.ongres.scram.common.ScramMechanism;
+import com.ongres.scram.common.stringprep.StringPreparation;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * A bounded, LRU cache of the client and server keys derived from a salted password.
+ *
+ * Computing the salted password is, by design, the most expensive part of a SCRAM authentication.
+ * But servers usually send the same salt and iteration count for a given user on every authentication,
+ * so the derived keys may be reused for all the connections of the same user.
+ *
+ * Entries are keyed by an HMAC, with a random per-cache key, of the SCRAM mechanism, the salt, the iteration count
+ * and the normalized password. The plaintext password is not retained by the cache.
+ *
+ * This class is thread-safe, and may be shared by several {@link ScramClient}s.
+ */
+public class SaltedPasswordCache {
+    private static final String ENTRY_KEY_HMAC_ALGORITHM = "HmacSHA256";
+    private static final int ENTRY_KEY_HMAC_KEY_LENGTH = 32;
+
+    /**
+     * The keys derived from a salted password.
+     */
+    public static class Keys {
+        private final byte[] clientKey;
+        private final byte[] serverKey;
+
+        private Keys(byte[] clientKey, byte[] serverKey) {
+            this.clientKey = clientKey;
+            this.serverKey = serverKey;
+        }
+
+        /**
+         * Returns the client key.
+         * @return A copy of the client key
+         */
+        public byte[] getClientKey() {
+            return clientKey.clone();
+        }
+
+        /**
+         * Returns the server key.
+         * @return A copy of the server key
+         */
+        public byte[] getServerKey() {
+            return serverKey.clone();
+        }
+
+        byte[] clientKey() {
+            return clientKey;
+        }
+
+        byte[] serverKey() {
+            return serverKey;
+        }
+    }
+
+    private final int maxEntries;
+    private final SecretKeySpec entryKeyHmacKey;
+    private final Map<ByteBuffer, Keys> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a cache that will hold, at most, the given number of entries.
+     * When full, the least recently used entry is evicted.
+     * @param maxEntries The maximum number of entries. Must be positive
+     * @throws IllegalArgumentException If maxEntries is not positive
+     */
+    public SaltedPasswordCache(int maxEntries) throws IllegalArgumentException {
+        this.maxEntries = gt0(maxEntries, "maxEntries");
+
+        byte[] hmacKey = new byte[ENTRY_KEY_HMAC_KEY_LENGTH];
+        new SecureRandom().nextBytes(hmacKey);
+        this.entryKeyHmacKey = new SecretKeySpec(hmacKey, ENTRY_KEY_HMAC_ALGORITHM);
+
+        this.entries = new LinkedHashMap<ByteBuffer, Keys>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Keys> eldest) {
+                return size() > SaltedPasswordCache.this.maxEntries;
+            }
+        };
+    }
+
+    private ByteBuffer entryKey(ScramMechanism scramMechanism, byte[] password, byte[] salt, int iteration) {
+        Mac mac;
+        try {
+            mac = Mac.getInstance(ENTRY_KEY_HMAC_ALGORITHM);
+            mac.init(entryKeyHmacKey);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new RuntimeException("Platform error: unsupported " + ENTRY_KEY_HMAC_ALGORITHM);
+        }
+
+        mac.update(scramMechanism.getName().getBytes(StandardCharsets.UTF_8));
+        mac.update(ByteBuffer.allocate(9).put((byte) 0).putInt(iteration).putInt(salt.length).array());
+        mac.update(salt);
+        mac.update(password);
+
+        return ByteBuffer.wrap(mac.doFinal());
+    }
+
+    /**
+     * Returns the keys derived from the salted password of the given parameters.
+     * They are taken from the cache if present, or computed and then cached otherwise.
+     * @param scramMechanism The SCRAM mechanism
+     * @param stringPreparation The String preparation
+     * @param password The non-salted password
+     * @param salt The bytes representing the salt
+     * @param iteration The number of iterations
+     * @return The client and server keys
+     * @throws IllegalArgumentException If any argument is null
+     */
+    public Keys keys(
+            ScramMechanism scramMechanism, StringPreparation stringPreparation, String password, byte[] salt,
+            int iteration
+    ) throws IllegalArgumentException {
+        checkNotNull(scramMechanism, "scramMechanism");
+        checkNotNull(stringPreparation, "stringPreparation");
+        checkNotNull(password, "password");
+        checkNotNull(salt, "salt");
+
+        String normalizedPassword = stringPreparation.normalize(password);
+        byte[] passwordBytes = normalizedPassword.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entryKey = entryKey(scramMechanism, passwordBytes, salt, iteration);
+        Arrays.fill(passwordBytes, (byte) 0);
+
+        Keys keys;
+        synchronized (entries) {
+            keys = entries.get(entryKey);
+        }
+        if(null != keys) {
+            hits.incrementAndGet();
+            return keys;
+        }
+
+        // Computed out of the lock: it is expensive, and concurrent misses for different entries should not wait
+        misses.incrementAndGet();
+        byte[] saltedPassword = scramMechanism.hi(normalizedPassword, salt, iteration);
+        keys = new Keys(
+                ScramFunctions.clientKey(scramMechanism, saltedPassword),
+                ScramFunctions.serverKey(scramMechanism, saltedPassword)
+        );
+        Arrays.fill(saltedPassword, (byte) 0);
+
+        synchronized (entries) {
+            entries.put(entryKey, keys);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Removes all the entries of the cache. Hit and miss counters are not reset.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries currently in the cache.
+     * @return The number of entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the number of lookups that were served from the cache.
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that required computing the salted password.
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -28,7 +28,8 @@ import com.ongres.scram.common.ScramMechanism;
 import com.ongres.scram.common.ScramMechanisms;
 import com.ongres.scram.common.gssapi.Gs2CbindFlag;
 import com.ongres.scram.common.stringprep.StringPreparation;
-import com.ongres.scram.common.util.CryptoUtil;
+import com.ongres.scram.common.util.NonceGenerator;
+import com.ongres.scram.common.util.NoncePool;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -36,6 +37,10 @@ import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -54,19 +59,28 @@ import static com.ongres.scram.common.util.Preconditions.*;
  * <ul>
  *     <li>The SecureRandom used ({@link SecureRandom} by default) are thread-safe too.
  *         The contract of {@link java.util.Random} marks it as thread-safe, so inherited classes are also expected
- *         to maintain it.
+ *         to maintain it. Nonces are generated by a striped {@link NonceGenerator}, with several SecureRandom
+ *         instances, so that concurrent authentications do not contend on a single one.
  *     </li>
  *     <li>No external nonceSupplier is provided; or if provided, it is thread-safe.</li>
  * </ul>
  * So this class, once instantiated via the {@link Builder#setup()}} method, can serve for multiple users and
  * authentications.
+ *
+ * If the client was configured with a {@link Builder#noncePool(int, int) nonce pool}, {@link #close() close} it
+ * when it is no longer needed, to stop the thread that refills the pool.
  */
-public class ScramClient {
+public class ScramClient implements AutoCloseable {
     /**
      * Length (in characters, bytes) of the nonce generated by default (if no nonce supplier is provided)
      */
     public static final int DEFAULT_NONCE_LENGTH = 24;
 
+    /**
+     * Maximum number of idle {@link ReusableScramSession}s kept by default for reuse
+     */
+    public static final int DEFAULT_SESSION_POOL_SIZE = 16;
+
     /**
      * Select whether this client will support channel binding or not
      */
@@ -103,27 +117,48 @@ public class ScramClient {
     private final ChannelBinding channelBinding;
     private final StringPreparation stringPreparation;
     private final ScramMechanism scramMechanism;
-    private final SecureRandom secureRandom;
+    private final Optional<NonceGenerator> nonceGenerator;
+    private final Optional<Supplier<String>> externalNonceSupplier;
+    private final int nonceLength;
     private final Supplier<String> nonceSupplier;
+    private final Optional<NoncePool> noncePool;
+    private final Optional<SaltedPasswordCache> saltedPasswordCache;
+    private final Executor executor;
+    private final BlockingQueue<ReusableScramSession> sessionPool;
 
     private ScramClient(
             ChannelBinding channelBinding, StringPreparation stringPreparation,
             Optional<ScramMechanism> nonChannelBindingMechanism, Optional<ScramMechanism> channelBindingMechanism,
-            SecureRandom secureRandom, Supplier<String> nonceSupplier
+            Optional<NonceGenerator> nonceGenerator, Optional<Supplier<String>> externalNonceSupplier, int nonceLength,
+            Optional<NoncePool> noncePool,
+            Optional<SaltedPasswordCache> saltedPasswordCache, Executor executor, int sessionPoolSize
     ) {
         assert null != channelBinding : "channelBinding";
         assert null != stringPreparation : "stringPreparation";
         assert nonChannelBindingMechanism.isPresent() || channelBindingMechanism.isPresent()
                 : "Either a channel-binding or a non-binding mechanism must be present";
-        assert null != secureRandom : "secureRandom";
-        assert null != nonceSupplier : "nonceSupplier";
+        assert nonceGenerator.isPresent() ^ externalNonceSupplier.isPresent()
+                : "Either a nonce generator or an external nonce supplier must be present";
+        assert nonceLength > 0 : "nonceLength";
+        assert null != noncePool : "noncePool";
+        assert null != saltedPasswordCache : "saltedPasswordCache";
+        assert null != executor : "executor";
+        assert sessionPoolSize > 0 : "sessionPoolSize";
 
 
         this.channelBinding = channelBinding;
         this.stringPreparation = stringPreparation;
         this.scramMechanism = nonChannelBindingMechanism.orElseGet(() -> channelBindingMechanism.get());
-        this.secureRandom = secureRandom;
-        this.nonceSupplier = nonceSupplier;
+        this.nonceGenerator = nonceGenerator;
+        this.externalNonceSupplier = externalNonceSupplier;
+        this.nonceLength = nonceLength;
+        this.nonceSupplier = externalNonceSupplier.orElseGet(() -> noncePool.isPresent() ?
+                noncePool.get() : () -> nonceGenerator.get().nonce(nonceLength)
+        );
+        this.noncePool = noncePool;
+        this.saltedPasswordCache = saltedPasswordCache;
+        this.executor = executor;
+        this.sessionPool = new ArrayBlockingQueue<>(sessionPoolSize);
     }
 
     /**
@@ -261,9 +296,14 @@ public class ScramClient {
         private final Optional<ScramMechanism> nonChannelBindingMechanism;
         private final Optional<ScramMechanism> channelBindingMechanism;
 
-        private SecureRandom secureRandom = new SecureRandom();
+        private Supplier<SecureRandom> secureRandomSupplier = SecureRandom::new;
         private Supplier<String> nonceSupplier;
         private int nonceLength = DEFAULT_NONCE_LENGTH;
+        private Optional<SaltedPasswordCache> saltedPasswordCache = Optional.empty();
+        private Executor executor = ForkJoinPool.commonPool();
+        private int sessionPoolSize = DEFAULT_SESSION_POOL_SIZE;
+        private int noncePoolCapacity;
+        private int noncePoolLowWaterMark;
 
         private Builder(
                 ChannelBinding channelBinding, StringPreparation stringPreparation,
@@ -277,7 +317,7 @@ public class ScramClient {
         /**
          * Optional call. Selects a non-default SecureRandom instance,
          * based on the given algorithm and optionally provider.
-         * This SecureRandom instance will be used to generate secure random values,
+         * Instances of this SecureRandom will be used to generate secure random values,
          * like the ones required to generate the nonce
          * (unless an external nonce provider is given via {@link Builder#nonceSupplier(Supplier)}).
          * Algorithm and provider names are those supported by the {@link SecureRandom} class.
@@ -289,13 +329,8 @@ public class ScramClient {
         public Builder secureRandomAlgorithmProvider(String algorithm, String provider)
         throws IllegalArgumentException {
             checkNotNull(algorithm, "algorithm");
-            try {
-                secureRandom = null == provider ?
-                        SecureRandom.getInstance(algorithm) :
-                        SecureRandom.getInstance(algorithm, provider);
-            } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-                throw new IllegalArgumentException("Invalid algorithm or provider", e);
-            }
+            secureRandom(algorithm, provider);
+            secureRandomSupplier = () -> secureRandom(algorithm, provider);
 
             return this;
         }
@@ -330,6 +365,95 @@ public class ScramClient {
             return this;
         }
 
+        /**
+         * Optional call. Enables caching of the keys derived from the salted password, so that successive
+         * authentications with the same password, salt and iteration count (which is what servers normally send for
+         * a given user) skip the expensive salted password computation.
+         * The cache may be shared by several clients.
+         * @param saltedPasswordCache The cache to use
+         * @return The same class
+         * @throws IllegalArgumentException If saltedPasswordCache is null
+         */
+        public Builder saltedPasswordCache(SaltedPasswordCache saltedPasswordCache) throws IllegalArgumentException {
+            this.saltedPasswordCache = Optional.of(checkNotNull(saltedPasswordCache, "saltedPasswordCache"));
+
+            return this;
+        }
+
+        /**
+         * Optional call. Enables caching of the keys derived from the salted password, using a new cache
+         * that will hold up to the given number of entries.
+         * See {@link Builder#saltedPasswordCache(SaltedPasswordCache)}.
+         * @param maxEntries The maximum number of entries of the cache
+         * @return The same class
+         * @throws IllegalArgumentException If maxEntries is less than 1
+         */
+        public Builder saltedPasswordCache(int maxEntries) throws IllegalArgumentException {
+            return saltedPasswordCache(new SaltedPasswordCache(maxEntries));
+        }
+
+        /**
+         * Optional call. Selects the Executor where the asynchronous variants of {@link ScramSession} methods,
+         * like {@link ScramSession.ServerFirstProcessor#clientFinalProcessorAsync(String)}, run the expensive
+         * salted password computation. By default, the {@link ForkJoinPool#commonPool()} is used.
+         * Use it to keep that computation out of, for example, event-loop threads.
+         * @param executor The executor
+         * @return The same class
+         * @throws IllegalArgumentException If executor is null
+         */
+        public Builder executor(Executor executor) throws IllegalArgumentException {
+            this.executor = checkNotNull(executor, "executor");
+
+            return this;
+        }
+
+        /**
+         * Sets a non-default ({@link ScramClient#DEFAULT_SESSION_POOL_SIZE}) maximum number of idle
+         * {@link ReusableScramSession}s that the client keeps for reuse.
+         * Sessions are created on demand; those closed while the pool is full are discarded.
+         * @param size The maximum number of pooled sessions
+         * @return The same class
+         * @throws IllegalArgumentException If size is less than 1
+         */
+        public Builder sessionPoolSize(int size) throws IllegalArgumentException {
+            this.sessionPoolSize = gt0(size, "size");
+
+            return this;
+        }
+
+        /**
+         * Optional call. Nonces will be taken from a {@link NoncePool} of the given capacity, that a low-priority
+         * background thread keeps refilled whenever the pooled nonces fall to the low-water mark,
+         * instead of being generated when each session is created. If the pool is empty, they are generated then.
+         * The pool is owned by the client, and its background thread is stopped when the client is
+         * {@link ScramClient#close() closed}. The pool is available, to read its metrics, via
+         * {@link ScramClient#getNoncePool()}.
+         * Ignored if an external nonceSupplier is provided via {@link Builder#nonceSupplier(Supplier)}.
+         * @param capacity The maximum number of pooled nonces
+         * @param lowWaterMark The number of pooled nonces at or below which the pool is refilled
+         * @return The same class
+         * @throws IllegalArgumentException If capacity is less than 1,
+         *                                  or lowWaterMark is negative or not less than capacity
+         */
+        public Builder noncePool(int capacity, int lowWaterMark) throws IllegalArgumentException {
+            gt0(capacity, "capacity");
+            checkArgument(lowWaterMark >= 0 && lowWaterMark < capacity, "lowWaterMark");
+            this.noncePoolCapacity = capacity;
+            this.noncePoolLowWaterMark = lowWaterMark;
+
+            return this;
+        }
+
+        private static SecureRandom secureRandom(String algorithm, String provider) throws IllegalArgumentException {
+            try {
+                return null == provider ?
+                        SecureRandom.getInstance(algorithm) :
+                        SecureRandom.getInstance(algorithm, provider);
+            } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+                throw new IllegalArgumentException("Invalid algorithm or provider", e);
+            }
+        }
+
         /**
          * Gets the client, fully constructed and configured, with the provided channel binding, string preparation
          * properties, and the selected SCRAM mechanism based on server supported mechanisms.
@@ -339,10 +463,19 @@ public class ScramClient {
          * @return The fully built instance.
          */
         public ScramClient setup() {
+            Optional<NonceGenerator> nonceGenerator = null == nonceSupplier ?
+                    Optional.of(new NonceGenerator(Runtime.getRuntime().availableProcessors(), secureRandomSupplier)) :
+                    Optional.empty();
+            Optional<NoncePool> noncePool = nonceGenerator.isPresent() && noncePoolCapacity > 0 ?
+                    Optional.of(
+                            new NoncePool(nonceGenerator.get(), nonceLength, noncePoolCapacity, noncePoolLowWaterMark)
+                    ) :
+                    Optional.empty();
+
             return new ScramClient(
                     channelBinding, stringPreparation, nonChannelBindingMechanism, channelBindingMechanism,
-                    secureRandom,
-                    nonceSupplier != null ? nonceSupplier : () -> CryptoUtil.nonce(nonceLength, secureRandom)
+                    nonceGenerator, Optional.ofNullable(nonceSupplier), nonceLength, noncePool, saltedPasswordCache,
+                    executor, sessionPoolSize
             );
         }
     }
@@ -355,6 +488,27 @@ public class ScramClient {
         return scramMechanism;
     }
 
+    public Optional<SaltedPasswordCache> getSaltedPasswordCache() {
+        return saltedPasswordCache;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public Optional<NoncePool> getNoncePool() {
+        return noncePool;
+    }
+
+    /**
+     * Closes the {@link NoncePool} of this client, if any, stopping its background thread.
+     * The client can still be used afterwards: nonces are then generated when each session is created.
+     */
+    @Override
+    public void close() {
+        noncePool.ifPresent(NoncePool::close);
+    }
+
     /**
      * List all the supported SCRAM mechanisms by this client implementation
      * @return A list of the IANA-registered, SCRAM supported mechanisms
@@ -369,6 +523,38 @@ public class ScramClient {
      * @return The ScramSession instance
      */
     public ScramSession scramSession(String user) {
-        return new ScramSession(scramMechanism, stringPreparation, checkNotEmpty(user, "user"), nonceSupplier.get());
+        return new ScramSession(
+                scramMechanism, stringPreparation, checkNotEmpty(user, "user"), nonceSupplier.get(),
+                saltedPasswordCache, executor
+        );
+    }
+
+    /**
+     * Checks out a {@link ReusableScramSession} from the pool of this client (or creates one if the pool is empty),
+     * and resets it for the specified user and a new nonce. {@link ReusableScramSession#close() Close} it when
+     * the authentication is done, to return it to the pool.
+     * @param user The username of the authentication exchange
+     * @return The ReusableScramSession instance
+     * @throws IllegalArgumentException If the user is null or empty
+     * @throws IllegalStateException If the selected mechanism requires channel binding,
+     *                               which reusable sessions do not support
+     */
+    public ReusableScramSession reusableScramSession(String user)
+    throws IllegalArgumentException, IllegalStateException {
+        checkNotEmpty(user, "user");
+        if(scramMechanism.supportsChannelBinding()) {
+            throw new IllegalStateException("Reusable sessions do not support channel binding mechanisms");
+        }
+
+        ReusableScramSession session = sessionPool.poll();
+        if(null == session) {
+            session = new ReusableScramSession(
+                    scramMechanism, stringPreparation, saltedPasswordCache, Optional.of(sessionPool)
+            );
+        }
+
+        return externalNonceSupplier.isPresent() || noncePool.isPresent() ?
+                session.reset(user, nonceSupplier.get()) :
+                session.reset(user, nonceGenerator.get(), nonceLength);
     }
 }
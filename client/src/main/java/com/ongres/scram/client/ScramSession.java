@@ -24,6 +24,8 @@
 package com.ongres.scram.client;
 
 
+import com.ongres.scram.common.AuthMessage;
+import com.ongres.scram.common.ScramCredentials;
 import com.ongres.scram.common.ScramFunctions;
 import com.ongres.scram.common.ScramMechanism;
 import com.ongres.scram.common.exception.ScramInvalidServerSignatureException;
@@ -36,9 +38,15 @@ import com.ongres.scram.common.message.ServerFinalMessage;
 import com.ongres.scram.common.message.ServerFirstMessage;
 import com.ongres.scram.common.stringprep.StringPreparation;
 
+import java.nio.ByteBuffer;
 import java.util.Base64;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
@@ -53,6 +61,8 @@ public class ScramSession {
     private final StringPreparation stringPreparation;
     private final String user;
     private final String nonce;
+    private final Optional<SaltedPasswordCache> saltedPasswordCache;
+    private final Executor executor;
     private ClientFirstMessage clientFirstMessage;
     private String serverFirstMessageString;
 
@@ -60,16 +70,26 @@ public class ScramSession {
      * Constructs a SCRAM client, to perform an authentication for a given user.
      * This class can be instantiated directly,
      * but it is recommended that a {@link ScramClient} is used instead.
+     * Asynchronous methods of this session will run on the {@link ForkJoinPool#commonPool()}.
      * @param scramMechanism The SCRAM mechanism that will be using this client
      * @param stringPreparation
      * @param user
      * @param nonce
      */
     public ScramSession(ScramMechanism scramMechanism, StringPreparation stringPreparation, String user, String nonce) {
+        this(scramMechanism, stringPreparation, user, nonce, Optional.empty(), ForkJoinPool.commonPool());
+    }
+
+    ScramSession(
+            ScramMechanism scramMechanism, StringPreparation stringPreparation, String user, String nonce,
+            Optional<SaltedPasswordCache> saltedPasswordCache, Executor executor
+    ) {
         this.scramMechanism = checkNotNull(scramMechanism, "scramMechanism");
         this.stringPreparation = checkNotNull(stringPreparation, "stringPreparation");
         this.user = checkNotEmpty(user, "user");
         this.nonce = checkNotEmpty(nonce, "nonce");
+        this.saltedPasswordCache = checkNotNull(saltedPasswordCache, "saltedPasswordCache");
+        this.executor = checkNotNull(executor, "executor");
     }
 
     private String setAndReturnClientFirstMessage(ClientFirstMessage clientFirstMessage) {
@@ -97,6 +117,42 @@ public class ScramSession {
         return setAndReturnClientFirstMessage(new ClientFirstMessage(user, nonce));
     }
 
+    private ByteBuffer setAndWriteClientFirstMessage(ClientFirstMessage clientFirstMessage, ByteBuffer buffer) {
+        checkNotNull(buffer, "buffer");
+        checkArgument(clientFirstMessage.encodedLength() <= buffer.remaining(), "buffer remaining");
+        this.clientFirstMessage = clientFirstMessage;
+
+        return clientFirstMessage.writeTo(buffer);
+    }
+
+    /**
+     * Writes the UTF-8 encoded SCRAM client-first-message, with the GSS-API header values indicated,
+     * at the current position of the given buffer (heap or direct), advancing it.
+     * @param gs2CbindFlag The channel binding flag
+     * @param cbindName The channel binding algorithm name, if channel binding is supported, or null
+     * @param authzid The optional
+     * @param buffer Where to write the message
+     * @return The same buffer
+     * @throws IllegalArgumentException If the buffer is null or has not enough remaining space
+     */
+    public ByteBuffer clientFirstMessage(Gs2CbindFlag gs2CbindFlag, String cbindName, String authzid, ByteBuffer buffer)
+    throws IllegalArgumentException {
+        return setAndWriteClientFirstMessage(
+                new ClientFirstMessage(gs2CbindFlag, authzid, cbindName, user, nonce), buffer
+        );
+    }
+
+    /**
+     * Writes the UTF-8 encoded SCRAM client-first-message, with no channel binding nor authzid,
+     * at the current position of the given buffer (heap or direct), advancing it.
+     * @param buffer Where to write the message
+     * @return The same buffer
+     * @throws IllegalArgumentException If the buffer is null or has not enough remaining space
+     */
+    public ByteBuffer clientFirstMessage(ByteBuffer buffer) throws IllegalArgumentException {
+        return setAndWriteClientFirstMessage(new ClientFirstMessage(user, nonce), buffer);
+    }
+
     /**
      * Process a received server-first-message.
      * Generate by calling {@link #receiveServerFirstMessage(String)}.
@@ -120,54 +176,141 @@ public class ScramSession {
         /**
          * Generates a {@link ClientFinalProcessor}, that allows to generate the client-final-message and also
          * receive and parse the server-first-message. It is based on the user's password.
+         * If a {@link SaltedPasswordCache} was configured, keys are taken from it when possible.
          * @param password The user's password
          * @return The handler
          * @throws IllegalArgumentException If the message is null or empty
          */
         public ClientFinalProcessor clientFinalProcessor(String password) throws IllegalArgumentException {
-            return new ClientFinalProcessor(
-                    serverFirstMessage.getNonce(),
-                    checkNotEmpty(password, "password"),
-                    getSalt(),
-                    getIteration()
-            );
+            checkNotEmpty(password, "password");
+
+            if(saltedPasswordCache.isPresent()) {
+                SaltedPasswordCache.Keys keys = saltedPasswordCache.get().keys(
+                        scramMechanism, stringPreparation, password, Base64.getDecoder().decode(getSalt()),
+                        getIteration()
+                );
+                return new ClientFinalProcessor(serverFirstMessage.getNonce(), keys.clientKey(), keys.serverKey());
+            }
+
+            return new ClientFinalProcessor(serverFirstMessage.getNonce(), password, getSalt(), getIteration());
+        }
+
+        /**
+         * Asynchronous version of {@link #clientFinalProcessor(String)}.
+         * The salted password is computed on the executor configured with {@link ScramClient.Builder#executor},
+         * so that the calling thread is not blocked.
+         * @param password The user's password
+         * @return A future that completes with the handler
+         * @throws IllegalArgumentException If the message is null or empty
+         */
+        public CompletableFuture<ClientFinalProcessor> clientFinalProcessorAsync(String password)
+        throws IllegalArgumentException {
+            checkNotEmpty(password, "password");
+
+            return CompletableFuture.supplyAsync(() -> clientFinalProcessor(password), executor);
         }
 
         /**
          * Generates a {@link ClientFinalProcessor}, that allows to generate the client-final-message and also
-         * receive and parse the server-first-message. It is based on the clientKey and storedKey,
+         * receive and parse the server-first-message. It is based on the clientKey and serverKey,
          * which, if available, provide an optimized path versus providing the original user's password.
+         * The keys must have been derived with the salt and iteration count sent by the server.
+         * Prefer {@link #clientFinalProcessor(ScramCredentials)}, which checks it.
          * @param clientKey The client key, as per the SCRAM algorithm.
          *                  It can be generated with:
          *                  {@link ScramFunctions#clientKey(ScramMechanism, StringPreparation, String, byte[], int)}
-         * @param storedKey The stored key, as per the SCRAM algorithm.
-         *                  It can be generated from the client key with:
-         *                  {@link ScramFunctions#storedKey(ScramMechanism, byte[])}
+         * @param serverKey The server key, as per the SCRAM algorithm.
+         *                  It can be generated with:
+         *                  {@link ScramFunctions#serverKey(ScramMechanism, StringPreparation, String, byte[], int)}
          * @return The handler
          * @throws IllegalArgumentException If the message is null or empty
          */
-        public ClientFinalProcessor clientFinalProcessor(byte[] clientKey, byte[] storedKey)
+        public ClientFinalProcessor clientFinalProcessor(byte[] clientKey, byte[] serverKey)
         throws IllegalArgumentException {
             return new ClientFinalProcessor(
                     serverFirstMessage.getNonce(),
                     checkNotNull(clientKey, "clientKey"),
-                    checkNotNull(storedKey, "storedKey")
+                    checkNotNull(serverKey, "serverKey")
+            );
+        }
+
+        /**
+         * Checks whether the given credentials were derived with this session's mechanism and the salt and
+         * iteration count sent by the server,
+         * and thus can be used with {@link #clientFinalProcessor(ScramCredentials)}.
+         * @param credentials The credentials
+         * @return True if the credentials can be used
+         * @throws IllegalArgumentException If the credentials are null
+         */
+        public boolean matches(ScramCredentials credentials) throws IllegalArgumentException {
+            return checkNotNull(credentials, "credentials").matches(
+                    scramMechanism, Base64.getDecoder().decode(getSalt()), getIteration()
+            );
+        }
+
+        /**
+         * Generates a {@link ClientFinalProcessor}, that allows to generate the client-final-message and also
+         * receive and parse the server-first-message. It is based on previously derived credentials,
+         * so the salted password is not computed.
+         * @param credentials The credentials, for example obtained on a previous session via {@link #credentials}
+         * @return The handler
+         * @throws IllegalArgumentException If the credentials are null, or were not derived with this session's
+         *                                  mechanism and the salt and iteration count sent by the server
+         */
+        public ClientFinalProcessor clientFinalProcessor(ScramCredentials credentials)
+        throws IllegalArgumentException {
+            checkArgument(matches(credentials), "credentials (salt, iteration or mechanism do not match)");
+
+            return new ClientFinalProcessor(
+                    serverFirstMessage.getNonce(),
+                    credentials.getClientKey(),
+                    credentials.getStoredKey(),
+                    credentials.getServerKey()
             );
         }
+
+        /**
+         * Derives the user's credentials for the salt and iteration count sent by the server.
+         * They can be kept and reused on later sessions, with {@link #clientFinalProcessor(ScramCredentials)},
+         * while the server keeps sending the same salt and iteration count.
+         * @param password The user's password
+         * @return The credentials
+         * @throws IllegalArgumentException If the password is null or empty
+         */
+        public ScramCredentials credentials(String password) throws IllegalArgumentException {
+            return ScramCredentials.fromPassword(
+                    scramMechanism, stringPreparation, checkNotEmpty(password, "password"),
+                    Base64.getDecoder().decode(getSalt()), getIteration()
+            );
+        }
+    }
+
+    /**
+     * The client-final-message builder and the auth message, created together and published at once.
+     */
+    private static final class FinalMessageState {
+        private final ClientFinalMessage.Builder clientFinalMessageBuilder;
+        private final AuthMessage authMessage;
+
+        private FinalMessageState(ClientFinalMessage.Builder clientFinalMessageBuilder, AuthMessage authMessage) {
+            this.clientFinalMessageBuilder = clientFinalMessageBuilder;
+            this.authMessage = authMessage;
+        }
     }
 
     /**
      * Processor that allows to generate the client-final-message,
      * as well as process the server-final-message and verify server's signature.
      * Generate the processor by calling either {@link ServerFirstProcessor#clientFinalProcessor(String)}
-     * or {@link ServerFirstProcessor#clientFinalProcessor(byte[], byte[])}.
+     * {@link ServerFirstProcessor#clientFinalProcessor(byte[], byte[])}
+     * or {@link ServerFirstProcessor#clientFinalProcessor(ScramCredentials)}.
      */
     public class ClientFinalProcessor {
         private final String nonce;
         private final byte[] clientKey;
         private final byte[] storedKey;
         private final byte[] serverKey;
-        private String authMessage;
+        private final AtomicReference<FinalMessageState> finalMessageState = new AtomicReference<>();
 
         private ClientFinalProcessor(String nonce, byte[] clientKey, byte[] storedKey, byte[] serverKey) {
             assert null != clientKey : "clientKey";
@@ -201,35 +344,50 @@ public class ScramSession {
             );
         }
 
-        private synchronized void generateAndCacheAuthMessage(Optional<byte[]> cbindData) {
-            if(null != authMessage) {
-                return;
+        /**
+         * Returns the state for the client-final-message, creating and publishing it on the first call.
+         * Concurrent first calls may each create one, but only the first published is ever used.
+         * No lock is taken, so that virtual threads are never pinned to their carrier.
+         */
+        private FinalMessageState finalMessageState(Optional<byte[]> cbindData) {
+            FinalMessageState state = finalMessageState.get();
+            if(null != state) {
+                return state;
             }
 
-            authMessage = clientFirstMessage.writeToWithoutGs2Header(new StringBuffer())
-                    .append(",")
-                    .append(serverFirstMessageString)
-                    .append(",")
-                    .append(ClientFinalMessage.writeToWithoutProof(clientFirstMessage.getGs2Header(), cbindData, nonce))
-                    .toString();
+            ClientFinalMessage.Builder builder = ClientFinalMessage.builder(
+                    clientFirstMessage.getGs2Header(), cbindData, nonce
+            );
+            AuthMessage authMessage = new AuthMessage(
+                    clientFirstMessage.writeToWithoutGs2Header(
+                            new StringBuilder(clientFirstMessage.lengthWithoutGs2Header())
+                    ),
+                    serverFirstMessageString,
+                    builder.withoutProof()
+            );
+            finalMessageState.compareAndSet(null, new FinalMessageState(builder, authMessage));
+
+            return finalMessageState.get();
+        }
+
+        private byte[] clientProof(FinalMessageState state) {
+            return ScramFunctions.clientProof(
+                    clientKey,
+                    ScramFunctions.clientSignature(scramMechanism, storedKey, state.authMessage)
+            );
         }
 
         private String clientFinalMessage(Optional<byte[]> cbindData) {
-            if(null == authMessage) {
-                generateAndCacheAuthMessage(cbindData);
-            }
+            FinalMessageState state = finalMessageState(cbindData);
 
-            ClientFinalMessage clientFinalMessage = new ClientFinalMessage(
-                    clientFirstMessage.getGs2Header(),
-                    cbindData,
-                    nonce,
-                    ScramFunctions.clientProof(
-                            clientKey,
-                            ScramFunctions.clientSignature(scramMechanism, storedKey, authMessage)
-                    )
-            );
+            return state.clientFinalMessageBuilder.write(clientProof(state));
+        }
+
+        private ByteBuffer clientFinalMessage(Optional<byte[]> cbindData, ByteBuffer buffer) {
+            checkNotNull(buffer, "buffer");
+            FinalMessageState state = finalMessageState(cbindData);
 
-            return clientFinalMessage.toString();
+            return state.clientFinalMessageBuilder.writeTo(clientProof(state), buffer);
         }
 
         /**
@@ -250,6 +408,54 @@ public class ScramSession {
             return clientFinalMessage(Optional.empty());
         }
 
+        /**
+         * Writes the UTF-8 encoded client-final-message, including the given channel-binding data,
+         * at the current position of the given buffer (heap or direct), advancing it.
+         * The proof is base64-encoded in place, with no intermediate String.
+         * @param cbindData The bytes of the channel-binding data
+         * @param buffer Where to write the message
+         * @return The same buffer
+         * @throws IllegalArgumentException If the channel binding data or the buffer are null,
+         *                                  or the buffer has not enough remaining space (then nothing is written)
+         */
+        public ByteBuffer clientFinalMessage(byte[] cbindData, ByteBuffer buffer) throws IllegalArgumentException {
+            return clientFinalMessage(Optional.of(checkNotNull(cbindData, "cbindData")), buffer);
+        }
+
+        /**
+         * Writes the UTF-8 encoded client-final-message at the current position of the given buffer
+         * (heap or direct), advancing it. The proof is base64-encoded in place, with no intermediate String.
+         * @param buffer Where to write the message
+         * @return The same buffer
+         * @throws IllegalArgumentException If the buffer is null,
+         *                                  or has not enough remaining space (then nothing is written)
+         */
+        public ByteBuffer clientFinalMessage(ByteBuffer buffer) throws IllegalArgumentException {
+            return clientFinalMessage(Optional.empty(), buffer);
+        }
+
+        /**
+         * Asynchronous version of {@link #clientFinalMessage(byte[])}, that runs on the executor configured with
+         * {@link ScramClient.Builder#executor}.
+         * @param cbindData The bytes of the channel-binding data
+         * @return A future that completes with the message
+         * @throws IllegalArgumentException If the channel binding data is null
+         */
+        public CompletableFuture<String> clientFinalMessageAsync(byte[] cbindData) throws IllegalArgumentException {
+            Optional<byte[]> cbind = Optional.of(checkNotNull(cbindData, "cbindData"));
+
+            return CompletableFuture.supplyAsync(() -> clientFinalMessage(cbind), executor);
+        }
+
+        /**
+         * Asynchronous version of {@link #clientFinalMessage()}, that runs on the executor configured with
+         * {@link ScramClient.Builder#executor}.
+         * @return A future that completes with the message
+         */
+        public CompletableFuture<String> clientFinalMessageAsync() {
+            return CompletableFuture.supplyAsync(() -> clientFinalMessage(Optional.empty()), executor);
+        }
+
         /**
          * Receive and process the server-final-message.
          * Server SCRAM signatures is verified.
@@ -257,18 +463,23 @@ public class ScramSession {
          * @throws ScramParseException If the message is not a valid server-final-message
          * @throws ScramServerErrorException If the server-final-message contained an error
          * @throws IllegalArgumentException If the message is null or empty
+         * @throws IllegalStateException If the client-final-message was not generated yet
          */
         public void receiveServerFinalMessage(String serverFinalMessage)
         throws ScramParseException, ScramServerErrorException, ScramInvalidServerSignatureException,
-        IllegalArgumentException {
+        IllegalArgumentException, IllegalStateException {
             checkNotEmpty(serverFinalMessage, "serverFinalMessage");
+            FinalMessageState state = finalMessageState.get();
+            if(null == state) {
+                throw new IllegalStateException("The client-final-message was not generated yet");
+            }
 
             ServerFinalMessage message = ServerFinalMessage.parseFrom(serverFinalMessage);
             if(message.isError()) {
                 throw new ScramServerErrorException(message.getError().get());
             }
             if(! ScramFunctions.verifyServerSignature(
-                    scramMechanism, serverKey, authMessage, message.getVerifier().get()
+                    scramMechanism, serverKey, state.authMessage, message.getVerifier().get()
             )) {
                 throw new ScramInvalidServerSignatureException("Invalid server SCRAM signature");
             }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.client;
+
+
+import com.ongres.scram.common.ScramCredentials;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.exception.ScramException;
+import com.ongres.scram.common.exception.ScramInvalidServerSignatureException;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.ScramServerErrorException;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.ongres.scram.common.RfcExample.*;
+import static org.junit.Assert.*;
+
+
+public class ReusableScramSessionTest {
+    private final ScramClient scramClient = ScramClient
+            .channelBinding(ScramClient.ChannelBinding.NO)
+            .stringPreparation(StringPreparations.NO_PREPARATION)
+            .selectMechanismBasedOnServerAdvertised("SCRAM-SHA-1")
+            .nonceSupplier(() -> CLIENT_NONCE)
+            .sessionPoolSize(1)
+            .setup();
+
+    private final ByteBuffer output = ByteBuffer.allocateDirect(256);
+
+    private String flipAndDecode() {
+        output.flip();
+        String value = StandardCharsets.UTF_8.decode(output).toString();
+        output.clear();
+
+        return value;
+    }
+
+    private static ByteBuffer encode(String message) {
+        return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handshake(ReusableScramSession session, ScramCredentials credentials) throws ScramException {
+        assertEquals(CLIENT_FIRST_MESSAGE, flipAndDecode(session.clientFirstMessage(output)));
+
+        ByteBuffer serverFirstMessage = encode(SERVER_FIRST_MESSAGE);
+        session.receiveServerFirstMessage(serverFirstMessage);
+        assertFalse(serverFirstMessage.hasRemaining());
+        assertEquals(SERVER_ITERATIONS, session.getIteration());
+
+        if(null == credentials) {
+            session.clientFinalMessage(PASSWORD, output);
+        } else {
+            assertTrue(session.matches(credentials));
+            session.clientFinalMessage(credentials, output);
+        }
+        assertEquals(CLIENT_FINAL_MESSAGE, flipAndDecode());
+
+        session.receiveServerFinalMessage(encode(SERVER_FINAL_MESSAGE));
+        assertTrue(session.isCompleted());
+    }
+
+    private String flipAndDecode(ByteBuffer buffer) {
+        assertSame(output, buffer);
+        return flipAndDecode();
+    }
+
+    @Test
+    public void rfcExample() throws ScramException {
+        ReusableScramSession session = new ReusableScramSession(
+                ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION
+        ).reset(USER, CLIENT_NONCE);
+
+        handshake(session, null);
+    }
+
+    @Test
+    public void resetAndReuse() throws ScramException {
+        ReusableScramSession session = new ReusableScramSession(
+                ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION
+        );
+
+        session.reset(USER, CLIENT_NONCE);
+        assertEquals(CLIENT_FIRST_MESSAGE, flipAndDecode(session.clientFirstMessage(output)));
+        session.receiveServerFirstMessage(encode(SERVER_FIRST_MESSAGE));
+        ScramCredentials credentials = session.credentials(PASSWORD);
+
+        for(int i = 0; i < 3; i++) {
+            handshake(session.reset(USER, CLIENT_NONCE), credentials);
+        }
+        session.close();
+        handshake(session.reset(USER, CLIENT_NONCE), null);
+    }
+
+    @Test
+    public void longUserGrowsBuffers() throws ScramException {
+        ReusableScramSession session = new ReusableScramSession(
+                ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION
+        );
+        StringBuilder user = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            user.append("us,er");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        session.reset(user.toString(), CLIENT_NONCE).clientFirstMessage(buffer);
+        buffer.flip();
+        assertEquals(
+                "n,,n=" + user.toString().replace(",", "=2C") + ",r=" + CLIENT_NONCE,
+                StandardCharsets.UTF_8.decode(buffer).toString()
+        );
+
+        handshake(session.reset(USER, CLIENT_NONCE), null);
+    }
+
+    @Test
+    public void pooledSessions() throws ScramException {
+        ReusableScramSession session = scramClient.reusableScramSession(USER);
+        handshake(session, null);
+        session.close();
+        session.close();
+
+        ReusableScramSession pooled = scramClient.reusableScramSession(USER);
+        assertSame(session, pooled);
+        assertNotSame(pooled, scramClient.reusableScramSession(USER));
+        handshake(pooled, null);
+    }
+
+    @Test
+    public void generatedNonce() throws ScramParseException {
+        ScramClient client = ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectMechanismBasedOnServerAdvertised("SCRAM-SHA-256")
+                .nonceLength(30)
+                .setup();
+
+        String clientFirstMessage = flipAndDecode(client.reusableScramSession(USER).clientFirstMessage(output));
+        assertTrue(clientFirstMessage.startsWith("n,,n=" + USER + ",r="));
+        assertEquals(30, clientFirstMessage.length() - ("n,,n=" + USER + ",r=").length());
+        assertEquals(-1, clientFirstMessage.indexOf(',', ("n,,n=" + USER + ",r=").length()));
+    }
+
+    @Test(expected = ScramParseException.class)
+    public void invalidServerNonce() throws ScramParseException {
+        ReusableScramSession session = scramClient.reusableScramSession(USER);
+        session.clientFirstMessage(output);
+        session.receiveServerFirstMessage(encode("r=other3rfc,s=QSXCR+Q6sek8bf92,i=4096"));
+    }
+
+    @Test(expected = ScramInvalidServerSignatureException.class)
+    public void invalidServerSignature() throws ScramException {
+        ReusableScramSession session = scramClient.reusableScramSession(USER);
+        session.clientFirstMessage(output);
+        session.receiveServerFirstMessage(encode(SERVER_FIRST_MESSAGE));
+        session.clientFinalMessage(PASSWORD, output);
+        session.receiveServerFinalMessage(encode("v=AAAAAAAAAAAAAAAAAAAAAAAAAAA="));
+    }
+
+    @Test(expected = ScramServerErrorException.class)
+    public void serverError() throws ScramException {
+        ReusableScramSession session = scramClient.reusableScramSession(USER);
+        session.clientFirstMessage(output);
+        session.receiveServerFirstMessage(encode(SERVER_FIRST_MESSAGE));
+        session.clientFinalMessage(PASSWORD, output);
+        session.receiveServerFinalMessage(encode("e=invalid-proof"));
+    }
+
+    @Test
+    public void shortBufferWritesNothing() throws ScramParseException {
+        ReusableScramSession session = scramClient.reusableScramSession(USER);
+        session.clientFirstMessage(output);
+        output.clear();
+        session.receiveServerFirstMessage(encode(SERVER_FIRST_MESSAGE));
+
+        ByteBuffer buffer = ByteBuffer.allocate(CLIENT_FINAL_MESSAGE.length() - 1);
+        try {
+            session.clientFinalMessage(PASSWORD, buffer);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void outOfOrder() throws ScramParseException {
+        scramClient.reusableScramSession(USER).receiveServerFirstMessage(encode(SERVER_FIRST_MESSAGE));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.client;
+
+
+import com.ongres.scram.common.ScramFunctions;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.junit.Test;
+
+import java.util.Base64;
+
+import static com.ongres.scram.common.RfcExample.PASSWORD;
+import static com.ongres.scram.common.RfcExample.SERVER_ITERATIONS;
+import static com.ongres.scram.common.RfcExample.SERVER_SALT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+
+public class SaltedPasswordCacheTest {
+    private static final byte[] SALT = Base64.getDecoder().decode(SERVER_SALT);
+
+    private static SaltedPasswordCache.Keys keys(SaltedPasswordCache cache, String password, byte[] salt, int i) {
+        return cache.keys(ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, password, salt, i);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxEntries() {
+        new SaltedPasswordCache(0);
+    }
+
+    @Test
+    public void keysAreCorrect() {
+        SaltedPasswordCache.Keys keys = keys(new SaltedPasswordCache(1), PASSWORD, SALT, SERVER_ITERATIONS);
+
+        assertArrayEquals(
+                ScramFunctions.clientKey(
+                        ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, PASSWORD, SALT,
+                        SERVER_ITERATIONS
+                ),
+                keys.getClientKey()
+        );
+        assertArrayEquals(
+                ScramFunctions.serverKey(
+                        ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, PASSWORD, SALT,
+                        SERVER_ITERATIONS
+                ),
+                keys.getServerKey()
+        );
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        SaltedPasswordCache cache = new SaltedPasswordCache(10);
+
+        SaltedPasswordCache.Keys keys = keys(cache, PASSWORD, SALT, SERVER_ITERATIONS);
+        assertSame(keys, keys(cache, PASSWORD, SALT, SERVER_ITERATIONS));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // Any change on password, salt, iterations or mechanism is a different entry
+        assertNotSame(keys, keys(cache, "pencil2", SALT, SERVER_ITERATIONS));
+        assertNotSame(keys, keys(cache, PASSWORD, new byte[] { 1, 2, 3 }, SERVER_ITERATIONS));
+        assertNotSame(keys, keys(cache, PASSWORD, SALT, SERVER_ITERATIONS + 1));
+        assertNotSame(
+                keys,
+                cache.keys(
+                        ScramMechanisms.SCRAM_SHA_256, StringPreparations.NO_PREPARATION, PASSWORD, SALT,
+                        SERVER_ITERATIONS
+                )
+        );
+        assertEquals(5, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        SaltedPasswordCache cache = new SaltedPasswordCache(2);
+
+        SaltedPasswordCache.Keys keys1 = keys(cache, "password1", SALT, 1);
+        SaltedPasswordCache.Keys keys2 = keys(cache, "password2", SALT, 1);
+        assertSame(keys1, keys(cache, "password1", SALT, 1));      // password2 is now the eldest
+        keys(cache, "password3", SALT, 1);
+
+        assertEquals(2, cache.size());
+        assertSame(keys1, keys(cache, "password1", SALT, 1));
+        assertNotSame(keys2, keys(cache, "password2", SALT, 1));
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void clear() {
+        SaltedPasswordCache cache = new SaltedPasswordCache(2);
+        keys(cache, PASSWORD, SALT, 1);
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        keys(cache, PASSWORD, SALT, 1);
+        assertEquals(2, cache.getMissCount());
+    }
+}
@@ -28,6 +28,7 @@ import com.ongres.scram.common.ScramMechanism;
 import com.ongres.scram.common.ScramMechanisms;
 import com.ongres.scram.common.stringprep.StringPreparations;
 import com.ongres.scram.common.util.CryptoUtil;
+import com.ongres.scram.common.util.NoncePool;
 import org.junit.Test;
 
 import java.util.Arrays;
@@ -185,4 +186,64 @@ public class ScramClientTest {
                 ScramClient.supportedMechanisms().stream().sorted().toArray()
         );
     }
+
+    @Test
+    public void noncePool() throws InterruptedException {
+        try(ScramClient scramClient = ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectClientMechanism(ScramMechanisms.SCRAM_SHA_256)
+                .nonceLength(30)
+                .noncePool(8, 2)
+                .setup()) {
+            NoncePool noncePool = scramClient.getNoncePool().get();
+            for(int i = 0; i < 500 && noncePool.size() < noncePool.getCapacity(); i++) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(scramClient.scramSession("user").clientFirstMessage().length() > 30);
+            try(ReusableScramSession session = scramClient.reusableScramSession("user")) {
+                assertNotNull(session);
+            }
+            assertEquals(2, noncePool.getHits());
+            assertEquals(0, noncePool.getFallbacks());
+        }
+    }
+
+    @Test
+    public void closeStopsNoncePoolRefill() throws InterruptedException {
+        ScramClient scramClient = ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectClientMechanism(ScramMechanisms.SCRAM_SHA_256)
+                .noncePool(4, 0)
+                .setup();
+        NoncePool noncePool = scramClient.getNoncePool().get();
+        for(int i = 0; i < 500 && noncePool.size() < noncePool.getCapacity(); i++) {
+            Thread.sleep(10);
+        }
+        scramClient.close();
+
+        for(int i = 0; i < 6; i++) {
+            assertNotNull(scramClient.scramSession("user"));
+        }
+        Thread.sleep(50);
+        assertEquals(0, noncePool.size());
+        assertEquals(4, noncePool.getHits());
+        assertEquals(2, noncePool.getFallbacks());
+    }
+
+    @Test
+    public void noncePoolIgnoredWithNonceSupplier() {
+        assertFalse(ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectClientMechanism(ScramMechanisms.SCRAM_SHA_256)
+                .nonceSupplier(() -> "nonce")
+                .noncePool(8, 2)
+                .setup()
+                .getNoncePool()
+                .isPresent()
+        );
+    }
 }
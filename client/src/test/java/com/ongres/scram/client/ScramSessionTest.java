@@ -24,12 +24,25 @@
 package com.ongres.scram.client;
 
 
+import com.ongres.scram.common.ScramCredentials;
+import com.ongres.scram.common.ScramMechanisms;
 import com.ongres.scram.common.exception.ScramInvalidServerSignatureException;
 import com.ongres.scram.common.exception.ScramParseException;
 import com.ongres.scram.common.exception.ScramServerErrorException;
 import com.ongres.scram.common.stringprep.StringPreparations;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static com.ongres.scram.common.RfcExample.*;
 import static org.junit.Assert.*;
 
@@ -59,4 +72,181 @@ public class ScramSessionTest {
 
         clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
     }
+
+    private static String flipAndDecode(ByteBuffer buffer) {
+        buffer.flip();
+        String value = StandardCharsets.UTF_8.decode(buffer).toString();
+        buffer.clear();
+
+        return value;
+    }
+
+    @Test
+    public void completeTestByteBuffer()
+    throws ScramParseException, ScramInvalidServerSignatureException, ScramServerErrorException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        ScramSession scramSession = scramClient.scramSession(USER);
+        scramSession.clientFirstMessage(buffer);
+        assertEquals(CLIENT_FIRST_MESSAGE, flipAndDecode(buffer));
+
+        ScramSession.ClientFinalProcessor clientFinalProcessor = scramSession
+                .receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                .clientFinalProcessor(PASSWORD);
+        clientFinalProcessor.clientFinalMessage(buffer);
+        assertEquals(CLIENT_FINAL_MESSAGE, flipAndDecode(buffer));
+
+        clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void clientFirstMessageBufferTooShort() {
+        scramClient.scramSession(USER).clientFirstMessage(ByteBuffer.allocate(CLIENT_FIRST_MESSAGE.length() - 1));
+    }
+
+    @Test
+    public void completeTestWithSaltedPasswordCache()
+    throws ScramParseException, ScramInvalidServerSignatureException, ScramServerErrorException {
+        ScramClient cachingScramClient = ScramClient
+                .channelBinding(ScramClient.ChannelBinding.NO)
+                .stringPreparation(StringPreparations.NO_PREPARATION)
+                .selectMechanismBasedOnServerAdvertised("SCRAM-SHA-1")
+                .nonceSupplier(() -> CLIENT_NONCE)
+                .saltedPasswordCache(10)
+                .setup();
+
+        for(int i = 0; i < 2; i++) {
+            ScramSession scramSession = cachingScramClient.scramSession(USER);
+            scramSession.clientFirstMessage();
+            ScramSession.ClientFinalProcessor clientFinalProcessor = scramSession
+                    .receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                    .clientFinalProcessor(PASSWORD);
+            assertEquals(CLIENT_FINAL_MESSAGE, clientFinalProcessor.clientFinalMessage());
+            clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+        }
+
+        SaltedPasswordCache cache = cachingScramClient.getSaltedPasswordCache().get();
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void completeTestAsync() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        AtomicInteger executions = new AtomicInteger();
+        Executor executor = command -> {
+            executions.incrementAndGet();
+            executorService.execute(command);
+        };
+        try {
+            ScramClient asyncScramClient = ScramClient
+                    .channelBinding(ScramClient.ChannelBinding.NO)
+                    .stringPreparation(StringPreparations.NO_PREPARATION)
+                    .selectMechanismBasedOnServerAdvertised("SCRAM-SHA-1")
+                    .nonceSupplier(() -> CLIENT_NONCE)
+                    .executor(executor)
+                    .setup();
+            ScramSession scramSession = asyncScramClient.scramSession(USER);
+            scramSession.clientFirstMessage();
+
+            ScramSession.ClientFinalProcessor clientFinalProcessor = scramSession
+                    .receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                    .clientFinalProcessorAsync(PASSWORD)
+                    .get();
+            assertEquals(CLIENT_FINAL_MESSAGE, clientFinalProcessor.clientFinalMessageAsync().get());
+            assertEquals(2, executions.get());
+
+            clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void completeTestWithKeys()
+    throws ScramParseException, ScramInvalidServerSignatureException, ScramServerErrorException {
+        ScramSession scramSession = scramClient.scramSession(USER);
+        scramSession.clientFirstMessage();
+        ScramSession.ClientFinalProcessor clientFinalProcessor = scramSession
+                .receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                .clientFinalProcessor(
+                        Base64.getDecoder().decode("4jTEe/bDZpbdbYUrmaqiuiZVVyg="),
+                        Base64.getDecoder().decode("D+CSWLOshSulAsxiupA+qs2/fTE=")
+                );
+        assertEquals(CLIENT_FINAL_MESSAGE, clientFinalProcessor.clientFinalMessage());
+
+        clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+    }
+
+    @Test
+    public void completeTestWithCredentials()
+    throws ScramParseException, ScramInvalidServerSignatureException, ScramServerErrorException {
+        ScramSession firstSession = scramClient.scramSession(USER);
+        firstSession.clientFirstMessage();
+        ScramCredentials credentials = firstSession.receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                .credentials(PASSWORD);
+
+        ScramSession scramSession = scramClient.scramSession(USER);
+        scramSession.clientFirstMessage();
+        ScramSession.ServerFirstProcessor serverFirstProcessor = scramSession.receiveServerFirstMessage(
+                SERVER_FIRST_MESSAGE
+        );
+        assertTrue(serverFirstProcessor.matches(credentials));
+        ScramSession.ClientFinalProcessor clientFinalProcessor = serverFirstProcessor.clientFinalProcessor(
+                credentials
+        );
+        assertEquals(CLIENT_FINAL_MESSAGE, clientFinalProcessor.clientFinalMessage());
+
+        clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void credentialsWithDifferentIteration() throws ScramParseException {
+        ScramCredentials credentials = ScramCredentials.fromPassword(
+                ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, PASSWORD,
+                Base64.getDecoder().decode(SERVER_SALT), SERVER_ITERATIONS - 1
+        );
+        ScramSession scramSession = scramClient.scramSession(USER);
+        scramSession.clientFirstMessage();
+        ScramSession.ServerFirstProcessor serverFirstProcessor = scramSession.receiveServerFirstMessage(
+                SERVER_FIRST_MESSAGE
+        );
+        assertFalse(serverFirstProcessor.matches(credentials));
+
+        serverFirstProcessor.clientFinalProcessor(credentials);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void serverFinalMessageBeforeClientFinalMessage()
+    throws ScramParseException, ScramInvalidServerSignatureException, ScramServerErrorException {
+        ScramSession scramSession = scramClient.scramSession(USER);
+        scramSession.clientFirstMessage();
+
+        scramSession.receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                .clientFinalProcessor(PASSWORD)
+                .receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+    }
+
+    @Test
+    public void concurrentClientFinalMessages() throws Exception {
+        ScramSession scramSession = scramClient.scramSession(USER);
+        scramSession.clientFirstMessage();
+        ScramSession.ClientFinalProcessor clientFinalProcessor = scramSession
+                .receiveServerFirstMessage(SERVER_FIRST_MESSAGE)
+                .clientFinalProcessor(PASSWORD);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> messages = new ArrayList<>();
+            for(int i = 0; i < 16; i++) {
+                messages.add(executorService.submit(() -> clientFinalProcessor.clientFinalMessage()));
+            }
+            for(Future<String> message : messages) {
+                assertEquals(CLIENT_FINAL_MESSAGE, message.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        clientFinalProcessor.receiveServerFinalMessage(SERVER_FINAL_MESSAGE);
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * The SCRAM AuthMessage, kept as its three UTF-8 encoded segments.
+ *
+ * {@code
+ *      AuthMessage     := client-first-message-bare + "," +
+ *                         server-first-message + "," +
+ *                         client-final-message-without-proof
+ * }
+ *
+ * The segments are fed to the HMAC one after the other, so the concatenated message is never built.
+ * The same instance may be used to compute both the client and the server signatures.
+ * Arrays are not copied: callers must not modify them after constructing this object.
+ */
+public class AuthMessage {
+    private static final byte SEPARATOR = ',';
+
+    private final byte[] clientFirstMessageBare;
+    private final byte[] serverFirstMessage;
+    private final byte[] clientFinalMessage;
+    private final int withoutProofOffset;
+    private final int withoutProofLength;
+
+    /**
+     * Constructs an auth message from the UTF-8 bytes of its segments.
+     * @param clientFirstMessageBare The client-first-message-bare
+     * @param serverFirstMessage The server-first-message
+     * @param clientFinalMessageWithoutProof The client-final-message-without-proof
+     * @throws IllegalArgumentException If any of the segments is null
+     */
+    public AuthMessage(byte[] clientFirstMessageBare, byte[] serverFirstMessage, byte[] clientFinalMessageWithoutProof)
+    throws IllegalArgumentException {
+        this(
+                clientFirstMessageBare, serverFirstMessage,
+                checkNotNull(clientFinalMessageWithoutProof, "clientFinalMessageWithoutProof"), 0,
+                clientFinalMessageWithoutProof.length
+        );
+    }
+
+    /**
+     * Constructs an auth message from the UTF-8 bytes of its segments, taking the client-final-message-without-proof
+     * as a range of the received client-final-message, such as the one recorded by a {@code ClientFinalMessageView}.
+     * @param clientFirstMessageBare The client-first-message-bare
+     * @param serverFirstMessage The server-first-message
+     * @param clientFinalMessage The buffer containing the client-final-message
+     * @param withoutProofOffset The offset of the client-final-message-without-proof in its buffer
+     * @param withoutProofLength The length of the client-final-message-without-proof
+     * @throws IllegalArgumentException If any of the segments is null, or the range is out of bounds
+     */
+    public AuthMessage(
+            byte[] clientFirstMessageBare, byte[] serverFirstMessage, byte[] clientFinalMessage,
+            int withoutProofOffset, int withoutProofLength
+    ) throws IllegalArgumentException {
+        this.clientFirstMessageBare = checkNotNull(clientFirstMessageBare, "clientFirstMessageBare");
+        this.serverFirstMessage = checkNotNull(serverFirstMessage, "serverFirstMessage");
+        this.clientFinalMessage = checkNotNull(clientFinalMessage, "clientFinalMessage");
+        checkArgument(
+                withoutProofOffset >= 0 && withoutProofLength >= 0
+                        && withoutProofOffset + withoutProofLength <= clientFinalMessage.length,
+                "withoutProofOffset, withoutProofLength"
+        );
+        this.withoutProofOffset = withoutProofOffset;
+        this.withoutProofLength = withoutProofLength;
+    }
+
+    /**
+     * Constructs an auth message from its segments, which are encoded as UTF-8.
+     * @param clientFirstMessageBare The client-first-message-bare
+     * @param serverFirstMessage The server-first-message
+     * @param clientFinalMessageWithoutProof The client-final-message-without-proof
+     * @throws IllegalArgumentException If any of the segments is null
+     */
+    public AuthMessage(
+            CharSequence clientFirstMessageBare, CharSequence serverFirstMessage,
+            CharSequence clientFinalMessageWithoutProof
+    ) throws IllegalArgumentException {
+        this(
+                encode(checkNotNull(clientFirstMessageBare, "clientFirstMessageBare")),
+                encode(checkNotNull(serverFirstMessage, "serverFirstMessage")),
+                encode(checkNotNull(clientFinalMessageWithoutProof, "clientFinalMessageWithoutProof"))
+        );
+    }
+
+    private static byte[] encode(CharSequence value) {
+        return value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Feeds the auth message to the given, already initialized, Mac.
+     * @param mac The Mac
+     */
+    public void update(Mac mac) {
+        mac.update(clientFirstMessageBare);
+        mac.update(SEPARATOR);
+        mac.update(serverFirstMessage);
+        mac.update(SEPARATOR);
+        mac.update(clientFinalMessage, withoutProofOffset, withoutProofLength);
+    }
+
+    /**
+     * The length of the UTF-8 encoded auth message.
+     * @return The length, in bytes
+     */
+    public int length() {
+        return clientFirstMessageBare.length + serverFirstMessage.length + withoutProofLength + 2;
+    }
+
+    @Override
+    public String toString() {
+        return new String(clientFirstMessageBare, StandardCharsets.UTF_8) + (char) SEPARATOR
+                + new String(serverFirstMessage, StandardCharsets.UTF_8) + (char) SEPARATOR
+                + new String(clientFinalMessage, withoutProofOffset, withoutProofLength, StandardCharsets.UTF_8);
+    }
+}
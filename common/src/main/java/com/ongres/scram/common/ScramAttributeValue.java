@@ -24,8 +24,10 @@
 package com.ongres.scram.common;
 
 
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
 import com.ongres.scram.common.util.AbstractCharAttributeValue;
+import com.ongres.scram.common.util.ParseResult;
 
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
@@ -38,10 +40,32 @@ public class ScramAttributeValue extends AbstractCharAttributeValue {
         super(attribute, checkNotNull(value, "value"));
     }
 
+    public static StringBuilder writeTo(StringBuilder sb, ScramAttributes attribute, String value) {
+        return new ScramAttributeValue(attribute, value).writeTo(sb);
+    }
+
     public static StringBuffer writeTo(StringBuffer sb, ScramAttributes attribute, String value) {
         return new ScramAttributeValue(attribute, value).writeTo(sb);
     }
 
+    /**
+     * Parses a potential ScramAttributeValue String, without throwing if it is not valid.
+     * @param value The string that contains the Attribute-Value pair.
+     * @return The result, with the parsed class or a failure
+     */
+    public static ParseResult<ScramAttributeValue> tryParse(String value) {
+        if(null == value || value.length() < 3 || value.charAt(1) != '=') {
+            return ParseResult.failure(ScramParseError.INVALID_ATTRIBUTE_VALUE, value);
+        }
+
+        ParseResult<ScramAttributes> attribute = ScramAttributes.tryByChar(value.charAt(0));
+        if(! attribute.isSuccess()) {
+            return attribute.asFailure();
+        }
+
+        return ParseResult.success(new ScramAttributeValue(attribute.get(), value.substring(2)));
+    }
+
     /**
      * Parses a potential ScramAttributeValue String.
      * @param value The string that contains the Attribute-Value pair.
@@ -50,10 +74,6 @@ public class ScramAttributeValue extends AbstractCharAttributeValue {
      */
     public static ScramAttributeValue parse(String value)
     throws ScramParseException {
-        if(null == value || value.length() < 3 || value.charAt(1) != '=') {
-            throw new ScramParseException("Invalid ScramAttributeValue '" + value + "'");
-        }
-
-        return new ScramAttributeValue(ScramAttributes.byChar(value.charAt(0)), value.substring(2));
+        return tryParse(value).orElseThrow();
     }
 }
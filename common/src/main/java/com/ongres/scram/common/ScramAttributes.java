@@ -24,11 +24,10 @@
 package com.ongres.scram.common;
 
 
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
 import com.ongres.scram.common.util.CharAttribute;
-
-import java.util.HashMap;
-import java.util.Map;
+import com.ongres.scram.common.util.ParseResult;
 
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
@@ -135,13 +134,29 @@ public enum ScramAttributes implements CharAttribute {
         return attributeChar;
     }
 
-    private static final Map<Character, ScramAttributes> REVERSE_MAPPING = new HashMap<Character, ScramAttributes>();
+    /**
+     * Attributes indexed by their (ASCII) character.
+     */
+    private static final ScramAttributes[] BY_CHAR = new ScramAttributes[128];
     static {
         for(ScramAttributes scramAttribute : values()) {
-            REVERSE_MAPPING.put(scramAttribute.getChar(), scramAttribute);
+            BY_CHAR[scramAttribute.getChar()] = scramAttribute;
         }
     }
 
+    /**
+     * Find a SCRAMAttribute by its character, without throwing if there is none.
+     * @param c The character.
+     * @return The result, with the SCRAMAttribute that has that character or a
+     *         {@link ScramParseError#UNKNOWN_ATTRIBUTE} failure.
+     */
+    public static ParseResult<ScramAttributes> tryByChar(char c) {
+        ScramAttributes scramAttribute = c < BY_CHAR.length ? BY_CHAR[c] : null;
+
+        return null == scramAttribute ?
+                ParseResult.failure(ScramParseError.UNKNOWN_ATTRIBUTE, c) : ParseResult.success(scramAttribute);
+    }
+
     /**
      * Find a SCRAMAttribute by its character.
      * @param c The character.
@@ -149,10 +164,6 @@ public enum ScramAttributes implements CharAttribute {
      * @throws ScramParseException If no SCRAMAttribute has this character.
      */
     public static ScramAttributes byChar(char c) throws ScramParseException {
-        if(! REVERSE_MAPPING.containsKey(c)) {
-            throw new ScramParseException("Attribute with char '" + c + "' does not exist");
-        }
-
-        return REVERSE_MAPPING.get(c);
+        return tryByChar(c).orElseThrow();
     }
 }
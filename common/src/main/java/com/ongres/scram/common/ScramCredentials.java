@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import com.ongres.scram.common.stringprep.StringPreparation;
+import com.ongres.scram.common.util.CryptoUtil;
+
+import java.util.Arrays;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * The keys derived from a user's password for a given salt and iteration count:
+ * ClientKey, StoredKey and ServerKey, together with the mechanism, salt and iteration count they were derived with.
+ *
+ * A client that keeps an instance may authenticate again, as long as the server sends the same salt and
+ * iteration count, without computing the salted password (Hi) again, nor keeping the password.
+ * This class is immutable, and may be shared.
+ */
+public class ScramCredentials {
+    private final ScramMechanism scramMechanism;
+    private final byte[] salt;
+    private final int iteration;
+    private final byte[] clientKey;
+    private final byte[] storedKey;
+    private final byte[] serverKey;
+
+    /**
+     * Constructs the credentials from the client and server keys. The stored key is computed from the client key.
+     * Arrays are copied.
+     * @param scramMechanism The SCRAM mechanism
+     * @param salt The salt
+     * @param iteration The iteration count
+     * @param clientKey The client key
+     * @param serverKey The server key
+     * @throws IllegalArgumentException If any value is null, the iteration count is not positive,
+     *                                  or the length of the keys does not match the mechanism
+     */
+    public ScramCredentials(
+            ScramMechanism scramMechanism, byte[] salt, int iteration, byte[] clientKey, byte[] serverKey
+    ) throws IllegalArgumentException {
+        this.scramMechanism = checkNotNull(scramMechanism, "scramMechanism");
+        this.salt = checkNotNull(salt, "salt").clone();
+        this.iteration = gt0(iteration, "iteration");
+        int keyLength = scramMechanism.algorithmKeyLength() / 8;
+        checkArgument(checkNotNull(clientKey, "clientKey").length == keyLength, "clientKey");
+        checkArgument(checkNotNull(serverKey, "serverKey").length == keyLength, "serverKey");
+        this.clientKey = clientKey.clone();
+        this.storedKey = ScramFunctions.storedKey(scramMechanism, clientKey);
+        this.serverKey = serverKey.clone();
+    }
+
+    /**
+     * Derives the credentials from the user's password.
+     * @param scramMechanism The SCRAM mechanism
+     * @param stringPreparation The string preparation
+     * @param password The user's password
+     * @param salt The salt
+     * @param iteration The iteration count
+     * @return The credentials
+     * @throws IllegalArgumentException If any value is null, or the iteration count is not positive
+     */
+    public static ScramCredentials fromPassword(
+            ScramMechanism scramMechanism, StringPreparation stringPreparation, String password, byte[] salt,
+            int iteration
+    ) throws IllegalArgumentException {
+        checkNotNull(scramMechanism, "scramMechanism");
+        checkNotNull(stringPreparation, "stringPreparation");
+        checkNotNull(salt, "salt");
+        byte[] saltedPassword = ScramFunctions.saltedPassword(
+                scramMechanism, stringPreparation, password, salt, gt0(iteration, "iteration")
+        );
+        try {
+            return new ScramCredentials(
+                    scramMechanism, salt, iteration,
+                    ScramFunctions.clientKey(scramMechanism, saltedPassword),
+                    ScramFunctions.serverKey(scramMechanism, saltedPassword)
+            );
+        } finally {
+            Arrays.fill(saltedPassword, (byte) 0);
+        }
+    }
+
+    /**
+     * Checks whether these credentials were derived with the given mechanism, salt and iteration count,
+     * and thus can be used to authenticate in place of the password.
+     * @param scramMechanism The SCRAM mechanism
+     * @param salt The salt
+     * @param iteration The iteration count
+     * @return True if they match
+     */
+    public boolean matches(ScramMechanism scramMechanism, byte[] salt, int iteration) {
+        return this.iteration == iteration
+                && this.scramMechanism.getName().equals(scramMechanism.getName())
+                && Arrays.equals(this.salt, salt);
+    }
+
+    /**
+     * Checks whether these credentials were derived with the given mechanism, salt and iteration count,
+     * with the salt given as a range of a buffer. See {@link #matches(ScramMechanism, byte[], int)}.
+     * @param scramMechanism The SCRAM mechanism
+     * @param salt The buffer containing the salt
+     * @param saltOffset The offset of the salt in its buffer
+     * @param saltLength The length of the salt
+     * @param iteration The iteration count
+     * @return True if they match
+     */
+    public boolean matches(ScramMechanism scramMechanism, byte[] salt, int saltOffset, int saltLength, int iteration) {
+        return this.iteration == iteration
+                && this.scramMechanism.getName().equals(scramMechanism.getName())
+                && this.salt.length == saltLength
+                && CryptoUtil.constantTimeEquals(this.salt, 0, salt, saltOffset, saltLength);
+    }
+
+    public ScramMechanism getScramMechanism() {
+        return scramMechanism;
+    }
+
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public byte[] getClientKey() {
+        return clientKey.clone();
+    }
+
+    public byte[] getStoredKey() {
+        return storedKey.clone();
+    }
+
+    public byte[] getServerKey() {
+        return serverKey.clone();
+    }
+
+    private static int copy(byte[] key, byte[] output, int outputOffset) throws IllegalArgumentException {
+        checkNotNull(output, "output");
+        checkArgument(outputOffset >= 0 && outputOffset + key.length <= output.length, "output buffer");
+        System.arraycopy(key, 0, output, outputOffset, key.length);
+
+        return key.length;
+    }
+
+    /**
+     * Copies the client key into the given buffer, instead of creating a new copy.
+     * @param output The buffer where the key is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public int getClientKey(byte[] output, int outputOffset) throws IllegalArgumentException {
+        return copy(clientKey, output, outputOffset);
+    }
+
+    /**
+     * Copies the stored key into the given buffer, instead of creating a new copy.
+     * @param output The buffer where the key is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public int getStoredKey(byte[] output, int outputOffset) throws IllegalArgumentException {
+        return copy(storedKey, output, outputOffset);
+    }
+
+    /**
+     * Copies the server key into the given buffer, instead of creating a new copy.
+     * @param output The buffer where the key is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public int getServerKey(byte[] output, int outputOffset) throws IllegalArgumentException {
+        return copy(serverKey, output, outputOffset);
+    }
+
+    /**
+     * The part of these credentials that a server stores, which does not allow to impersonate the client.
+     * @return The verifier
+     */
+    public ScramVerifier toVerifier() {
+        return new ScramVerifier(scramMechanism, salt, iteration, storedKey, serverKey);
+    }
+}
@@ -27,12 +27,22 @@ package com.ongres.scram.common;
 import com.ongres.scram.common.stringprep.StringPreparation;
 import com.ongres.scram.common.util.CryptoUtil;
 
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
 
 /**
  * Utility functions (e.g. crypto) for SCRAM.
+ *
+ * Most functions have two variants. The first one returns a newly allocated array, and obtains the required
+ * {@link Mac} and {@link MessageDigest} instances from the {@link ScramMechanism}.
+ * The second one takes the Mac and/or MessageDigest instances to use, which the caller may reuse,
+ * and writes the result to a caller-supplied buffer, at the given offset. Except for the JCA key specification
+ * needed to initialize a Mac, they do not allocate memory. They return the number of bytes written.
  */
 public class ScramFunctions {
     private static final byte[] CLIENT_KEY_HMAC_KEY = "Client Key".getBytes(StandardCharsets.UTF_8);
@@ -57,10 +67,7 @@ public class ScramFunctions {
             ScramMechanism scramMechanism, StringPreparation stringPreparation, String password, byte[] salt,
             int iteration
     ) {
-        return CryptoUtil.hi(
-                scramMechanism.secretKeyFactory(), scramMechanism.algorithmKeyLength(),
-                stringPreparation.normalize(password), salt, iteration
-        );
+        return scramMechanism.hi(stringPreparation.normalize(password), salt, iteration);
     }
 
     /**
@@ -74,6 +81,53 @@ public class ScramFunctions {
         return CryptoUtil.hmac(scramMechanism.secretKeySpec(key), scramMechanism.getMacInstance(), message);
     }
 
+    /**
+     * Computes the HMAC of the message and key, using the given SCRAM mechanism, writing it to the output buffer.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param message The buffer containing the message to compute the HMAC
+     * @param messageOffset The offset of the message in its buffer
+     * @param messageLength The length of the message
+     * @param key The key used to initialize the MAC
+     * @param output The buffer where the HMAC is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int hmac(
+            ScramMechanism scramMechanism, Mac mac, byte[] message, int messageOffset, int messageLength, byte[] key,
+            byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        return CryptoUtil.hmac(
+                scramMechanism.secretKeySpec(key), mac, message, messageOffset, messageLength, output, outputOffset
+        );
+    }
+
+    /**
+     * Computes the HMAC of the message and key, using the given SCRAM mechanism, writing it to the output buffer.
+     * The message is consumed from the buffer's position to its limit. The buffer may be direct.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param message The buffer containing the message to compute the HMAC
+     * @param key The key used to initialize the MAC
+     * @param output The buffer where the HMAC is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int hmac(
+            ScramMechanism scramMechanism, Mac mac, ByteBuffer message, byte[] key, byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        try {
+            mac.init(scramMechanism.secretKeySpec(key));
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException("Platform error: unsupported key for HMAC algorithm");
+        }
+        mac.update(message);
+
+        return CryptoUtil.doFinal(mac, output, outputOffset);
+    }
+
     /**
      * Generates a client key, from the salted password.
      *
@@ -89,6 +143,25 @@ public class ScramFunctions {
         return hmac(scramMechanism, CLIENT_KEY_HMAC_KEY, saltedPassword);
     }
 
+    /**
+     * Generates a client key, from the salted password, writing it to the output buffer.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param saltedPassword The salted password
+     * @param output The buffer where the client key is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int clientKey(
+            ScramMechanism scramMechanism, Mac mac, byte[] saltedPassword, byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        return hmac(
+                scramMechanism, mac, CLIENT_KEY_HMAC_KEY, 0, CLIENT_KEY_HMAC_KEY.length, saltedPassword,
+                output, outputOffset
+        );
+    }
+
     /**
      * Generates a client key from the password and salt.
      *
@@ -126,6 +199,25 @@ public class ScramFunctions {
         return hmac(scramMechanism, SERVER_KEY_HMAC_KEY, saltedPassword);
     }
 
+    /**
+     * Generates a server key, from the salted password, writing it to the output buffer.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param saltedPassword The salted password
+     * @param output The buffer where the server key is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int serverKey(
+            ScramMechanism scramMechanism, Mac mac, byte[] saltedPassword, byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        return hmac(
+                scramMechanism, mac, SERVER_KEY_HMAC_KEY, 0, SERVER_KEY_HMAC_KEY.length, saltedPassword,
+                output, outputOffset
+        );
+    }
+
     /**
      * Generates a server key from the password and salt.
      *
@@ -173,6 +265,25 @@ public class ScramFunctions {
         return hash(scramMechanism, clientKey);
     }
 
+    /**
+     * Generates a stored key, from the client key, writing it to the output buffer.
+     * The output may be the same buffer and offset of the client key, to compute it in place.
+     * @param messageDigest A MessageDigest instance of the SCRAM mechanism
+     * @param clientKey The buffer containing the client key
+     * @param clientKeyOffset The offset of the client key in its buffer
+     * @param output The buffer where the stored key is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int storedKey(
+            MessageDigest messageDigest, byte[] clientKey, int clientKeyOffset, byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        return CryptoUtil.digest(
+                messageDigest, clientKey, clientKeyOffset, messageDigest.getDigestLength(), output, outputOffset
+        );
+    }
+
     /**
      * Computes the SCRAM client signature.
      *
@@ -189,6 +300,69 @@ public class ScramFunctions {
         return hmac(scramMechanism, authMessage.getBytes(StandardCharsets.UTF_8), storedKey);
     }
 
+    /**
+     * Computes the SCRAM client signature, from the UTF-8 bytes of the auth message, writing it to the output buffer.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param storedKey The stored key
+     * @param authMessage The buffer containing the UTF-8 bytes of the auth message
+     * @param authMessageOffset The offset of the auth message in its buffer
+     * @param authMessageLength The length of the auth message
+     * @param output The buffer where the client signature is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int clientSignature(
+            ScramMechanism scramMechanism, Mac mac, byte[] storedKey, byte[] authMessage, int authMessageOffset,
+            int authMessageLength, byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        return hmac(
+                scramMechanism, mac, authMessage, authMessageOffset, authMessageLength, storedKey, output, outputOffset
+        );
+    }
+
+    /**
+     * Computes the SCRAM client signature, feeding the segments of the auth message to the HMAC incrementally.
+     * @param scramMechanism The SCRAM mechanism
+     * @param storedKey The stored key
+     * @param authMessage The auth message
+     * @return The client signature
+     */
+    public static byte[] clientSignature(ScramMechanism scramMechanism, byte[] storedKey, AuthMessage authMessage) {
+        Mac mac = scramMechanism.getMacInstance();
+        byte[] clientSignature = new byte[mac.getMacLength()];
+        clientSignature(scramMechanism, mac, storedKey, authMessage, clientSignature, 0);
+
+        return clientSignature;
+    }
+
+    /**
+     * Computes the SCRAM client signature, feeding the segments of the auth message to the HMAC incrementally,
+     * and writing it to the output buffer.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param storedKey The stored key
+     * @param authMessage The auth message
+     * @param output The buffer where the client signature is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int clientSignature(
+            ScramMechanism scramMechanism, Mac mac, byte[] storedKey, AuthMessage authMessage, byte[] output,
+            int outputOffset
+    ) throws IllegalArgumentException {
+        try {
+            mac.init(scramMechanism.secretKeySpec(storedKey));
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException("Platform error: unsupported key for HMAC algorithm");
+        }
+        authMessage.update(mac);
+
+        return CryptoUtil.doFinal(mac, output, outputOffset);
+    }
+
     /**
      * Computes the SCRAM client proof to be sent to the server on the client-final-message.
      *
@@ -204,6 +378,31 @@ public class ScramFunctions {
         return CryptoUtil.xor(clientKey, clientSignature);
     }
 
+    /**
+     * Computes the SCRAM client proof, writing it to the output buffer.
+     * The output may be the same buffer and offset of either the client key or the client signature,
+     * to compute it in place.
+     * @param clientKey The buffer containing the client key
+     * @param clientKeyOffset The offset of the client key in its buffer
+     * @param clientSignature The buffer containing the client signature
+     * @param clientSignatureOffset The offset of the client signature in its buffer
+     * @param length The length of the client key (and signature)
+     * @param output The buffer where the client proof is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If any of the buffers is too short
+     */
+    public static int clientProof(
+            byte[] clientKey, int clientKeyOffset, byte[] clientSignature, int clientSignatureOffset, int length,
+            byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        CryptoUtil.xor(
+                clientKey, clientKeyOffset, clientSignature, clientSignatureOffset, output, outputOffset, length
+        );
+
+        return length;
+    }
+
     /**
      * Compute the SCRAM server signature.
      *
@@ -220,6 +419,59 @@ public class ScramFunctions {
         return clientSignature(scramMechanism, serverKey, authMessage);
     }
 
+    /**
+     * Compute the SCRAM server signature, from the UTF-8 bytes of the auth message, writing it to the output buffer.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param serverKey The server key
+     * @param authMessage The buffer containing the UTF-8 bytes of the auth message
+     * @param authMessageOffset The offset of the auth message in its buffer
+     * @param authMessageLength The length of the auth message
+     * @param output The buffer where the server signature is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int serverSignature(
+            ScramMechanism scramMechanism, Mac mac, byte[] serverKey, byte[] authMessage, int authMessageOffset,
+            int authMessageLength, byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        return clientSignature(
+                scramMechanism, mac, serverKey, authMessage, authMessageOffset, authMessageLength,
+                output, outputOffset
+        );
+    }
+
+    /**
+     * Compute the SCRAM server signature, feeding the segments of the auth message to the HMAC incrementally.
+     * @param scramMechanism The SCRAM mechanism
+     * @param serverKey The server key
+     * @param authMessage The auth message
+     * @return The server signature
+     */
+    public static byte[] serverSignature(ScramMechanism scramMechanism, byte[] serverKey, AuthMessage authMessage) {
+        return clientSignature(scramMechanism, serverKey, authMessage);
+    }
+
+    /**
+     * Compute the SCRAM server signature, feeding the segments of the auth message to the HMAC incrementally,
+     * and writing it to the output buffer.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param serverKey The server key
+     * @param authMessage The auth message
+     * @param output The buffer where the server signature is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int serverSignature(
+            ScramMechanism scramMechanism, Mac mac, byte[] serverKey, AuthMessage authMessage, byte[] output,
+            int outputOffset
+    ) throws IllegalArgumentException {
+        return clientSignature(scramMechanism, mac, serverKey, authMessage, output, outputOffset);
+    }
+
     /**
      * Verifies that a provided client proof is correct.
      * @param scramMechanism The SCRAM mechanism
@@ -238,6 +490,55 @@ public class ScramFunctions {
         return Arrays.equals(storedKey, computedStoredKey);
     }
 
+    /**
+     * Verifies that a provided client proof is correct, from the UTF-8 bytes of the auth message.
+     * Intermediate values are computed on the scratch buffer, and the comparison is performed in constant time.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param messageDigest A MessageDigest instance of the SCRAM mechanism
+     * @param clientProof The buffer containing the provided client proof
+     * @param clientProofOffset The offset of the client proof in its buffer
+     * @param storedKey The stored key
+     * @param authMessage The buffer containing the UTF-8 bytes of the auth message
+     * @param authMessageOffset The offset of the auth message in its buffer
+     * @param authMessageLength The length of the auth message
+     * @param scratch A buffer of, at least, the length of the stored key, whose contents are overwritten
+     * @return True if the client proof is correct
+     * @throws IllegalArgumentException If any of the buffers is too short
+     */
+    public static boolean verifyClientProof(
+            ScramMechanism scramMechanism, Mac mac, MessageDigest messageDigest, byte[] clientProof,
+            int clientProofOffset, byte[] storedKey, byte[] authMessage, int authMessageOffset, int authMessageLength,
+            byte[] scratch
+    ) throws IllegalArgumentException {
+        int length = clientSignature(
+                scramMechanism, mac, storedKey, authMessage, authMessageOffset, authMessageLength, scratch, 0
+        );
+        CryptoUtil.xor(scratch, 0, clientProof, clientProofOffset, scratch, 0, length);   // ClientKey
+        storedKey(messageDigest, scratch, 0, scratch, 0);
+
+        return storedKey.length == length && CryptoUtil.constantTimeEquals(storedKey, 0, scratch, 0, length);
+    }
+
+    /**
+     * Verifies that a provided client proof is correct, feeding the segments of the auth message to the HMAC
+     * incrementally.
+     * @param scramMechanism The SCRAM mechanism
+     * @param clientProof The provided client proof
+     * @param storedKey The stored key
+     * @param authMessage The auth message
+     * @return True if the client proof is correct
+     */
+    public static boolean verifyClientProof(
+            ScramMechanism scramMechanism, byte[] clientProof, byte[] storedKey, AuthMessage authMessage
+    ) {
+        byte[] clientSignature = clientSignature(scramMechanism, storedKey, authMessage);
+        byte[] clientKey = CryptoUtil.xor(clientSignature, clientProof);
+        byte[] computedStoredKey = hash(scramMechanism, clientKey);
+
+        return Arrays.equals(storedKey, computedStoredKey);
+    }
+
     /**
      * Verifies that a provided server proof is correct.
      * @param scramMechanism The SCRAM mechanism
@@ -251,4 +552,46 @@ public class ScramFunctions {
     ) {
         return Arrays.equals(serverSignature(scramMechanism, serverKey, authMessage), serverSignature);
     }
+
+    /**
+     * Verifies that a provided server proof is correct, feeding the segments of the auth message to the HMAC
+     * incrementally.
+     * @param scramMechanism The SCRAM mechanism
+     * @param serverKey The server key
+     * @param authMessage The auth message
+     * @param serverSignature The provided server signature
+     * @return True if the server signature is correct
+     */
+    public static boolean verifyServerSignature(
+            ScramMechanism scramMechanism, byte[] serverKey, AuthMessage authMessage, byte[] serverSignature
+    ) {
+        return Arrays.equals(serverSignature(scramMechanism, serverKey, authMessage), serverSignature);
+    }
+
+    /**
+     * Verifies that a provided server signature is correct, from the UTF-8 bytes of the auth message.
+     * The signature is computed on the scratch buffer, and the comparison is performed in constant time.
+     * @param scramMechanism The SCRAM mechanism
+     * @param mac A Mac instance of the SCRAM mechanism
+     * @param serverKey The server key
+     * @param authMessage The buffer containing the UTF-8 bytes of the auth message
+     * @param authMessageOffset The offset of the auth message in its buffer
+     * @param authMessageLength The length of the auth message
+     * @param serverSignature The buffer containing the provided server signature
+     * @param serverSignatureOffset The offset of the server signature in its buffer
+     * @param scratch A buffer of, at least, the length of the signature, whose contents are overwritten
+     * @return True if the server signature is correct
+     * @throws IllegalArgumentException If any of the buffers is too short
+     */
+    public static boolean verifyServerSignature(
+            ScramMechanism scramMechanism, Mac mac, byte[] serverKey, byte[] authMessage, int authMessageOffset,
+            int authMessageLength, byte[] serverSignature, int serverSignatureOffset, byte[] scratch
+    ) throws IllegalArgumentException {
+        int length = serverSignature(
+                scramMechanism, mac, serverKey, authMessage, authMessageOffset, authMessageLength, scratch, 0
+        );
+
+        return serverSignatureOffset + length <= serverSignature.length
+                && CryptoUtil.constantTimeEquals(serverSignature, serverSignatureOffset, scratch, 0, length);
+    }
 }
@@ -24,6 +24,8 @@
 package com.ongres.scram.common;
 
 
+import com.ongres.scram.common.util.CryptoUtil;
+
 import javax.crypto.Mac;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.SecretKeySpec;
@@ -72,6 +74,18 @@ public interface ScramMechanism {
      */
     SecretKeyFactory secretKeyFactory();
 
+    /**
+     * Computes the "Hi" function (PBKDF2 with the HMAC algorithm of this mechanism as the PRF).
+     * The default implementation uses the {@link SecretKeyFactory} returned by {@link #secretKeyFactory()}.
+     * @param value The String to compute the Hi function
+     * @param salt The salt
+     * @param iterations The number of iterations
+     * @return The bytes of the computed Hi value
+     */
+    default byte[] hi(String value, byte[] salt, int iterations) {
+        return CryptoUtil.hi(secretKeyFactory(), algorithmKeyLength(), value, salt, iterations);
+    }
+
     /**
      * Returns the length of the key length  of the algorithm.
      * @return The length (in bits)
@@ -24,9 +24,12 @@
 package com.ongres.scram.common;
 
 
+import com.ongres.scram.common.util.CryptoUtil;
+
 import javax.crypto.Mac;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -72,6 +75,9 @@ public enum ScramMechanisms implements ScramMechanism {
     private final String hmacAlgorithmName;
     private final boolean channelBinding;
     private final int priority;
+    // Never modified once published; only used to clone new instances. Racy initialization is harmless
+    private volatile MessageDigest messageDigestPrototype;
+    private volatile Mac macPrototype;
 
     ScramMechanisms(
             String name, String hashAlgorithmName, int keyLength, String hmacAlgorithmName, boolean channelBinding,
@@ -120,8 +126,7 @@ public enum ScramMechanisms implements ScramMechanism {
         return channelBinding;
     }
 
-    @Override
-    public MessageDigest getMessageDigestInstance() {
+    private MessageDigest newMessageDigestInstance() {
         try {
             return MessageDigest.getInstance(hashAlgorithmName);
         } catch (NoSuchAlgorithmException e) {
@@ -129,15 +134,56 @@ public enum ScramMechanisms implements ScramMechanism {
         }
     }
 
-    @Override
-    public Mac getMacInstance() {
+    private Mac newMacInstance() {
         try {
-            return Mac.getInstance(hmacAlgorithmName);
+            Mac mac = Mac.getInstance(hmacAlgorithmName);
+            mac.getProvider();  // Forces provider selection, so that cloning does not modify the prototype
+            return mac;
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("MAC Algorithm " + hmacAlgorithmName + " not present in current JVM");
         }
     }
 
+    /**
+     * Returns a new MessageDigest instance. Instances are cloned from a prototype, to avoid the cost and the
+     * contention of a provider lookup on every call. If the provider's implementation does not support cloning,
+     * a new instance is looked up instead.
+     */
+    @Override
+    public MessageDigest getMessageDigestInstance() {
+        MessageDigest prototype = messageDigestPrototype;
+        if(null == prototype) {
+            prototype = newMessageDigestInstance();
+            messageDigestPrototype = prototype;
+        }
+
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            return newMessageDigestInstance();
+        }
+    }
+
+    /**
+     * Returns a new, non initialized, Mac instance. Instances are cloned from a prototype, to avoid the cost and the
+     * contention of a provider lookup on every call. If the provider's implementation does not support cloning,
+     * a new instance is looked up instead.
+     */
+    @Override
+    public Mac getMacInstance() {
+        Mac prototype = macPrototype;
+        if(null == prototype) {
+            prototype = newMacInstance();
+            macPrototype = prototype;
+        }
+
+        try {
+            return (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            return newMacInstance();
+        }
+    }
+
     @Override
     public SecretKeySpec secretKeySpec(byte[] key) {
         return new SecretKeySpec(key, hmacAlgorithmName);
@@ -152,6 +198,15 @@ public enum ScramMechanisms implements ScramMechanism {
         }
     }
 
+    /**
+     * Computes the "Hi" function with {@link CryptoUtil#hi(MessageDigest, byte[], byte[], int)},
+     * which reuses the HMAC pad midstates and is faster than the {@link SecretKeyFactory} based implementation.
+     */
+    @Override
+    public byte[] hi(String value, byte[] salt, int iterations) {
+        return CryptoUtil.hi(getMessageDigestInstance(), value.getBytes(StandardCharsets.UTF_8), salt, iterations);
+    }
+
     @Override
     public int algorithmKeyLength() {
         return keyLength;
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.common;
+
+
+import com.ongres.scram.common.util.CryptoUtil;
+
+import javax.crypto.Mac;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * Verifies client proofs and computes server signatures for a single credential (StoredKey and ServerKey),
+ * without allocating and comparing in constant time.
+ *
+ * The HMAC instances are keyed once, on construction. As a {@link Mac} is reset to its keyed state after each
+ * computation, successive verifications only feed the auth message to them: no key is processed again.
+ * Intermediate values (the client signature, ClientKey and the recomputed StoredKey) are computed on a scratch
+ * buffer owned by the instance.
+ *
+ * This class is not thread-safe. Build one instance per credential, and obtain one for each thread or connection
+ * that verifies concurrently with {@link #copy()}, which clones the keyed HMAC state rather than keying it again.
+ */
+public class ScramProofVerifier {
+    private final ScramMechanism scramMechanism;
+    private final byte[] storedKey;
+    private final byte[] serverKey;
+    private final Mac storedKeyMac;
+    private final Mac serverKeyMac;
+    private final MessageDigest messageDigest;
+    private final byte[] scratch;
+
+    /**
+     * Constructs a verifier for the given keys. Arrays are copied.
+     * @param scramMechanism The SCRAM mechanism
+     * @param storedKey The stored key
+     * @param serverKey The server key
+     * @throws IllegalArgumentException If any value is null, or the keys do not have the length of the mechanism
+     */
+    public ScramProofVerifier(ScramMechanism scramMechanism, byte[] storedKey, byte[] serverKey)
+    throws IllegalArgumentException {
+        this.scramMechanism = checkNotNull(scramMechanism, "scramMechanism");
+        this.storedKey = checkNotNull(storedKey, "storedKey").clone();
+        this.serverKey = checkNotNull(serverKey, "serverKey").clone();
+        this.storedKeyMac = keyedMac(scramMechanism, this.storedKey);
+        this.serverKeyMac = keyedMac(scramMechanism, this.serverKey);
+        this.messageDigest = scramMechanism.getMessageDigestInstance();
+        this.scratch = new byte[storedKeyMac.getMacLength()];
+
+        checkArgument(storedKey.length == scratch.length, "storedKey length");
+        checkArgument(serverKey.length == scratch.length, "serverKey length");
+        checkArgument(messageDigest.getDigestLength() == scratch.length, "scramMechanism digest length");
+    }
+
+    /**
+     * Constructs a verifier for the StoredKey and ServerKey of the given verifier.
+     * @param verifier The verifier
+     * @throws IllegalArgumentException If the verifier is null, or its keys do not have the length of its mechanism
+     */
+    public ScramProofVerifier(ScramVerifier verifier) throws IllegalArgumentException {
+        this(
+                checkNotNull(verifier, "verifier").getScramMechanism(), verifier.getStoredKey(),
+                verifier.getServerKey()
+        );
+    }
+
+    private ScramProofVerifier(ScramProofVerifier prototype) {
+        this.scramMechanism = prototype.scramMechanism;
+        this.storedKey = prototype.storedKey;
+        this.serverKey = prototype.serverKey;
+        this.storedKeyMac = copy(prototype.storedKeyMac, scramMechanism, storedKey);
+        this.serverKeyMac = copy(prototype.serverKeyMac, scramMechanism, serverKey);
+        this.messageDigest = scramMechanism.getMessageDigestInstance();
+        this.scratch = new byte[prototype.scratch.length];
+    }
+
+    private static Mac keyedMac(ScramMechanism scramMechanism, byte[] key) {
+        Mac mac = scramMechanism.getMacInstance();
+        try {
+            mac.init(scramMechanism.secretKeySpec(key));
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException("Platform error: unsupported key for HMAC algorithm");
+        }
+
+        return mac;
+    }
+
+    private static Mac copy(Mac mac, ScramMechanism scramMechanism, byte[] key) {
+        try {
+            return (Mac) mac.clone();
+        } catch (CloneNotSupportedException e) {
+            return keyedMac(scramMechanism, key);
+        }
+    }
+
+    /**
+     * Returns a new verifier for the same credential, to be used by another thread.
+     * The keyed HMAC state is cloned if the provider supports it, and only keyed again otherwise.
+     * @return The new verifier
+     */
+    public ScramProofVerifier copy() {
+        return new ScramProofVerifier(this);
+    }
+
+    public ScramMechanism getScramMechanism() {
+        return scramMechanism;
+    }
+
+    /**
+     * The length of client proofs and server signatures, which is the length of the keys.
+     * @return The length, in bytes
+     */
+    public int getProofLength() {
+        return scratch.length;
+    }
+
+    private void checkOutput(byte[] output, int outputOffset) throws IllegalArgumentException {
+        checkNotNull(output, "output");
+        if(outputOffset < 0 || outputOffset + scratch.length > output.length) {
+            throw new IllegalArgumentException("Output buffer too short for the server signature");
+        }
+    }
+
+    private boolean verifyClientProof(byte[] clientProof, int clientProofOffset) throws IllegalArgumentException {
+        int length = CryptoUtil.doFinal(storedKeyMac, scratch, 0);                        // ClientSignature
+        CryptoUtil.xor(scratch, 0, clientProof, clientProofOffset, scratch, 0, length);    // ClientKey
+        CryptoUtil.digest(messageDigest, scratch, 0, length, scratch, 0);                  // StoredKey
+
+        return CryptoUtil.constantTimeEquals(storedKey, 0, scratch, 0, length);
+    }
+
+    /**
+     * Verifies that a provided client proof is correct, from the UTF-8 bytes of the auth message.
+     * @param authMessage The buffer containing the UTF-8 bytes of the auth message
+     * @param authMessageOffset The offset of the auth message in its buffer
+     * @param authMessageLength The length of the auth message
+     * @param clientProof The buffer containing the provided client proof
+     * @param clientProofOffset The offset of the client proof in its buffer.
+     *                          It must be followed by, at least, {@link #getProofLength()} bytes
+     * @return True if the client proof is correct
+     * @throws IllegalArgumentException If any buffer is null or too short
+     */
+    public boolean verifyClientProof(
+            byte[] authMessage, int authMessageOffset, int authMessageLength, byte[] clientProof,
+            int clientProofOffset
+    ) throws IllegalArgumentException {
+        checkNotNull(authMessage, "authMessage");
+        checkNotNull(clientProof, "clientProof");
+        storedKeyMac.update(authMessage, authMessageOffset, authMessageLength);
+
+        return verifyClientProof(clientProof, clientProofOffset);
+    }
+
+    /**
+     * Verifies that a provided client proof is correct, feeding the segments of the auth message to the HMAC
+     * incrementally.
+     * @param authMessage The auth message
+     * @param clientProof The buffer containing the provided client proof
+     * @param clientProofOffset The offset of the client proof in its buffer.
+     *                          It must be followed by, at least, {@link #getProofLength()} bytes
+     * @return True if the client proof is correct
+     * @throws IllegalArgumentException If any value is null or the client proof buffer is too short
+     */
+    public boolean verifyClientProof(AuthMessage authMessage, byte[] clientProof, int clientProofOffset)
+    throws IllegalArgumentException {
+        checkNotNull(authMessage, "authMessage");
+        checkNotNull(clientProof, "clientProof");
+        authMessage.update(storedKeyMac);
+
+        return verifyClientProof(clientProof, clientProofOffset);
+    }
+
+    /**
+     * Computes the server signature, from the UTF-8 bytes of the auth message, writing it to the output buffer.
+     * @param authMessage The buffer containing the UTF-8 bytes of the auth message
+     * @param authMessageOffset The offset of the auth message in its buffer
+     * @param authMessageLength The length of the auth message
+     * @param output The buffer where the server signature is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If any buffer is null or too short
+     */
+    public int serverSignature(
+            byte[] authMessage, int authMessageOffset, int authMessageLength, byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        checkNotNull(authMessage, "authMessage");
+        checkOutput(output, outputOffset);
+        serverKeyMac.update(authMessage, authMessageOffset, authMessageLength);
+
+        return CryptoUtil.doFinal(serverKeyMac, output, outputOffset);
+    }
+
+    /**
+     * Computes the server signature, feeding the segments of the auth message to the HMAC incrementally,
+     * and writing it to the output buffer.
+     * @param authMessage The auth message
+     * @param output The buffer where the server signature is written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If any value is null or the output buffer is too short
+     */
+    public int serverSignature(AuthMessage authMessage, byte[] output, int outputOffset)
+    throws IllegalArgumentException {
+        checkNotNull(authMessage, "authMessage");
+        checkOutput(output, outputOffset);
+        authMessage.update(serverKeyMac);
+
+        return CryptoUtil.doFinal(serverKeyMac, output, outputOffset);
+    }
+
+    /**
+     * Verifies that a provided server signature is correct, from the UTF-8 bytes of the auth message.
+     * @param authMessage The buffer containing the UTF-8 bytes of the auth message
+     * @param authMessageOffset The offset of the auth message in its buffer
+     * @param authMessageLength The length of the auth message
+     * @param serverSignature The buffer containing the provided server signature
+     * @param serverSignatureOffset The offset of the server signature in its buffer
+     * @return True if the server signature is correct
+     * @throws IllegalArgumentException If any buffer is null or the auth message range is out of bounds
+     */
+    public boolean verifyServerSignature(
+            byte[] authMessage, int authMessageOffset, int authMessageLength, byte[] serverSignature,
+            int serverSignatureOffset
+    ) throws IllegalArgumentException {
+        checkNotNull(serverSignature, "serverSignature");
+        int length = serverSignature(authMessage, authMessageOffset, authMessageLength, scratch, 0);
+
+        return serverSignatureOffset >= 0 && serverSignatureOffset + length <= serverSignature.length
+                && CryptoUtil.constantTimeEquals(serverSignature, serverSignatureOffset, scratch, 0, length);
+    }
+}
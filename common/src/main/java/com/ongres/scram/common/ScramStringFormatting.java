@@ -24,9 +24,12 @@
 package com.ongres.scram.common;
 
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
@@ -37,6 +40,16 @@ import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 public class ScramStringFormatting {
     private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder();
     private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+    private static final char BASE64_PADDING = '=';
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for(int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_VALUES[BASE64_ALPHABET[i]] = (byte) i;
+        }
+    }
 
     /**
      * Given a value-safe-char (normalized UTF-8 String),
@@ -140,6 +153,95 @@ public class ScramStringFormatting {
         return BASE64_ENCODER.encodeToString(checkNotNull(value, "value"));
     }
 
+    /**
+     * The length of the base64 representation (with padding) of a value.
+     * @param length The length of the value, in bytes
+     * @return The number of base64 characters
+     */
+    public static int base64EncodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * The base64 character at the given position (0 to 3) of the quantum that encodes the (up to) three bytes
+     * of the value that start at the given index. Positions past the end of the value are padding.
+     */
+    private static char base64Char(byte[] value, int index, int position) {
+        int remaining = value.length - index;
+        if(position > remaining) {
+            return BASE64_PADDING;
+        }
+        int bits = (value[index] & 0xff) << 16
+                | (remaining > 1 ? (value[index + 1] & 0xff) << 8 : 0)
+                | (remaining > 2 ? value[index + 2] & 0xff : 0);
+
+        return BASE64_ALPHABET[(bits >>> (18 - 6 * position)) & 0x3f];
+    }
+
+    /**
+     * Appends the base64 representation (with padding) of a value to the given StringBuilder,
+     * without creating an intermediate String.
+     * @param value The value to encode
+     * @param sb Where to write the encoded value
+     * @return The same StringBuilder
+     * @throws IllegalArgumentException If any argument is null
+     */
+    public static StringBuilder base64Encode(byte[] value, StringBuilder sb) throws IllegalArgumentException {
+        checkNotNull(value, "value");
+        checkNotNull(sb, "sb");
+        for(int i = 0; i < value.length; i += 3) {
+            for(int position = 0; position < 4; position++) {
+                sb.append(base64Char(value, i, position));
+            }
+        }
+
+        return sb;
+    }
+
+    /**
+     * Writes the base64 representation (with padding) of a value into a char array.
+     * @param value The value to encode
+     * @param output Where to write the encoded value
+     * @param offset The offset in the output array
+     * @return The offset after the last written character
+     * @throws IllegalArgumentException If any argument is null, or the output array is too short
+     */
+    public static int base64Encode(byte[] value, char[] output, int offset) throws IllegalArgumentException {
+        checkNotNull(value, "value");
+        checkNotNull(output, "output");
+        checkArgument(offset >= 0 && offset + base64EncodedLength(value.length) <= output.length, "offset");
+        int out = offset;
+        for(int i = 0; i < value.length; i += 3) {
+            for(int position = 0; position < 4; position++) {
+                output[out++] = base64Char(value, i, position);
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Writes the US-ASCII base64 representation (with padding) of a value at the current position of the buffer,
+     * advancing it. The value is encoded in place, without intermediate arrays.
+     * @param value The value to encode
+     * @param buffer Where to write the encoded value. Heap and direct buffers are supported
+     * @return The same buffer
+     * @throws IllegalArgumentException If any argument is null,
+     *                                  or the buffer has not enough remaining space (then nothing is written)
+     */
+    public static ByteBuffer base64Encode(byte[] value, ByteBuffer buffer) throws IllegalArgumentException {
+        checkNotNull(value, "value");
+        checkNotNull(buffer, "buffer");
+        checkArgument(base64EncodedLength(value.length) <= buffer.remaining(), "buffer remaining");
+        for(int i = 0; i < value.length; i += 3) {
+            for(int position = 0; position < 4; position++) {
+                buffer.put((byte) base64Char(value, i, position));
+            }
+        }
+
+        return buffer;
+    }
+
     public static String base64Encode(String value) throws IllegalArgumentException {
         return base64Encode(checkNotEmpty(value, "value").getBytes(StandardCharsets.UTF_8));
     }
@@ -147,4 +249,102 @@ public class ScramStringFormatting {
     public static byte[] base64Decode(String value) throws IllegalArgumentException {
         return BASE64_DECODER.decode(checkNotEmpty(value, "value"));
     }
+
+    private static int base64Padding(CharSequence value, int from, int to) throws IllegalArgumentException {
+        checkNotNull(value, "value");
+        if(from < 0 || to > value.length() || to <= from || (to - from) % 4 != 0) {
+            throw new IllegalArgumentException("Invalid base64 length");
+        }
+
+        return value.charAt(to - 1) != BASE64_PADDING ? 0 : value.charAt(to - 2) != BASE64_PADDING ? 1 : 2;
+    }
+
+    /**
+     * Checks, without throwing, whether a range of characters is valid base64 (with padding).
+     * @param value The characters
+     * @param from The index of the first base64 character
+     * @param to The index after the last base64 character
+     * @return True if the range is non-empty, valid base64
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static boolean isBase64(CharSequence value, int from, int to) throws IllegalArgumentException {
+        checkNotNull(value, "value");
+        if(from < 0 || to > value.length() || to <= from || (to - from) % 4 != 0) {
+            return false;
+        }
+
+        int padding = value.charAt(to - 1) != BASE64_PADDING ? 0 : value.charAt(to - 2) != BASE64_PADDING ? 1 : 2;
+        for(int i = from; i < to - padding; i++) {
+            char c = value.charAt(i);
+            if(c >= BASE64_VALUES.length || BASE64_VALUES[c] < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes the length of the decoded value of a range of base64 characters, without decoding it.
+     * @param value The characters
+     * @param from The index of the first base64 character
+     * @param to The index after the last base64 character
+     * @return The decoded length, in bytes
+     * @throws IllegalArgumentException If the value is null, or the range is not a valid base64 length
+     */
+    public static int base64DecodedLength(CharSequence value, int from, int to) throws IllegalArgumentException {
+        return (to - from) / 4 * 3 - base64Padding(value, from, to);
+    }
+
+    private static int base64Value(CharSequence value, int index) throws IllegalArgumentException {
+        char c = value.charAt(index);
+        int decoded = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+        if(decoded < 0) {
+            throw new IllegalArgumentException("Invalid base64 character");
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Decodes a range of base64 characters (with padding) into the given buffer, without intermediate copies.
+     * Any {@link CharSequence} is accepted, including a {@link com.ongres.scram.common.util.ByteCharSequence}
+     * over the bytes received from the wire.
+     * @param value The characters
+     * @param from The index of the first base64 character
+     * @param to The index after the last base64 character
+     * @param output The buffer where the decoded bytes are written
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the value is not valid base64, or the output buffer is too short
+     */
+    public static int base64Decode(CharSequence value, int from, int to, byte[] output, int outputOffset)
+    throws IllegalArgumentException {
+        int padding = base64Padding(value, from, to);
+        int length = (to - from) / 4 * 3 - padding;
+        checkNotNull(output, "output");
+        if(outputOffset < 0 || outputOffset + length > output.length) {
+            throw new IllegalArgumentException("Output buffer too short for the decoded value");
+        }
+
+        int out = outputOffset;
+        int end = to - (padding > 0 ? 4 : 0);
+        for(int i = from; i < end; i += 4) {
+            int bits = base64Value(value, i) << 18 | base64Value(value, i + 1) << 12
+                    | base64Value(value, i + 2) << 6 | base64Value(value, i + 3);
+            output[out++] = (byte) (bits >> 16);
+            output[out++] = (byte) (bits >> 8);
+            output[out++] = (byte) bits;
+        }
+        if(padding > 0) {
+            int bits = base64Value(value, end) << 18 | base64Value(value, end + 1) << 12
+                    | (padding == 1 ? base64Value(value, end + 2) << 6 : 0);
+            output[out++] = (byte) (bits >> 16);
+            if(padding == 1) {
+                output[out] = (byte) (bits >> 8);
+            }
+        }
+
+        return length;
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * The information a SCRAM server needs to store to authenticate a user, without storing the password:
+ * the SCRAM mechanism, the salt, the iteration count, the StoredKey and the ServerKey.
+ * This class is immutable.
+ */
+public class ScramVerifier {
+    private final ScramMechanism scramMechanism;
+    private final byte[] salt;
+    private final int iteration;
+    private final byte[] storedKey;
+    private final byte[] serverKey;
+    private int hash;
+
+    /**
+     * Constructs a verifier. Arrays are copied.
+     * @param scramMechanism The SCRAM mechanism
+     * @param salt The salt
+     * @param iteration The iteration count
+     * @param storedKey The stored key
+     * @param serverKey The server key
+     * @throws IllegalArgumentException If any value is null, or the iteration count is not positive
+     */
+    public ScramVerifier(
+            ScramMechanism scramMechanism, byte[] salt, int iteration, byte[] storedKey, byte[] serverKey
+    ) throws IllegalArgumentException {
+        this.scramMechanism = checkNotNull(scramMechanism, "scramMechanism");
+        this.salt = checkNotNull(salt, "salt").clone();
+        this.iteration = gt0(iteration, "iteration");
+        this.storedKey = checkNotNull(storedKey, "storedKey").clone();
+        this.serverKey = checkNotNull(serverKey, "serverKey").clone();
+    }
+
+    public ScramMechanism getScramMechanism() {
+        return scramMechanism;
+    }
+
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public byte[] getStoredKey() {
+        return storedKey.clone();
+    }
+
+    public byte[] getServerKey() {
+        return serverKey.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(! (o instanceof ScramVerifier)) {
+            return false;
+        }
+        ScramVerifier that = (ScramVerifier) o;
+
+        return iteration == that.iteration
+                && scramMechanism.getName().equals(that.scramMechanism.getName())
+                && Arrays.equals(salt, that.salt)
+                && Arrays.equals(storedKey, that.storedKey)
+                && Arrays.equals(serverKey, that.serverKey);
+    }
+
+    /**
+     * The hash code. It is computed on first use and then remembered, as verifiers are used as cache keys.
+     * @return The hash code
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if(0 == h) {
+            h = Objects.hash(scramMechanism.getName(), iteration, Arrays.hashCode(salt), Arrays.hashCode(storedKey));
+            hash = h;
+        }
+
+        return h;
+    }
+}
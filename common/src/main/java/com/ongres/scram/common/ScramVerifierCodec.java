@@ -0,0 +1,412 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.util.ByteCharSequence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * Parses and writes {@link ScramVerifier}s in the text format used by PostgreSQL to store SCRAM passwords:
+ *
+ * {@code
+ *      SCRAM-SHA-256$<iteration count>:<salt>$<StoredKey>:<ServerKey>
+ * }
+ *
+ * where salt and keys are base64-encoded. Any SCRAM mechanism without channel binding is accepted.
+ *
+ * Values are parsed directly from {@code byte[]} (US-ASCII) or {@link CharSequence} ranges, and base64 values are
+ * decoded straight into arrays of their exact length, without intermediate Strings or buffers.
+ * {@link #read(InputStream)} parses a stream of verifiers, one per line, in bulk.
+ */
+public class ScramVerifierCodec {
+    private static final char MECHANISM_SEPARATOR = '$';
+    private static final char FIELD_SEPARATOR = ':';
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private ScramVerifierCodec() {
+    }
+
+    /**
+     * Parses a verifier.
+     * @param value The verifier
+     * @return The parsed verifier
+     * @throws ScramParseException If the value is not a valid verifier
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static ScramVerifier parse(CharSequence value) throws ScramParseException, IllegalArgumentException {
+        checkNotNull(value, "value");
+
+        return parse(value, 0, value.length());
+    }
+
+    /**
+     * Parses a verifier from a range of a US-ASCII encoded byte array.
+     * @param value The buffer containing the verifier
+     * @param offset The offset of the verifier in the buffer
+     * @param length The length of the verifier
+     * @return The parsed verifier
+     * @throws ScramParseException If the value is not a valid verifier
+     * @throws IllegalArgumentException If the value is null or the range is out of bounds
+     */
+    public static ScramVerifier parse(byte[] value, int offset, int length)
+    throws ScramParseException, IllegalArgumentException {
+        checkNotNull(value, "value");
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= value.length, "offset and length");
+
+        return parse(new ByteCharSequence().set(value, offset, length), 0, length);
+    }
+
+    private static int indexOf(CharSequence value, char c, int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(value.charAt(i) == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static ScramMechanism mechanism(CharSequence value, int from, int to) throws ScramParseException {
+        for(ScramMechanisms scramMechanism : ScramMechanisms.values()) {
+            String name = scramMechanism.getName();
+            if(scramMechanism.supportsChannelBinding() || name.length() != to - from) {
+                continue;
+            }
+            int i = 0;
+            while(i < name.length() && name.charAt(i) == value.charAt(from + i)) {
+                i++;
+            }
+            if(i == name.length()) {
+                return scramMechanism;
+            }
+        }
+
+        throw new ScramParseException("Unsupported SCRAM mechanism in verifier");
+    }
+
+    private static int iteration(CharSequence value, int from, int to) throws ScramParseException {
+        if(from == to || to - from > 10) {
+            throw new ScramParseException("Invalid iteration count in verifier");
+        }
+        long iteration = 0;
+        for(int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if(c < '0' || c > '9') {
+                throw new ScramParseException("Invalid iteration count in verifier");
+            }
+            iteration = iteration * 10 + (c - '0');
+        }
+        if(iteration < 1 || iteration > Integer.MAX_VALUE) {
+            throw new ScramParseException("Invalid iteration count in verifier");
+        }
+
+        return (int) iteration;
+    }
+
+    /**
+     * Decodes a range of base64 characters into a new array of the exact decoded length.
+     */
+    private static byte[] base64Decode(CharSequence value, int from, int to) throws ScramParseException {
+        try {
+            byte[] decoded = new byte[ScramStringFormatting.base64DecodedLength(value, from, to)];
+            ScramStringFormatting.base64Decode(value, from, to, decoded, 0);
+
+            return decoded;
+        } catch (IllegalArgumentException e) {
+            throw new ScramParseException("Invalid base64 value in verifier", e);
+        }
+    }
+
+    private static ScramVerifier parse(CharSequence value, int from, int to) throws ScramParseException {
+        int mechanismEnd = indexOf(value, MECHANISM_SEPARATOR, from, to);
+        int iterationEnd = mechanismEnd < 0 ? -1 : indexOf(value, FIELD_SEPARATOR, mechanismEnd + 1, to);
+        int saltEnd = iterationEnd < 0 ? -1 : indexOf(value, MECHANISM_SEPARATOR, iterationEnd + 1, to);
+        int storedKeyEnd = saltEnd < 0 ? -1 : indexOf(value, FIELD_SEPARATOR, saltEnd + 1, to);
+        if(storedKeyEnd < 0) {
+            throw new ScramParseException("Invalid verifier format");
+        }
+
+        ScramMechanism scramMechanism = mechanism(value, from, mechanismEnd);
+        int iteration = iteration(value, mechanismEnd + 1, iterationEnd);
+        byte[] salt = base64Decode(value, iterationEnd + 1, saltEnd);
+        byte[] storedKey = base64Decode(value, saltEnd + 1, storedKeyEnd);
+        byte[] serverKey = base64Decode(value, storedKeyEnd + 1, to);
+        int keyLength = scramMechanism.algorithmKeyLength() / 8;
+        if(storedKey.length != keyLength || serverKey.length != keyLength) {
+            throw new ScramParseException("Invalid key length in verifier");
+        }
+
+        return new ScramVerifier(scramMechanism, salt, iteration, storedKey, serverKey);
+    }
+
+    /**
+     * The length of the text representation of a verifier.
+     * @param verifier The verifier
+     * @return The number of characters (or US-ASCII bytes)
+     * @throws IllegalArgumentException If the verifier is null
+     */
+    public static int length(ScramVerifier verifier) throws IllegalArgumentException {
+        checkNotNull(verifier, "verifier");
+        int keyLength = ScramStringFormatting.base64EncodedLength(
+                verifier.getScramMechanism().algorithmKeyLength() / 8
+        );
+
+        return verifier.getScramMechanism().getName().length() + 1
+                + Integer.toString(verifier.getIteration()).length() + 1
+                + ScramStringFormatting.base64EncodedLength(verifier.getSalt().length) + 1
+                + keyLength + 1 + keyLength;
+    }
+
+    private static int copy(String value, char[] output, int offset) {
+        value.getChars(0, value.length(), output, offset);
+
+        return offset + value.length();
+    }
+
+    private static char[] toChars(ScramVerifier verifier) {
+        char[] chars = new char[length(verifier)];
+        int i = copy(verifier.getScramMechanism().getName(), chars, 0);
+        chars[i++] = MECHANISM_SEPARATOR;
+        i = copy(Integer.toString(verifier.getIteration()), chars, i);
+        chars[i++] = FIELD_SEPARATOR;
+        i = ScramStringFormatting.base64Encode(verifier.getSalt(), chars, i);
+        chars[i++] = MECHANISM_SEPARATOR;
+        i = ScramStringFormatting.base64Encode(verifier.getStoredKey(), chars, i);
+        chars[i++] = FIELD_SEPARATOR;
+        ScramStringFormatting.base64Encode(verifier.getServerKey(), chars, i);
+
+        return chars;
+    }
+
+    /**
+     * Writes the text representation of a verifier.
+     * @param verifier The verifier
+     * @return The text representation
+     * @throws IllegalArgumentException If the verifier is null
+     */
+    public static String write(ScramVerifier verifier) throws IllegalArgumentException {
+        return new String(toChars(verifier));
+    }
+
+    /**
+     * Writes the text representation of a verifier to the given appendable.
+     * @param verifier The verifier
+     * @param appendable Where to write the verifier
+     * @param <T> The type of the appendable
+     * @return The same appendable
+     * @throws IOException If the appendable throws it
+     * @throws IllegalArgumentException If any argument is null
+     */
+    public static <T extends Appendable> T writeTo(ScramVerifier verifier, T appendable)
+    throws IOException, IllegalArgumentException {
+        checkNotNull(appendable, "appendable");
+        char[] chars = toChars(verifier);
+        for(char c : chars) {
+            appendable.append(c);
+        }
+
+        return appendable;
+    }
+
+    /**
+     * Writes the US-ASCII representation of a verifier to the given buffer.
+     * @param verifier The verifier
+     * @param output The buffer where the verifier is written. It must have room for {@link #length(ScramVerifier)}
+     *               bytes after the offset
+     * @param offset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If any argument is null, or the buffer is too short
+     */
+    public static int writeTo(ScramVerifier verifier, byte[] output, int offset) throws IllegalArgumentException {
+        checkNotNull(output, "output");
+        char[] chars = toChars(verifier);
+        checkArgument(offset >= 0 && offset + chars.length <= output.length, "output buffer length");
+        for(int i = 0; i < chars.length; i++) {
+            output[offset + i] = (byte) chars[i];
+        }
+
+        return chars.length;
+    }
+
+    /**
+     * Parses, lazily, a stream of US-ASCII verifiers, one per line. Empty lines are skipped.
+     * The input stream is read in large blocks, and lines are parsed in place, without creating Strings.
+     * The returned stream throws {@link UncheckedIOException} on I/O errors, and {@link IllegalArgumentException}
+     * (caused by a {@link ScramParseException}) on invalid lines. Closing it closes the input stream.
+     * @param inputStream The input stream. It need not be buffered
+     * @return A sequential stream of verifiers
+     * @throws IllegalArgumentException If the input stream is null
+     */
+    public static Stream<ScramVerifier> read(InputStream inputStream) throws IllegalArgumentException {
+        Iterator<ScramVerifier> iterator = new LineIterator(checkNotNull(inputStream, "inputStream"));
+
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false
+        ).onClose(() -> {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Parses, lazily, a file of verifiers, one per line. See {@link #read(InputStream)}.
+     * The returned stream should be closed, to close the file.
+     * @param path The file
+     * @return A sequential stream of verifiers
+     * @throws IOException If the file cannot be opened
+     * @throws IllegalArgumentException If the path is null
+     */
+    public static Stream<ScramVerifier> read(Path path) throws IOException, IllegalArgumentException {
+        return read(Files.newInputStream(checkNotNull(path, "path")));
+    }
+
+    private static class LineIterator implements Iterator<ScramVerifier> {
+        private final InputStream inputStream;
+        private final ByteCharSequence line = new ByteCharSequence();
+        private byte[] buffer = new byte[READ_BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private boolean eof;
+        private long lineNumber;
+        private ScramVerifier next;
+
+        private LineIterator(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * Makes room and reads more data into the buffer, growing it if a single line does not fit.
+         * @return False if the end of the stream was reached
+         */
+        private boolean fill() throws IOException {
+            if(eof) {
+                return false;
+            }
+            if(position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if(limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if(read < 0) {
+                eof = true;
+                return false;
+            }
+            limit += read;
+
+            return true;
+        }
+
+        private ScramVerifier parseLine(int from, int to) {
+            lineNumber++;
+            if(to > from && buffer[to - 1] == '\r') {
+                to--;
+            }
+            if(to == from) {
+                return null;
+            }
+            try {
+                return parse(line.set(buffer, from, to - from), 0, to - from);
+            } catch (ScramParseException e) {
+                throw new IllegalArgumentException("Invalid verifier at line " + lineNumber, e);
+            }
+        }
+
+        private ScramVerifier advance() throws IOException {
+            int scan = position;
+            while(true) {
+                while(scan < limit) {
+                    if(buffer[scan] == '\n') {
+                        int from = position;
+                        position = scan + 1;
+                        ScramVerifier verifier = parseLine(from, scan);
+                        if(null != verifier) {
+                            return verifier;
+                        }
+                    }
+                    scan++;
+                }
+                int scanned = scan - position;
+                if(! fill()) {
+                    if(position < limit) {   // Last line, without end of line
+                        int from = position;
+                        position = limit;
+                        return parseLine(from, limit);
+                    }
+                    return null;
+                }
+                scan = position + scanned;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(null == next) {
+                try {
+                    next = advance();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            return null != next;
+        }
+
+        @Override
+        public ScramVerifier next() {
+            if(! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ScramVerifier verifier = next;
+            next = null;
+
+            return verifier;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import com.ongres.scram.common.stringprep.StringPreparation;
+import com.ongres.scram.common.util.CryptoUtil;
+
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * Derives {@link ScramVerifier}s from passwords, in bulk, as when provisioning or migrating users.
+ * Each verifier is generated with a new random salt.
+ *
+ * Records are read in chunks, and each chunk is processed in parallel on a {@link ForkJoinPool},
+ * while the results of the previous chunk are being consumed. So at most two chunks are held in memory,
+ * regardless of the number of records. Results are returned in the same order as the records.
+ * Each worker thread keeps its own Mac, MessageDigest and SecureRandom instances.
+ *
+ * This class is thread-safe.
+ */
+public class ScramVerifierDeriver {
+    /**
+     * Length (in bytes) of the salt generated by default
+     */
+    public static final int DEFAULT_SALT_LENGTH = 16;
+
+    /**
+     * Iteration count used by default
+     */
+    public static final int DEFAULT_ITERATION = 4096;
+
+    /**
+     * Number of records processed in parallel by default, on each chunk
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final ScramMechanism scramMechanism;
+    private final StringPreparation stringPreparation;
+    private final int iteration;
+    private final int saltLength;
+    private final ForkJoinPool forkJoinPool;
+    private final int chunkSize;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    private ScramVerifierDeriver(
+            ScramMechanism scramMechanism, StringPreparation stringPreparation, int iteration, int saltLength,
+            ForkJoinPool forkJoinPool, int chunkSize
+    ) {
+        this.scramMechanism = scramMechanism;
+        this.stringPreparation = stringPreparation;
+        this.iteration = iteration;
+        this.saltLength = saltLength;
+        this.forkJoinPool = forkJoinPool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Creates a builder for a deriver of the given mechanism and string preparation.
+     * @param scramMechanism The SCRAM mechanism of the verifiers
+     * @param stringPreparation The string preparation applied to the passwords
+     * @return The builder
+     * @throws IllegalArgumentException If any argument is null
+     */
+    public static Builder builder(ScramMechanism scramMechanism, StringPreparation stringPreparation)
+    throws IllegalArgumentException {
+        return new Builder(
+                checkNotNull(scramMechanism, "scramMechanism"), checkNotNull(stringPreparation, "stringPreparation")
+        );
+    }
+
+    /**
+     * Builder for {@link ScramVerifierDeriver}. Create it with
+     * {@link ScramVerifierDeriver#builder(ScramMechanism, StringPreparation)}.
+     */
+    public static class Builder {
+        private final ScramMechanism scramMechanism;
+        private final StringPreparation stringPreparation;
+        private int iteration = DEFAULT_ITERATION;
+        private int saltLength = DEFAULT_SALT_LENGTH;
+        private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+        private Builder(ScramMechanism scramMechanism, StringPreparation stringPreparation) {
+            this.scramMechanism = scramMechanism;
+            this.stringPreparation = stringPreparation;
+        }
+
+        /**
+         * Optional call. Sets the iteration count, {@link ScramVerifierDeriver#DEFAULT_ITERATION} by default.
+         * @param iteration The iteration count
+         * @return The same class
+         * @throws IllegalArgumentException If iteration is less than 1
+         */
+        public Builder iteration(int iteration) throws IllegalArgumentException {
+            this.iteration = gt0(iteration, "iteration");
+
+            return this;
+        }
+
+        /**
+         * Optional call. Sets the length of the salt, {@link ScramVerifierDeriver#DEFAULT_SALT_LENGTH} by default.
+         * @param saltLength The length of the salt, in bytes
+         * @return The same class
+         * @throws IllegalArgumentException If saltLength is less than 1
+         */
+        public Builder saltLength(int saltLength) throws IllegalArgumentException {
+            this.saltLength = gt0(saltLength, "saltLength");
+
+            return this;
+        }
+
+        /**
+         * Optional call. Sets the pool where verifiers are derived, the {@link ForkJoinPool#commonPool()} by default.
+         * @param forkJoinPool The pool
+         * @return The same class
+         * @throws IllegalArgumentException If forkJoinPool is null
+         */
+        public Builder forkJoinPool(ForkJoinPool forkJoinPool) throws IllegalArgumentException {
+            this.forkJoinPool = checkNotNull(forkJoinPool, "forkJoinPool");
+
+            return this;
+        }
+
+        /**
+         * Optional call. Sets the number of records read and processed in parallel at once,
+         * {@link ScramVerifierDeriver#DEFAULT_CHUNK_SIZE} by default.
+         * It should be some times the parallelism of the pool.
+         * @param chunkSize The number of records
+         * @return The same class
+         * @throws IllegalArgumentException If chunkSize is less than 1
+         */
+        public Builder chunkSize(int chunkSize) throws IllegalArgumentException {
+            this.chunkSize = gt0(chunkSize, "chunkSize");
+
+            return this;
+        }
+
+        /**
+         * Gets the deriver, fully constructed and configured.
+         * @return The fully built instance.
+         */
+        public ScramVerifierDeriver setup() {
+            return new ScramVerifierDeriver(
+                    scramMechanism, stringPreparation, iteration, saltLength, forkJoinPool, chunkSize
+            );
+        }
+    }
+
+    /**
+     * The per-thread state used to derive verifiers.
+     */
+    private class Worker {
+        private final MessageDigest messageDigest = scramMechanism.getMessageDigestInstance();
+        private final Mac mac = scramMechanism.getMacInstance();
+        private final SecureRandom secureRandom = new SecureRandom();
+    }
+
+    /**
+     * The verifier derived for a given record.
+     * @param <T> The type of the records
+     */
+    public static class Result<T> {
+        private final T record;
+        private final ScramVerifier verifier;
+
+        private Result(T record, ScramVerifier verifier) {
+            this.record = record;
+            this.verifier = verifier;
+        }
+
+        public T getRecord() {
+            return record;
+        }
+
+        public ScramVerifier getVerifier() {
+            return verifier;
+        }
+    }
+
+    /**
+     * Derives a verifier for the given password, on the calling thread.
+     * @param password The password
+     * @return The verifier, with a new random salt
+     * @throws IllegalArgumentException If the password is null
+     */
+    public ScramVerifier derive(String password) throws IllegalArgumentException {
+        checkNotNull(password, "password");
+        Worker worker = workers.get();
+
+        byte[] salt = new byte[saltLength];
+        worker.secureRandom.nextBytes(salt);
+        byte[] saltedPassword = CryptoUtil.hi(
+                worker.messageDigest, stringPreparation.normalize(password).getBytes(StandardCharsets.UTF_8), salt,
+                iteration
+        );
+        byte[] storedKey = new byte[worker.mac.getMacLength()];
+        ScramFunctions.clientKey(scramMechanism, worker.mac, saltedPassword, storedKey, 0);
+        ScramFunctions.storedKey(worker.messageDigest, storedKey, 0, storedKey, 0);
+        byte[] serverKey = new byte[worker.mac.getMacLength()];
+        ScramFunctions.serverKey(scramMechanism, worker.mac, saltedPassword, serverKey, 0);
+        Arrays.fill(saltedPassword, (byte) 0);
+
+        return new ScramVerifier(scramMechanism, salt, iteration, storedKey, serverKey);
+    }
+
+    /**
+     * Derives verifiers for the given records, in parallel.
+     * The returned stream is lazy: records are read as results are consumed.
+     * @param records The records, typically users
+     * @param passwordFunction Function that returns the password of a record
+     * @param <T> The type of the records
+     * @return A sequential stream of results, in the same order as the records
+     * @throws IllegalArgumentException If any argument is null
+     */
+    public <T> Stream<Result<T>> derive(Iterator<T> records, Function<? super T, String> passwordFunction)
+    throws IllegalArgumentException {
+        Iterator<Result<T>> results = new ChunkIterator<>(
+                checkNotNull(records, "records"), checkNotNull(passwordFunction, "passwordFunction")
+        );
+
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED | Spliterator.NONNULL), false
+        );
+    }
+
+    /**
+     * Derives verifiers for the given records, in parallel.
+     * The returned stream is lazy: records are read as results are consumed. Closing it closes the records stream.
+     * @param records The records, typically users
+     * @param passwordFunction Function that returns the password of a record
+     * @param <T> The type of the records
+     * @return A sequential stream of results, in the same order as the records
+     * @throws IllegalArgumentException If any argument is null
+     */
+    public <T> Stream<Result<T>> derive(Stream<T> records, Function<? super T, String> passwordFunction)
+    throws IllegalArgumentException {
+        checkNotNull(records, "records");
+
+        return derive(records.iterator(), passwordFunction).onClose(records::close);
+    }
+
+    private class ChunkIterator<T> implements Iterator<Result<T>> {
+        private final Iterator<T> records;
+        private final Function<? super T, String> passwordFunction;
+        private ChunkTask<T> next;
+        private Iterator<Result<T>> current = Collections.emptyIterator();
+
+        private ChunkIterator(Iterator<T> records, Function<? super T, String> passwordFunction) {
+            this.records = records;
+            this.passwordFunction = passwordFunction;
+        }
+
+        private ChunkTask<T> submitChunk() {
+            if(! records.hasNext()) {
+                return null;
+            }
+
+            Object[] chunk = new Object[chunkSize];
+            int size = 0;
+            while(size < chunkSize && records.hasNext()) {
+                chunk[size++] = records.next();
+            }
+            ChunkTask<T> task = new ChunkTask<>(passwordFunction, chunk, new ScramVerifier[size], 0, size);
+            forkJoinPool.execute(task);
+
+            return task;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(null == next && ! current.hasNext()) {
+                next = submitChunk();
+            }
+            while(! current.hasNext()) {
+                if(null == next) {
+                    return false;
+                }
+                ChunkTask<T> task = next;
+                task.join();
+                next = submitChunk();   // Derive the next chunk while this one is consumed
+                current = task.results();
+            }
+
+            return true;
+        }
+
+        @Override
+        public Result<T> next() {
+            if(! hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return current.next();
+        }
+    }
+
+    private class ChunkTask<T> extends RecursiveAction {
+        private final Function<? super T, String> passwordFunction;
+        private final Object[] records;
+        private final ScramVerifier[] verifiers;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(
+                Function<? super T, String> passwordFunction, Object[] records, ScramVerifier[] verifiers,
+                int from, int to
+        ) {
+            this.passwordFunction = passwordFunction;
+            this.records = records;
+            this.verifiers = verifiers;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void compute() {
+            if(to - from == 1) {
+                verifiers[from] = derive(passwordFunction.apply((T) records[from]));
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(
+                    new ChunkTask<T>(passwordFunction, records, verifiers, from, middle),
+                    new ChunkTask<T>(passwordFunction, records, verifiers, middle, to)
+            );
+        }
+
+        @SuppressWarnings("unchecked")
+        private Iterator<Result<T>> results() {
+            return new Iterator<Result<T>>() {
+                private int i = from;
+
+                @Override
+                public boolean hasNext() {
+                    return i < to;
+                }
+
+                @Override
+                public Result<T> next() {
+                    if(! hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Result<T> result = new Result<>((T) records[i], verifiers[i]);
+                    records[i] = null;
+                    i++;
+
+                    return result;
+                }
+            };
+        }
+    }
+}
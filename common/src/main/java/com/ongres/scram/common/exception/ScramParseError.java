@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.exception;
+
+
+/**
+ * Error codes of the failures found when parsing SCRAM messages.
+ * Descriptions are constant; details about the failure are only appended when a message is actually requested.
+ */
+public enum ScramParseError {
+    INVALID_MESSAGE("Invalid message"),
+    INVALID_GS2_HEADER("Invalid GS2 header"),
+    INVALID_ATTRIBUTE_VALUE("Invalid attribute-value"),
+    UNKNOWN_ATTRIBUTE("Unknown attribute"),
+    UNEXPECTED_ATTRIBUTE("Unexpected attribute"),
+    INVALID_NONCE("Invalid nonce"),
+    INVALID_ITERATION("Invalid iteration count"),
+    INVALID_BASE64("Invalid base64 value"),
+    UNKNOWN_SERVER_ERROR("Unknown server error")
+    ;
+
+    private final String description;
+
+    ScramParseError(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Formats a message for this error.
+     * @param detail The detail of the failure, or null
+     * @return The description, followed by the detail (if any)
+     */
+    public String format(Object detail) {
+        return null == detail ? description : description + ": " + detail;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.exception;
+
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A {@link ScramParseException} that is cheap to create: it does not fill in its stack trace, and its message is
+ * only formatted (from the error code and detail) when requested. It is thrown by the parse methods of the
+ * SCRAM messages, where malformed input is an expected outcome rather than a programming error.
+ */
+public class StacklessScramParseException extends ScramParseException {
+    private final ScramParseError error;
+    private final Object detail;
+
+    /**
+     * Constructs a new instance of StacklessScramParseException.
+     * @param error The error code
+     * @param detail The detail of the failure, or null. Its String representation is only used if the message is
+     *               requested
+     * @throws IllegalArgumentException If the error is null
+     */
+    public StacklessScramParseException(ScramParseError error, Object detail) throws IllegalArgumentException {
+        super((String) null);
+        this.error = checkNotNull(error, "error");
+        this.detail = detail;
+    }
+
+    public ScramParseError getError() {
+        return error;
+    }
+
+    @Override
+    public String getMessage() {
+        return error.format(detail);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -34,6 +34,10 @@ public class Gs2AttributeValue extends AbstractCharAttributeValue {
         super(attribute, value);
     }
 
+    public static StringBuilder writeTo(StringBuilder sb, Gs2Attributes attribute, String value) {
+        return new Gs2AttributeValue(attribute, value).writeTo(sb);
+    }
+
     public static StringBuffer writeTo(StringBuffer sb, Gs2Attributes attribute, String value) {
         return new Gs2AttributeValue(attribute, value).writeTo(sb);
     }
@@ -26,10 +26,14 @@ package com.ongres.scram.common.gssapi;
 
 import com.ongres.scram.common.util.StringWritableCsv;
 import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.util.AbstractStringWritable;
+import com.ongres.scram.common.util.ParseResult;
 
+import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
 
@@ -48,6 +52,8 @@ import static com.ongres.scram.common.util.Preconditions.checkNotNull;
  * @see <a href="https://tools.ietf.org/html/rfc5802#section-7">[RFC5802] Formal Syntax</a>
  */
 public class Gs2Header extends AbstractStringWritable {
+    private static final String GS2_ATTRIBUTE_CHARS = "nypa";
+
     private final Gs2AttributeValue cbind;
     private final Optional<Gs2AttributeValue> authzid;
 
@@ -108,10 +114,69 @@ public class Gs2Header extends AbstractStringWritable {
     }
 
     @Override
-    public StringBuffer writeTo(StringBuffer sb) {
+    public int length() {
+        return cbind.length() + 1 + (authzid.isPresent() ? authzid.get().length() : 0);
+    }
+
+    @Override
+    public int encodedLength() {
+        return cbind.encodedLength() + 1 + (authzid.isPresent() ? authzid.get().encodedLength() : 0);
+    }
+
+    @Override
+    public ByteBuffer writeTo(ByteBuffer buffer) throws IllegalArgumentException {
+        checkNotNull(buffer, "buffer");
+        checkArgument(encodedLength() <= buffer.remaining(), "buffer remaining");
+        cbind.writeTo(buffer).put((byte) ',');
+
+        return authzid.isPresent() ? authzid.get().writeTo(buffer) : buffer;
+    }
+
+    @Override
+    public StringBuilder writeTo(StringBuilder sb) {
         return StringWritableCsv.writeTo(sb, cbind, authzid.orElse(null));
     }
 
+    private static boolean isGs2AttributeValue(String value) {
+        return (value.length() == 1 || value.length() > 2 && value.charAt(1) == '=')
+                && GS2_ATTRIBUTE_CHARS.indexOf(value.charAt(0)) >= 0;
+    }
+
+    /**
+     * Read a Gs2Header from a String, without throwing if it is not valid.
+     * String may contain trailing fields that will be ignored.
+     * @param message The String containing the Gs2Header
+     * @return The result, with the parsed Gs2Header object or a {@link ScramParseError#INVALID_GS2_HEADER} failure
+     * @throws IllegalArgumentException If the message is null
+     */
+    public static ParseResult<Gs2Header> tryParseFrom(String message) throws IllegalArgumentException {
+        checkNotNull(message, "Null message");
+
+        String[] gs2HeaderSplit = StringWritableCsv.parseFrom(message, 2);
+        if(gs2HeaderSplit.length == 0 || null == gs2HeaderSplit[0]) {
+            return ParseResult.failure(ScramParseError.INVALID_GS2_HEADER, "invalid number of fields");
+        }
+
+        String gs2cbind = gs2HeaderSplit[0];
+        if(! isGs2AttributeValue(gs2cbind) || gs2cbind.charAt(0) == Gs2Attributes.AUTHZID.getChar()) {
+            return ParseResult.failure(ScramParseError.INVALID_GS2_HEADER, gs2cbind);
+        }
+        Gs2CbindFlag cbindFlag = Gs2CbindFlag.byChar(gs2cbind.charAt(0));
+        String cbName = gs2cbind.length() > 2 ? gs2cbind.substring(2) : null;
+        if(cbindFlag == Gs2CbindFlag.CHANNEL_BINDING_REQUIRED ^ cbName != null) {
+            return ParseResult.failure(ScramParseError.INVALID_GS2_HEADER, gs2cbind);
+        }
+
+        String authzid = gs2HeaderSplit[1];
+        boolean hasAuthzid = null != authzid && ! authzid.isEmpty();
+        if(hasAuthzid && (authzid.length() <= 2 || authzid.charAt(0) != Gs2Attributes.AUTHZID.getChar()
+                || ! isGs2AttributeValue(authzid))) {
+            return ParseResult.failure(ScramParseError.INVALID_GS2_HEADER, authzid);
+        }
+
+        return ParseResult.success(new Gs2Header(cbindFlag, cbName, hasAuthzid ? authzid.substring(2) : null));
+    }
+
     /**
      * Read a Gs2Header from a String. String may contain trailing fields that will be ignored.
      * @param message The String containing the Gs2Header
@@ -119,19 +184,11 @@ public class Gs2Header extends AbstractStringWritable {
      * @throws IllegalArgumentException If the format/values of the String do not conform to a Gs2Header
      */
     public static Gs2Header parseFrom(String message) throws IllegalArgumentException {
-        checkNotNull(message, "Null message");
-
-        String[] gs2HeaderSplit = StringWritableCsv.parseFrom(message, 2);
-        if(gs2HeaderSplit.length == 0) {
-            throw new IllegalArgumentException("Invalid number of fields for the GS2 Header");
+        ParseResult<Gs2Header> gs2Header = tryParseFrom(message);
+        if(! gs2Header.isSuccess()) {
+            throw new IllegalArgumentException(gs2Header.getErrorMessage());
         }
 
-        Gs2AttributeValue gs2cbind = Gs2AttributeValue.parse(gs2HeaderSplit[0]);
-        return new Gs2Header(
-                Gs2CbindFlag.byChar(gs2cbind.getChar()),
-                gs2cbind.getValue(),
-                gs2HeaderSplit[1] == null || gs2HeaderSplit[1].isEmpty() ?
-                        null : Gs2AttributeValue.parse(gs2HeaderSplit[1]).getValue()
-        );
+        return gs2Header.get();
     }
 }
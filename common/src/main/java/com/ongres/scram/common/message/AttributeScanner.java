@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.StacklessScramParseException;
+
+
+/**
+ * Helpers to scan attribute-values of SCRAM messages directly over a {@link CharSequence},
+ * without splitting it or creating Strings, for the parsers that throw.
+ */
+class AttributeScanner {
+    private AttributeScanner() {
+    }
+
+    /**
+     * Advances the tokenizer to the next attribute-value, that must have the given attribute.
+     * @param tokenizer The tokenizer
+     * @param attribute The expected attribute
+     * @throws ScramParseException If the next attribute-value is not valid or does not have the expected attribute
+     */
+    static void expect(ScramTokenizer tokenizer, ScramAttributes attribute) throws ScramParseException {
+        if(! tokenizer.expect(attribute)) {
+            throw new StacklessScramParseException(tokenizer.getError(), tokenizer.getErrorDetail());
+        }
+    }
+
+    /**
+     * Compares a range of the message with the given characters, without creating Strings.
+     */
+    static boolean regionEquals(CharSequence message, int from, int to, CharSequence value) {
+        if(to - from != value.length()) {
+            return false;
+        }
+        for(int i = 0; i < value.length(); i++) {
+            if(message.charAt(from + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
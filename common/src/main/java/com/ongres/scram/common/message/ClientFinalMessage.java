@@ -27,12 +27,16 @@ package com.ongres.scram.common.message;
 import com.ongres.scram.common.ScramAttributeValue;
 import com.ongres.scram.common.ScramAttributes;
 import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.gssapi.Gs2CbindFlag;
 import com.ongres.scram.common.gssapi.Gs2Header;
 import com.ongres.scram.common.util.StringWritable;
-import com.ongres.scram.common.util.StringWritableCsv;
+import com.ongres.scram.common.util.Utf8Utils;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
@@ -50,12 +54,25 @@ import static com.ongres.scram.common.util.Preconditions.checkNotNull;
  * @see <a href="https://tools.ietf.org/html/rfc5802#section-7">[RFC5802] Section 7</a>
  */
 public class ClientFinalMessage implements StringWritable {
-    private final String cbind;
-    private final String nonce;
+    /**
+     * The channel-binding attribute of the common case: "n,," GS2 header, with no channel binding data.
+     */
+    private static final String CHANNEL_BINDING_CLIENT_NOT = "c=biws";
+
+    private final Builder builder;
     private final byte[] proof;
 
-    private static String generateCBind(Gs2Header gs2Header, Optional<byte[]> cbindData) {
-        StringBuffer sb = new StringBuffer();
+    private static boolean isClientNot(Gs2Header gs2Header, Optional<byte[]> cbindData) {
+        return gs2Header.getChannelBindingFlag() == Gs2CbindFlag.CLIENT_NOT
+                && ! gs2Header.getAuthzid().isPresent() && ! cbindData.isPresent();
+    }
+
+    private static String channelBinding(Gs2Header gs2Header, Optional<byte[]> cbindData) {
+        if(isClientNot(gs2Header, cbindData)) {
+            return CHANNEL_BINDING_CLIENT_NOT;
+        }
+
+        StringBuilder sb = new StringBuilder();
         gs2Header.writeTo(sb)
                 .append(',');
 
@@ -66,7 +83,122 @@ public class ClientFinalMessage implements StringWritable {
                 ).writeTo(sb)
         );
 
-        return sb.toString();
+        byte[] cbind = sb.toString().getBytes(StandardCharsets.UTF_8);
+        sb.setLength(0);
+        sb.append(ScramAttributes.CHANNEL_BINDING.getChar()).append('=');
+
+        return ScramStringFormatting.base64Encode(cbind, sb).toString();
+    }
+
+    /**
+     * Precomputes the client-final-message-without-proof for a given GSS-API header, channel binding data and nonce.
+     * The channel binding attribute is encoded once, and then shared by the auth-message and all the
+     * client-final-messages built from the same builder, which are written in a single pass.
+     * Instances are immutable and thus thread-safe.
+     */
+    public static class Builder {
+        private final String withoutProof;
+        private final int withoutProofEncodedLength;
+
+        private Builder(Gs2Header gs2Header, Optional<byte[]> cbindData, String nonce) {
+            this.withoutProof = new StringBuilder()
+                    .append(channelBinding(gs2Header, cbindData))
+                    .append(',')
+                    .append(ScramAttributes.NONCE.getChar()).append('=').append(nonce)
+                    .toString();
+            this.withoutProofEncodedLength = Utf8Utils.encodedLength(withoutProof);
+        }
+
+        /**
+         * The client-final-message-without-proof, used as the last part of the auth-message.
+         * @return The message without the proof
+         */
+        public String withoutProof() {
+            return withoutProof;
+        }
+
+        private int length(byte[] proof) {
+            return withoutProof.length() + 3 + ScramStringFormatting.base64EncodedLength(proof.length);
+        }
+
+        private int encodedLength(byte[] proof) {
+            return withoutProofEncodedLength + 3 + ScramStringFormatting.base64EncodedLength(proof.length);
+        }
+
+        private StringBuilder writeTo(StringBuilder sb, byte[] proof) {
+            sb.append(withoutProof)
+                    .append(',')
+                    .append(ScramAttributes.CLIENT_PROOF.getChar()).append('=');
+
+            return ScramStringFormatting.base64Encode(proof, sb);
+        }
+
+        private ByteBuffer writeTo(ByteBuffer buffer, byte[] proof) {
+            checkNotNull(buffer, "buffer");
+            checkArgument(encodedLength(proof) <= buffer.remaining(), "buffer remaining");
+            Utf8Utils.encode(withoutProof, buffer)
+                    .put((byte) ',')
+                    .put((byte) ScramAttributes.CLIENT_PROOF.getChar()).put((byte) '=');
+
+            return ScramStringFormatting.base64Encode(proof, buffer);
+        }
+
+        /**
+         * Builds a client-final-message with the given proof.
+         * @param proof The bytes representing the computed client proof
+         * @return The message
+         * @throws IllegalArgumentException If the proof is null
+         */
+        public ClientFinalMessage build(byte[] proof) throws IllegalArgumentException {
+            return new ClientFinalMessage(this, checkNotNull(proof, "proof"));
+        }
+
+        /**
+         * Writes the text representation of a client-final-message with the given proof, in a single pass.
+         * @param proof The bytes representing the computed client proof
+         * @return The message
+         * @throws IllegalArgumentException If the proof is null
+         */
+        public String write(byte[] proof) throws IllegalArgumentException {
+            checkNotNull(proof, "proof");
+
+            return writeTo(new StringBuilder(length(proof)), proof).toString();
+        }
+
+        /**
+         * Writes the UTF-8 encoded client-final-message with the given proof at the current position of the buffer,
+         * advancing it.
+         * @param proof The bytes representing the computed client proof
+         * @param buffer Where to write the message. Heap and direct buffers are supported
+         * @return The same buffer
+         * @throws IllegalArgumentException If any argument is null,
+         *                                  or the buffer has not enough remaining space (then nothing is written)
+         */
+        public ByteBuffer writeTo(byte[] proof, ByteBuffer buffer) throws IllegalArgumentException {
+            return writeTo(buffer, checkNotNull(proof, "proof"));
+        }
+    }
+
+    /**
+     * Creates a {@link Builder} for the client-final-messages of a session.
+     * @param gs2Header The GSS-API header (the same one used in the client-first-message)
+     * @param cbindData If using channel binding, the channel binding data
+     * @param nonce The nonce
+     * @return The builder
+     * @throws IllegalArgumentException If any argument is null, or the nonce is empty
+     */
+    public static Builder builder(Gs2Header gs2Header, Optional<byte[]> cbindData, String nonce)
+    throws IllegalArgumentException {
+        return new Builder(
+                checkNotNull(gs2Header, "gs2Header"),
+                checkNotNull(cbindData, "cbindData"),
+                checkNotEmpty(nonce, "nonce")
+        );
+    }
+
+    private ClientFinalMessage(Builder builder, byte[] proof) {
+        this.builder = builder;
+        this.proof = proof;
     }
 
     /**
@@ -79,60 +211,62 @@ public class ClientFinalMessage implements StringWritable {
      * @param proof The bytes representing the computed client proof
      */
     public ClientFinalMessage(Gs2Header gs2Header, Optional<byte[]> cbindData, String nonce, byte[] proof) {
-        this.cbind = generateCBind(
-                checkNotNull(gs2Header, "gs2Header"),
-                checkNotNull(cbindData, "cbindData")
-        );
-        this.nonce = checkNotEmpty(nonce, "nonce");
-        this.proof = checkNotNull(proof, "proof");
+        this(builder(gs2Header, cbindData, nonce), checkNotNull(proof, "proof"));
     }
 
-    private static StringBuffer writeToWithoutProof(StringBuffer sb, String cbind, String nonce) {
-        return StringWritableCsv.writeTo(
-                sb,
-                new ScramAttributeValue(ScramAttributes.CHANNEL_BINDING, ScramStringFormatting.base64Encode(cbind)),
-                new ScramAttributeValue(ScramAttributes.NONCE, nonce)
-        );
-    }
-
-    private static StringBuffer writeToWithoutProof(
-            StringBuffer sb, Gs2Header gs2Header, Optional<byte[]> cbindData, String nonce
+    /**
+     * Writes the formatted output of a client-final-message without the proof value to the given StringBuilder.
+     * This is useful for computing the auth-message, used in turn to compute the proof.
+     * Prefer {@link #builder(Gs2Header, Optional, String)} when the final message is built too.
+     * @param sb The StringBuilder where to write the data to
+     * @param gs2Header The GSS-API header
+     * @param cbindData The optional channel binding data
+     * @param nonce The nonce
+     * @return The same StringBuilder
+     */
+    public static StringBuilder writeToWithoutProof(
+            StringBuilder sb, Gs2Header gs2Header, Optional<byte[]> cbindData, String nonce
     ) {
-        return writeToWithoutProof(
-                sb,
-                generateCBind(
-                        checkNotNull(gs2Header, "gs2Header"),
-                        checkNotNull(cbindData, "cbindData")
-                ),
-                nonce
-        );
+        String withoutProof = builder(gs2Header, cbindData, nonce).withoutProof();
+
+        return checkNotNull(sb, "sb").append(withoutProof);
     }
 
     /**
      * Returns a StringBuffer filled in with the formatted output of a client-first-message without the proof value.
      * This is useful for computing the auth-message, used in turn to compute the proof.
+     * Adapter over {@link #writeToWithoutProof(StringBuilder, Gs2Header, Optional, String)}, kept for compatibility.
      * @param gs2Header The GSS-API header
      * @param cbindData The optional channel binding data
      * @param nonce The nonce
      * @return The String representation of the part of the message that excludes the proof
      */
     public static StringBuffer writeToWithoutProof(Gs2Header gs2Header, Optional<byte[]> cbindData, String nonce) {
-        return writeToWithoutProof(new StringBuffer(), gs2Header, cbindData, nonce);
+        return new StringBuffer(builder(gs2Header, cbindData, nonce).withoutProof());
     }
 
     @Override
-    public StringBuffer writeTo(StringBuffer sb) {
-        writeToWithoutProof(sb, cbind, nonce);
+    public int length() {
+        return builder.length(proof);
+    }
 
-        return StringWritableCsv.writeTo(
-                sb,
-                null,   // This marks the position of writeToWithoutProof, required for the ","
-                new ScramAttributeValue(ScramAttributes.CLIENT_PROOF, ScramStringFormatting.base64Encode(proof))
-        );
+    @Override
+    public StringBuilder writeTo(StringBuilder sb) {
+        return builder.writeTo(checkNotNull(sb, "sb"), proof);
+    }
+
+    @Override
+    public int encodedLength() {
+        return builder.encodedLength(proof);
+    }
+
+    @Override
+    public ByteBuffer writeTo(ByteBuffer buffer) throws IllegalArgumentException {
+        return builder.writeTo(buffer, proof);
     }
 
     @Override
     public String toString() {
-        return writeTo(new StringBuffer()).toString();
+        return builder.write(proof);
     }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.exception.ScramParseError;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.StacklessScramParseException;
+import com.ongres.scram.common.util.ByteCharSequence;
+
+import java.nio.ByteBuffer;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A reusable, flyweight parser of client-final-messages, for servers, that works directly over the bytes received
+ * from the wire (a {@code byte[]} range or a {@link ByteBuffer}) or over any {@link CharSequence}.
+ * Parsing creates no objects: it validates the message with a {@link ScramTokenizer} and records the offsets of the
+ * channel binding, nonce and proof values. The proof can then be decoded into a caller-supplied buffer, and the
+ * client-final-message-without-proof (the last part of the auth-message) fed, as a range of the received bytes,
+ * into the HMAC that verifies the proof, without rebuilding it.
+ *
+ * Offsets are indexes of the source array, buffer or sequence, and remain valid while the source is not modified.
+ * Extensions between the nonce and the proof are accepted, and are part of the client-final-message-without-proof.
+ * The proof must be the last attribute. As values are validated while parsing, decoding the proof cannot fail.
+ *
+ * This class is not thread-safe. A single instance may be reused for successive messages.
+ */
+public class ClientFinalMessageView {
+    private final ByteCharSequence bytes = new ByteCharSequence();
+    private final ScramTokenizer tokenizer = new ScramTokenizer();
+    private CharSequence message;
+    private int base;
+    private int channelBindingStart;
+    private int channelBindingEnd;
+    private int nonceStart;
+    private int nonceEnd;
+    private int proofStart;
+    private int proofEnd;
+
+    /**
+     * Parses a client-final-message from a range of a byte array.
+     * @param message The buffer containing the message
+     * @param offset The offset of the message in the buffer
+     * @param length The length of the message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid client-final-message
+     * @throws IllegalArgumentException If the message is null or the range is out of bounds
+     */
+    public ClientFinalMessageView parse(byte[] message, int offset, int length)
+    throws ScramParseException, IllegalArgumentException {
+        bytes.set(message, offset, length);
+
+        return parse(bytes, offset);
+    }
+
+    /**
+     * Parses a client-final-message from the remaining bytes of a buffer. The buffer position is not modified.
+     * @param message The buffer containing the message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid client-final-message
+     * @throws IllegalArgumentException If the message is null
+     */
+    public ClientFinalMessageView parse(ByteBuffer message) throws ScramParseException, IllegalArgumentException {
+        bytes.set(message);
+
+        return parse(bytes, message.position());
+    }
+
+    /**
+     * Parses a client-final-message from a sequence of characters.
+     * @param message The message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid client-final-message
+     * @throws IllegalArgumentException If the message is null
+     */
+    public ClientFinalMessageView parse(CharSequence message) throws ScramParseException, IllegalArgumentException {
+        return parse(checkNotNull(message, "message"), 0);
+    }
+
+    private ClientFinalMessageView parse(CharSequence message, int base) throws ScramParseException {
+        this.message = null;
+
+        tokenizer.reset(message);
+        AttributeScanner.expect(tokenizer, ScramAttributes.CHANNEL_BINDING);
+        int channelBindingStart = tokenizer.getValueStart();
+        int channelBindingEnd = tokenizer.getValueEnd();
+        AttributeScanner.expect(tokenizer, ScramAttributes.NONCE);
+        int nonceStart = tokenizer.getValueStart();
+        int nonceEnd = tokenizer.getValueEnd();
+        do {
+            if(! tokenizer.next() && null == tokenizer.getError()) {
+                throw new StacklessScramParseException(ScramParseError.INVALID_MESSAGE, ScramAttributes.CLIENT_PROOF);
+            } else if(null != tokenizer.getError()) {
+                throw new StacklessScramParseException(tokenizer.getError(), tokenizer.getErrorDetail());
+            }
+        } while(ScramAttributes.CLIENT_PROOF != tokenizer.getAttribute());
+        int proofStart = tokenizer.getValueStart();
+        int proofEnd = tokenizer.getValueEnd();
+        if(tokenizer.next()) {
+            throw new StacklessScramParseException(ScramParseError.UNEXPECTED_ATTRIBUTE, tokenizer.getAttributeChar());
+        }
+        if(null != tokenizer.getError()) {
+            throw new StacklessScramParseException(tokenizer.getError(), tokenizer.getErrorDetail());
+        }
+
+        this.message = message;
+        this.base = base;
+        this.channelBindingStart = channelBindingStart;
+        this.channelBindingEnd = channelBindingEnd;
+        this.nonceStart = nonceStart;
+        this.nonceEnd = nonceEnd;
+        this.proofStart = proofStart;
+        this.proofEnd = proofEnd;
+
+        return this;
+    }
+
+    private CharSequence message() throws IllegalStateException {
+        if(null == message) {
+            throw new IllegalStateException("No message was successfully parsed");
+        }
+
+        return message;
+    }
+
+    public int getChannelBindingOffset() {
+        message();
+        return base + channelBindingStart;
+    }
+
+    public int getChannelBindingLength() {
+        message();
+        return channelBindingEnd - channelBindingStart;
+    }
+
+    public int getNonceOffset() {
+        message();
+        return base + nonceStart;
+    }
+
+    public int getNonceLength() {
+        message();
+        return nonceEnd - nonceStart;
+    }
+
+    public int getProofOffset() {
+        message();
+        return base + proofStart;
+    }
+
+    public int getProofLength() {
+        message();
+        return proofEnd - proofStart;
+    }
+
+    /**
+     * The offset of the client-final-message-without-proof, which is the offset of the message itself.
+     * @return The offset
+     */
+    public int getWithoutProofOffset() {
+        message();
+        return base;
+    }
+
+    /**
+     * The length of the client-final-message-without-proof: up to, and excluding, the comma before the proof.
+     * @return The length
+     */
+    public int getWithoutProofLength() {
+        message();
+        return proofStart - 3;
+    }
+
+    /**
+     * Checks whether the (base64-encoded) channel binding value is the given one.
+     * @param channelBinding The expected channel binding value, without the "c=" prefix
+     * @return True if they are equal
+     * @throws IllegalArgumentException If the channel binding is null
+     */
+    public boolean channelBindingEquals(CharSequence channelBinding) throws IllegalArgumentException {
+        checkNotNull(channelBinding, "channelBinding");
+
+        return AttributeScanner.regionEquals(message(), channelBindingStart, channelBindingEnd, channelBinding);
+    }
+
+    /**
+     * Checks whether the nonce is the given (full) nonce.
+     * @param nonce The expected nonce, that is, the client nonce followed by the server nonce
+     * @return True if they are equal
+     * @throws IllegalArgumentException If the nonce is null
+     */
+    public boolean nonceEquals(CharSequence nonce) throws IllegalArgumentException {
+        checkNotNull(nonce, "nonce");
+
+        return AttributeScanner.regionEquals(message(), nonceStart, nonceEnd, nonce);
+    }
+
+    /**
+     * The (full) nonce, as a String.
+     * @return The nonce
+     */
+    public String getNonce() {
+        return message().subSequence(nonceStart, nonceEnd).toString();
+    }
+
+    /**
+     * The length of the decoded proof.
+     * @return The length, in bytes
+     */
+    public int getProofDecodedLength() {
+        return ScramStringFormatting.base64DecodedLength(message(), proofStart, proofEnd);
+    }
+
+    /**
+     * Decodes the proof into the given buffer.
+     * @param output The buffer where the proof is written. It must have room for {@link #getProofDecodedLength()}
+     *               bytes after the offset
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public int decodeProof(byte[] output, int outputOffset) throws IllegalArgumentException {
+        int length = getProofDecodedLength();
+        checkNotNull(output, "output");
+        if(outputOffset < 0 || outputOffset + length > output.length) {
+            throw new IllegalArgumentException("Output buffer too short for the proof");
+        }
+
+        return ScramStringFormatting.base64Decode(message(), proofStart, proofEnd, output, outputOffset);
+    }
+}
@@ -24,17 +24,21 @@
 package com.ongres.scram.common.message;
 
 
-import com.ongres.scram.common.ScramAttributeValue;
 import com.ongres.scram.common.ScramAttributes;
 import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
 import com.ongres.scram.common.gssapi.Gs2CbindFlag;
 import com.ongres.scram.common.gssapi.Gs2Header;
+import com.ongres.scram.common.util.ParseResult;
 import com.ongres.scram.common.util.StringWritable;
 import com.ongres.scram.common.util.StringWritableCsv;
+import com.ongres.scram.common.util.Utf8Utils;
 
+import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
@@ -55,6 +59,7 @@ import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 public class ClientFirstMessage implements StringWritable {
     private final Gs2Header gs2Header;
     private final String user;
+    private final String saslUser;
     private final String nonce;
 
     /**
@@ -69,6 +74,7 @@ public class ClientFirstMessage implements StringWritable {
     public ClientFirstMessage(Gs2Header gs2Header, String user, String nonce) throws IllegalArgumentException {
         this.gs2Header = checkNotNull(gs2Header, "gs2Header");
         this.user = checkNotEmpty(user, "user");
+        this.saslUser = ScramStringFormatting.toSaslName(user);
         this.nonce = checkNotEmpty(nonce, "nonce");
     }
 
@@ -138,65 +144,114 @@ public class ClientFirstMessage implements StringWritable {
         return nonce;
     }
 
+    /**
+     * The number of characters that {@link #writeToWithoutGs2Header(StringBuilder)} writes.
+     * @return The exact length of the client-first-message-bare
+     */
+    public int lengthWithoutGs2Header() {
+        return 2 + saslUser.length() + 3 + nonce.length();
+    }
+
     /**
      * Limited version of the {@link StringWritableCsv#toString()} method, that doesn't write the GS2 header.
      * This method is useful to construct the auth message used as part of the SCRAM algorithm.
+     * @param sb A StringBuilder where to write the data to.
+     * @return The same StringBuilder
+     */
+    public StringBuilder writeToWithoutGs2Header(StringBuilder sb) {
+        return sb.append(ScramAttributes.USERNAME.getChar()).append('=').append(saslUser)
+                .append(',')
+                .append(ScramAttributes.NONCE.getChar()).append('=').append(nonce);
+    }
+
+    /**
+     * Limited version of the {@link StringWritableCsv#toString()} method, that doesn't write the GS2 header.
+     * Adapter over {@link #writeToWithoutGs2Header(StringBuilder)}, kept for compatibility.
      * @param sb A StringBuffer where to write the data to.
      * @return The same StringBuffer
      */
     public StringBuffer writeToWithoutGs2Header(StringBuffer sb) {
-        return StringWritableCsv.writeTo(
-                sb,
-                new ScramAttributeValue(ScramAttributes.USERNAME, ScramStringFormatting.toSaslName(user)),
-                new ScramAttributeValue(ScramAttributes.NONCE, nonce)
-        );
+        return sb.append(writeToWithoutGs2Header(new StringBuilder(lengthWithoutGs2Header())));
     }
 
     @Override
-    public StringBuffer writeTo(StringBuffer sb) {
-        StringWritableCsv.writeTo(
-                sb,
-                gs2Header,
-                null    // This marks the position of the rest of the elements, required for the ","
-        );
+    public int length() {
+        return gs2Header.length() + 1 + lengthWithoutGs2Header();
+    }
+
+    @Override
+    public StringBuilder writeTo(StringBuilder sb) {
+        gs2Header.writeTo(sb).append(',');
 
         return writeToWithoutGs2Header(sb);
     }
 
+    @Override
+    public int encodedLength() {
+        return gs2Header.encodedLength() + 1
+                + 2 + Utf8Utils.encodedLength(saslUser) + 3 + Utf8Utils.encodedLength(nonce);
+    }
+
+    @Override
+    public ByteBuffer writeTo(ByteBuffer buffer) throws IllegalArgumentException {
+        checkNotNull(buffer, "buffer");
+        checkArgument(encodedLength() <= buffer.remaining(), "buffer remaining");
+        gs2Header.writeTo(buffer)
+                .put((byte) ',')
+                .put((byte) ScramAttributes.USERNAME.getChar()).put((byte) '=');
+        Utf8Utils.encode(saslUser, buffer)
+                .put((byte) ',')
+                .put((byte) ScramAttributes.NONCE.getChar()).put((byte) '=');
+
+        return Utf8Utils.encode(nonce, buffer);
+    }
+
     /**
-     * Construct a {@link ClientFirstMessage} instance from a message (String)
+     * Construct a {@link ClientFirstMessage} instance from a message (String), without throwing if it is not valid.
      * @param clientFirstMessage The String representing the client-first-message
-     * @return The instance
-     * @throws ScramParseException If the message is not a valid client-first-message
+     * @return The result, with the instance or a failure
      * @throws IllegalArgumentException If the message is null or empty
      */
-    public static ClientFirstMessage parseFrom(String clientFirstMessage)
-    throws ScramParseException, IllegalArgumentException {
+    public static ParseResult<ClientFirstMessage> tryParseFrom(String clientFirstMessage)
+    throws IllegalArgumentException {
         checkNotEmpty(clientFirstMessage, "clientFirstMessage");
 
-        Gs2Header gs2Header = Gs2Header.parseFrom(clientFirstMessage);  // Takes first two fields
-        String[] userNonceString;
-        try {
-            userNonceString = StringWritableCsv.parseFrom(clientFirstMessage, 2, 2);
-        } catch (IllegalArgumentException e) {
-            throw new ScramParseException("Illegal series of attributes in client-first-message", e);
+        ParseResult<Gs2Header> gs2Header = Gs2Header.tryParseFrom(clientFirstMessage);  // Takes first two fields
+        if(! gs2Header.isSuccess()) {
+            return gs2Header.asFailure();
         }
-
-        ScramAttributeValue user = ScramAttributeValue.parse(userNonceString[0]);
-        if(ScramAttributes.USERNAME.getChar() != user.getChar()) {
-            throw new ScramParseException("user must be the 3rd element of the client-first-message");
+        int bareStart = clientFirstMessage.indexOf(',', clientFirstMessage.indexOf(',') + 1) + 1;
+        if(bareStart == 0) {
+            return ParseResult.failure(ScramParseError.INVALID_MESSAGE, "client-first-message");
         }
 
-        ScramAttributeValue nonce = ScramAttributeValue.parse(userNonceString[1]);
-        if(ScramAttributes.NONCE.getChar() != nonce.getChar()) {
-            throw new ScramParseException("nonce must be the 4th element of the client-first-message");
+        ScramTokenizer tokenizer = new ScramTokenizer()
+                .reset(clientFirstMessage, bareStart, clientFirstMessage.length());
+        if(! tokenizer.expect(ScramAttributes.USERNAME)) {
+            return tokenizer.failure();
+        }
+        String user = tokenizer.getValue();
+        if(! tokenizer.expect(ScramAttributes.NONCE)) {
+            return tokenizer.failure();
         }
 
-        return new ClientFirstMessage(gs2Header, user.getValue(), nonce.getValue());
+        return ParseResult.success(new ClientFirstMessage(gs2Header.get(), user, tokenizer.getValue()));
+    }
+
+    /**
+     * Construct a {@link ClientFirstMessage} instance from a message (String)
+     * @param clientFirstMessage The String representing the client-first-message
+     * @return The instance
+     * @throws ScramParseException If the message is not a valid client-first-message
+     * @throws IllegalArgumentException If the message is null or empty
+     */
+    public static ClientFirstMessage parseFrom(String clientFirstMessage)
+    throws ScramParseException, IllegalArgumentException {
+        return tryParseFrom(clientFirstMessage).orElseThrow();
     }
 
     @Override
     public String toString() {
-        return writeTo(new StringBuffer()).toString();
+        return writeTo(new StringBuilder(length())).toString();
     }
 }
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.exception.ScramParseError;
+import com.ongres.scram.common.util.ParseResult;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A reusable, table-driven tokenizer of the attribute-values of SCRAM messages.
+ * It scans a {@link CharSequence} (or a range of it) one attribute-value at a time, and validates each value
+ * against the character class that the formal syntax of the RFC requires for its attribute, in the same pass:
+ *
+ * {@code
+ *    saslname        = 1*(value-safe-char / "=2C" / "=3D")   ; n, a
+ *    printable       = %x21-2B / %x2D-7E                     ; r
+ *    base64          = *(4base64-char) [base64-3 / base64-2] ; c, s, p, v
+ *    posit-number    = %x31-39 *DIGIT                        ; i
+ *    value           = 1*value-char                          ; e, extensions
+ * }
+ *
+ * Characters are classified through a 128-entry table, and attributes through another one,
+ * so no Strings are created and no maps are looked up. Values are reported as offsets of the source sequence.
+ * Failures are reported as a {@link ScramParseError}, without throwing.
+ *
+ * This class is not thread-safe. A single instance may be reused for successive messages.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc5802#section-7">[RFC5802] Formal Syntax</a>
+ */
+public final class ScramTokenizer {
+    private static final int VALUE_SAFE = 0x01;
+    private static final int PRINTABLE = 0x02;
+    private static final int BASE64 = 0x04;
+    private static final int DIGIT = 0x08;
+    private static final int ALPHA = 0x10;
+
+    private enum ValueGrammar {
+        SASLNAME(VALUE_SAFE, ScramParseError.INVALID_ATTRIBUTE_VALUE),
+        PRINTABLE(ScramTokenizer.PRINTABLE, ScramParseError.INVALID_NONCE),
+        BASE64(ScramTokenizer.BASE64, ScramParseError.INVALID_BASE64),
+        POSIT_NUMBER(DIGIT, ScramParseError.INVALID_ITERATION),
+        VALUE(VALUE_SAFE, ScramParseError.INVALID_ATTRIBUTE_VALUE)
+        ;
+
+        private final int charClass;
+        private final ScramParseError error;
+
+        ValueGrammar(int charClass, ScramParseError error) {
+            this.charClass = charClass;
+            this.error = error;
+        }
+    }
+
+    private static final byte[] CHAR_CLASSES = new byte[128];
+    private static final ScramAttributes[] ATTRIBUTES = new ScramAttributes[128];
+    private static final ValueGrammar[] GRAMMARS = new ValueGrammar[128];
+    static {
+        for(char c = 1; c < CHAR_CLASSES.length; c++) {
+            boolean alpha = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+            boolean digit = c >= '0' && c <= '9';
+            int charClass = 0;
+            charClass |= c != ',' && c != '=' ? VALUE_SAFE : 0;
+            charClass |= c >= 0x21 && c <= 0x7E && c != ',' ? PRINTABLE : 0;
+            charClass |= alpha || digit || c == '+' || c == '/' ? BASE64 : 0;
+            charClass |= digit ? DIGIT : 0;
+            charClass |= alpha ? ALPHA : 0;
+            CHAR_CLASSES[c] = (byte) charClass;
+            GRAMMARS[c] = alpha ? ValueGrammar.VALUE : null;
+        }
+
+        for(ScramAttributes attribute : ScramAttributes.values()) {
+            ATTRIBUTES[attribute.getChar()] = attribute;
+            switch(attribute) {
+                case USERNAME:
+                case AUTHZID:           GRAMMARS[attribute.getChar()] = ValueGrammar.SASLNAME;
+                                        break;
+                case NONCE:             GRAMMARS[attribute.getChar()] = ValueGrammar.PRINTABLE;
+                                        break;
+                case ITERATION:         GRAMMARS[attribute.getChar()] = ValueGrammar.POSIT_NUMBER;
+                                        break;
+                case ERROR:             GRAMMARS[attribute.getChar()] = ValueGrammar.VALUE;
+                                        break;
+                default:                GRAMMARS[attribute.getChar()] = ValueGrammar.BASE64;
+            }
+        }
+    }
+
+    private CharSequence message;
+    private int end;
+    private int position;
+    private char attributeChar;
+    private ScramAttributes attribute;
+    private int valueStart;
+    private int valueEnd;
+    private int intValue;
+    private ScramParseError error;
+    private Object errorDetail;
+
+    /**
+     * Starts tokenizing a range of a sequence of characters.
+     * @param message The characters
+     * @param from The index of the first attribute-value
+     * @param to The index after the last character of the last attribute-value
+     * @return This same instance
+     * @throws IllegalArgumentException If the message is null or the range is out of bounds
+     */
+    public ScramTokenizer reset(CharSequence message, int from, int to) throws IllegalArgumentException {
+        checkNotNull(message, "message");
+        if(from < 0 || to > message.length() || from > to) {
+            throw new IllegalArgumentException("Invalid range of the message");
+        }
+
+        this.message = message;
+        this.end = to;
+        this.position = from;
+        this.attribute = null;
+        this.valueStart = this.valueEnd = from;
+        this.intValue = -1;
+        this.error = null;
+        this.errorDetail = null;
+
+        return this;
+    }
+
+    /**
+     * Starts tokenizing a sequence of characters.
+     * @param message The characters
+     * @return This same instance
+     * @throws IllegalArgumentException If the message is null
+     */
+    public ScramTokenizer reset(CharSequence message) throws IllegalArgumentException {
+        return reset(checkNotNull(message, "message"), 0, message.length());
+    }
+
+    private boolean fail(ScramParseError error, Object detail) {
+        this.error = error;
+        this.errorDetail = detail;
+
+        return false;
+    }
+
+    private static int charClass(char c) {
+        return c < CHAR_CLASSES.length ? CHAR_CLASSES[c] : VALUE_SAFE;
+    }
+
+    /**
+     * Advances to the next attribute-value, and validates its value.
+     * @return True if there was a valid attribute-value,
+     *         false if the end was reached ({@link #getError()} is null) or the attribute-value is not valid
+     * @throws IllegalStateException If the tokenizer was not reset
+     */
+    public boolean next() throws IllegalStateException {
+        if(null == message) {
+            throw new IllegalStateException("The tokenizer was not reset");
+        }
+        if(null != error || position > end) {
+            return false;
+        }
+
+        int start = position;
+        char c = start < end ? message.charAt(start) : 0;
+        if(start + 2 > end || (charClass(c) & ALPHA) == 0 || message.charAt(start + 1) != '=') {
+            return fail(ScramParseError.INVALID_ATTRIBUTE_VALUE, null);
+        }
+        attributeChar = c;
+        attribute = ATTRIBUTES[c];
+        Object detail = null == attribute ? Character.valueOf(c) : attribute;
+        ValueGrammar grammar = GRAMMARS[c];
+
+        int i = start + 2;
+        int padding = 0;
+        long number = 0;
+        for(; i < end; i++) {
+            c = message.charAt(i);
+            if(c == ',') {
+                break;
+            }
+            if((charClass(c) & grammar.charClass) != 0) {
+                if(grammar == ValueGrammar.POSIT_NUMBER && number <= Integer.MAX_VALUE) {
+                    number = number * 10 + (c - '0');
+                }
+                continue;
+            }
+
+            // Characters outside of the value's class, that are only valid in some positions
+            if(c == '=' && grammar == ValueGrammar.SASLNAME && i + 2 < end) {
+                char high = message.charAt(i + 1);
+                char low = message.charAt(i + 2);
+                if((high == '2' && low == 'C') || (high == '3' && low == 'D')) {
+                    i += 2;
+                    continue;
+                }
+            } else if(c == '=' && grammar == ValueGrammar.BASE64 && padding < 2) {
+                padding++;
+                continue;
+            } else if(c == '=' && grammar == ValueGrammar.VALUE) {
+                continue;
+            }
+
+            return fail(grammar.error, detail);
+        }
+
+        if(i == start + 2) {
+            return fail(ScramParseError.INVALID_ATTRIBUTE_VALUE, detail);
+        }
+        if(grammar == ValueGrammar.BASE64 && ((i - start - 2) % 4 != 0 || ! isTrailingPadding(i, padding))) {
+            return fail(ScramParseError.INVALID_BASE64, detail);
+        }
+        if(grammar == ValueGrammar.POSIT_NUMBER && message.charAt(start + 2) == '0') {
+            return fail(ScramParseError.INVALID_ITERATION, detail);
+        }
+
+        valueStart = start + 2;
+        valueEnd = i;
+        intValue = grammar == ValueGrammar.POSIT_NUMBER && number <= Integer.MAX_VALUE ? (int) number : -1;
+        position = i + 1;
+
+        return true;
+    }
+
+    private boolean isTrailingPadding(int valueEnd, int padding) {
+        for(int i = 1; i <= padding; i++) {
+            if(message.charAt(valueEnd - i) != '=') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Advances to the next attribute-value, that must be the given attribute.
+     * @param attribute The expected attribute
+     * @return True if the next attribute-value is valid and has the expected attribute, false otherwise
+     * @throws IllegalArgumentException If the attribute is null
+     * @throws IllegalStateException If the tokenizer was not reset
+     */
+    public boolean expect(ScramAttributes attribute) throws IllegalArgumentException, IllegalStateException {
+        checkNotNull(attribute, "attribute");
+        if(! next()) {
+            return null == error && fail(ScramParseError.INVALID_MESSAGE, attribute);
+        }
+        if(this.attribute != attribute) {
+            return null == this.attribute ?
+                    fail(ScramParseError.UNKNOWN_ATTRIBUTE, Character.valueOf(attributeChar)) :
+                    fail(ScramParseError.UNEXPECTED_ATTRIBUTE, attribute);
+        }
+
+        return true;
+    }
+
+    /**
+     * The attribute character of the current attribute-value.
+     * @return The character
+     */
+    public char getAttributeChar() {
+        return attributeChar;
+    }
+
+    /**
+     * The attribute of the current attribute-value.
+     * @return The attribute, or null if it is not a known SCRAM attribute (i.e., it is an extension)
+     */
+    public ScramAttributes getAttribute() {
+        return attribute;
+    }
+
+    public int getValueStart() {
+        return valueStart;
+    }
+
+    public int getValueEnd() {
+        return valueEnd;
+    }
+
+    /**
+     * The value of the current attribute-value, as a String.
+     * @return The value
+     */
+    public String getValue() {
+        return message.subSequence(valueStart, valueEnd).toString();
+    }
+
+    /**
+     * The numeric value of the current attribute-value, if it is an iteration count.
+     * @return The value, or -1 if it is not a posit-number or it does not fit in an int
+     */
+    public int getIntValue() {
+        return intValue;
+    }
+
+    /**
+     * The error found by the last call to {@link #next()} or {@link #expect(ScramAttributes)}.
+     * @return The error, or null if there was none
+     */
+    public ScramParseError getError() {
+        return error;
+    }
+
+    public Object getErrorDetail() {
+        return errorDetail;
+    }
+
+    /**
+     * A failed result with the error found by the tokenizer.
+     * @param <T> The type of the result
+     * @return The result
+     * @throws IllegalStateException If there was no error
+     */
+    public <T> ParseResult<T> failure() throws IllegalStateException {
+        if(null == error) {
+            throw new IllegalStateException("The tokenizer found no error");
+        }
+
+        return ParseResult.failure(error, errorDetail);
+    }
+}
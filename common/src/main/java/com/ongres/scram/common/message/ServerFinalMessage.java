@@ -25,14 +25,13 @@ package com.ongres.scram.common.message;
 
 
 import com.ongres.scram.common.*;
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.util.ParseResult;
 import com.ongres.scram.common.util.StringWritable;
-import com.ongres.scram.common.util.StringWritableCsv;
 
 import java.util.Arrays;
-import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
@@ -97,27 +96,69 @@ public class ServerFinalMessage implements StringWritable {
         OTHER_ERROR("other-error")
         ;
 
-        private static final Map<String,Error> BY_NAME_MAPPING =
-                Arrays.stream(values()).collect(Collectors.toMap(v -> v.errorMessage, v -> v));
-
         private final String errorMessage;
+        private final Optional<Error> optional = Optional.of(this);
 
         Error(String errorMessage) {
             this.errorMessage = errorMessage;
         }
 
+        /**
+         * Errors indexed by the length of their message. At most two errors have messages of the same length.
+         */
+        private static final Error[][] BY_LENGTH;
+        static {
+            int maxLength = 0;
+            for(Error error : values()) {
+                maxLength = Math.max(maxLength, error.errorMessage.length());
+            }
+            BY_LENGTH = new Error[maxLength + 1][0];
+            for(Error error : values()) {
+                Error[] errors = BY_LENGTH[error.errorMessage.length()];
+                errors = Arrays.copyOf(errors, errors.length + 1);
+                errors[errors.length - 1] = error;
+                BY_LENGTH[error.errorMessage.length()] = errors;
+            }
+        }
+
         public String getErrorMessage() {
             return errorMessage;
         }
 
+        /**
+         * Finds an error by its message, given as a range of a sequence of characters, without creating Strings.
+         * Errors are looked up by the length of the message, and then compared.
+         * @param value The characters
+         * @param from The index of the first character of the message
+         * @param to The index after the last character of the message
+         * @return The error, or empty if there is none with that message. Results are shared, and thus do not allocate
+         * @throws IllegalArgumentException If the value is null
+         */
+        public static Optional<Error> byErrorMessage(CharSequence value, int from, int to)
+        throws IllegalArgumentException {
+            checkNotNull(value, "value");
+            int length = to - from;
+            if(length < 0 || length >= BY_LENGTH.length) {
+                return Optional.empty();
+            }
+            for(Error error : BY_LENGTH[length]) {
+                if(AttributeScanner.regionEquals(value, from, to, error.errorMessage)) {
+                    return error.optional;
+                }
+            }
+
+            return Optional.empty();
+        }
+
         public static Error getByErrorMessage(String errorMessage) throws IllegalArgumentException {
             checkNotEmpty(errorMessage, "errorMessage");
 
-            if(! BY_NAME_MAPPING.containsKey(errorMessage)) {
+            Optional<Error> error = byErrorMessage(errorMessage, 0, errorMessage.length());
+            if(! error.isPresent()) {
                 throw new IllegalArgumentException("Invalid error message '" + errorMessage + "'");
             }
 
-            return BY_NAME_MAPPING.get(errorMessage);
+            return error.get();
         }
     }
 
@@ -161,48 +202,71 @@ public class ServerFinalMessage implements StringWritable {
     }
 
     @Override
-    public StringBuffer writeTo(StringBuffer sb) {
-        return StringWritableCsv.writeTo(
-                sb,
-                isError() ?
-                        new ScramAttributeValue(ScramAttributes.ERROR, error.get().errorMessage)
-                        : new ScramAttributeValue(
-                                ScramAttributes.SERVER_SIGNATURE, ScramStringFormatting.base64Encode(verifier.get())
-                        )
+    public int length() {
+        return 2 + (isError() ?
+                error.get().errorMessage.length() : ScramStringFormatting.base64EncodedLength(verifier.get().length)
         );
     }
 
+    @Override
+    public StringBuilder writeTo(StringBuilder sb) {
+        if(isError()) {
+            return sb.append(ScramAttributes.ERROR.getChar()).append('=').append(error.get().errorMessage);
+        }
+
+        sb.append(ScramAttributes.SERVER_SIGNATURE.getChar()).append('=');
+        return ScramStringFormatting.base64Encode(verifier.get(), sb);
+    }
+
     /**
-     * Parses a server-final-message from a String.
+     * Parses a server-final-message from a String, without throwing if it is not valid.
      * @param serverFinalMessage The message
-     * @return A constructed server-final-message instance
-     * @throws ScramParseException If the argument is not a valid server-final-message
+     * @return The result, with the constructed server-final-message instance or a failure
      * @throws IllegalArgumentException If the message is null or empty
      */
-    public static ServerFinalMessage parseFrom(String serverFinalMessage)
-    throws ScramParseException, IllegalArgumentException {
+    public static ParseResult<ServerFinalMessage> tryParseFrom(String serverFinalMessage)
+    throws IllegalArgumentException {
         checkNotEmpty(serverFinalMessage, "serverFinalMessage");
 
-        String[] attributeValues = StringWritableCsv.parseFrom(serverFinalMessage, 1, 0);
-        if(attributeValues == null || attributeValues.length != 1) {
-            throw new ScramParseException("Invalid server-final-message");
+        ScramTokenizer tokenizer = new ScramTokenizer().reset(serverFinalMessage);
+        if(! tokenizer.next()) {
+            return tokenizer.failure();
         }
-
-        ScramAttributeValue attributeValue = ScramAttributeValue.parse(attributeValues[0]);
-        if(ScramAttributes.SERVER_SIGNATURE.getChar() == attributeValue.getChar()) {
-            byte[] verifier = ScramStringFormatting.base64Decode(attributeValue.getValue());
-            return new ServerFinalMessage(verifier);
-        } else if(ScramAttributes.ERROR.getChar() == attributeValue.getChar()) {
-            return new ServerFinalMessage(Error.getByErrorMessage(attributeValue.getValue()));
+        if(ScramAttributes.SERVER_SIGNATURE == tokenizer.getAttribute()) {
+            byte[] verifier = ScramStringFormatting.base64Decode(tokenizer.getValue());
+            return ParseResult.success(new ServerFinalMessage(verifier));
+        } else if(ScramAttributes.ERROR == tokenizer.getAttribute()) {
+            Optional<Error> error = Error.byErrorMessage(
+                    serverFinalMessage, tokenizer.getValueStart(), tokenizer.getValueEnd()
+            );
+            if(! error.isPresent()) {
+                return ParseResult.failure(ScramParseError.UNKNOWN_SERVER_ERROR, tokenizer.getValue());
+            }
+            return ParseResult.success(new ServerFinalMessage(error.get()));
+        } else if(null == tokenizer.getAttribute()) {
+            return ParseResult.failure(ScramParseError.UNKNOWN_ATTRIBUTE, tokenizer.getAttributeChar());
         } else {
-            throw new ScramParseException(
-                    "Invalid server-final-message: it must contain either a verifier or an error attribute"
+            return ParseResult.failure(
+                    ScramParseError.UNEXPECTED_ATTRIBUTE,
+                    "server-final-message must contain either a verifier or an error attribute"
             );
         }
     }
 
+    /**
+     * Parses a server-final-message from a String.
+     * @param serverFinalMessage The message
+     * @return A constructed server-final-message instance
+     * @throws ScramParseException If the argument is not a valid server-final-message
+     * @throws IllegalArgumentException If the message is null or empty
+     */
+    public static ServerFinalMessage parseFrom(String serverFinalMessage)
+    throws ScramParseException, IllegalArgumentException {
+        return tryParseFrom(serverFinalMessage).orElseThrow();
+    }
+
     @Override
     public String toString() {
-        return writeTo(new StringBuffer()).toString();
+        return writeTo(new StringBuilder(length())).toString();
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.exception.ScramParseError;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.StacklessScramParseException;
+import com.ongres.scram.common.util.ByteCharSequence;
+
+import java.nio.ByteBuffer;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A reusable, flyweight parser of server-final-messages, that works directly over the bytes received from the wire
+ * (a {@code byte[]} range or a {@link ByteBuffer}) or over any {@link CharSequence}.
+ * Parsing creates no objects: it validates the message with a {@link ScramTokenizer},
+ * and records the offsets of the verifier or identifies the error.
+ * The verifier can then be decoded into a caller-supplied buffer.
+ *
+ * Offsets are indexes of the source array, buffer or sequence, and remain valid while the source is not modified.
+ * As with {@link ServerFinalMessage#parseFrom(String)}, extensions are ignored.
+ * Unrecognized error values are reported as {@link ServerFinalMessage.Error#OTHER_ERROR}, as the RFC requires.
+ *
+ * This class is not thread-safe. A single instance may be reused for successive messages.
+ */
+public class ServerFinalMessageView {
+    private final ByteCharSequence bytes = new ByteCharSequence();
+    private final ScramTokenizer tokenizer = new ScramTokenizer();
+    private CharSequence message;
+    private int base;
+    private ServerFinalMessage.Error error;
+    private int verifierEnd;
+
+    /**
+     * Parses a server-final-message from a range of a byte array.
+     * @param message The buffer containing the message
+     * @param offset The offset of the message in the buffer
+     * @param length The length of the message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid server-final-message
+     * @throws IllegalArgumentException If the message is null or the range is out of bounds
+     */
+    public ServerFinalMessageView parse(byte[] message, int offset, int length)
+    throws ScramParseException, IllegalArgumentException {
+        bytes.set(message, offset, length);
+
+        return parse(bytes, offset);
+    }
+
+    /**
+     * Parses a server-final-message from the remaining bytes of a buffer. The buffer position is not modified.
+     * @param message The buffer containing the message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid server-final-message
+     * @throws IllegalArgumentException If the message is null
+     */
+    public ServerFinalMessageView parse(ByteBuffer message) throws ScramParseException, IllegalArgumentException {
+        bytes.set(message);
+
+        return parse(bytes, message.position());
+    }
+
+    /**
+     * Parses a server-final-message from a sequence of characters.
+     * @param message The message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid server-final-message
+     * @throws IllegalArgumentException If the message is null
+     */
+    public ServerFinalMessageView parse(CharSequence message) throws ScramParseException, IllegalArgumentException {
+        return parse(checkNotNull(message, "message"), 0);
+    }
+
+    private ServerFinalMessageView parse(CharSequence message, int base) throws ScramParseException {
+        this.message = null;
+
+        if(! tokenizer.reset(message).next()) {
+            throw new StacklessScramParseException(tokenizer.getError(), tokenizer.getErrorDetail());
+        }
+        if(ScramAttributes.ERROR == tokenizer.getAttribute()) {
+            this.error = ServerFinalMessage.Error.byErrorMessage(
+                    message, tokenizer.getValueStart(), tokenizer.getValueEnd()
+            ).orElse(ServerFinalMessage.Error.OTHER_ERROR);
+            this.verifierEnd = 2;
+        } else if(ScramAttributes.SERVER_SIGNATURE == tokenizer.getAttribute()) {
+            this.error = null;
+            this.verifierEnd = tokenizer.getValueEnd();
+        } else {
+            throw new StacklessScramParseException(ScramParseError.UNEXPECTED_ATTRIBUTE, tokenizer.getAttributeChar());
+        }
+        this.message = message;
+        this.base = base;
+
+        return this;
+    }
+
+    private CharSequence message() throws IllegalStateException {
+        if(null == message) {
+            throw new IllegalStateException("No message was successfully parsed");
+        }
+
+        return message;
+    }
+
+    /**
+     * Whether this server-final-message contains an error
+     * @return True if it contains an error, false if it contains a verifier
+     */
+    public boolean isError() {
+        message();
+        return null != error;
+    }
+
+    /**
+     * The error of the message.
+     * @return The error
+     * @throws IllegalStateException If the message does not contain an error
+     */
+    public ServerFinalMessage.Error getError() throws IllegalStateException {
+        if(! isError()) {
+            throw new IllegalStateException("The server-final-message does not contain an error");
+        }
+
+        return error;
+    }
+
+    private void checkVerifier() throws IllegalStateException {
+        if(isError()) {
+            throw new IllegalStateException("The server-final-message does not contain a verifier");
+        }
+    }
+
+    public int getVerifierOffset() throws IllegalStateException {
+        checkVerifier();
+        return base + 2;
+    }
+
+    public int getVerifierLength() throws IllegalStateException {
+        checkVerifier();
+        return verifierEnd - 2;
+    }
+
+    /**
+     * The length of the decoded verifier (the server signature).
+     * @return The length, in bytes
+     * @throws ScramParseException If the verifier is not valid base64
+     * @throws IllegalStateException If the message does not contain a verifier
+     */
+    public int getVerifierDecodedLength() throws ScramParseException, IllegalStateException {
+        checkVerifier();
+        try {
+            return ScramStringFormatting.base64DecodedLength(message, 2, verifierEnd);
+        } catch (IllegalArgumentException e) {
+            throw new ScramParseException("Invalid verifier", e);
+        }
+    }
+
+    /**
+     * Decodes the verifier (the server signature) into the given buffer.
+     * @param output The buffer where the verifier is written. It must have room for
+     *               {@link #getVerifierDecodedLength()} bytes after the offset
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws ScramParseException If the verifier is not valid base64
+     * @throws IllegalArgumentException If the output buffer is too short
+     * @throws IllegalStateException If the message does not contain a verifier
+     */
+    public int decodeVerifier(byte[] output, int outputOffset)
+    throws ScramParseException, IllegalArgumentException, IllegalStateException {
+        int length = getVerifierDecodedLength();
+        checkNotNull(output, "output");
+        if(outputOffset < 0 || outputOffset + length > output.length) {
+            throw new IllegalArgumentException("Output buffer too short for the verifier");
+        }
+        try {
+            return ScramStringFormatting.base64Decode(message, 2, verifierEnd, output, outputOffset);
+        } catch (IllegalArgumentException e) {
+            throw new ScramParseException("Invalid verifier", e);
+        }
+    }
+}
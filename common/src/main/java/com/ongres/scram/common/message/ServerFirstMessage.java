@@ -24,11 +24,11 @@
 package com.ongres.scram.common.message;
 
 
-import com.ongres.scram.common.ScramAttributeValue;
 import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.util.ParseResult;
 import com.ongres.scram.common.util.StringWritable;
-import com.ongres.scram.common.util.StringWritableCsv;
 
 import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
@@ -96,66 +96,86 @@ public class ServerFirstMessage implements StringWritable {
         return iteration;
     }
 
+    private static int decimalLength(int value) {
+        int length = 1;
+        for(int i = value; i >= 10; i /= 10) {
+            length++;
+        }
+
+        return length;
+    }
+
+    @Override
+    public int length() {
+        return 2 + clientNonce.length() + serverNonce.length() + 3 + salt.length() + 3 + decimalLength(iteration);
+    }
+
     @Override
-    public StringBuffer writeTo(StringBuffer sb) {
-        return StringWritableCsv.writeTo(
-                sb,
-                new ScramAttributeValue(ScramAttributes.NONCE, getNonce()),
-                new ScramAttributeValue(ScramAttributes.SALT, salt),
-                new ScramAttributeValue(ScramAttributes.ITERATION, iteration + "")
-        );
+    public StringBuilder writeTo(StringBuilder sb) {
+        return sb.append(ScramAttributes.NONCE.getChar()).append('=').append(clientNonce).append(serverNonce)
+                .append(',')
+                .append(ScramAttributes.SALT.getChar()).append('=').append(salt)
+                .append(',')
+                .append(ScramAttributes.ITERATION.getChar()).append('=').append(iteration);
     }
 
     /**
-     * Parses a server-first-message from a String.
+     * Parses a server-first-message from a String, without throwing if it is not valid.
      * @param serverFirstMessage The string representing the server-first-message
      * @param clientNonce The serverNonce that is present in the client-first-message
-     * @return The parsed instance
-     * @throws ScramParseException If the argument is not a valid server-first-message
-     * @throws IllegalArgumentException If either argument is empty or serverFirstMessage is not a valid message
+     * @return The result, with the parsed instance or a failure
+     * @throws IllegalArgumentException If either argument is empty
      */
-    public static ServerFirstMessage parseFrom(String serverFirstMessage, String clientNonce)
-    throws ScramParseException, IllegalArgumentException {
+    public static ParseResult<ServerFirstMessage> tryParseFrom(String serverFirstMessage, String clientNonce)
+    throws IllegalArgumentException {
         checkNotEmpty(serverFirstMessage, "serverFirstMessage");
         checkNotEmpty(clientNonce, "clientNonce");
 
-        String[] attributeValues = StringWritableCsv.parseFrom(serverFirstMessage, 3, 0);
-        if(attributeValues.length != 3) {
-            throw new ScramParseException("Invalid server-first-message");
-        }
-
-        ScramAttributeValue nonce = ScramAttributeValue.parse(attributeValues[0]);
-        if(ScramAttributes.NONCE.getChar() != nonce.getChar()) {
-            throw new ScramParseException("serverNonce must be the 1st element of the server-first-message");
+        ScramTokenizer tokenizer = new ScramTokenizer().reset(serverFirstMessage);
+        if(! tokenizer.expect(ScramAttributes.NONCE)) {
+            return tokenizer.failure();
         }
-        if(! nonce.getValue().startsWith(clientNonce)) {
-            throw new ScramParseException("parsed serverNonce does not start with client serverNonce");
+        int nonceStart = tokenizer.getValueStart();
+        int nonceEnd = tokenizer.getValueEnd();
+        if(nonceEnd - nonceStart <= clientNonce.length() || ! serverFirstMessage.startsWith(clientNonce, nonceStart)) {
+            return ParseResult.failure(
+                    ScramParseError.INVALID_NONCE, "parsed serverNonce does not start with client serverNonce"
+            );
         }
 
-        ScramAttributeValue salt = ScramAttributeValue.parse(attributeValues[1]);
-        if(ScramAttributes.SALT.getChar() != salt.getChar()) {
-            throw new ScramParseException("salt must be the 2nd element of the server-first-message");
+        if(! tokenizer.expect(ScramAttributes.SALT)) {
+            return tokenizer.failure();
         }
+        String salt = tokenizer.getValue();
 
-        ScramAttributeValue iteration = ScramAttributeValue.parse(attributeValues[2]);
-        if(ScramAttributes.ITERATION.getChar() != iteration.getChar()) {
-            throw new ScramParseException("iteration must be the 3rd element of the server-first-message");
+        if(! tokenizer.expect(ScramAttributes.ITERATION)) {
+            return tokenizer.failure();
         }
-
-        int iterationInt;
-        try {
-            iterationInt = Integer.parseInt(iteration.getValue());
-        } catch (NumberFormatException e) {
-            throw new ScramParseException("invalid iteration");
+        int iteration = tokenizer.getIntValue();
+        if(iteration < ITERATION_MIN_VALUE) {
+            return ParseResult.failure(ScramParseError.INVALID_ITERATION, tokenizer.getValue());
         }
 
-        return new ServerFirstMessage(
-                clientNonce, nonce.getValue().substring(clientNonce.length()), salt.getValue(), iterationInt
-        );
+        return ParseResult.success(new ServerFirstMessage(
+                clientNonce, serverFirstMessage.substring(nonceStart + clientNonce.length(), nonceEnd), salt, iteration
+        ));
+    }
+
+    /**
+     * Parses a server-first-message from a String.
+     * @param serverFirstMessage The string representing the server-first-message
+     * @param clientNonce The serverNonce that is present in the client-first-message
+     * @return The parsed instance
+     * @throws ScramParseException If the argument is not a valid server-first-message
+     * @throws IllegalArgumentException If either argument is empty
+     */
+    public static ServerFirstMessage parseFrom(String serverFirstMessage, String clientNonce)
+    throws ScramParseException, IllegalArgumentException {
+        return tryParseFrom(serverFirstMessage, clientNonce).orElseThrow();
     }
 
     @Override
     public String toString() {
-        return writeTo(new StringBuffer()).toString();
+        return writeTo(new StringBuilder(length())).toString();
     }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.exception.ScramParseError;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.StacklessScramParseException;
+import com.ongres.scram.common.util.ByteCharSequence;
+
+import java.nio.ByteBuffer;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A reusable, flyweight parser of server-first-messages, that works directly over the bytes received from the wire
+ * (a {@code byte[]} range or a {@link ByteBuffer}) or over any {@link CharSequence}.
+ * Parsing creates no objects: it validates the message with a {@link ScramTokenizer}, records the offsets of the
+ * nonce and salt, and parses the iteration count.
+ * Values can then be compared or decoded in place, or obtained as Strings if needed.
+ *
+ * Offsets are indexes of the source array, buffer or sequence, and remain valid while the source is not modified.
+ * As with {@link ServerFirstMessage#parseFrom(String, String)}, extensions are ignored.
+ * Unlike it, the nonce is not checked to start with the client nonce: use {@link #nonceStartsWith(CharSequence)}.
+ *
+ * This class is not thread-safe. A single instance may be reused for successive messages.
+ */
+public class ServerFirstMessageView {
+    private final ByteCharSequence bytes = new ByteCharSequence();
+    private final ScramTokenizer tokenizer = new ScramTokenizer();
+    private CharSequence message;
+    private int base;
+    private int nonceStart;
+    private int nonceEnd;
+    private int saltStart;
+    private int saltEnd;
+    private int iteration;
+
+    /**
+     * Parses a server-first-message from a range of a byte array.
+     * @param message The buffer containing the message
+     * @param offset The offset of the message in the buffer
+     * @param length The length of the message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid server-first-message
+     * @throws IllegalArgumentException If the message is null or the range is out of bounds
+     */
+    public ServerFirstMessageView parse(byte[] message, int offset, int length)
+    throws ScramParseException, IllegalArgumentException {
+        bytes.set(message, offset, length);
+
+        return parse(bytes, offset);
+    }
+
+    /**
+     * Parses a server-first-message from the remaining bytes of a buffer. The buffer position is not modified.
+     * @param message The buffer containing the message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid server-first-message
+     * @throws IllegalArgumentException If the message is null
+     */
+    public ServerFirstMessageView parse(ByteBuffer message) throws ScramParseException, IllegalArgumentException {
+        bytes.set(message);
+
+        return parse(bytes, message.position());
+    }
+
+    /**
+     * Parses a server-first-message from a sequence of characters.
+     * @param message The message
+     * @return This same instance
+     * @throws ScramParseException If the message is not a valid server-first-message
+     * @throws IllegalArgumentException If the message is null
+     */
+    public ServerFirstMessageView parse(CharSequence message) throws ScramParseException, IllegalArgumentException {
+        return parse(checkNotNull(message, "message"), 0);
+    }
+
+    private ServerFirstMessageView parse(CharSequence message, int base) throws ScramParseException {
+        this.message = null;
+
+        tokenizer.reset(message);
+        AttributeScanner.expect(tokenizer, ScramAttributes.NONCE);
+        int nonceStart = tokenizer.getValueStart();
+        int nonceEnd = tokenizer.getValueEnd();
+        AttributeScanner.expect(tokenizer, ScramAttributes.SALT);
+        int saltStart = tokenizer.getValueStart();
+        int saltEnd = tokenizer.getValueEnd();
+        AttributeScanner.expect(tokenizer, ScramAttributes.ITERATION);
+        int iteration = tokenizer.getIntValue();
+        if(iteration < ServerFirstMessage.ITERATION_MIN_VALUE) {
+            throw new StacklessScramParseException(ScramParseError.INVALID_ITERATION, null);
+        }
+
+        this.message = message;
+        this.base = base;
+        this.nonceStart = nonceStart;
+        this.nonceEnd = nonceEnd;
+        this.saltStart = saltStart;
+        this.saltEnd = saltEnd;
+        this.iteration = iteration;
+
+        return this;
+    }
+
+    private CharSequence message() throws IllegalStateException {
+        if(null == message) {
+            throw new IllegalStateException("No message was successfully parsed");
+        }
+
+        return message;
+    }
+
+    public int getNonceOffset() {
+        message();
+        return base + nonceStart;
+    }
+
+    public int getNonceLength() {
+        message();
+        return nonceEnd - nonceStart;
+    }
+
+    public int getSaltOffset() {
+        message();
+        return base + saltStart;
+    }
+
+    public int getSaltLength() {
+        message();
+        return saltEnd - saltStart;
+    }
+
+    public int getIteration() {
+        message();
+        return iteration;
+    }
+
+    /**
+     * Checks whether the (full) nonce starts with the given client nonce, as it is required.
+     * @param clientNonce The client nonce
+     * @return True if the nonce starts with the client nonce
+     * @throws IllegalArgumentException If the client nonce is null
+     */
+    public boolean nonceStartsWith(CharSequence clientNonce) throws IllegalArgumentException {
+        checkNotNull(clientNonce, "clientNonce");
+        CharSequence message = message();
+
+        return clientNonce.length() <= nonceEnd - nonceStart
+                && AttributeScanner.regionEquals(message, nonceStart, nonceStart + clientNonce.length(), clientNonce);
+    }
+
+    /**
+     * The (full) nonce, as a String.
+     * @return The nonce
+     */
+    public String getNonce() {
+        return message().subSequence(nonceStart, nonceEnd).toString();
+    }
+
+    /**
+     * The base64-encoded salt, as a String.
+     * @return The salt
+     */
+    public String getSalt() {
+        return message().subSequence(saltStart, saltEnd).toString();
+    }
+
+    /**
+     * The length of the decoded salt.
+     * @return The length, in bytes
+     * @throws ScramParseException If the salt is not valid base64
+     */
+    public int getSaltDecodedLength() throws ScramParseException {
+        try {
+            return ScramStringFormatting.base64DecodedLength(message(), saltStart, saltEnd);
+        } catch (IllegalArgumentException e) {
+            throw new ScramParseException("Invalid salt", e);
+        }
+    }
+
+    /**
+     * Decodes the salt into the given buffer.
+     * @param output The buffer where the salt is written. It must have room for {@link #getSaltDecodedLength()}
+     *               bytes after the offset
+     * @param outputOffset The offset in the output buffer
+     * @return The number of bytes written
+     * @throws ScramParseException If the salt is not valid base64
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public int decodeSalt(byte[] output, int outputOffset) throws ScramParseException, IllegalArgumentException {
+        int length = getSaltDecodedLength();
+        checkNotNull(output, "output");
+        if(outputOffset < 0 || outputOffset + length > output.length) {
+            throw new IllegalArgumentException("Output buffer too short for the salt");
+        }
+        try {
+            return ScramStringFormatting.base64Decode(message(), saltStart, saltEnd, output, outputOffset);
+        } catch (IllegalArgumentException e) {
+            throw new ScramParseException("Invalid salt", e);
+        }
+    }
+}
@@ -24,6 +24,9 @@
 package com.ongres.scram.common.util;
 
 
+import java.nio.ByteBuffer;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
 
 
@@ -55,7 +58,26 @@ public class AbstractCharAttributeValue extends AbstractStringWritable implement
     }
 
     @Override
-    public StringBuffer writeTo(StringBuffer sb) {
+    public int length() {
+        return null == value ? 1 : 2 + value.length();
+    }
+
+    @Override
+    public int encodedLength() {
+        return null == value ? 1 : 2 + Utf8Utils.encodedLength(value);
+    }
+
+    @Override
+    public ByteBuffer writeTo(ByteBuffer buffer) throws IllegalArgumentException {
+        checkNotNull(buffer, "buffer");
+        checkArgument(encodedLength() <= buffer.remaining(), "buffer remaining");
+        buffer.put((byte) charAttribute.getChar());
+
+        return null == value ? buffer : Utf8Utils.encode(value, buffer.put((byte) '='));
+    }
+
+    @Override
+    public StringBuilder writeTo(StringBuilder sb) {
         sb.append(charAttribute.getChar());
 
         if(null != value) {
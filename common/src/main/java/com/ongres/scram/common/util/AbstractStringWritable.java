@@ -29,6 +29,6 @@ package com.ongres.scram.common.util;
  */
 public abstract class AbstractStringWritable implements StringWritable {
     public String toString() {
-        return writeTo(new StringBuffer()).toString();
+        return writeTo(new StringBuilder(length())).toString();
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.util;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A {@link CharSequence} view of a range of single-byte (US-ASCII) characters, stored either in a byte array or in
+ * a {@link ByteBuffer} (which may be direct). Bytes are not copied, so the view reflects changes to them.
+ * Instances may be repositioned with the {@code set} methods, so that a single one serves many parses.
+ * This class is not thread-safe.
+ */
+public class ByteCharSequence implements CharSequence {
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Positions this view over a range of a byte array.
+     * @param array The array
+     * @param offset The offset of the first character
+     * @param length The number of characters
+     * @return This same instance
+     * @throws IllegalArgumentException If the array is null or the range is out of bounds
+     */
+    public ByteCharSequence set(byte[] array, int offset, int length) throws IllegalArgumentException {
+        checkNotNull(array, "array");
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= array.length, "offset and length");
+        this.array = array;
+        this.buffer = null;
+        this.offset = offset;
+        this.length = length;
+
+        return this;
+    }
+
+    /**
+     * Positions this view over the remaining bytes (from the position to the limit) of a buffer.
+     * The position of the buffer is not modified.
+     * @param buffer The buffer
+     * @return This same instance
+     * @throws IllegalArgumentException If the buffer is null
+     */
+    public ByteCharSequence set(ByteBuffer buffer) throws IllegalArgumentException {
+        this.buffer = checkNotNull(buffer, "buffer");
+        this.array = null;
+        this.offset = buffer.position();
+        this.length = buffer.remaining();
+
+        return this;
+    }
+
+    /**
+     * The index, in the underlying array or buffer, of the first character of this view.
+     * Add it to indexes of this view to obtain the corresponding indexes of the array or buffer.
+     * @return The offset
+     */
+    public int offset() {
+        return offset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) ((null != array ? array[offset + index] : buffer.get(offset + index)) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkArgument(start >= 0 && start <= end && end <= length, "start and end");
+        ByteCharSequence sequence = new ByteCharSequence();
+        sequence.array = array;
+        sequence.buffer = buffer;
+        sequence.offset = offset + start;
+        sequence.length = end - start;
+
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        if(null != array) {
+            return new String(array, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = new char[length];
+        for(int i = 0; i < length; i++) {
+            chars[i] = charAt(i);
+        }
+
+        return new String(chars);
+    }
+}
@@ -27,14 +27,20 @@ package com.ongres.scram.common.util;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 
 import static com.ongres.scram.common.util.Preconditions.checkArgument;
 import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
 
 
 /**
@@ -44,6 +50,8 @@ public class CryptoUtil {
     private static final int MIN_ASCII_PRINTABLE_RANGE = 0x21;
     private static final int MAX_ASCII_PRINTABLE_RANGE = 0x7e;
     private static final int EXCLUDED_CHAR = (int) ','; // 0x2c
+    private static final byte HMAC_IPAD = 0x36;
+    private static final byte HMAC_OPAD = 0x5c;
 
     private static class SecureRandomHolder {
         private static final SecureRandom INSTANCE = new SecureRandom();
@@ -60,16 +68,33 @@ public class CryptoUtil {
             throw new IllegalArgumentException("Size must be positive");
         }
 
-        char[] chars = new char[size];
+        byte[] bytes = new byte[size];
+        nonce(bytes, 0, size, random);
+
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Generates a nonce, as {@link #nonce(int, SecureRandom)} does, writing its ASCII bytes to the given buffer.
+     * @param output The buffer where the nonce is written
+     * @param outputOffset The offset in the output buffer
+     * @param size The length of the nonce, in characters/bytes
+     * @param random The SecureRandom to use
+     * @throws IllegalArgumentException If the size is not positive or the output buffer is too short
+     */
+    public static void nonce(byte[] output, int outputOffset, int size, SecureRandom random)
+    throws IllegalArgumentException {
+        checkNotNull(output, "output");
+        checkArgument(size > 0, "size");
+        checkArgument(outputOffset >= 0 && outputOffset + size <= output.length, "output buffer");
+
         int r;
         for(int i = 0; i < size;) {
             r = random.nextInt(MAX_ASCII_PRINTABLE_RANGE - MIN_ASCII_PRINTABLE_RANGE + 1) + MIN_ASCII_PRINTABLE_RANGE;
             if(r != EXCLUDED_CHAR) {
-                chars[i++] = (char) r;
+                output[outputOffset + i++] = (byte) r;
             }
         }
-
-        return new String(chars);
     }
 
     /**
@@ -124,6 +149,89 @@ public class CryptoUtil {
         }
     }
 
+    /**
+     * Compute the "Hi" function for SCRAM, directly on top of the hash function of the HMAC.
+     * Results are the same as the ones of {@link #hi(SecretKeyFactory, int, String, byte[], int)}
+     * when given the UTF-8 bytes of the String value.
+     *
+     * The HMAC inner and outer padded keys are hashed only once. Each iteration then resumes from a copy of the
+     * resulting intermediate hash states ("midstates"), so it only takes two calls to the hash compression function,
+     * instead of the four that a plain HMAC implementation requires.
+     *
+     * @param messageDigest A MessageDigest of the hash function used by the HMAC. It must support cloning.
+     *                      It is reset by this method
+     * @param value The bytes of the value to compute the Hi function
+     * @param salt The salt
+     * @param iterations The number of iterations
+     * @return The bytes of the computed Hi value
+     * @throws IllegalArgumentException If any argument is null or iterations is not positive
+     */
+    public static byte[] hi(MessageDigest messageDigest, byte[] value, byte[] salt, int iterations)
+    throws IllegalArgumentException {
+        checkNotNull(messageDigest, "messageDigest");
+        checkNotNull(value, "value");
+        checkNotNull(salt, "salt");
+        gt0(iterations, "iterations");
+
+        int digestLength = messageDigest.getDigestLength();
+        // SHA-1, SHA-224 and SHA-256 work on 64 byte blocks; SHA-384 and SHA-512 on 128 byte blocks
+        int blockLength = digestLength <= 32 ? 64 : 128;
+
+        messageDigest.reset();
+        byte[] key = value.length > blockLength ? messageDigest.digest(value) : value;
+        byte[] pad = new byte[blockLength];
+        for(int i = 0; i < blockLength; i++) {
+            pad[i] = (byte) ((i < key.length ? key[i] : 0) ^ HMAC_IPAD);
+        }
+        MessageDigest innerMidstate = copy(messageDigest);
+        innerMidstate.update(pad);
+        for(int i = 0; i < blockLength; i++) {
+            pad[i] ^= HMAC_IPAD ^ HMAC_OPAD;
+        }
+        MessageDigest outerMidstate = copy(messageDigest);
+        outerMidstate.update(pad);
+        Arrays.fill(pad, (byte) 0);
+
+        byte[] u = new byte[digestLength];
+        try {
+            MessageDigest md = copy(innerMidstate);
+            md.update(salt);
+            md.update(new byte[] { 0, 0, 0, 1 });     // INT(1)
+            md.digest(u, 0, digestLength);
+            md = copy(outerMidstate);
+            md.update(u);
+            md.digest(u, 0, digestLength);
+
+            byte[] result = u.clone();
+            for(int i = 1; i < iterations; i++) {
+                md = copy(innerMidstate);
+                md.update(u);
+                md.digest(u, 0, digestLength);
+                md = copy(outerMidstate);
+                md.update(u);
+                md.digest(u, 0, digestLength);
+
+                for(int j = 0; j < digestLength; j++) {
+                    result[j] ^= u[j];
+                }
+            }
+
+            return result;
+        } catch (DigestException e) {
+            throw new RuntimeException("Platform error: invalid digest length");
+        }
+    }
+
+    private static MessageDigest copy(MessageDigest messageDigest) {
+        try {
+            return (MessageDigest) messageDigest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(
+                    "Platform error: MessageDigest " + messageDigest.getAlgorithm() + " does not support cloning"
+            );
+        }
+    }
+
     /**
      * Computes the HMAC of a given message.
      *
@@ -150,6 +258,82 @@ public class CryptoUtil {
         return mac.doFinal(message);
     }
 
+    /**
+     * Computes the HMAC of a given message, writing it to the given output buffer.
+     * The message is processed directly from the given buffer, without copying it.
+     *
+     * @param secretKeySpec A key of the given algorithm
+     * @param mac A MAC instance of the given algorithm
+     * @param message The buffer containing the message
+     * @param messageOffset The offset of the message in its buffer
+     * @param messageLength The length of the message
+     * @param output The buffer where the HMAC value is written
+     * @param outputOffset The offset in the output buffer where the HMAC value is written
+     * @return The number of bytes written (the length of the MAC)
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int hmac(
+            SecretKeySpec secretKeySpec, Mac mac, byte[] message, int messageOffset, int messageLength,
+            byte[] output, int outputOffset
+    ) throws IllegalArgumentException {
+        try {
+            mac.init(secretKeySpec);
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException("Platform error: unsupported key for HMAC algorithm");
+        }
+        mac.update(message, messageOffset, messageLength);
+
+        return doFinal(mac, output, outputOffset);
+    }
+
+    /**
+     * Finishes the MAC operation, writing the result to the given output buffer.
+     * The Mac is reset, and may be reused with the same key, also if the output buffer is too short.
+     * @param mac The initialized MAC instance, with all the data already fed to it
+     * @param output The buffer where the MAC value is written
+     * @param outputOffset The offset in the output buffer where the MAC value is written
+     * @return The number of bytes written (the length of the MAC)
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int doFinal(Mac mac, byte[] output, int outputOffset) throws IllegalArgumentException {
+        if(null == output || outputOffset < 0 || outputOffset + mac.getMacLength() > output.length) {
+            // Mac.doFinal would throw without resetting, leaving the data fed to it
+            mac.reset();
+            throw new IllegalArgumentException("Output buffer too short for the MAC value");
+        }
+        try {
+            mac.doFinal(output, outputOffset);
+        } catch (ShortBufferException e) {
+            mac.reset();
+            throw new IllegalArgumentException("Output buffer too short for the MAC value", e);
+        }
+
+        return mac.getMacLength();
+    }
+
+    /**
+     * Computes the digest of a given value, writing it to the given output buffer.
+     * @param messageDigest The MessageDigest instance. It is reset after the computation
+     * @param value The buffer containing the value
+     * @param valueOffset The offset of the value in its buffer
+     * @param valueLength The length of the value
+     * @param output The buffer where the digest is written
+     * @param outputOffset The offset in the output buffer where the digest is written
+     * @return The number of bytes written (the length of the digest)
+     * @throws IllegalArgumentException If the output buffer is too short
+     */
+    public static int digest(
+            MessageDigest messageDigest, byte[] value, int valueOffset, int valueLength, byte[] output,
+            int outputOffset
+    ) throws IllegalArgumentException {
+        messageDigest.update(value, valueOffset, valueLength);
+        try {
+            return messageDigest.digest(output, outputOffset, output.length - outputOffset);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("Output buffer too short for the digest", e);
+        }
+    }
+
     /**
      * Computes a byte-by-byte xor operation.
      *
@@ -177,4 +361,53 @@ public class CryptoUtil {
 
         return result;
     }
+
+    /**
+     * Computes a byte-by-byte xor operation, writing the result to the given output buffer.
+     * The output may be either of the input buffers, at the same offset, to perform the operation in place.
+     *
+     * @param value1 The buffer containing the first value
+     * @param offset1 The offset of the first value in its buffer
+     * @param value2 The buffer containing the second value
+     * @param offset2 The offset of the second value in its buffer
+     * @param output The buffer where the result is written
+     * @param outputOffset The offset in the output buffer where the result is written
+     * @param length The number of bytes of each value
+     * @throws IllegalArgumentException If any buffer is null or too short
+     */
+    public static void xor(
+            byte[] value1, int offset1, byte[] value2, int offset2, byte[] output, int outputOffset, int length
+    ) throws IllegalArgumentException {
+        checkNotNull(value1, "value1");
+        checkNotNull(value2, "value2");
+        checkNotNull(output, "output");
+        checkArgument(
+                offset1 >= 0 && offset2 >= 0 && outputOffset >= 0 && length >= 0
+                        && offset1 + length <= value1.length && offset2 + length <= value2.length
+                        && outputOffset + length <= output.length,
+                "offsets and length"
+        );
+
+        for(int i = 0; i < length; i++) {
+            output[outputOffset + i] = (byte) (value1[offset1 + i] ^ value2[offset2 + i]);
+        }
+    }
+
+    /**
+     * Compares two byte ranges in constant time (time depends only on the length, not on the contents).
+     * @param value1 The buffer containing the first value
+     * @param offset1 The offset of the first value in its buffer
+     * @param value2 The buffer containing the second value
+     * @param offset2 The offset of the second value in its buffer
+     * @param length The number of bytes to compare
+     * @return True if both ranges contain the same bytes
+     */
+    public static boolean constantTimeEquals(byte[] value1, int offset1, byte[] value2, int offset2, int length) {
+        int result = 0;
+        for(int i = 0; i < length; i++) {
+            result |= value1[offset1 + i] ^ value2[offset2 + i];
+        }
+
+        return result == 0;
+    }
 }
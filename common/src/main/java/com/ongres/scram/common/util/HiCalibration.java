@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.util;
+
+
+import com.ongres.scram.common.ScramMechanism;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.message.ServerFirstMessage;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * Measures the cost of the Hi function ({@link ScramMechanism#hi(String, byte[], int)}) on the current hardware,
+ * to estimate the cost of a given iteration count and to recommend an iteration count for a target latency.
+ *
+ * The cost of Hi is modelled as a fixed cost (key setup) plus a cost per iteration, both measured on a single
+ * thread. Since Hi is CPU-bound and does not share state, throughput scales with the number of cores,
+ * so per-core figures can be used to size connection and compute thread pools.
+ *
+ * Calibration runs for a short, configurable time. Run it with the JVM warmed up and the machine otherwise idle.
+ * {@link #calibrateAll()} calibrates all the {@link ScramMechanisms} without channel binding.
+ */
+public class HiCalibration {
+    /**
+     * Time spent calibrating each mechanism by default, in milliseconds
+     */
+    public static final long DEFAULT_CALIBRATION_MILLIS = 500;
+
+    private static final String PASSWORD = "calibration";
+    private static final byte[] SALT = new byte[16];
+    private static final int SAMPLE_ITERATION = ServerFirstMessage.ITERATION_MIN_VALUE;
+    private static final int MAX_WARMUP_ROUNDS = 30;
+    private static final int STABLE_WARMUP_ROUNDS = 3;
+
+    private final ScramMechanism scramMechanism;
+    private final double fixedNanos;
+    private final double nanosPerIteration;
+
+    private HiCalibration(ScramMechanism scramMechanism, double fixedNanos, double nanosPerIteration) {
+        this.scramMechanism = scramMechanism;
+        this.fixedNanos = fixedNanos;
+        this.nanosPerIteration = nanosPerIteration;
+    }
+
+    /**
+     * Constructs an estimator from previously measured values, for example from a calibration run on a
+     * different host of the same kind.
+     * @param scramMechanism The SCRAM mechanism
+     * @param fixedNanos The fixed cost of a Hi computation, in nanoseconds
+     * @param nanosPerIteration The cost of each iteration, in nanoseconds
+     * @return The estimator
+     * @throws IllegalArgumentException If the mechanism is null, or the costs are negative or zero
+     */
+    public static HiCalibration of(ScramMechanism scramMechanism, double fixedNanos, double nanosPerIteration)
+    throws IllegalArgumentException {
+        checkArgument(fixedNanos >= 0, "fixedNanos");
+        checkArgument(nanosPerIteration > 0, "nanosPerIteration");
+
+        return new HiCalibration(checkNotNull(scramMechanism, "scramMechanism"), fixedNanos, nanosPerIteration);
+    }
+
+    /**
+     * Runs Hi repeatedly, with the given iteration count, for the given time.
+     * @return The average time per call, in nanoseconds
+     */
+    private static double measure(ScramMechanism scramMechanism, int iteration, long durationNanos) {
+        long calls = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            scramMechanism.hi(PASSWORD, SALT, iteration);
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while(elapsed < durationNanos);
+
+        return (double) elapsed / calls;
+    }
+
+    /**
+     * Runs Hi in rounds until its time stops improving for some rounds (JIT compilation is done),
+     * or the maximum rounds are reached.
+     */
+    private static void warmUp(ScramMechanism scramMechanism, long roundNanos) {
+        double best = Double.MAX_VALUE;
+        int roundsWithoutImprovement = 0;
+        for(int i = 0; i < MAX_WARMUP_ROUNDS && roundsWithoutImprovement < STABLE_WARMUP_ROUNDS; i++) {
+            double current = measure(scramMechanism, SAMPLE_ITERATION, roundNanos);
+            if(current < best * 0.95) {
+                roundsWithoutImprovement = 0;
+            } else {
+                roundsWithoutImprovement++;
+            }
+            best = Math.min(best, current);
+        }
+    }
+
+    /**
+     * Measures the cost of Hi for the given mechanism, on the calling thread.
+     * Hi is first run until its time stabilizes, which on a cold JVM may take several times the given duration.
+     * Then a third of the duration is spent measuring the fixed cost, and the rest measuring the cost per iteration.
+     * @param scramMechanism The SCRAM mechanism
+     * @param duration The time to spend calibrating
+     * @param unit The unit of the duration
+     * @return The calibration
+     * @throws IllegalArgumentException If the mechanism or unit are null, or the duration is not positive
+     */
+    public static HiCalibration calibrate(ScramMechanism scramMechanism, long duration, TimeUnit unit)
+    throws IllegalArgumentException {
+        checkNotNull(scramMechanism, "scramMechanism");
+        checkArgument(duration > 0, "duration");
+        long thirdNanos = Math.max(1, checkNotNull(unit, "unit").toNanos(duration) / 3);
+
+        warmUp(scramMechanism, thirdNanos / 2);
+        double fixedNanos = measure(scramMechanism, 1, thirdNanos);
+        double sampleNanos = measure(scramMechanism, SAMPLE_ITERATION, 2 * thirdNanos);
+        double nanosPerIteration = Math.max(sampleNanos - fixedNanos, 1) / (SAMPLE_ITERATION - 1);
+
+        return new HiCalibration(scramMechanism, fixedNanos, nanosPerIteration);
+    }
+
+    /**
+     * Calibrates all the {@link ScramMechanisms} that do not use channel binding
+     * (those that do share the same Hi function), for {@link #DEFAULT_CALIBRATION_MILLIS} each.
+     * @return The calibrations, by mechanism
+     */
+    public static Map<ScramMechanisms, HiCalibration> calibrateAll() {
+        Map<ScramMechanisms, HiCalibration> calibrations = new EnumMap<>(ScramMechanisms.class);
+        for(ScramMechanisms scramMechanism : ScramMechanisms.values()) {
+            if(! scramMechanism.supportsChannelBinding()) {
+                calibrations.put(
+                        scramMechanism,
+                        calibrate(scramMechanism, DEFAULT_CALIBRATION_MILLIS, TimeUnit.MILLISECONDS)
+                );
+            }
+        }
+
+        return Collections.unmodifiableMap(calibrations);
+    }
+
+    public ScramMechanism getScramMechanism() {
+        return scramMechanism;
+    }
+
+    public double getFixedNanos() {
+        return fixedNanos;
+    }
+
+    public double getNanosPerIteration() {
+        return nanosPerIteration;
+    }
+
+    /**
+     * Estimates the time a Hi computation takes on one core.
+     * @param iteration The iteration count
+     * @return The estimated time, in nanoseconds
+     * @throws IllegalArgumentException If iteration is less than 1
+     */
+    public long estimateNanos(int iteration) throws IllegalArgumentException {
+        return Math.round(fixedNanos + nanosPerIteration * (gt0(iteration, "iteration") - 1));
+    }
+
+    /**
+     * Estimates the number of Hi computations per second that one core can perform.
+     * Multiply by the number of cores to estimate the throughput of a thread pool.
+     * @param iteration The iteration count
+     * @return The estimated throughput, in Hi computations per second
+     * @throws IllegalArgumentException If iteration is less than 1
+     */
+    public double estimateThroughputPerCore(int iteration) throws IllegalArgumentException {
+        return TimeUnit.SECONDS.toNanos(1) / (double) Math.max(1, estimateNanos(iteration));
+    }
+
+    /**
+     * Recommends the highest iteration count whose Hi computation takes, on one core, at most the given latency.
+     * The recommendation is never lower than {@link ServerFirstMessage#ITERATION_MIN_VALUE}.
+     * @param targetLatency The target latency
+     * @param unit The unit of the latency
+     * @return The recommended iteration count
+     * @throws IllegalArgumentException If unit is null or the latency is not positive
+     */
+    public int recommendIteration(long targetLatency, TimeUnit unit) throws IllegalArgumentException {
+        checkArgument(targetLatency > 0, "targetLatency");
+        double targetNanos = checkNotNull(unit, "unit").toNanos(targetLatency);
+        double iteration = 1 + (targetNanos - fixedNanos) / nanosPerIteration;
+
+        return (int) Math.max(ServerFirstMessage.ITERATION_MIN_VALUE, Math.min(Integer.MAX_VALUE, iteration));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.ROOT, "%s: %.1f ns/iteration, %.1f us fixed, %.0f Hi/s per core (i=%d)",
+                scramMechanism.getName(), nanosPerIteration, fixedNanos / 1000,
+                estimateThroughputPerCore(ServerFirstMessage.ITERATION_MIN_VALUE),
+                ServerFirstMessage.ITERATION_MIN_VALUE
+        );
+    }
+}
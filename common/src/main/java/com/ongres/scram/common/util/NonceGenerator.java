@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.common.util;
+
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * A thread-safe generator of nonces, composed of ASCII printable characters except comma (','),
+ * as {@link CryptoUtil#nonce(int, SecureRandom)} generates, designed to be shared by many threads.
+ *
+ * Random bytes are drawn in bulk, and each is mapped to one of the 93 characters of the alphabet.
+ * Bytes greater or equal than 186 (the largest multiple of 93 that fits in a byte) are discarded,
+ * so that every character has the same probability.
+ *
+ * The state is striped: there are several {@link SecureRandom} instances, each with its own buffer of random bytes,
+ * and each thread uses the stripe selected by its id. Threads only contend if they share a stripe.
+ * Stripes are guarded by {@link ReentrantLock}s rather than monitors, so that virtual threads waiting for one
+ * do not pin their carrier thread.
+ */
+public class NonceGenerator {
+    private static final byte[] ALPHABET = new byte[93];
+    static {
+        int i = 0;
+        for(char c = 0x21; c <= 0x7e; c++) {
+            if(c != ',') {
+                ALPHABET[i++] = (byte) c;
+            }
+        }
+    }
+    private static final int ACCEPTANCE_LIMIT = 256 / ALPHABET.length * ALPHABET.length;
+    private static final int BUFFER_SIZE = 512;
+
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final SecureRandom secureRandom;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = BUFFER_SIZE;
+
+        private Stripe(SecureRandom secureRandom) {
+            this.secureRandom = secureRandom;
+        }
+
+        private void nonce(byte[] output, int offset, int length) {
+            lock.lock();
+            try {
+                for(int i = 0; i < length;) {
+                    if(position == buffer.length) {
+                        secureRandom.nextBytes(buffer);
+                        position = 0;
+                    }
+                    int value = buffer[position++] & 0xff;
+                    if(value < ACCEPTANCE_LIMIT) {
+                        output[offset + i++] = ALPHABET[value % ALPHABET.length];
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final Stripe[] stripes;
+
+    /**
+     * Constructs a generator with the given number of stripes,
+     * each with a SecureRandom instance obtained from the supplier.
+     * @param stripes The number of stripes. It is rounded up to a power of two
+     * @param secureRandomSupplier A supplier of new SecureRandom instances
+     * @throws IllegalArgumentException If stripes is less than 1, or the supplier is null or supplies null
+     */
+    public NonceGenerator(int stripes, Supplier<SecureRandom> secureRandomSupplier) throws IllegalArgumentException {
+        gt0(stripes, "stripes");
+        checkArgument(stripes <= 1 << 16, "stripes");
+        checkNotNull(secureRandomSupplier, "secureRandomSupplier");
+
+        int size = 1;
+        while(size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for(int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(checkNotNull(secureRandomSupplier.get(), "secureRandom"));
+        }
+    }
+
+    /**
+     * Constructs a generator with one stripe per available processor (rounded up to a power of two),
+     * each with a new, default, {@link SecureRandom}.
+     */
+    public NonceGenerator() {
+        this(Runtime.getRuntime().availableProcessors(), SecureRandom::new);
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    /**
+     * Generates a nonce, writing its ASCII bytes to the given buffer.
+     * @param output The buffer where the nonce is written
+     * @param outputOffset The offset in the output buffer
+     * @param length The length of the nonce, in characters/bytes
+     * @throws IllegalArgumentException If the length is not positive or the output buffer is null or too short
+     */
+    public void nonce(byte[] output, int outputOffset, int length) throws IllegalArgumentException {
+        checkNotNull(output, "output");
+        gt0(length, "length");
+        checkArgument(outputOffset >= 0 && outputOffset + length <= output.length, "output buffer");
+
+        long threadId = Thread.currentThread().getId();
+        stripes[(int) (threadId ^ (threadId >>> 32)) & (stripes.length - 1)].nonce(output, outputOffset, length);
+    }
+
+    /**
+     * Generates a nonce.
+     * @param length The length of the nonce, in characters/bytes
+     * @return The nonce
+     * @throws IllegalArgumentException If the length is not positive
+     */
+    public String nonce(int length) throws IllegalArgumentException {
+        byte[] bytes = new byte[gt0(length, "length")];
+        nonce(bytes, 0, length);
+
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
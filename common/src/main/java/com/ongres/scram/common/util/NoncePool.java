@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.common.util;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * A pool of pre-generated nonces, kept refilled by a low-priority background (daemon) thread,
+ * so that taking a nonce does not generate it on the critical path of an authentication.
+ *
+ * Nonces are kept in a bounded, lock-free ring buffer, whose number of slots is the capacity rounded up to a power
+ * of two; at most capacity nonces are pooled, though. {@link #get()} takes one in O(1) without blocking;
+ * if the pool is empty, a nonce is generated synchronously instead. When the number of pooled nonces falls to the
+ * low-water mark, the background thread is woken up to refill the pool up to its capacity.
+ * The number of nonces taken from the pool (hits) and generated synchronously (fallbacks) are counted.
+ *
+ * As it is a {@link Supplier} of nonces, the pool can be given to
+ * {@code ScramClient.Builder#nonceSupplier(Supplier)} to generate client nonces,
+ * or be used to generate server nonces. The same pool may be shared by several clients or servers,
+ * as long as they use the same nonce length. {@link #close() Close} it to stop the background thread.
+ *
+ * This class is thread-safe.
+ */
+public class NoncePool implements Supplier<String>, AutoCloseable {
+    private final NonceGenerator nonceGenerator;
+    private final int nonceLength;
+    private final int capacity;
+    private final int lowWaterMark;
+    private final int slots;
+    private final int mask;
+    private final AtomicReferenceArray<String> nonces;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final Thread refillThread;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a pool and starts its background thread, that fills it.
+     * @param nonceGenerator The generator of the nonces
+     * @param nonceLength The length of the nonces, in characters/bytes
+     * @param capacity The maximum number of pooled nonces
+     * @param lowWaterMark The number of pooled nonces at or below which the pool is refilled.
+     *                     It must be less than the capacity
+     * @throws IllegalArgumentException If the generator is null, the length or capacity are not positive,
+     *                                  or the low-water mark is negative or not less than the capacity
+     */
+    public NoncePool(NonceGenerator nonceGenerator, int nonceLength, int capacity, int lowWaterMark)
+    throws IllegalArgumentException {
+        this.nonceGenerator = checkNotNull(nonceGenerator, "nonceGenerator");
+        this.nonceLength = gt0(nonceLength, "nonceLength");
+        gt0(capacity, "capacity");
+        checkArgument(capacity <= 1 << 24, "capacity");
+        checkArgument(lowWaterMark >= 0 && lowWaterMark < capacity, "lowWaterMark");
+
+        int slots = 1;
+        while(slots < capacity) {
+            slots <<= 1;
+        }
+        this.capacity = capacity;
+        this.lowWaterMark = lowWaterMark;
+        this.slots = slots;
+        this.mask = slots - 1;
+        this.nonces = new AtomicReferenceArray<>(slots);
+        this.sequences = new AtomicLongArray(slots);
+        for(int i = 0; i < slots; i++) {
+            sequences.set(i, i);
+        }
+
+        refillThread = new Thread(this::refill, "scram-nonce-pool");
+        refillThread.setDaemon(true);
+        refillThread.setPriority(Thread.MIN_PRIORITY);
+        refillThread.start();
+    }
+
+    public int getNonceLength() {
+        return nonceLength;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * The number of nonces currently pooled. It is only an estimate while the pool is used concurrently.
+     * @return The number of pooled nonces
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * The number of nonces that were taken from the pool.
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of nonces that were generated synchronously, because the pool was empty.
+     * @return The number of fallbacks
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Takes a nonce from the pool, or generates one if the pool is empty. It never blocks.
+     * @return A nonce
+     */
+    @Override
+    public String get() {
+        String nonce = poll();
+        if(null != nonce) {
+            hits.increment();
+        } else {
+            fallbacks.increment();
+            nonce = nonceGenerator.nonce(nonceLength);
+        }
+        if(! closed && size() <= lowWaterMark) {
+            LockSupport.unpark(refillThread);
+        }
+
+        return nonce;
+    }
+
+    /**
+     * Stops the background thread. Pooled nonces are still returned, and then they are generated synchronously.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(refillThread);
+    }
+
+    private String poll() {
+        for(;;) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if(difference < 0) {
+                return null;
+            }
+            if(difference == 0 && head.compareAndSet(position, position + 1)) {
+                String nonce = nonces.get(index);
+                nonces.lazySet(index, null);
+                sequences.set(index, position + slots);
+
+                return nonce;
+            }
+        }
+    }
+
+    /**
+     * Adds a nonce to the pool. Only called from the refill thread, the single producer.
+     */
+    private boolean offer(String nonce) {
+        long position = tail.get();
+        int index = (int) position & mask;
+        if(sequences.get(index) != position) {
+            return false;
+        }
+        nonces.lazySet(index, nonce);
+        sequences.set(index, position + 1);
+        tail.set(position + 1);
+
+        return true;
+    }
+
+    private void refill() {
+        while(! closed) {
+            while(! closed && size() < capacity && offer(nonceGenerator.nonce(nonceLength))) {
+                // Keep filling
+            }
+            LockSupport.park(this);
+        }
+    }
+}
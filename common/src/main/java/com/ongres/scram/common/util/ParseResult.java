@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.util;
+
+
+import com.ongres.scram.common.exception.ScramParseError;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.StacklessScramParseException;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * The outcome of parsing a SCRAM message (or a part of it): either the parsed value, or an error code.
+ * Parse methods returning results never throw on malformed input, which makes rejecting garbage cheap:
+ * no exception is created, and error messages are only formatted if requested.
+ * @param <T> The type of the parsed value
+ */
+public final class ParseResult<T> {
+    private static final ParseResult<?>[] FAILURES = new ParseResult<?>[ScramParseError.values().length];
+    static {
+        for(ScramParseError error : ScramParseError.values()) {
+            FAILURES[error.ordinal()] = new ParseResult<>(null, error, null);
+        }
+    }
+
+    private final T value;
+    private final ScramParseError error;
+    private final Object detail;
+
+    private ParseResult(T value, ScramParseError error, Object detail) {
+        this.value = value;
+        this.error = error;
+        this.detail = detail;
+    }
+
+    /**
+     * A successful result.
+     * @param value The parsed value
+     * @param <T> The type of the parsed value
+     * @return The result
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static <T> ParseResult<T> success(T value) throws IllegalArgumentException {
+        return new ParseResult<>(checkNotNull(value, "value"), null, null);
+    }
+
+    /**
+     * A failed result, with no detail. These results are shared, and thus do not allocate.
+     * @param error The error code
+     * @param <T> The type of the value that could not be parsed
+     * @return The result
+     * @throws IllegalArgumentException If the error is null
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ParseResult<T> failure(ScramParseError error) throws IllegalArgumentException {
+        return (ParseResult<T>) FAILURES[checkNotNull(error, "error").ordinal()];
+    }
+
+    /**
+     * A failed result.
+     * @param error The error code
+     * @param detail The detail of the failure. Its String representation is only used if a message is requested
+     * @param <T> The type of the value that could not be parsed
+     * @return The result
+     * @throws IllegalArgumentException If the error is null
+     */
+    public static <T> ParseResult<T> failure(ScramParseError error, Object detail) throws IllegalArgumentException {
+        return null == detail ? failure(error) : new ParseResult<>(null, checkNotNull(error, "error"), detail);
+    }
+
+    public boolean isSuccess() {
+        return null == error;
+    }
+
+    /**
+     * The parsed value.
+     * @return The value
+     * @throws IllegalStateException If the result is a failure
+     */
+    public T get() throws IllegalStateException {
+        if(! isSuccess()) {
+            throw new IllegalStateException("Parse failed: " + getErrorMessage());
+        }
+
+        return value;
+    }
+
+    /**
+     * The error code of a failed result.
+     * @return The error
+     * @throws IllegalStateException If the result is a success
+     */
+    public ScramParseError getError() throws IllegalStateException {
+        if(isSuccess()) {
+            throw new IllegalStateException("Parse did not fail");
+        }
+
+        return error;
+    }
+
+    /**
+     * Formats the message of a failed result.
+     * @return The error message
+     * @throws IllegalStateException If the result is a success
+     */
+    public String getErrorMessage() throws IllegalStateException {
+        return getError().format(detail);
+    }
+
+    /**
+     * Returns this failure as a result of a different type, so that it can be propagated by enclosing parsers.
+     * @param <U> The type of the value of the enclosing parser
+     * @return This same failure
+     * @throws IllegalStateException If the result is a success
+     */
+    @SuppressWarnings("unchecked")
+    public <U> ParseResult<U> asFailure() throws IllegalStateException {
+        getError();
+
+        return (ParseResult<U>) this;
+    }
+
+    /**
+     * The parsed value, or a {@link StacklessScramParseException} if the result is a failure.
+     * @return The value
+     * @throws ScramParseException If the result is a failure
+     */
+    public T orElseThrow() throws ScramParseException {
+        if(! isSuccess()) {
+            throw new StacklessScramParseException(error, detail);
+        }
+
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "ParseResult{" + value + "}" : "ParseResult{" + getErrorMessage() + "}";
+    }
+}
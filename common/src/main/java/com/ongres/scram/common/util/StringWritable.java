@@ -24,14 +24,64 @@
 package com.ongres.scram.common.util;
 
 
+import java.nio.ByteBuffer;
+
+
 /**
- * Interface to denote classes which can write to a StringBuffer.
+ * Interface to denote classes which can write to a StringBuilder.
+ * Implementations report the exact length of what they write, so that targets can be sized in advance
+ * and the output built in a single allocation.
+ *
+ * Implementations must override at least one of {@link #writeTo(StringBuilder)} and {@link #writeTo(StringBuffer)},
+ * as each default implementation adapts the other one.
  */
 public interface StringWritable {
     /**
      * Write the class information to the given StringBuffer.
+     * This default implementation adapts {@link #writeTo(StringBuilder)}.
      * @param sb Where to write the data.
      * @return The same StringBuffer.
      */
-    StringBuffer writeTo(StringBuffer sb);
+    default StringBuffer writeTo(StringBuffer sb) {
+        return sb.append(writeTo(new StringBuilder()));
+    }
+
+    /**
+     * Write the class information to the given StringBuilder.
+     * This default implementation adapts {@link #writeTo(StringBuffer)}; implementations should override it.
+     * @param sb Where to write the data.
+     * @return The same StringBuilder.
+     */
+    default StringBuilder writeTo(StringBuilder sb) {
+        return sb.append(writeTo(new StringBuffer()));
+    }
+
+    /**
+     * The number of characters that {@link #writeTo(StringBuilder)} writes.
+     * This default implementation writes the data to measure it; implementations should override it.
+     * @return The exact length of the written data
+     */
+    default int length() {
+        return writeTo(new StringBuffer()).length();
+    }
+
+    /**
+     * The number of bytes that {@link #writeTo(ByteBuffer)} writes.
+     * @return The exact length of the UTF-8 encoded data
+     */
+    default int encodedLength() {
+        return Utf8Utils.encodedLength(writeTo(new StringBuilder(length())));
+    }
+
+    /**
+     * Write the UTF-8 encoded class information at the current position of the given buffer, advancing it.
+     * This default implementation goes through a StringBuilder; implementations on the hot path encode directly.
+     * @param buffer Where to write the data. Heap and direct buffers are supported
+     * @return The same buffer
+     * @throws IllegalArgumentException If the buffer is null,
+     *                                  or has less than {@link #encodedLength()} bytes remaining
+     */
+    default ByteBuffer writeTo(ByteBuffer buffer) throws IllegalArgumentException {
+        return Utf8Utils.encode(writeTo(new StringBuilder(length())), buffer);
+    }
 }
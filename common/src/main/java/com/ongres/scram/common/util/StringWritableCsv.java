@@ -33,14 +33,14 @@ import static com.ongres.scram.common.util.Preconditions.checkNotNull;
  * Helper class to generate Comma Separated Values of {@link StringWritable}s
  */
 public class StringWritableCsv {
-    private static void writeStringWritableToStringBuffer(StringWritable value, StringBuffer sb) {
+    private static void writeStringWritableToStringBuilder(StringWritable value, StringBuilder sb) {
         if(null != value) {
             value.writeTo(sb);
         }
     }
 
     /**
-     * Write a sequence of {@link StringWritableCsv}s to a StringBuffer.
+     * Write a sequence of {@link StringWritableCsv}s to a StringBuilder.
      * Null {@link StringWritable}s are not printed, but separator is still used.
      * Separator is a comma (',')
      * @param sb The sb to write to
@@ -48,23 +48,55 @@ public class StringWritableCsv {
      * @return The same sb, with data filled in (if any)
      * @throws IllegalArgumentException If sb is null
      */
-    public static StringBuffer writeTo(StringBuffer sb, StringWritable... values) throws IllegalArgumentException {
+    public static StringBuilder writeTo(StringBuilder sb, StringWritable... values) throws IllegalArgumentException {
         checkNotNull(sb, "sb");
         if(null == values || values.length == 0) {
             return sb;
         }
 
-        writeStringWritableToStringBuffer(values[0], sb);
+        writeStringWritableToStringBuilder(values[0], sb);
         int i = 1;
         while (i < values.length) {
             sb.append(',');
-            writeStringWritableToStringBuffer(values[i], sb);
+            writeStringWritableToStringBuilder(values[i], sb);
             i++;
         }
 
         return sb;
     }
 
+    /**
+     * The number of characters that {@link #writeTo(StringBuilder, StringWritable...)} writes for the given values.
+     * @param values Zero or more attribute-value pairs
+     * @return The exact length of the Comma Separated Values
+     */
+    public static int length(StringWritable... values) {
+        if(null == values || values.length == 0) {
+            return 0;
+        }
+
+        int length = values.length - 1;
+        for(StringWritable value : values) {
+            length += null == value ? 0 : value.length();
+        }
+
+        return length;
+    }
+
+    /**
+     * Write a sequence of {@link StringWritableCsv}s to a StringBuffer.
+     * Adapter over {@link #writeTo(StringBuilder, StringWritable...)}, kept for compatibility.
+     * @param sb The sb to write to
+     * @param values Zero or more attribute-value pairs to write
+     * @return The same sb, with data filled in (if any)
+     * @throws IllegalArgumentException If sb is null
+     */
+    public static StringBuffer writeTo(StringBuffer sb, StringWritable... values) throws IllegalArgumentException {
+        checkNotNull(sb, "sb");
+
+        return sb.append(writeTo(new StringBuilder(length(values)), values));
+    }
+
     /**
      * Parse a String with a {@link StringWritableCsv} into its composing Strings
      * represented as Strings. No validation is performed on the individual attribute-values returned.
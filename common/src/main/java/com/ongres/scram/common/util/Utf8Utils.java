@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.util;
+
+
+import java.nio.ByteBuffer;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * UTF-8 encoding of character sequences straight into byte buffers, without intermediate Strings or arrays.
+ * The output is the same as the one of {@link String#getBytes(java.nio.charset.Charset)}: unpaired surrogates
+ * are replaced by '?'.
+ */
+public class Utf8Utils {
+    private static final byte REPLACEMENT = '?';
+
+    private static boolean isSurrogatePair(CharSequence value, int index) {
+        return Character.isHighSurrogate(value.charAt(index))
+                && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    /**
+     * The number of bytes of the UTF-8 representation of a character sequence.
+     * @param value The characters
+     * @return The number of bytes
+     * @throws IllegalArgumentException If the value is null
+     */
+    public static int encodedLength(CharSequence value) throws IllegalArgumentException {
+        checkNotNull(value, "value");
+        int length = 0;
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c < 0x80) {
+                length += 1;
+            } else if(c < 0x800) {
+                length += 2;
+            } else if(isSurrogatePair(value, i)) {
+                length += 4;
+                i++;
+            } else {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Writes the UTF-8 representation of a character sequence at the current position of the buffer,
+     * advancing it.
+     * @param value The characters
+     * @param buffer Where to write the bytes. Heap and direct buffers are supported
+     * @return The same buffer
+     * @throws IllegalArgumentException If any argument is null,
+     *                                  or the buffer has not enough remaining space (then nothing is written)
+     */
+    public static ByteBuffer encode(CharSequence value, ByteBuffer buffer) throws IllegalArgumentException {
+        checkNotNull(buffer, "buffer");
+        checkArgument(encodedLength(value) <= buffer.remaining(), "buffer remaining");
+
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c < 0x80) {
+                buffer.put((byte) c);
+            } else if(c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if(isSurrogatePair(value, i)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | codePoint >> 18));
+                buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint & 0x3f));
+            } else if(Character.isSurrogate(c)) {
+                buffer.put(REPLACEMENT);
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+
+        return buffer;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.ongres.scram.common.RfcExample.AUTH_MESSAGE;
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE;
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE_WITHOUT_PROOF;
+import static com.ongres.scram.common.RfcExample.CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER;
+import static com.ongres.scram.common.RfcExample.SERVER_FIRST_MESSAGE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class AuthMessageTest {
+    private static final AuthMessage AUTH_MESSAGE_SEGMENTS = new AuthMessage(
+            CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER, SERVER_FIRST_MESSAGE, CLIENT_FINAL_MESSAGE_WITHOUT_PROOF
+    );
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullSegment() {
+        new AuthMessage(CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER, null, CLIENT_FINAL_MESSAGE_WITHOUT_PROOF);
+    }
+
+    @Test
+    public void toStringIsAuthMessage() {
+        assertEquals(AUTH_MESSAGE, AUTH_MESSAGE_SEGMENTS.toString());
+    }
+
+    @Test
+    public void length() {
+        assertEquals(AUTH_MESSAGE.getBytes(StandardCharsets.UTF_8).length, AUTH_MESSAGE_SEGMENTS.length());
+    }
+
+    @Test
+    public void updateEqualsConcatenatedMessage() {
+        ScramMechanism scramMechanism = ScramMechanisms.SCRAM_SHA_256;
+        byte[] key = new byte[] { 1, 2, 3 };
+
+        assertArrayEquals(
+                ScramFunctions.hmac(scramMechanism, AUTH_MESSAGE.getBytes(StandardCharsets.UTF_8), key),
+                ScramFunctions.clientSignature(scramMechanism, key, AUTH_MESSAGE_SEGMENTS)
+        );
+    }
+
+    @Test
+    public void clientFinalMessageRange() {
+        byte[] clientFinalMessage = CLIENT_FINAL_MESSAGE.getBytes(StandardCharsets.UTF_8);
+        AuthMessage authMessage = new AuthMessage(
+                CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER.getBytes(StandardCharsets.UTF_8),
+                SERVER_FIRST_MESSAGE.getBytes(StandardCharsets.UTF_8),
+                clientFinalMessage, 0, CLIENT_FINAL_MESSAGE_WITHOUT_PROOF.length()
+        );
+
+        assertEquals(AUTH_MESSAGE, authMessage.toString());
+        assertEquals(AUTH_MESSAGE_SEGMENTS.length(), authMessage.length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void clientFinalMessageRangeOutOfBounds() {
+        new AuthMessage(new byte[0], new byte[0], new byte[4], 2, 3);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.junit.Test;
+
+import java.util.Base64;
+
+import static com.ongres.scram.common.RfcExample.PASSWORD;
+import static com.ongres.scram.common.RfcExample.SERVER_ITERATIONS;
+import static com.ongres.scram.common.RfcExample.SERVER_SALT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ScramCredentialsTest {
+    private static final Base64.Decoder BASE_64_DECODER = Base64.getDecoder();
+    private static final byte[] SALT = BASE_64_DECODER.decode(SERVER_SALT);
+    private static final ScramCredentials CREDENTIALS = ScramCredentials.fromPassword(
+            ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, PASSWORD, SALT, SERVER_ITERATIONS
+    );
+
+    @Test
+    public void fromPassword() {
+        assertArrayEquals(SALT, CREDENTIALS.getSalt());
+        assertEquals(SERVER_ITERATIONS, CREDENTIALS.getIteration());
+        assertArrayEquals(BASE_64_DECODER.decode("4jTEe/bDZpbdbYUrmaqiuiZVVyg="), CREDENTIALS.getClientKey());
+        assertArrayEquals(BASE_64_DECODER.decode("6dlGYMOdZcOPutkcNY8U2g7vK9Y="), CREDENTIALS.getStoredKey());
+        assertArrayEquals(BASE_64_DECODER.decode("D+CSWLOshSulAsxiupA+qs2/fTE="), CREDENTIALS.getServerKey());
+    }
+
+    @Test
+    public void matches() {
+        assertTrue(CREDENTIALS.matches(ScramMechanisms.SCRAM_SHA_1, SALT.clone(), SERVER_ITERATIONS));
+        assertFalse(CREDENTIALS.matches(ScramMechanisms.SCRAM_SHA_256, SALT, SERVER_ITERATIONS));
+        assertFalse(CREDENTIALS.matches(ScramMechanisms.SCRAM_SHA_1, new byte[SALT.length], SERVER_ITERATIONS));
+        assertFalse(CREDENTIALS.matches(ScramMechanisms.SCRAM_SHA_1, SALT, SERVER_ITERATIONS + 1));
+    }
+
+    @Test
+    public void isImmutable() {
+        CREDENTIALS.getClientKey()[0]++;
+        CREDENTIALS.getSalt()[0]++;
+
+        assertArrayEquals(BASE_64_DECODER.decode("4jTEe/bDZpbdbYUrmaqiuiZVVyg="), CREDENTIALS.getClientKey());
+        assertArrayEquals(SALT, CREDENTIALS.getSalt());
+    }
+
+    @Test
+    public void toVerifier() {
+        ScramVerifier verifier = CREDENTIALS.toVerifier();
+
+        assertArrayEquals(CREDENTIALS.getStoredKey(), verifier.getStoredKey());
+        assertArrayEquals(CREDENTIALS.getServerKey(), verifier.getServerKey());
+        assertEquals(
+                new ScramVerifier(
+                        ScramMechanisms.SCRAM_SHA_1, SALT, SERVER_ITERATIONS, CREDENTIALS.getStoredKey(),
+                        CREDENTIALS.getServerKey()
+                ),
+                verifier
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidKeyLength() {
+        new ScramCredentials(ScramMechanisms.SCRAM_SHA_256, SALT, SERVER_ITERATIONS, new byte[20], new byte[20]);
+    }
+}
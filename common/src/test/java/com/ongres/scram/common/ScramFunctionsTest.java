@@ -27,12 +27,21 @@ package com.ongres.scram.common;
 import com.ongres.scram.common.stringprep.StringPreparations;
 import org.junit.Test;
 
+import javax.crypto.Mac;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Base64;
 
 import static com.ongres.scram.common.RfcExample.AUTH_MESSAGE;
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE_WITHOUT_PROOF;
+import static com.ongres.scram.common.RfcExample.CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER;
+import static com.ongres.scram.common.RfcExample.SERVER_FIRST_MESSAGE;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -141,4 +150,113 @@ public class ScramFunctionsTest {
                 )
         );
     }
+
+    @Test
+    public void buffers() {
+        ScramMechanism scramMechanism = ScramMechanisms.SCRAM_SHA_1;
+        Mac mac = scramMechanism.getMacInstance();
+        MessageDigest messageDigest = scramMechanism.getMessageDigestInstance();
+        byte[] saltedPassword = generateSaltedPassword();
+        byte[] authMessage = ("xx" + AUTH_MESSAGE + "yy").getBytes(StandardCharsets.UTF_8);
+        int authMessageLength = authMessage.length - 4;
+        int length = scramMechanism.algorithmKeyLength() / 8;
+        byte[] buffer = new byte[3 + 4 * length];
+        int clientKey = 3;
+        int storedKey = clientKey + length;
+        int serverKey = storedKey + length;
+        int signature = serverKey + length;
+
+        assertEquals(length, ScramFunctions.clientKey(scramMechanism, mac, saltedPassword, buffer, clientKey));
+        assertBytesEqualsBase64("4jTEe/bDZpbdbYUrmaqiuiZVVyg=", Arrays.copyOfRange(buffer, clientKey, storedKey));
+
+        assertEquals(length, ScramFunctions.storedKey(messageDigest, buffer, clientKey, buffer, storedKey));
+        assertBytesEqualsBase64("6dlGYMOdZcOPutkcNY8U2g7vK9Y=", Arrays.copyOfRange(buffer, storedKey, serverKey));
+
+        assertEquals(length, ScramFunctions.serverKey(scramMechanism, mac, saltedPassword, buffer, serverKey));
+        assertBytesEqualsBase64("D+CSWLOshSulAsxiupA+qs2/fTE=", Arrays.copyOfRange(buffer, serverKey, signature));
+
+        byte[] storedKeyValue = Arrays.copyOfRange(buffer, storedKey, serverKey);
+        assertEquals(length, ScramFunctions.clientSignature(
+                scramMechanism, mac, storedKeyValue, authMessage, 2, authMessageLength, buffer, signature
+        ));
+        assertBytesEqualsBase64("XXE4xIawv6vfSePi2ovW5cedthM=", Arrays.copyOfRange(buffer, signature, buffer.length));
+
+        // In place, over the client signature
+        assertEquals(
+                length, ScramFunctions.clientProof(buffer, clientKey, buffer, signature, length, buffer, signature)
+        );
+        assertBytesEqualsBase64("v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=", Arrays.copyOfRange(buffer, signature, buffer.length));
+
+        byte[] scratch = new byte[length];
+        assertTrue(ScramFunctions.verifyClientProof(
+                scramMechanism, mac, messageDigest, buffer, signature, storedKeyValue, authMessage, 2,
+                authMessageLength, scratch
+        ));
+        buffer[signature]++;
+        assertFalse(ScramFunctions.verifyClientProof(
+                scramMechanism, mac, messageDigest, buffer, signature, storedKeyValue, authMessage, 2,
+                authMessageLength, scratch
+        ));
+
+        byte[] serverKeyValue = Arrays.copyOfRange(buffer, serverKey, signature);
+        assertEquals(length, ScramFunctions.serverSignature(
+                scramMechanism, mac, serverKeyValue, authMessage, 2, authMessageLength, buffer, signature
+        ));
+        assertBytesEqualsBase64("rmF9pqV8S7suAoZWja4dJRkFsKQ=", Arrays.copyOfRange(buffer, signature, buffer.length));
+        assertTrue(ScramFunctions.verifyServerSignature(
+                scramMechanism, mac, serverKeyValue, authMessage, 2, authMessageLength, buffer, signature, scratch
+        ));
+    }
+
+    @Test
+    public void hmacByteBuffer() {
+        byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer message = ByteBuffer.allocateDirect(64);
+        message.put("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII)).flip();
+        byte[] output = new byte[32];
+
+        assertEquals(32, ScramFunctions.hmac(
+                ScramMechanisms.SCRAM_SHA_256, ScramMechanisms.SCRAM_SHA_256.getMacInstance(), message, key, output, 0
+        ));
+        assertBytesEqualsBase64("97yD9DBThCSxMpjmqm+xQ+9NWaFJRhdZl0edvC0aPNg=", output);
+        assertFalse(message.hasRemaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bufferTooShort() {
+        ScramFunctions.clientKey(
+                ScramMechanisms.SCRAM_SHA_1, ScramMechanisms.SCRAM_SHA_1.getMacInstance(), generateSaltedPassword(),
+                new byte[20], 1
+        );
+    }
+
+    private static AuthMessage authMessage() {
+        return new AuthMessage(
+                CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER, SERVER_FIRST_MESSAGE, CLIENT_FINAL_MESSAGE_WITHOUT_PROOF
+        );
+    }
+
+    @Test
+    public void signaturesAuthMessage() {
+        AuthMessage authMessage = authMessage();
+
+        assertBytesEqualsBase64(
+                "XXE4xIawv6vfSePi2ovW5cedthM=",
+                ScramFunctions.clientSignature(ScramMechanisms.SCRAM_SHA_1, generateStoredKey(), authMessage)
+        );
+        assertBytesEqualsBase64(
+                "rmF9pqV8S7suAoZWja4dJRkFsKQ=",
+                ScramFunctions.serverSignature(ScramMechanisms.SCRAM_SHA_1, generateServerKey(), authMessage)
+        );
+        assertTrue(
+                ScramFunctions.verifyClientProof(
+                        ScramMechanisms.SCRAM_SHA_1, generateClientProof(), generateStoredKey(), authMessage
+                )
+        );
+        assertTrue(
+                ScramFunctions.verifyServerSignature(
+                        ScramMechanisms.SCRAM_SHA_1, generateServerKey(), authMessage, generateServerSignature()
+                )
+        );
+    }
 }
@@ -74,6 +74,27 @@ public class ScramMechanismsTest {
         }
     }
 
+    @Test
+    public void instancesAreIndependent() throws Exception {
+        for(ScramMechanisms scramMechanism : ScramMechanisms.values()) {
+            MessageDigest messageDigest1 = scramMechanism.getMessageDigestInstance();
+            MessageDigest messageDigest2 = scramMechanism.getMessageDigestInstance();
+            assertNotSame(messageDigest1, messageDigest2);
+            messageDigest1.update((byte) 1);
+            assertArrayEquals(
+                    MessageDigest.getInstance(scramMechanism.getHashAlgorithmName()).digest(),
+                    messageDigest2.digest()
+            );
+
+            Mac mac1 = scramMechanism.getMacInstance();
+            Mac mac2 = scramMechanism.getMacInstance();
+            assertNotSame(mac1, mac2);
+            mac1.init(scramMechanism.secretKeySpec(new byte[] { 1 }));
+            mac2.init(scramMechanism.secretKeySpec(new byte[] { 2 }));
+            assertFalse(Arrays.equals(mac1.doFinal(), mac2.doFinal()));
+        }
+    }
+
     private void testNames(String[] names, Predicate<Optional<ScramMechanisms>> predicate) {
         assertEquals(
                 names.length,
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.common;
+
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static com.ongres.scram.common.RfcExample.AUTH_MESSAGE;
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE_PROOF;
+import static com.ongres.scram.common.RfcExample.SERVER_FINAL_MESSAGE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ScramProofVerifierTest {
+    private static final byte[] STORED_KEY = Base64.getDecoder().decode("6dlGYMOdZcOPutkcNY8U2g7vK9Y=");
+    private static final byte[] SERVER_KEY = Base64.getDecoder().decode("D+CSWLOshSulAsxiupA+qs2/fTE=");
+    private static final byte[] CLIENT_PROOF = Base64.getDecoder().decode(CLIENT_FINAL_MESSAGE_PROOF);
+    private static final byte[] SERVER_SIGNATURE = Base64.getDecoder().decode(SERVER_FINAL_MESSAGE.substring(2));
+
+    private static byte[] authMessageAt(int offset) {
+        byte[] bytes = AUTH_MESSAGE.getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = new byte[offset + bytes.length + 1];
+        System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+
+        return buffer;
+    }
+
+    private static ScramProofVerifier verifier() {
+        return new ScramProofVerifier(ScramMechanisms.SCRAM_SHA_1, STORED_KEY, SERVER_KEY);
+    }
+
+    @Test
+    public void verifyClientProof() {
+        ScramProofVerifier verifier = verifier();
+        byte[] authMessage = authMessageAt(3);
+        int length = authMessage.length - 4;
+        byte[] proof = new byte[CLIENT_PROOF.length + 1];
+        System.arraycopy(CLIENT_PROOF, 0, proof, 1, CLIENT_PROOF.length);
+
+        assertEquals(CLIENT_PROOF.length, verifier.getProofLength());
+        for(int i = 0; i < 3; i++) {
+            assertTrue(verifier.verifyClientProof(authMessage, 3, length, proof, 1));
+        }
+        assertFalse(verifier.verifyClientProof(authMessage, 3, length, proof, 0));
+        assertFalse(verifier.verifyClientProof(authMessage, 2, length, proof, 1));
+        assertTrue(verifier.verifyClientProof(authMessage, 3, length, proof, 1));
+    }
+
+    @Test
+    public void verifyClientProofAuthMessage() {
+        AuthMessage authMessage = new AuthMessage(
+                RfcExample.CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER, RfcExample.SERVER_FIRST_MESSAGE,
+                RfcExample.CLIENT_FINAL_MESSAGE_WITHOUT_PROOF
+        );
+
+        assertTrue(verifier().verifyClientProof(authMessage, CLIENT_PROOF, 0));
+    }
+
+    @Test
+    public void serverSignature() {
+        ScramProofVerifier verifier = verifier();
+        byte[] authMessage = authMessageAt(0);
+        int length = authMessage.length - 1;
+        byte[] signature = new byte[SERVER_SIGNATURE.length + 2];
+
+        assertEquals(SERVER_SIGNATURE.length, verifier.serverSignature(authMessage, 0, length, signature, 2));
+        assertArrayEquals(SERVER_SIGNATURE, Arrays.copyOfRange(signature, 2, signature.length));
+        assertTrue(verifier.verifyServerSignature(authMessage, 0, length, signature, 2));
+        assertFalse(verifier.verifyServerSignature(authMessage, 0, length, signature, 1));
+        assertFalse(verifier.verifyServerSignature(authMessage, 0, length, signature, 3));
+    }
+
+    @Test
+    public void serverSignatureAfterShortOutput() {
+        ScramProofVerifier verifier = verifier();
+        byte[] authMessage = AUTH_MESSAGE.getBytes(StandardCharsets.UTF_8);
+        AuthMessage segments = new AuthMessage(
+                RfcExample.CLIENT_FIRST_MESSAGE_WITHOUT_GS2_HEADER, RfcExample.SERVER_FIRST_MESSAGE,
+                RfcExample.CLIENT_FINAL_MESSAGE_WITHOUT_PROOF
+        );
+        byte[][] shortOutputs = new byte[][] { new byte[8], new byte[SERVER_SIGNATURE.length] };
+        int[] offsets = new int[] { 0, 1 };
+
+        for(int i = 0; i < shortOutputs.length; i++) {
+            try {
+                verifier.serverSignature(authMessage, 0, authMessage.length, shortOutputs[i], offsets[i]);
+                fail("Output should be too short");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                verifier.serverSignature(segments, shortOutputs[i], offsets[i]);
+                fail("Output should be too short");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+        byte[] signature = new byte[SERVER_SIGNATURE.length];
+        verifier.serverSignature(authMessage, 0, authMessage.length, signature, 0);
+        assertArrayEquals(SERVER_SIGNATURE, signature);
+        verifier.serverSignature(segments, signature, 0);
+        assertArrayEquals(SERVER_SIGNATURE, signature);
+        assertTrue(verifier.verifyClientProof(segments, CLIENT_PROOF, 0));
+    }
+
+    @Test
+    public void copyVerifiesIndependently() {
+        ScramProofVerifier verifier = verifier();
+        ScramProofVerifier copy = verifier.copy();
+        byte[] authMessage = authMessageAt(0);
+        int length = authMessage.length - 1;
+
+        assertTrue(copy.verifyClientProof(authMessage, 0, length, CLIENT_PROOF, 0));
+        assertTrue(verifier.verifyClientProof(authMessage, 0, length, CLIENT_PROOF, 0));
+        assertTrue(copy.verifyServerSignature(authMessage, 0, length, SERVER_SIGNATURE, 0));
+    }
+
+    @Test
+    public void fromScramVerifier() {
+        ScramVerifier scramVerifier = new ScramVerifier(
+                ScramMechanisms.SCRAM_SHA_1, new byte[16], 4096, STORED_KEY, SERVER_KEY
+        );
+        byte[] authMessage = AUTH_MESSAGE.getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(new ScramProofVerifier(scramVerifier).verifyClientProof(
+                authMessage, 0, authMessage.length, CLIENT_PROOF, 0
+        ));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyLengthMismatch() {
+        new ScramProofVerifier(ScramMechanisms.SCRAM_SHA_256, STORED_KEY, SERVER_KEY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void clientProofTooShort() {
+        byte[] authMessage = AUTH_MESSAGE.getBytes(StandardCharsets.UTF_8);
+        verifier().verifyClientProof(authMessage, 0, authMessage.length, CLIENT_PROOF, 1);
+    }
+}
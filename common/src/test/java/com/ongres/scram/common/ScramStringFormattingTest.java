@@ -26,6 +26,13 @@ package com.ongres.scram.common;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -81,4 +88,63 @@ public class ScramStringFormattingTest {
 
         assertTrue("Not all values produced IllegalArgumentException", n == INVALID_SASL_NAMES.length);
     }
+
+    @Test
+    public void base64EncodeMatchesJdk() {
+        Random random = new Random(1);
+        for(int length = 0; length < 40; length++) {
+            byte[] value = new byte[length];
+            random.nextBytes(value);
+            String expected = Base64.getEncoder().encodeToString(value);
+
+            assertEquals(expected.length(), ScramStringFormatting.base64EncodedLength(length));
+            assertEquals("[" + expected, ScramStringFormatting.base64Encode(value, new StringBuilder("[")).toString());
+            char[] chars = new char[expected.length() + 1];
+            assertEquals(chars.length, ScramStringFormatting.base64Encode(value, chars, 1));
+            assertEquals(expected, new String(chars, 1, expected.length()));
+            ByteBuffer buffer = ScramStringFormatting.base64Encode(value, ByteBuffer.allocate(expected.length()));
+            assertEquals(expected, new String(buffer.array(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void base64EncodeShortCharArray() {
+        ScramStringFormatting.base64Encode(new byte[4], new char[8], 1);
+    }
+
+    @Test
+    public void base64DecodeRange() {
+        Random random = new Random(1);
+        for(int length = 1; length < 40; length++) {
+            byte[] value = new byte[length];
+            random.nextBytes(value);
+            String encoded = "[" + Base64.getEncoder().encodeToString(value) + "]";
+            int to = encoded.length() - 1;
+
+            assertEquals(length, ScramStringFormatting.base64DecodedLength(encoded, 1, to));
+            byte[] decoded = new byte[length + 2];
+            assertEquals(length, ScramStringFormatting.base64Decode(encoded, 1, to, decoded, 2));
+            assertArrayEquals(value, Arrays.copyOfRange(decoded, 2, decoded.length));
+        }
+    }
+
+    @Test
+    public void base64DecodeInvalid() {
+        String[] invalids = new String[] { "", "abc", "ab=c", "a===", "ab-d", "abc\u00e9" };
+        int n = 0;
+        for(String s : invalids) {
+            try {
+                ScramStringFormatting.base64Decode(s, 0, s.length(), new byte[10], 0);
+            } catch (IllegalArgumentException e) {
+                n++;
+            }
+        }
+
+        assertEquals(invalids.length, n);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void base64DecodeShortOutput() {
+        ScramStringFormatting.base64Decode("QSXCR+Q6sek8bf92", 0, 16, new byte[11], 1);
+    }
 }
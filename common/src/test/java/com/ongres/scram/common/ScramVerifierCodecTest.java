@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class ScramVerifierCodecTest {
+    private static final Base64.Encoder BASE_64_ENCODER = Base64.getEncoder();
+
+    private static ScramVerifier verifier(String password, int saltLength) {
+        byte[] salt = new byte[saltLength];
+        for(int i = 0; i < saltLength; i++) {
+            salt[i] = (byte) (i * 37 + password.length());
+        }
+
+        return ScramCredentials.fromPassword(
+                ScramMechanisms.SCRAM_SHA_256, StringPreparations.NO_PREPARATION, password, salt, 4096
+        ).toVerifier();
+    }
+
+    private static String expected(ScramVerifier verifier) {
+        return "SCRAM-SHA-256$" + verifier.getIteration() + ":" + BASE_64_ENCODER.encodeToString(verifier.getSalt())
+                + "$" + BASE_64_ENCODER.encodeToString(verifier.getStoredKey())
+                + ":" + BASE_64_ENCODER.encodeToString(verifier.getServerKey());
+    }
+
+    @Test
+    public void write() {
+        for(int saltLength = 14; saltLength <= 16; saltLength++) {     // All base64 padding lengths
+            ScramVerifier verifier = verifier("pencil", saltLength);
+            String expected = expected(verifier);
+
+            assertEquals(expected, ScramVerifierCodec.write(verifier));
+            assertEquals(expected.length(), ScramVerifierCodec.length(verifier));
+
+            byte[] bytes = new byte[expected.length() + 2];
+            assertEquals(expected.length(), ScramVerifierCodec.writeTo(verifier, bytes, 2));
+            assertEquals(expected, new String(bytes, 2, expected.length(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void parse() throws ScramParseException {
+        for(int saltLength = 14; saltLength <= 16; saltLength++) {
+            ScramVerifier verifier = verifier("pencil", saltLength);
+            String value = expected(verifier);
+
+            assertEquals(verifier, ScramVerifierCodec.parse(value));
+            byte[] bytes = (" " + value + " ").getBytes(StandardCharsets.US_ASCII);
+            assertEquals(verifier, ScramVerifierCodec.parse(bytes, 1, value.length()));
+        }
+    }
+
+    @Test
+    public void parseValues() throws ScramParseException {
+        ScramVerifier verifier = ScramVerifierCodec.parse(
+                "SCRAM-SHA-1$4096:QSXCR+Q6sek8bf92$6dlGYMOdZcOPutkcNY8U2g7vK9Y=:D+CSWLOshSulAsxiupA+qs2/fTE="
+        );
+
+        assertEquals(ScramMechanisms.SCRAM_SHA_1, verifier.getScramMechanism());
+        assertEquals(4096, verifier.getIteration());
+        assertArrayEquals(Base64.getDecoder().decode("QSXCR+Q6sek8bf92"), verifier.getSalt());
+        assertArrayEquals(Base64.getDecoder().decode("6dlGYMOdZcOPutkcNY8U2g7vK9Y="), verifier.getStoredKey());
+        assertArrayEquals(Base64.getDecoder().decode("D+CSWLOshSulAsxiupA+qs2/fTE="), verifier.getServerKey());
+    }
+
+    @Test
+    public void parseInvalid() {
+        String valid = expected(verifier("pencil", 16));
+        String[] invalids = new String[] {
+                "",
+                "md5abcdef",
+                valid.replace("SCRAM-SHA-256$", "SCRAM-SHA-256-PLUS$"),
+                valid.replace("SCRAM-SHA-256$", "SCRAM-SHA-512$"),
+                valid.replace("$4096:", "$0:"),
+                valid.replace("$4096:", "$:"),
+                valid.replace("$4096:", "$4a96:"),
+                valid.replace("$4096:", "$99999999999:"),
+                valid.substring(0, valid.length() - 4),
+                valid.substring(0, valid.length() - 1) + "*",
+                valid.replace(":", "$"),
+                valid + ":"
+        };
+
+        for(String invalid : invalids) {
+            try {
+                ScramVerifierCodec.parse(invalid);
+                fail("Parsing should fail for '" + invalid + "'");
+            } catch (ScramParseException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void read() {
+        List<ScramVerifier> verifiers = IntStream.range(0, 50)
+                .mapToObj(i -> verifier("password" + i, 16))
+                .collect(Collectors.toList());
+        StringBuilder sb = new StringBuilder("\n");
+        for(int i = 0; i < verifiers.size(); i++) {
+            sb.append(ScramVerifierCodec.write(verifiers.get(i))).append(i % 2 == 0 ? "\n" : "\r\n\n");
+        }
+        sb.setLength(sb.length() - 1);   // No end of line at the end
+
+        List<ScramVerifier> read = ScramVerifierCodec.read(
+                new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.US_ASCII)) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        return super.read(b, off, Math.min(len, 7));    // Lines split across reads
+                    }
+                }
+        ).collect(Collectors.toList());
+
+        assertEquals(verifiers, read);
+    }
+
+    @Test
+    public void readInvalidLine() {
+        String content = expected(verifier("pencil", 16)) + "\ninvalid\n";
+        try {
+            ScramVerifierCodec.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII))).count();
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid verifier at line 2", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common;
+
+
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ScramVerifierDeriverTest {
+    private static final ScramVerifierDeriver DERIVER = ScramVerifierDeriver.builder(
+            ScramMechanisms.SCRAM_SHA_256, StringPreparations.NO_PREPARATION
+    ).iteration(16).saltLength(12).chunkSize(5).forkJoinPool(new ForkJoinPool(3)).setup();
+
+    private static void assertVerifierMatchesPassword(ScramVerifier verifier, String password) {
+        ScramMechanism scramMechanism = verifier.getScramMechanism();
+        byte[] saltedPassword = ScramFunctions.saltedPassword(
+                scramMechanism, StringPreparations.NO_PREPARATION, password, verifier.getSalt(),
+                verifier.getIteration()
+        );
+
+        assertArrayEquals(
+                ScramFunctions.storedKey(scramMechanism, ScramFunctions.clientKey(scramMechanism, saltedPassword)),
+                verifier.getStoredKey()
+        );
+        assertArrayEquals(ScramFunctions.serverKey(scramMechanism, saltedPassword), verifier.getServerKey());
+    }
+
+    @Test
+    public void deriveSingle() {
+        ScramVerifier verifier = DERIVER.derive("pencil");
+
+        assertEquals(16, verifier.getIteration());
+        assertEquals(12, verifier.getSalt().length);
+        assertVerifierMatchesPassword(verifier, "pencil");
+    }
+
+    @Test
+    public void saltsAreRandom() {
+        assertFalse(Arrays.equals(DERIVER.derive("pencil").getSalt(), DERIVER.derive("pencil").getSalt()));
+    }
+
+    @Test
+    public void deriveStreamKeepsOrder() {
+        List<String> users = IntStream.range(0, 23).mapToObj(i -> "user" + i).collect(Collectors.toList());
+        List<ScramVerifierDeriver.Result<String>> results = DERIVER.derive(users.stream(), user -> user + "pass")
+                .collect(Collectors.toList());
+
+        assertEquals(users.size(), results.size());
+        for(int i = 0; i < users.size(); i++) {
+            assertEquals(users.get(i), results.get(i).getRecord());
+            assertVerifierMatchesPassword(results.get(i).getVerifier(), users.get(i) + "pass");
+        }
+    }
+
+    @Test
+    public void deriveIsLazy() {
+        Iterator<Integer> records = IntStream.range(0, 1000).iterator();
+        Iterator<ScramVerifierDeriver.Result<Integer>> results = DERIVER.derive(records, String::valueOf).iterator();
+
+        assertEquals(Integer.valueOf(0), results.next().getRecord());
+        assertTrue(records.hasNext());  // At most two chunks were read
+    }
+
+    @Test
+    public void deriveEmpty() {
+        assertEquals(0, DERIVER.derive(Stream.<String>empty(), user -> user).count());
+    }
+
+    @Test
+    public void failuresArePropagated() {
+        try {
+            DERIVER.derive(Stream.of("a", "b", "c"), user -> "b".equals(user) ? null : user).count();
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
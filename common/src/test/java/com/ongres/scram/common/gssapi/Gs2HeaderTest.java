@@ -24,9 +24,13 @@
 package com.ongres.scram.common.gssapi;
 
 
+import com.ongres.scram.common.exception.ScramParseError;
+import com.ongres.scram.common.util.ParseResult;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 public class Gs2HeaderTest {
@@ -97,4 +101,46 @@ public class Gs2HeaderTest {
             );
         }
     }
+
+    @Test
+    public void tryParseFromInvalidAttributeValue() {
+        String[] invalids = new String[] {
+                ",", "Z,", "nn,", "n=,", "a=b,", "a,", "",
+                "n,Z=blah", "n,ab", "n,a", "n,a=", "n,n=user", "y,p=cb", "p=cb,zz=b"
+        };
+        for(String invalid : invalids) {
+            ParseResult<Gs2Header> result = Gs2Header.tryParseFrom(invalid);
+            assertFalse(invalid, result.isSuccess());
+            assertEquals(invalid, ScramParseError.INVALID_GS2_HEADER, result.getError());
+        }
+    }
+
+    @Test
+    public void tryParseFromInvalidCbindFlagAndName() {
+        String[] invalids = new String[] { "p,", "p,a=b", "n=cb,", "y=cb,", "y=cb,a=b" };
+        for(String invalid : invalids) {
+            ParseResult<Gs2Header> result = Gs2Header.tryParseFrom(invalid);
+            assertFalse(invalid, result.isSuccess());
+            assertEquals(invalid, ScramParseError.INVALID_GS2_HEADER, result.getError());
+        }
+    }
+
+    @Test
+    public void tryParseFromValid() {
+        for(int i = 0; i < VALID_GS2HEADER_STRINGS.length; i++) {
+            ParseResult<Gs2Header> result = Gs2Header.tryParseFrom(VALID_GS2HEADER_STRINGS[i]);
+            assertTrue(result.isSuccess());
+            assertGS2Header(VALID_GS_2_HEADERS[i].toString(), result.get());
+        }
+
+        Gs2Header header = Gs2Header.tryParseFrom("p=tls-unique,a=user,n=user,r=nonce").get();
+        assertEquals(Gs2CbindFlag.CHANNEL_BINDING_REQUIRED, header.getChannelBindingFlag());
+        assertEquals("tls-unique", header.getChannelBindingName().get());
+        assertEquals("user", header.getAuthzid().get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tryParseFromNull() {
+        Gs2Header.tryParseFrom(null);
+    }
 }
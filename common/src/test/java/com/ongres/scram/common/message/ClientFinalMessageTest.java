@@ -29,6 +29,11 @@ import com.ongres.scram.common.gssapi.Gs2CbindFlag;
 import com.ongres.scram.common.gssapi.Gs2Header;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -43,4 +48,77 @@ public class ClientFinalMessageTest {
 
         assertEquals(RfcExample.CLIENT_FINAL_MESSAGE_WITHOUT_PROOF, sb.toString());
     }
+
+    @Test
+    public void writeToWithChannelBinding() {
+        byte[] cbindData = new byte[] { 1, 2, 3, 4, 5 };
+        Gs2Header gs2Header = new Gs2Header(Gs2CbindFlag.CHANNEL_BINDING_REQUIRED, "tls-unique");
+        String withoutProof = ClientFinalMessage.writeToWithoutProof(
+                new StringBuilder(), gs2Header, Optional.of(cbindData), RfcExample.FULL_NONCE
+        ).toString();
+        assertEquals(
+                withoutProof,
+                ClientFinalMessage.writeToWithoutProof(gs2Header, Optional.of(cbindData), RfcExample.FULL_NONCE)
+                        .toString()
+        );
+
+        ClientFinalMessage clientFinalMessage = new ClientFinalMessage(
+                gs2Header, Optional.of(cbindData), RfcExample.FULL_NONCE, new byte[] { 6, 7, 8, 9 }
+        );
+        String expected = withoutProof + ",p=BgcICQ==";
+        assertEquals(expected, clientFinalMessage.toString());
+        assertEquals(expected, clientFinalMessage.writeTo(new StringBuffer("x")).substring(1));
+        assertEquals(expected.length(), clientFinalMessage.length());
+
+        ByteBuffer buffer = ByteBuffer.allocate(clientFinalMessage.encodedLength() + 1);
+        buffer.put((byte) 'x');
+        clientFinalMessage.writeTo(buffer);
+        assertEquals(0, buffer.remaining());
+        assertEquals("x" + expected, new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void builderRfcExample() {
+        ClientFinalMessage.Builder builder = ClientFinalMessage.builder(
+                new Gs2Header(Gs2CbindFlag.CLIENT_NOT), Optional.empty(), RfcExample.FULL_NONCE
+        );
+        assertEquals(RfcExample.CLIENT_FINAL_MESSAGE_WITHOUT_PROOF, builder.withoutProof());
+
+        byte[] proof = Base64.getDecoder().decode("v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=");
+        assertEquals(RfcExample.CLIENT_FINAL_MESSAGE, builder.write(proof));
+        assertEquals(RfcExample.CLIENT_FINAL_MESSAGE, builder.build(proof).toString());
+
+        ByteBuffer buffer = builder.writeTo(proof, ByteBuffer.allocateDirect(128));
+        buffer.flip();
+        assertEquals(RfcExample.CLIENT_FINAL_MESSAGE, StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    public void builderMatchesConstructor() {
+        byte[] proof = new byte[] { 6, 7, 8, 9 };
+        Gs2Header[] gs2Headers = new Gs2Header[] {
+                new Gs2Header(Gs2CbindFlag.CLIENT_NOT),
+                new Gs2Header(Gs2CbindFlag.CLIENT_NOT, null, "authzid"),
+                new Gs2Header(Gs2CbindFlag.CLIENT_YES_SERVER_NOT),
+                new Gs2Header(Gs2CbindFlag.CHANNEL_BINDING_REQUIRED, "tls-unique")
+        };
+        List<Optional<byte[]>> cbindDatas = Arrays.asList(Optional.empty(), Optional.of(new byte[] { 1, 2 }));
+        for(Gs2Header gs2Header : gs2Headers) {
+            for(Optional<byte[]> cbindData : cbindDatas) {
+                String withoutProof = "c=" + Base64.getEncoder().encodeToString(
+                        (gs2Header + "," + cbindData.map(v -> "c=" + Base64.getEncoder().encodeToString(v)).orElse(""))
+                                .getBytes(StandardCharsets.UTF_8)
+                ) + ",r=" + RfcExample.FULL_NONCE;
+                ClientFinalMessage.Builder builder = ClientFinalMessage.builder(
+                        gs2Header, cbindData, RfcExample.FULL_NONCE
+                );
+
+                assertEquals(withoutProof, builder.withoutProof());
+                assertEquals(
+                        new ClientFinalMessage(gs2Header, cbindData, RfcExample.FULL_NONCE, proof).toString(),
+                        builder.write(proof)
+                );
+            }
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.exception.ScramParseException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE;
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE_PROOF;
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE_WITHOUT_PROOF;
+import static com.ongres.scram.common.RfcExample.FULL_NONCE;
+import static com.ongres.scram.common.RfcExample.GS2_HEADER_BASE64;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ClientFinalMessageViewTest {
+    private static void assertRfcExample(ClientFinalMessageView view) {
+        assertEquals(FULL_NONCE, view.getNonce());
+        assertTrue(view.nonceEquals(FULL_NONCE));
+        assertFalse(view.nonceEquals(FULL_NONCE + "x"));
+        assertTrue(view.channelBindingEquals(GS2_HEADER_BASE64));
+        assertFalse(view.channelBindingEquals("eSws"));
+        assertEquals(CLIENT_FINAL_MESSAGE_WITHOUT_PROOF.length(), view.getWithoutProofLength());
+
+        byte[] proof = new byte[view.getProofDecodedLength() + 1];
+        assertEquals(proof.length - 1, view.decodeProof(proof, 1));
+        assertArrayEquals(
+                Base64.getDecoder().decode(CLIENT_FINAL_MESSAGE_PROOF), Arrays.copyOfRange(proof, 1, proof.length)
+        );
+    }
+
+    @Test
+    public void parseBytes() throws ScramParseException {
+        byte[] bytes = ("xyz" + CLIENT_FINAL_MESSAGE + "z").getBytes(StandardCharsets.US_ASCII);
+        ClientFinalMessageView view = new ClientFinalMessageView().parse(bytes, 3, CLIENT_FINAL_MESSAGE.length());
+
+        assertRfcExample(view);
+        assertEquals(3, view.getWithoutProofOffset());
+        assertEquals(
+                CLIENT_FINAL_MESSAGE_WITHOUT_PROOF,
+                new String(bytes, view.getWithoutProofOffset(), view.getWithoutProofLength(), StandardCharsets.US_ASCII)
+        );
+        assertEquals(3 + 2, view.getChannelBindingOffset());
+        assertEquals(GS2_HEADER_BASE64.length(), view.getChannelBindingLength());
+        assertEquals(
+                FULL_NONCE,
+                new String(bytes, view.getNonceOffset(), view.getNonceLength(), StandardCharsets.US_ASCII)
+        );
+        assertEquals(
+                CLIENT_FINAL_MESSAGE_PROOF,
+                new String(bytes, view.getProofOffset(), view.getProofLength(), StandardCharsets.US_ASCII)
+        );
+    }
+
+    @Test
+    public void parseByteBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(200);
+        buffer.put((byte) 'x').put(CLIENT_FINAL_MESSAGE.getBytes(StandardCharsets.US_ASCII)).flip();
+        buffer.position(1);
+
+        ClientFinalMessageView view = new ClientFinalMessageView().parse(buffer);
+        assertRfcExample(view);
+        assertEquals(1, view.getWithoutProofOffset());
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void parseWithExtensions() throws ScramParseException {
+        String message = CLIENT_FINAL_MESSAGE_WITHOUT_PROOF + ",x=ext,p=" + CLIENT_FINAL_MESSAGE_PROOF;
+        ClientFinalMessageView view = new ClientFinalMessageView().parse(message);
+
+        assertEquals(CLIENT_FINAL_MESSAGE_WITHOUT_PROOF.length() + 6, view.getWithoutProofLength());
+        assertEquals(FULL_NONCE, view.getNonce());
+    }
+
+    @Test
+    public void viewIsReusable() throws ScramParseException {
+        ClientFinalMessageView view = new ClientFinalMessageView();
+        view.parse("c=eSws,r=abc,p=AAAA");
+        assertEquals("abc", view.getNonce());
+
+        assertRfcExample(view.parse(CLIENT_FINAL_MESSAGE));
+    }
+
+    @Test
+    public void parseInvalid() {
+        String[] invalids = new String[] {
+                "",
+                "c=biws",
+                "c=biws,r=abc",
+                "r=abc,c=biws,p=AAAA",
+                "c=biw,r=abc,p=AAAA",
+                "c=biws,r=,p=AAAA",
+                "c=biws,r=abc,p=",
+                "c=biws,r=abc,p=AA*A",
+                "c=biws,r=abc,p=AAAA,x=ext",
+                "c=biws,r=abc,p=AAAA,"
+        };
+
+        for(String invalid : invalids) {
+            try {
+                new ClientFinalMessageView().parse(invalid);
+                fail("Parsing should fail for '" + invalid + "'");
+            } catch (ScramParseException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedParseClearsView() throws ScramParseException {
+        ClientFinalMessageView view = new ClientFinalMessageView().parse(CLIENT_FINAL_MESSAGE);
+        try {
+            view.parse("c=biws");
+        } catch (ScramParseException e) {
+            // Expected
+        }
+
+        view.getNonce();
+    }
+}
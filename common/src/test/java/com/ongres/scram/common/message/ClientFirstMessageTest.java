@@ -24,10 +24,15 @@
 package com.ongres.scram.common.message;
 
 
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
 import com.ongres.scram.common.gssapi.Gs2CbindFlag;
+import com.ongres.scram.common.util.ParseResult;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import static com.ongres.scram.common.RfcExample.CLIENT_NONCE;
 import static org.junit.Assert.*;
 
@@ -65,6 +70,13 @@ public class ClientFirstMessageTest  {
 
     private void assertClientFirstMessage(String expected, ClientFirstMessage clientFirstMessage) {
         assertEquals(expected, clientFirstMessage.writeTo(new StringBuffer()).toString());
+        assertEquals(expected, clientFirstMessage.writeTo(new StringBuilder()).toString());
+        assertEquals(expected.length(), clientFirstMessage.length());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(clientFirstMessage.encodedLength());
+        clientFirstMessage.writeTo(buffer);
+        assertEquals(0, buffer.remaining());
+        assertEquals(expected, StandardCharsets.UTF_8.decode((ByteBuffer) buffer.flip()).toString());
     }
 
     @Test
@@ -85,6 +97,10 @@ public class ClientFirstMessageTest  {
                 "p=blah,a=authzid,n=user,r=" + CLIENT_NONCE,
                 new ClientFirstMessage(Gs2CbindFlag.CHANNEL_BINDING_REQUIRED, "authzid", "blah", "user", CLIENT_NONCE)
         );
+        assertClientFirstMessage(
+                "n,a=élève=2C,n=usér=3D,r=" + CLIENT_NONCE,
+                new ClientFirstMessage(Gs2CbindFlag.CLIENT_NOT, "élève,", null, "usér=", CLIENT_NONCE)
+        );
     }
 
     @Test
@@ -134,4 +150,65 @@ public class ClientFirstMessageTest  {
 
         assertEquals(invalidValues.length, n);
     }
+
+    @Test
+    public void tryParseFromInvalidGs2Header() {
+        String[] invalidValues = new String[] {
+                "Z,,n=user,r=" + CLIENT_NONCE, "nn,,n=user,r=" + CLIENT_NONCE, "a=b,,n=user,r=" + CLIENT_NONCE,
+                "n,Z=blah,n=user,r=" + CLIENT_NONCE, "n,n=user,r=" + CLIENT_NONCE, "p,,n=user,r=" + CLIENT_NONCE,
+                "n=cb,,n=user,r=" + CLIENT_NONCE, "y=cb,a=b,n=user,r=" + CLIENT_NONCE
+        };
+
+        for(String s : invalidValues) {
+            ParseResult<ClientFirstMessage> result = ClientFirstMessage.tryParseFrom(s);
+            assertFalse(s, result.isSuccess());
+            assertEquals(s, ScramParseError.INVALID_GS2_HEADER, result.getError());
+        }
+    }
+
+    @Test
+    public void parseFromInvalidGs2HeaderThrowsScramParseException() {
+        String[] invalidValues = new String[] {
+                "Z,,n=user,r=" + CLIENT_NONCE, "p,,n=user,r=" + CLIENT_NONCE, "n=cb,,n=user,r=" + CLIENT_NONCE
+        };
+
+        int n = 0;
+        for(String s : invalidValues) {
+            try {
+                assertNotNull(ClientFirstMessage.parseFrom(s));
+            } catch (ScramParseException e) {
+                String expected = ScramParseError.INVALID_GS2_HEADER.format(null);
+                assertTrue(e.getMessage(), e.getMessage().contains(expected));
+                n++;
+            }
+        }
+
+        assertEquals(invalidValues.length, n);
+    }
+
+    @Test
+    public void tryParseFromInvalidValues() {
+        String[] invalidValues = new String[] {
+                "n,,r=user,r=" + CLIENT_NONCE, "n,,z=user,r=" + CLIENT_NONCE, "n,,n=user", "n,", "n,,", "n,,n=user,r",
+                "n,,n=user,r="
+        };
+
+        for(String s : invalidValues) {
+            assertFalse(s, ClientFirstMessage.tryParseFrom(s).isSuccess());
+        }
+    }
+
+    @Test
+    public void tryParseFromValidValues() {
+        ParseResult<ClientFirstMessage> result = ClientFirstMessage.tryParseFrom(
+                "p=channel,a=user2,n=user,r=" + CLIENT_NONCE
+        );
+        assertTrue(result.isSuccess());
+        ClientFirstMessage message = result.get();
+        assertEquals(Gs2CbindFlag.CHANNEL_BINDING_REQUIRED, message.getChannelBindingFlag());
+        assertEquals("channel", message.getChannelBindingName().get());
+        assertEquals("user2", message.getAuthzid().get());
+        assertEquals("user", message.getUser());
+        assertEquals(CLIENT_NONCE, message.getNonce());
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.ScramAttributes;
+import com.ongres.scram.common.exception.ScramParseError;
+import org.junit.Test;
+
+import static com.ongres.scram.common.RfcExample.CLIENT_FINAL_MESSAGE;
+import static com.ongres.scram.common.RfcExample.FULL_NONCE;
+import static com.ongres.scram.common.RfcExample.SERVER_FIRST_MESSAGE;
+import static com.ongres.scram.common.RfcExample.SERVER_ITERATIONS;
+import static com.ongres.scram.common.RfcExample.SERVER_SALT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ScramTokenizerTest {
+    @Test
+    public void tokenizeServerFirstMessage() {
+        ScramTokenizer tokenizer = new ScramTokenizer().reset(SERVER_FIRST_MESSAGE);
+
+        assertTrue(tokenizer.next());
+        assertEquals(ScramAttributes.NONCE, tokenizer.getAttribute());
+        assertEquals(FULL_NONCE, tokenizer.getValue());
+        assertEquals(2, tokenizer.getValueStart());
+        assertTrue(tokenizer.expect(ScramAttributes.SALT));
+        assertEquals(SERVER_SALT, tokenizer.getValue());
+        assertTrue(tokenizer.expect(ScramAttributes.ITERATION));
+        assertEquals(SERVER_ITERATIONS, tokenizer.getIntValue());
+        assertFalse(tokenizer.next());
+        assertNull(tokenizer.getError());
+    }
+
+    @Test
+    public void tokenizeRange() {
+        String message = "xx" + CLIENT_FINAL_MESSAGE + "yy";
+        ScramTokenizer tokenizer = new ScramTokenizer().reset(message, 2, message.length() - 2);
+
+        assertTrue(tokenizer.expect(ScramAttributes.CHANNEL_BINDING));
+        assertEquals("biws", tokenizer.getValue());
+        assertTrue(tokenizer.expect(ScramAttributes.NONCE));
+        assertTrue(tokenizer.expect(ScramAttributes.CLIENT_PROOF));
+        assertEquals(message.length() - 2, tokenizer.getValueEnd());
+        assertFalse(tokenizer.next());
+        assertNull(tokenizer.getError());
+    }
+
+    @Test
+    public void validValues() {
+        String[] valids = new String[] {
+                "n=user", "n=us=2Cer=3D", "a=\u00e9l\u00e8ve", "r=!+-~", "s=QSXCR+Q6sek8bf92", "v=ab==", "p=abc=",
+                "i=1", "i=2147483647", "e=other-error", "x=ext=a", "e=\u00e9"
+        };
+
+        for(String valid : valids) {
+            ScramTokenizer tokenizer = new ScramTokenizer().reset(valid);
+            assertTrue(valid, tokenizer.next());
+            assertEquals(valid, valid.substring(2), tokenizer.getValue());
+        }
+    }
+
+    @Test
+    public void extensions() {
+        ScramTokenizer tokenizer = new ScramTokenizer().reset("r=abc,x=ext,s=abcd");
+
+        assertTrue(tokenizer.next());
+        assertTrue(tokenizer.next());
+        assertNull(tokenizer.getAttribute());
+        assertEquals('x', tokenizer.getAttributeChar());
+        assertEquals("ext", tokenizer.getValue());
+        assertTrue(tokenizer.next());
+        assertEquals(ScramAttributes.SALT, tokenizer.getAttribute());
+    }
+
+    @Test
+    public void invalidValues() {
+        String[] invalids = new String[] {
+                "", "n", "n=", "=abc", "1=abc", "r=abc,", "n=us,er", "n=us=er", "n=user=2", "n=\u0000", "r=ab\u00e9",
+                "r=a b", "s=abc", "s=ab-d", "s=a=bc", "s=a===", "s=ab=c", "i=0", "i=0123", "i=-1", "i=4a", "e=\u0000"
+        };
+        ScramParseError[] errors = new ScramParseError[] {
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_NONCE,
+                ScramParseError.INVALID_NONCE,
+                ScramParseError.INVALID_BASE64,
+                ScramParseError.INVALID_BASE64,
+                ScramParseError.INVALID_BASE64,
+                ScramParseError.INVALID_BASE64,
+                ScramParseError.INVALID_BASE64,
+                ScramParseError.INVALID_ITERATION,
+                ScramParseError.INVALID_ITERATION,
+                ScramParseError.INVALID_ITERATION,
+                ScramParseError.INVALID_ITERATION,
+                ScramParseError.INVALID_ATTRIBUTE_VALUE
+        };
+
+        for(int i = 0; i < invalids.length; i++) {
+            ScramTokenizer tokenizer = new ScramTokenizer().reset(invalids[i]);
+            while(tokenizer.next()) {
+                // Skip the valid attribute-values
+            }
+            assertEquals(invalids[i], errors[i], tokenizer.getError());
+            assertFalse(invalids[i], tokenizer.next());
+        }
+    }
+
+    @Test
+    public void iterationOverflow() {
+        ScramTokenizer tokenizer = new ScramTokenizer().reset("i=2147483648");
+
+        assertTrue(tokenizer.next());
+        assertEquals(-1, tokenizer.getIntValue());
+    }
+
+    @Test
+    public void expectFailures() {
+        ScramTokenizer tokenizer = new ScramTokenizer();
+
+        assertFalse(tokenizer.reset("s=abcd").expect(ScramAttributes.NONCE));
+        assertEquals(ScramParseError.UNEXPECTED_ATTRIBUTE, tokenizer.getError());
+        assertFalse(tokenizer.reset("x=abcd").expect(ScramAttributes.NONCE));
+        assertEquals(ScramParseError.UNKNOWN_ATTRIBUTE, tokenizer.getError());
+        assertEquals('x', tokenizer.getErrorDetail());
+        assertFalse(tokenizer.reset("r=abcd").expect(ScramAttributes.NONCE) && tokenizer.expect(ScramAttributes.SALT));
+        assertEquals(ScramParseError.INVALID_MESSAGE, tokenizer.getError());
+        assertFalse(tokenizer.failure().isSuccess());
+    }
+}
@@ -27,8 +27,10 @@ package com.ongres.scram.common.message;
 import com.ongres.scram.common.ScramAttributes;
 import com.ongres.scram.common.ScramFunctions;
 import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
 import com.ongres.scram.common.stringprep.StringPreparations;
+import com.ongres.scram.common.util.ParseResult;
 import org.junit.Test;
 
 import java.util.Base64;
@@ -53,10 +55,12 @@ public class ServerFinalMessageTest {
                 ScramFunctions.serverSignature(ScramMechanisms.SCRAM_SHA_1, serverKey, AUTH_MESSAGE)
         );
         assertEquals(SERVER_FINAL_MESSAGE, serverFinalMessage1.toString());
+        assertEquals(SERVER_FINAL_MESSAGE.length(), serverFinalMessage1.length());
         assertFalse(serverFinalMessage1.isError());
 
         ServerFinalMessage serverFinalMessage2 = new ServerFinalMessage(ServerFinalMessage.Error.UNKNOWN_USER);
         assertEquals(ScramAttributes.ERROR.getChar() + "=" + "unknown-user", serverFinalMessage2.toString());
+        assertEquals("e=unknown-user".length(), serverFinalMessage2.length());
         assertTrue(serverFinalMessage2.isError());
     }
 
@@ -71,4 +75,37 @@ public class ServerFinalMessageTest {
         assertTrue(serverFinalMessage2.isError());
         assertTrue(serverFinalMessage2.getError().get() == ServerFinalMessage.Error.CHANNEL_BINDING_NOT_SUPPORTED);
     }
+
+    @Test
+    public void tryParseFromInvalid() {
+        String[] invalids = new String[] { "v=", "v=abc", "v=ab-d", "e=not-an-error", "r=abcd", "z=abcd" };
+        ScramParseError[] errors = new ScramParseError[] {
+                ScramParseError.INVALID_ATTRIBUTE_VALUE,
+                ScramParseError.INVALID_BASE64,
+                ScramParseError.INVALID_BASE64,
+                ScramParseError.UNKNOWN_SERVER_ERROR,
+                ScramParseError.UNEXPECTED_ATTRIBUTE,
+                ScramParseError.UNKNOWN_ATTRIBUTE
+        };
+
+        for(int i = 0; i < invalids.length; i++) {
+            ParseResult<ServerFinalMessage> result = ServerFinalMessage.tryParseFrom(invalids[i]);
+            assertFalse(invalids[i], result.isSuccess());
+            assertEquals(invalids[i], errors[i], result.getError());
+        }
+        assertTrue(ServerFinalMessage.tryParseFrom(SERVER_FINAL_MESSAGE).isSuccess());
+    }
+
+    @Test
+    public void errorByErrorMessage() {
+        for(ServerFinalMessage.Error error : ServerFinalMessage.Error.values()) {
+            String message = "e=" + error.getErrorMessage() + ",x";
+            assertEquals(error, ServerFinalMessage.Error.byErrorMessage(message, 2, message.length() - 2).get());
+            assertEquals(error, ServerFinalMessage.Error.getByErrorMessage(error.getErrorMessage()));
+        }
+        assertFalse(ServerFinalMessage.Error.byErrorMessage("unknown-usex", 0, 12).isPresent());
+        assertFalse(ServerFinalMessage.Error.byErrorMessage("unknown-user", 0, 0).isPresent());
+        String tooLong = "unknown-user-and-more-than-any-error-message";
+        assertFalse(ServerFinalMessage.Error.byErrorMessage(tooLong, 0, tooLong.length()).isPresent());
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.exception.ScramParseException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static com.ongres.scram.common.RfcExample.SERVER_FINAL_MESSAGE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ServerFinalMessageViewTest {
+    private static final byte[] SERVER_SIGNATURE = Base64.getDecoder().decode(SERVER_FINAL_MESSAGE.substring(2));
+
+    @Test
+    public void parseVerifierBytes() throws ScramParseException {
+        byte[] bytes = ("##" + SERVER_FINAL_MESSAGE).getBytes(StandardCharsets.US_ASCII);
+        ServerFinalMessageView view = new ServerFinalMessageView().parse(bytes, 2, bytes.length - 2);
+
+        assertFalse(view.isError());
+        assertEquals(4, view.getVerifierOffset());
+        assertEquals(SERVER_FINAL_MESSAGE.length() - 2, view.getVerifierLength());
+        byte[] verifier = new byte[view.getVerifierDecodedLength()];
+        view.decodeVerifier(verifier, 0);
+        assertArrayEquals(SERVER_SIGNATURE, verifier);
+    }
+
+    @Test
+    public void parseVerifierByteBuffer() throws ScramParseException {
+        ServerFinalMessageView view = new ServerFinalMessageView().parse(
+                ByteBuffer.wrap(SERVER_FINAL_MESSAGE.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer()
+        );
+
+        byte[] verifier = new byte[view.getVerifierDecodedLength()];
+        view.decodeVerifier(verifier, 0);
+        assertArrayEquals(SERVER_SIGNATURE, verifier);
+    }
+
+    @Test
+    public void parseError() throws ScramParseException {
+        ServerFinalMessageView view = new ServerFinalMessageView();
+        for(ServerFinalMessage.Error error : ServerFinalMessage.Error.values()) {
+            view.parse("e=" + error.getErrorMessage());
+            assertTrue(view.isError());
+            assertEquals(error, view.getError());
+        }
+    }
+
+    @Test
+    public void unrecognizedErrorIsOtherError() throws ScramParseException {
+        assertEquals(
+                ServerFinalMessage.Error.OTHER_ERROR,
+                new ServerFinalMessageView().parse("e=some-new-error,x=ext").getError()
+        );
+    }
+
+    @Test(expected = ScramParseException.class)
+    public void invalidAttribute() throws ScramParseException {
+        new ServerFinalMessageView().parse("x=abc");
+    }
+
+    @Test(expected = ScramParseException.class)
+    public void invalidBase64() throws ScramParseException {
+        new ServerFinalMessageView().parse("v=abc").decodeVerifier(new byte[32], 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void verifierOfError() throws ScramParseException {
+        new ServerFinalMessageView().parse("e=invalid-proof").getVerifierOffset();
+    }
+}
@@ -24,12 +24,18 @@
 package com.ongres.scram.common.message;
 
 
+import com.ongres.scram.common.exception.ScramParseError;
 import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.exception.StacklessScramParseException;
+import com.ongres.scram.common.util.ParseResult;
 import org.junit.Test;
 
 import static com.ongres.scram.common.RfcExample.CLIENT_NONCE;
 import static com.ongres.scram.common.RfcExample.SERVER_FIRST_MESSAGE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 public class ServerFirstMessageTest {
@@ -51,4 +57,47 @@ public class ServerFirstMessageTest {
 
         assertEquals(SERVER_FIRST_MESSAGE, serverFirstMessage.toString());
     }
+
+    @Test
+    public void tryParseFromInvalid() {
+        String[] invalids = new String[] {
+                "r=" + CLIENT_NONCE + "3rfc,s=QSXCR+Q6sek8bf92",
+                "s=QSXCR+Q6sek8bf92,r=" + CLIENT_NONCE + "3rfc,i=4096",
+                "r=" + CLIENT_NONCE + ",s=QSXCR+Q6sek8bf92,i=4096",
+                "r=other3rfc,s=QSXCR+Q6sek8bf92,i=4096",
+                "r=" + CLIENT_NONCE + "3rfc,s=QSXCR+Q6sek8bf92,i=4095",
+                "r=" + CLIENT_NONCE + "3rfc,s=QSXCR+Q6sek8bf92,i=-4096",
+                "r=" + CLIENT_NONCE + "3rfc,s=QSXCR+Q6sek8bf92,i=99999999999",
+                "r=" + CLIENT_NONCE + "3rfc,s=QSXCR+Q6sek8bf92,x=4096"
+        };
+        ScramParseError[] errors = new ScramParseError[] {
+                ScramParseError.INVALID_MESSAGE,
+                ScramParseError.UNEXPECTED_ATTRIBUTE,
+                ScramParseError.INVALID_NONCE,
+                ScramParseError.INVALID_NONCE,
+                ScramParseError.INVALID_ITERATION,
+                ScramParseError.INVALID_ITERATION,
+                ScramParseError.INVALID_ITERATION,
+                ScramParseError.UNKNOWN_ATTRIBUTE
+        };
+
+        for(int i = 0; i < invalids.length; i++) {
+            ParseResult<ServerFirstMessage> result = ServerFirstMessage.tryParseFrom(invalids[i], CLIENT_NONCE);
+            assertFalse(invalids[i], result.isSuccess());
+            assertEquals(invalids[i], errors[i], result.getError());
+        }
+    }
+
+    @Test
+    public void parseFromInvalidThrowsStackless() {
+        try {
+            ServerFirstMessage.parseFrom("r=other3rfc,s=QSXCR+Q6sek8bf92,i=4096", CLIENT_NONCE);
+            fail("Expected ScramParseException");
+        } catch (ScramParseException e) {
+            assertTrue(e instanceof StacklessScramParseException);
+            assertEquals(0, e.getStackTrace().length);
+            assertEquals(ScramParseError.INVALID_NONCE, ((StacklessScramParseException) e).getError());
+            assertTrue(e.getMessage().startsWith(ScramParseError.INVALID_NONCE.getDescription()));
+        }
+    }
 }
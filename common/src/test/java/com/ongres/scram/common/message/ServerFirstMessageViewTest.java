@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.message;
+
+
+import com.ongres.scram.common.exception.ScramParseException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static com.ongres.scram.common.RfcExample.CLIENT_NONCE;
+import static com.ongres.scram.common.RfcExample.FULL_NONCE;
+import static com.ongres.scram.common.RfcExample.SERVER_FIRST_MESSAGE;
+import static com.ongres.scram.common.RfcExample.SERVER_ITERATIONS;
+import static com.ongres.scram.common.RfcExample.SERVER_SALT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ServerFirstMessageViewTest {
+    private static void assertRfcExample(ServerFirstMessageView view) throws ScramParseException {
+        assertEquals(FULL_NONCE, view.getNonce());
+        assertEquals(SERVER_SALT, view.getSalt());
+        assertEquals(SERVER_ITERATIONS, view.getIteration());
+        assertTrue(view.nonceStartsWith(CLIENT_NONCE));
+        assertFalse(view.nonceStartsWith("x" + CLIENT_NONCE));
+
+        byte[] salt = new byte[view.getSaltDecodedLength() + 1];
+        assertEquals(salt.length - 1, view.decodeSalt(salt, 1));
+        assertArrayEquals(Base64.getDecoder().decode(SERVER_SALT), Arrays.copyOfRange(salt, 1, salt.length));
+    }
+
+    @Test
+    public void parseBytes() throws ScramParseException {
+        byte[] bytes = ("xyz" + SERVER_FIRST_MESSAGE + "z").getBytes(StandardCharsets.US_ASCII);
+        ServerFirstMessageView view = new ServerFirstMessageView().parse(bytes, 3, SERVER_FIRST_MESSAGE.length());
+
+        assertRfcExample(view);
+        assertEquals(3 + 2, view.getNonceOffset());
+        assertEquals(FULL_NONCE.length(), view.getNonceLength());
+        assertEquals(
+                SERVER_SALT,
+                new String(bytes, view.getSaltOffset(), view.getSaltLength(), StandardCharsets.US_ASCII)
+        );
+    }
+
+    @Test
+    public void parseByteBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(200);
+        buffer.put((byte) 'x').put(SERVER_FIRST_MESSAGE.getBytes(StandardCharsets.US_ASCII)).flip();
+        buffer.position(1);
+
+        assertRfcExample(new ServerFirstMessageView().parse(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void parseCharSequenceWithExtensions() throws ScramParseException {
+        ServerFirstMessageView view = new ServerFirstMessageView().parse(
+                new StringBuilder(SERVER_FIRST_MESSAGE).append(",x=ext")
+        );
+
+        assertRfcExample(view);
+        assertEquals(2, view.getNonceOffset());
+    }
+
+    @Test
+    public void viewIsReusable() throws ScramParseException {
+        ServerFirstMessageView view = new ServerFirstMessageView();
+        view.parse("r=abc,s=QSXCR+Q6sek8bf92,i=5000");
+        assertEquals(5000, view.getIteration());
+
+        assertRfcExample(view.parse(SERVER_FIRST_MESSAGE));
+    }
+
+    @Test
+    public void parseInvalid() {
+        String[] invalids = new String[] {
+                "",
+                "r=abc",
+                "r=abc,s=QSXCR+Q6sek8bf92",
+                "s=QSXCR+Q6sek8bf92,r=abc,i=4096",
+                "r=,s=QSXCR+Q6sek8bf92,i=4096",
+                "r=abc,s=,i=4096",
+                "r=abc,s=QSXCR+Q6sek8bf92,i=",
+                "r=abc,s=QSXCR+Q6sek8bf92,i=4o96",
+                "r=abc,s=QSXCR+Q6sek8bf92,i=4095",
+                "r=abc,s=QSXCR+Q6sek8bf92,i=99999999999",
+                "r=abc,s=QSXCR+Q6sek8bf92,x=4096"
+        };
+
+        for(String invalid : invalids) {
+            try {
+                new ServerFirstMessageView().parse(invalid);
+                fail("Parsing should fail for '" + invalid + "'");
+            } catch (ScramParseException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedParseClearsView() throws ScramParseException {
+        ServerFirstMessageView view = new ServerFirstMessageView().parse(SERVER_FIRST_MESSAGE);
+        try {
+            view.parse("r=abc");
+        } catch (ScramParseException e) {
+            // Expected
+        }
+
+        view.getIteration();
+    }
+}
@@ -24,11 +24,18 @@
 package com.ongres.scram.common.util;
 
 
+import com.ongres.scram.common.ScramMechanisms;
 import org.junit.Test;
 
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 
@@ -60,4 +67,106 @@ public class CryptoUtilTest {
             }
         }
     }
+
+    private static String randomPrintable(Random random, int length) {
+        char[] chars = new char[length];
+        for(int i = 0; i < length; i++) {
+            chars[i] = (char) (random.nextInt(0x7e - 0x21 + 1) + 0x21);
+        }
+
+        return new String(chars);
+    }
+
+    @Test
+    public void hiMessageDigestRfcExample() {
+        assertArrayEquals(
+                Base64.getDecoder().decode("HZbuOlKbWl+eR8AfIposuKbhX30="),
+                CryptoUtil.hi(
+                        ScramMechanisms.SCRAM_SHA_1.getMessageDigestInstance(),
+                        "pencil".getBytes(StandardCharsets.UTF_8),
+                        Base64.getDecoder().decode("QSXCR+Q6sek8bf92"),
+                        4096
+                )
+        );
+    }
+
+    @Test
+    public void hiMessageDigestSameAsSecretKeyFactory() {
+        Random random = new Random(0);
+        // Lengths around the block size exercise both the padding and the hashing of long keys
+        int[] valueLengths = new int[] { 1, 20, 63, 64, 65, 128, 129, 300 };
+        int[] saltLengths = new int[] { 1, 16, 51, 52, 60, 64, 100 };
+
+        for(ScramMechanisms scramMechanism : ScramMechanisms.values()) {
+            for(int valueLength : valueLengths) {
+                for(int saltLength : saltLengths) {
+                    String value = randomPrintable(random, valueLength);
+                    byte[] salt = new byte[saltLength];
+                    random.nextBytes(salt);
+                    int iterations = random.nextInt(20) + 1;
+
+                    assertArrayEquals(
+                            CryptoUtil.hi(
+                                    scramMechanism.secretKeyFactory(), scramMechanism.algorithmKeyLength(),
+                                    value, salt, iterations
+                            ),
+                            CryptoUtil.hi(
+                                    scramMechanism.getMessageDigestInstance(),
+                                    value.getBytes(StandardCharsets.UTF_8), salt, iterations
+                            )
+                    );
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hiMessageDigestInvalidIterations() {
+        CryptoUtil.hi(ScramMechanisms.SCRAM_SHA_256.getMessageDigestInstance(), new byte[1], new byte[1], 0);
+    }
+
+    @Test
+    public void doFinalResetsMacOnShortOutput() throws Exception {
+        Mac mac = ScramMechanisms.SCRAM_SHA_256.getMacInstance();
+        mac.init(ScramMechanisms.SCRAM_SHA_256.secretKeySpec(new byte[32]));
+        byte[] message = "message".getBytes(StandardCharsets.UTF_8);
+        byte[] expected = mac.doFinal(message);
+
+        mac.update(message);
+        try {
+            CryptoUtil.doFinal(mac, new byte[8], 0);
+            fail("Output should be too short");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        mac.update(message);
+        byte[] output = new byte[expected.length];
+        CryptoUtil.doFinal(mac, output, 0);
+
+        assertArrayEquals(expected, output);
+    }
+
+    @Test
+    public void xorInPlace() {
+        byte[] value1 = { 0, 1, 2, 3, 4 };
+        byte[] value2 = { 9, 7, 7, 7 };
+        CryptoUtil.xor(value1, 1, value2, 1, value1, 1, 3);
+
+        assertArrayEquals(new byte[] { 0, 6, 5, 4, 4 }, value1);
+        assertArrayEquals(new byte[] { 9, 7, 7, 7 }, value2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void xorOutOfBounds() {
+        CryptoUtil.xor(new byte[4], 0, new byte[4], 1, new byte[4], 0, 4);
+    }
+
+    @Test
+    public void constantTimeEquals() {
+        byte[] value1 = { 0, 1, 2, 3 };
+        byte[] value2 = { 1, 2, 3, 4 };
+
+        assertTrue(CryptoUtil.constantTimeEquals(value1, 1, value2, 0, 3));
+        assertFalse(CryptoUtil.constantTimeEquals(value1, 0, value2, 0, 3));
+    }
 }
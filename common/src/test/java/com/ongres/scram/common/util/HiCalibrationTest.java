@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.util;
+
+
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.message.ServerFirstMessage;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class HiCalibrationTest {
+    private static final HiCalibration CALIBRATION = HiCalibration.of(ScramMechanisms.SCRAM_SHA_256, 2000, 500);
+
+    @Test
+    public void estimateNanos() {
+        assertEquals(2000, CALIBRATION.estimateNanos(1));
+        assertEquals(2000 + 500 * 9999, CALIBRATION.estimateNanos(10000));
+    }
+
+    @Test
+    public void estimateThroughputPerCore() {
+        assertEquals(1e9 / (2000 + 500 * 9999), CALIBRATION.estimateThroughputPerCore(10000), 1e-9);
+    }
+
+    @Test
+    public void recommendIteration() {
+        assertEquals(10000, CALIBRATION.recommendIteration(2000 + 500 * 9999, TimeUnit.NANOSECONDS));
+        assertEquals(1 + (100_000_000 - 2000) / 500, CALIBRATION.recommendIteration(100, TimeUnit.MILLISECONDS));
+        assertEquals(
+                ServerFirstMessage.ITERATION_MIN_VALUE, CALIBRATION.recommendIteration(1, TimeUnit.MICROSECONDS)
+        );
+    }
+
+    @Test
+    public void calibrate() {
+        HiCalibration calibration = HiCalibration.calibrate(ScramMechanisms.SCRAM_SHA_1, 40, TimeUnit.MILLISECONDS);
+
+        assertEquals(ScramMechanisms.SCRAM_SHA_1, calibration.getScramMechanism());
+        assertTrue(calibration.getNanosPerIteration() > 0);
+        assertTrue(calibration.estimateNanos(8192) > calibration.estimateNanos(4096));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIteration() {
+        CALIBRATION.estimateNanos(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidDuration() {
+        HiCalibration.calibrate(ScramMechanisms.SCRAM_SHA_1, 0, TimeUnit.MILLISECONDS);
+    }
+}
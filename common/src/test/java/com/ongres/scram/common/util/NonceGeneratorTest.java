@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.common.util;
+
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class NonceGeneratorTest {
+    private static final int ALPHABET_SIZE = 0x7e - 0x21;
+
+    private static void assertValidNonce(String nonce, int length) {
+        assertEquals(length, nonce.length());
+        for(char c : nonce.toCharArray()) {
+            if(c == ',' || c < (char) 33 || c > (char) 126) {
+                fail("Character c='" + c + "' is not allowed on a nonce");
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidStripes() {
+        new NonceGenerator(0, SecureRandom::new);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullSecureRandomSupplier() {
+        new NonceGenerator(1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLength() {
+        new NonceGenerator().nonce(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outputBufferTooShort() {
+        new NonceGenerator().nonce(new byte[10], 2, 9);
+    }
+
+    @Test
+    public void stripesRoundedToPowerOfTwo() {
+        assertEquals(1, new NonceGenerator(1, SecureRandom::new).getStripes());
+        assertEquals(4, new NonceGenerator(3, SecureRandom::new).getStripes());
+        assertEquals(8, new NonceGenerator(8, SecureRandom::new).getStripes());
+    }
+
+    @Test
+    public void nonceValid() {
+        NonceGenerator nonceGenerator = new NonceGenerator(2, SecureRandom::new);
+        for(int length = 1; length <= 1000; length++) {
+            assertValidNonce(nonceGenerator.nonce(length), length);
+        }
+    }
+
+    @Test
+    public void nonceIntoBuffer() {
+        byte[] buffer = new byte[30];
+        new NonceGenerator().nonce(buffer, 3, 24);
+
+        assertEquals(0, buffer[2]);
+        assertValidNonce(new String(buffer, 3, 24, StandardCharsets.US_ASCII), 24);
+        assertEquals(0, buffer[27]);
+    }
+
+    @Test
+    public void allCharactersEquallyLikely() {
+        int perCharacter = 1000;
+        int[] counts = new int[128];
+        for(char c : new NonceGenerator(1, SecureRandom::new).nonce(ALPHABET_SIZE * perCharacter).toCharArray()) {
+            counts[c]++;
+        }
+
+        for(char c = 0x21; c <= 0x7e; c++) {
+            if(c != ',') {
+                // Very loose bounds (more than 7 standard deviations): only gross bias would fail
+                assertTrue("Character '" + c + "' appeared " + counts[c] + " times",
+                        counts[c] > perCharacter * 3 / 4 && counts[c] < perCharacter * 5 / 4
+                );
+            }
+        }
+    }
+
+    @Test
+    public void concurrentGeneration() throws InterruptedException {
+        NonceGenerator nonceGenerator = new NonceGenerator(2, SecureRandom::new);
+        Set<String> nonces = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        int nThreads = 8;
+        int perThread = 1000;
+
+        Thread[] threads = new Thread[nThreads];
+        for(int i = 0; i < nThreads; i++) {
+            threads[i] = new Thread(() -> {
+                for(int j = 0; j < perThread; j++) {
+                    String nonce = nonceGenerator.nonce(24);
+                    assertValidNonce(nonce, 24);
+                    nonces.add(nonce);
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(nThreads * perThread, nonces.size());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.ongres.scram.common.util;
+
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class NoncePoolTest {
+    private static final NonceGenerator NONCE_GENERATOR = new NonceGenerator(1, SecureRandom::new);
+
+    private static void awaitSize(NoncePool noncePool, int size) throws InterruptedException {
+        for(int i = 0; i < 500 && noncePool.size() < size; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, noncePool.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullNonceGenerator() {
+        new NoncePool(null, 24, 16, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacity() {
+        new NoncePool(NONCE_GENERATOR, 24, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowWaterMarkNotLessThanCapacity() {
+        new NoncePool(NONCE_GENERATOR, 24, 16, 16);
+    }
+
+    @Test
+    public void capacityIsExact() throws InterruptedException {
+        try(NoncePool noncePool = new NoncePool(NONCE_GENERATOR, 24, 10, 2)) {
+            assertEquals(10, noncePool.getCapacity());
+            awaitSize(noncePool, 10);
+            Thread.sleep(50);
+            assertEquals(10, noncePool.size());
+        }
+    }
+
+    @Test
+    public void hitsAndRefill() throws InterruptedException {
+        try(NoncePool noncePool = new NoncePool(NONCE_GENERATOR, 24, 16, 4)) {
+            awaitSize(noncePool, 16);
+
+            Set<String> nonces = new HashSet<>();
+            for(int i = 0; i < 12; i++) {
+                String nonce = noncePool.get();
+                assertEquals(24, nonce.length());
+                nonces.add(nonce);
+            }
+            assertEquals(12, nonces.size());
+            assertEquals(12, noncePool.getHits());
+            assertEquals(0, noncePool.getFallbacks());
+
+            // The low-water mark was reached, so the pool is refilled
+            awaitSize(noncePool, 16);
+        }
+    }
+
+    @Test
+    public void fallbackWhenEmpty() throws InterruptedException {
+        NoncePool noncePool = new NoncePool(NONCE_GENERATOR, 24, 4, 0);
+        awaitSize(noncePool, 4);
+        noncePool.close();
+
+        for(int i = 0; i < 6; i++) {
+            assertEquals(24, noncePool.get().length());
+        }
+        assertEquals(4, noncePool.getHits());
+        assertEquals(2, noncePool.getFallbacks());
+        assertEquals(0, noncePool.size());
+    }
+
+    @Test
+    public void concurrentTakes() throws InterruptedException {
+        int nThreads = 8;
+        int perThread = 2000;
+        Set<String> nonces = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        try(NoncePool noncePool = new NoncePool(NONCE_GENERATOR, 24, 64, 16)) {
+            Thread[] threads = new Thread[nThreads];
+            for(int i = 0; i < nThreads; i++) {
+                threads[i] = new Thread(() -> {
+                    for(int j = 0; j < perThread; j++) {
+                        nonces.add(noncePool.get());
+                    }
+                });
+                threads[i].start();
+            }
+            for(Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(nThreads * perThread, nonces.size());
+            assertEquals(nThreads * perThread, noncePool.getHits() + noncePool.getFallbacks());
+            assertTrue(noncePool.size() <= noncePool.getCapacity());
+        }
+    }
+}
@@ -74,6 +74,51 @@ public class StringWritableCsvTest {
         );
     }
 
+    @Test
+    public void writeToStringBuilder() {
+        StringWritable[] values = new StringWritable[] {
+                new Gs2AttributeValue(Gs2Attributes.CLIENT_NOT, null),
+                null,
+                new ScramAttributeValue(ScramAttributes.USERNAME, "user"),
+                new ScramAttributeValue(ScramAttributes.NONCE, "fyko+d2lbbFgONRv9qkxdawL")
+        };
+
+        assertEquals(SEVERAL_VALUES_STRING, StringWritableCsv.writeTo(new StringBuilder(), values).toString());
+        assertEquals(SEVERAL_VALUES_STRING.length(), StringWritableCsv.length(values));
+        assertEquals(0, StringWritableCsv.length());
+    }
+
+    @Test
+    public void stringBufferOnlyImplementation() {
+        StringWritable legacy = new AbstractStringWritable() {
+            @Override
+            public StringBuffer writeTo(StringBuffer sb) {
+                return sb.append("n=user");
+            }
+        };
+
+        assertEquals("n=user", legacy.toString());
+        assertEquals(6, legacy.length());
+        assertEquals(6, legacy.encodedLength());
+        StringWritable cbind = new Gs2AttributeValue(Gs2Attributes.CLIENT_NOT, null);
+        assertEquals("n,n=user", StringWritableCsv.writeTo(new StringBuilder(), cbind, legacy).toString());
+    }
+
+    @Test
+    public void stringBuilderOnlyImplementation() {
+        StringWritable writable = new AbstractStringWritable() {
+            @Override
+            public StringBuilder writeTo(StringBuilder sb) {
+                return sb.append("n=user");
+            }
+        };
+
+        assertEquals("n=user", writable.writeTo(new StringBuffer()).toString());
+        assertEquals(6, writable.length());
+        assertEquals("n=user", writable.toString());
+        assertEquals("n", new Gs2AttributeValue(Gs2Attributes.CLIENT_NOT, null).writeTo(new StringBuffer()).toString());
+    }
+
     @Test
     public void parseFromEmpty() {
         assertArrayEquals(new String[]{}, StringWritableCsv.parseFrom(""));
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package com.ongres.scram.common.util;
+
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+public class Utf8UtilsTest {
+    private static final String[] VALUES = new String[] {
+            "", "user", "élève", "日本", "😀 smile", "unpaired \ud83d", "\ude00 unpaired"
+    };
+
+    @Test
+    public void encodeLikeString() {
+        for(String value : VALUES) {
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            assertEquals(value, expected.length, Utf8Utils.encodedLength(value));
+
+            for(ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(64), ByteBuffer.allocateDirect(64) }) {
+                buffer.put((byte) 'x');
+                Utf8Utils.encode(value, buffer);
+                assertEquals(1 + expected.length, buffer.position());
+
+                byte[] written = new byte[expected.length];
+                buffer.flip();
+                buffer.get();
+                buffer.get(written);
+                assertArrayEquals(value, expected, written);
+            }
+        }
+    }
+
+    @Test
+    public void bufferTooShortWritesNothing() {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        try {
+            Utf8Utils.encode("élève", buffer);
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, buffer.position());
+            assertArrayEquals(new byte[4], Arrays.copyOf(buffer.array(), 4));
+            return;
+        }
+
+        fail("Expected IllegalArgumentException");
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.ScramVerifier;
+
+import java.util.Optional;
+
+
+/**
+ * Looks up the stored SCRAM verifier of a user, for a {@link ScramServer}.
+ * Implementations may read from memory, a file or a database, and must be thread-safe,
+ * as a single instance is shared by all the sessions of a server.
+ *
+ * A verifier contains the salt, iteration count, StoredKey and ServerKey of the user,
+ * which is all that a server needs to authenticate it. The password is never required.
+ */
+@FunctionalInterface
+public interface ScramCredentialLookup {
+    /**
+     * Looks up the verifier of the given user.
+     * @param user The username, as sent by the client and once decoded from its SCRAM (saslname) representation
+     * @return The verifier, or empty if the user is unknown
+     */
+    Optional<ScramVerifier> lookup(String user);
+}
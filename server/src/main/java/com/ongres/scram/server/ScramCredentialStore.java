@@ -0,0 +1,532 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.ScramMechanism;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.common.ScramVerifierDeriver;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * An in-memory store of the verifiers of a single SCRAM mechanism, designed to hold millions of users
+ * without burdening the garbage collector. It is a {@link ScramCredentialLookup}, to be used by a {@link ScramServer}.
+ *
+ * Users are keyed by the UTF-8 bytes of their username, normalized with Unicode NFKC (the normalization of SASLprep).
+ * The store is an open-addressing hash table, with linear probing, split in stripes. Each stripe keeps its slots in
+ * its own direct (off-heap) {@link ByteBuffer}, so the heap only holds a few objects per stripe.
+ * Slots are fixed-width: the username, salt, iteration count, StoredKey and ServerKey are stored inline, with a
+ * layout that depends on the key length of the mechanism and on the maximum lengths of usernames and salts.
+ *
+ * Lookups are lock-free: they read optimistically, and validate the read with the {@link StampedLock} of the stripe,
+ * only falling back to a read lock if a write interleaved. Writes lock their stripe, so writes to different stripes
+ * do not contend. A stripe doubles its slots when it is three quarters full.
+ *
+ * This class is thread-safe.
+ */
+public class ScramCredentialStore implements ScramCredentialLookup {
+    /**
+     * Maximum length (in bytes) of the normalized usernames by default: that of PostgreSQL role names
+     */
+    public static final int DEFAULT_MAX_USER_LENGTH = 63;
+
+    /**
+     * Maximum length (in bytes) of the salts by default: the length generated by {@link ScramVerifierDeriver}
+     */
+    public static final int DEFAULT_MAX_SALT_LENGTH = ScramVerifierDeriver.DEFAULT_SALT_LENGTH;
+
+    /**
+     * Number of stripes by default
+     */
+    public static final int DEFAULT_STRIPES = 64;
+
+    private static final int MIN_STRIPE_SLOTS = 8;
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+
+    /**
+     * The offsets of the fields within a slot. All slots of a store share the same layout.
+     */
+    private static class Layout {
+        private static final int STATE = 0;
+        private static final int USER_LENGTH = 1;
+        private static final int SALT_LENGTH = 2;
+        private static final int HASH = 4;
+        private static final int ITERATION = 8;
+        private static final int USER = 12;
+
+        private final int maxUserLength;
+        private final int maxSaltLength;
+        private final int keyLength;
+        private final int salt;
+        private final int storedKey;
+        private final int serverKey;
+        private final int slotSize;
+
+        private Layout(int maxUserLength, int maxSaltLength, int keyLength) {
+            this.maxUserLength = maxUserLength;
+            this.maxSaltLength = maxSaltLength;
+            this.keyLength = keyLength;
+            this.salt = USER + maxUserLength;
+            this.storedKey = salt + maxSaltLength;
+            this.serverKey = storedKey + keyLength;
+            this.slotSize = (serverKey + keyLength + 3) & ~3;
+        }
+    }
+
+    /**
+     * A stripe of the table. Slots and sizes are guarded by the lock.
+     * The capacity is derived from the buffer, so that an optimistic read never sees them out of sync.
+     */
+    private static class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private ByteBuffer slots;
+        private int size;
+        private int used;
+
+        private Stripe(ByteBuffer slots) {
+            this.slots = slots;
+        }
+    }
+
+    private final ScramMechanism scramMechanism;
+    private final Layout layout;
+    private final Stripe[] stripes;
+
+    private ScramCredentialStore(
+            ScramMechanism scramMechanism, int expectedUsers, int maxUserLength, int maxSaltLength, int stripes
+    ) {
+        this.scramMechanism = scramMechanism;
+        this.layout = new Layout(maxUserLength, maxSaltLength, scramMechanism.algorithmKeyLength() / 8);
+        int size = 1;
+        while(size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        // Leave room for four standard deviations of the number of users per stripe, so that none has to grow
+        long perStripe = expectedUsers / size + (long) (4 * Math.sqrt(expectedUsers / size)) + 1;
+        long capacity = Math.max(MIN_STRIPE_SLOTS, perStripe * 4 / 3 + 1);
+        checkArgument(slabSize(capacity) <= Integer.MAX_VALUE, "expectedUsers too large for the stripes");
+        for(int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe(ByteBuffer.allocateDirect((int) slabSize(capacity)));
+        }
+    }
+
+    /**
+     * Creates a builder for a store of verifiers of the given mechanism.
+     * @param scramMechanism The SCRAM mechanism of the verifiers
+     * @return The builder
+     * @throws IllegalArgumentException If the mechanism is null
+     */
+    public static Builder builder(ScramMechanism scramMechanism) throws IllegalArgumentException {
+        return new Builder(checkNotNull(scramMechanism, "scramMechanism"));
+    }
+
+    /**
+     * Builder for {@link ScramCredentialStore}. Create it with {@link ScramCredentialStore#builder(ScramMechanism)}.
+     */
+    public static class Builder {
+        private final ScramMechanism scramMechanism;
+        private int expectedUsers = 0;
+        private int maxUserLength = DEFAULT_MAX_USER_LENGTH;
+        private int maxSaltLength = DEFAULT_MAX_SALT_LENGTH;
+        private int stripes = DEFAULT_STRIPES;
+
+        private Builder(ScramMechanism scramMechanism) {
+            this.scramMechanism = scramMechanism;
+        }
+
+        /**
+         * Optional call. Sets the number of users that the store is expected to hold, so that it is sized upfront
+         * and does not grow while it is filled. By default, the store starts small.
+         * @param expectedUsers The expected number of users
+         * @return The same class
+         * @throws IllegalArgumentException If expectedUsers is negative
+         */
+        public Builder expectedUsers(int expectedUsers) throws IllegalArgumentException {
+            checkArgument(expectedUsers >= 0, "expectedUsers");
+            this.expectedUsers = expectedUsers;
+
+            return this;
+        }
+
+        /**
+         * Optional call. Sets the maximum length of the UTF-8 encoded, normalized, usernames,
+         * {@link ScramCredentialStore#DEFAULT_MAX_USER_LENGTH} by default. Every slot reserves this length.
+         * @param maxUserLength The maximum length, in bytes, up to 255
+         * @return The same class
+         * @throws IllegalArgumentException If maxUserLength is not between 1 and 255
+         */
+        public Builder maxUserLength(int maxUserLength) throws IllegalArgumentException {
+            checkArgument(maxUserLength <= 255, "maxUserLength");
+            this.maxUserLength = gt0(maxUserLength, "maxUserLength");
+
+            return this;
+        }
+
+        /**
+         * Optional call. Sets the maximum length of the salts,
+         * {@link ScramCredentialStore#DEFAULT_MAX_SALT_LENGTH} by default. Every slot reserves this length.
+         * @param maxSaltLength The maximum length, in bytes, up to 255
+         * @return The same class
+         * @throws IllegalArgumentException If maxSaltLength is not between 1 and 255
+         */
+        public Builder maxSaltLength(int maxSaltLength) throws IllegalArgumentException {
+            checkArgument(maxSaltLength <= 255, "maxSaltLength");
+            this.maxSaltLength = gt0(maxSaltLength, "maxSaltLength");
+
+            return this;
+        }
+
+        /**
+         * Optional call. Sets the number of stripes, {@link ScramCredentialStore#DEFAULT_STRIPES} by default.
+         * It is rounded up to a power of two.
+         * @param stripes The number of stripes
+         * @return The same class
+         * @throws IllegalArgumentException If stripes is not between 1 and 65536
+         */
+        public Builder stripes(int stripes) throws IllegalArgumentException {
+            checkArgument(stripes <= 1 << 16, "stripes");
+            this.stripes = gt0(stripes, "stripes");
+
+            return this;
+        }
+
+        /**
+         * Gets the store, fully constructed and configured, and empty.
+         * @return The fully built instance.
+         * @throws IllegalArgumentException If the expected users do not fit in the stripes
+         */
+        public ScramCredentialStore setup() throws IllegalArgumentException {
+            return new ScramCredentialStore(scramMechanism, expectedUsers, maxUserLength, maxSaltLength, stripes);
+        }
+    }
+
+    private long slabSize(long capacity) {
+        return (long) capacity * layout.slotSize;
+    }
+
+    private int capacity(ByteBuffer slots) {
+        return slots.capacity() / layout.slotSize;
+    }
+
+    /**
+     * The stripe of the hash, selected by its low bits, as slots are selected by the high bits.
+     */
+    private Stripe stripe(int hash) {
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private boolean keyEquals(ByteBuffer slots, int slot, int hash, byte[] key) {
+        if(slots.getInt(slot + Layout.HASH) != hash || (slots.get(slot + Layout.USER_LENGTH) & 0xff) != key.length) {
+            return false;
+        }
+        for(int i = 0; i < key.length; i++) {
+            if(slots.get(slot + Layout.USER + i) != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the slot of the key, probing from its home slot until an empty slot.
+     * @return The offset of the slot, or -1 if the key is not present
+     */
+    private int find(ByteBuffer slots, int hash, byte[] key) {
+        if(key.length > layout.maxUserLength) {
+            return -1;
+        }
+        int capacity = capacity(slots);
+        int index = UserKeys.home(hash, capacity);
+        for(int i = 0; i < capacity; i++, index = UserKeys.next(index, capacity)) {
+            int slot = index * layout.slotSize;
+            byte state = slots.get(slot + Layout.STATE);
+            if(EMPTY == state) {
+                return -1;
+            }
+            if(FULL == state && keyEquals(slots, slot, hash, key)) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    private static byte[] read(ByteBuffer slots, int offset, int length) {
+        byte[] value = new byte[length];
+        for(int i = 0; i < length; i++) {
+            value[i] = slots.get(offset + i);
+        }
+
+        return value;
+    }
+
+    private static void write(ByteBuffer slots, int offset, byte[] value) {
+        for(int i = 0; i < value.length; i++) {
+            slots.put(offset + i, value[i]);
+        }
+    }
+
+    /**
+     * Reads the verifier of a slot. If the read was not validated, the values may be inconsistent, so lengths are
+     * bounded to the layout, and the verifier is only built once validated.
+     */
+    private byte[][] readVerifier(ByteBuffer slots, int slot) {
+        int saltLength = Math.min(slots.get(slot + Layout.SALT_LENGTH) & 0xff, layout.maxSaltLength);
+
+        return new byte[][] {
+                read(slots, slot + layout.salt, saltLength),
+                read(slots, slot + layout.storedKey, layout.keyLength),
+                read(slots, slot + layout.serverKey, layout.keyLength)
+        };
+    }
+
+    @Override
+    public Optional<ScramVerifier> lookup(String user) {
+        byte[] key = UserKeys.key(user);
+        int hash = UserKeys.hash(key);
+        Stripe stripe = stripe(hash);
+
+        long stamp = stripe.lock.tryOptimisticRead();
+        ByteBuffer slots = stripe.slots;
+        int slot = find(slots, hash, key);
+        int iteration = slot < 0 ? 0 : slots.getInt(slot + Layout.ITERATION);
+        byte[][] values = slot < 0 ? null : readVerifier(slots, slot);
+        if(! stripe.lock.validate(stamp)) {
+            stamp = stripe.lock.readLock();
+            try {
+                slot = find(stripe.slots, hash, key);
+                iteration = slot < 0 ? 0 : stripe.slots.getInt(slot + Layout.ITERATION);
+                values = slot < 0 ? null : readVerifier(stripe.slots, slot);
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+
+        return slot < 0 ? Optional.empty() : Optional.of(
+                new ScramVerifier(scramMechanism, values[0], iteration, values[1], values[2])
+        );
+    }
+
+    /**
+     * Whether the store contains the given user.
+     * @param user The username
+     * @return True if the user is present
+     * @throws IllegalArgumentException If the user is null or empty
+     */
+    public boolean contains(String user) throws IllegalArgumentException {
+        byte[] key = UserKeys.key(user);
+        int hash = UserKeys.hash(key);
+        Stripe stripe = stripe(hash);
+
+        long stamp = stripe.lock.tryOptimisticRead();
+        boolean found = find(stripe.slots, hash, key) >= 0;
+        if(! stripe.lock.validate(stamp)) {
+            stamp = stripe.lock.readLock();
+            try {
+                found = find(stripe.slots, hash, key) >= 0;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Adds a user, or replaces its verifier if it was already present.
+     * @param user The username
+     * @param verifier The verifier of the user
+     * @return True if the user was added, false if it was replaced
+     * @throws IllegalArgumentException If any value is null, the user is empty or longer than the maximum length,
+     *                                  the verifier is for another mechanism, or its salt is longer than the maximum
+     * @throws IllegalStateException If the stripe of the user is full and cannot grow further
+     */
+    public boolean put(String user, ScramVerifier verifier) throws IllegalArgumentException, IllegalStateException {
+        byte[] key = UserKeys.key(user);
+        checkNotNull(verifier, "verifier");
+        checkArgument(key.length <= layout.maxUserLength, "user too long");
+        checkArgument(scramMechanism.getName().equals(verifier.getScramMechanism().getName()), "verifier mechanism");
+        byte[] salt = verifier.getSalt();
+        checkArgument(salt.length <= layout.maxSaltLength, "salt too long");
+        byte[] storedKey = verifier.getStoredKey();
+        byte[] serverKey = verifier.getServerKey();
+        checkArgument(storedKey.length == layout.keyLength && serverKey.length == layout.keyLength, "key length");
+
+        int hash = UserKeys.hash(key);
+        Stripe stripe = stripe(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            int slot = find(stripe.slots, hash, key);
+            boolean added = slot < 0;
+            if(added) {
+                int capacity = capacity(stripe.slots);
+                if(stripe.used + 1 > capacity / 4L * 3) {
+                    rehash(stripe, stripe.size + 1 > capacity / 2 ? capacity * 2L : capacity);
+                }
+                slot = freeSlot(stripe.slots, hash);
+                if(EMPTY == stripe.slots.get(slot + Layout.STATE)) {
+                    stripe.used++;
+                }
+                stripe.size++;
+            }
+            ByteBuffer slots = stripe.slots;
+            slots.put(slot + Layout.USER_LENGTH, (byte) key.length);
+            slots.put(slot + Layout.SALT_LENGTH, (byte) salt.length);
+            slots.putInt(slot + Layout.HASH, hash);
+            slots.putInt(slot + Layout.ITERATION, verifier.getIteration());
+            write(slots, slot + Layout.USER, key);
+            write(slots, slot + layout.salt, salt);
+            write(slots, slot + layout.storedKey, storedKey);
+            write(slots, slot + layout.serverKey, serverKey);
+            slots.put(slot + Layout.STATE, FULL);
+
+            return added;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds the first empty or deleted slot from the home slot of the hash. There must be one.
+     */
+    private int freeSlot(ByteBuffer slots, int hash) {
+        int capacity = capacity(slots);
+        for(int index = UserKeys.home(hash, capacity); ; index = UserKeys.next(index, capacity)) {
+            int slot = index * layout.slotSize;
+            if(FULL != slots.get(slot + Layout.STATE)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Moves the full slots of the stripe to a new buffer of the given capacity, dropping deleted slots.
+     * Must be called with the write lock held.
+     */
+    private void rehash(Stripe stripe, long capacity) throws IllegalStateException {
+        if(slabSize(capacity) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The stripe cannot grow further: use more stripes");
+        }
+        ByteBuffer slots = ByteBuffer.allocateDirect((int) slabSize(capacity));
+        for(int slot = 0; slot < stripe.slots.capacity(); slot += layout.slotSize) {
+            if(FULL == stripe.slots.get(slot + Layout.STATE)) {
+                int target = freeSlot(slots, stripe.slots.getInt(slot + Layout.HASH));
+                for(int i = 0; i < layout.slotSize; i++) {
+                    slots.put(target + i, stripe.slots.get(slot + i));
+                }
+            }
+        }
+        stripe.slots = slots;
+        stripe.used = stripe.size;
+    }
+
+    /**
+     * Removes a user.
+     * @param user The username
+     * @return True if the user was present
+     * @throws IllegalArgumentException If the user is null or empty
+     */
+    public boolean remove(String user) throws IllegalArgumentException {
+        byte[] key = UserKeys.key(user);
+        int hash = UserKeys.hash(key);
+        Stripe stripe = stripe(hash);
+        long stamp = stripe.lock.writeLock();
+        try {
+            int slot = find(stripe.slots, hash, key);
+            if(slot < 0) {
+                return false;
+            }
+            stripe.slots.put(slot + Layout.STATE, DELETED);
+            stripe.size--;
+
+            return true;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    public ScramMechanism getScramMechanism() {
+        return scramMechanism;
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    /**
+     * The size of each slot, which depends on the key length of the mechanism and the maximum lengths.
+     * @return The size, in bytes
+     */
+    public int getSlotSize() {
+        return layout.slotSize;
+    }
+
+    /**
+     * The number of users in the store.
+     * @return The number of users
+     */
+    public long size() {
+        long size = 0;
+        for(Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * The off-heap memory reserved by all the slots of the store, whether they are in use or not.
+     * @return The size, in bytes
+     */
+    public long getOffHeapSize() {
+        long size = 0;
+        for(Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.slots.capacity();
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.ScramFunctions;
+import com.ongres.scram.common.ScramMechanism;
+import com.ongres.scram.common.ScramProofVerifier;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.common.message.ServerFirstMessage;
+import com.ongres.scram.common.util.NonceGenerator;
+import com.ongres.scram.common.util.NoncePool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+import static com.ongres.scram.common.util.Preconditions.gt0;
+
+
+/**
+ * A SCRAM server configuration, from which {@link ScramServerSession}s are created, one per authentication.
+ *
+ * Users are authenticated with the verifiers returned by a {@link ScramCredentialLookup}:
+ * proofs are verified with the StoredKey and the server signature is computed with the ServerKey,
+ * so the salted password (the expensive {@code Hi} function) is never computed while authenticating.
+ *
+ * For unknown users, sessions proceed with a mock salt (derived from the username and a per-server secret,
+ * so that it is stable across attempts) and the mock iteration count, and then fail as with an invalid proof,
+ * so that clients cannot tell whether a user exists.
+ *
+ * The keyed HMAC state of each credential, a {@link ScramProofVerifier}, is kept in a bounded concurrent cache,
+ * keyed by the looked-up verifier, so that sessions copy it instead of keying their HMACs again.
+ * Cache hits take no lock. When the cache is full, each miss evicts an arbitrary entry.
+ * Mock verifiers of unknown users all have the same keys, and share a single instance that is not cached.
+ *
+ * This class is thread-safe, provided that the credential lookup and nonce supplier are too,
+ * so a single instance can be shared by any number of concurrent sessions.
+ * Channel binding is not supported: only non-PLUS mechanisms may be configured.
+ */
+public class ScramServer {
+    /**
+     * Length (in characters, bytes) of the server nonce generated by default (if no nonce supplier is provided)
+     */
+    public static final int DEFAULT_NONCE_LENGTH = 24;
+
+    /**
+     * Length (in bytes) of the salt sent for unknown users.
+     */
+    public static final int MOCK_SALT_LENGTH = 16;
+
+    /**
+     * Maximum number of credentials whose {@link ScramProofVerifier} is cached by default
+     */
+    public static final int DEFAULT_PROOF_VERIFIER_CACHE_SIZE = 1024;
+
+    private final ScramMechanism scramMechanism;
+    private final ScramCredentialLookup credentialLookup;
+    private final Supplier<String> nonceSupplier;
+    private final int mockIteration;
+    private final byte[] mockSecret;
+    private final int proofVerifierCacheSize;
+    private final ConcurrentHashMap<ScramVerifier, ScramProofVerifier> proofVerifiers;
+    private final ScramProofVerifier mockProofVerifier;
+
+    private ScramServer(
+            ScramMechanism scramMechanism, ScramCredentialLookup credentialLookup, Supplier<String> nonceSupplier,
+            int mockIteration, byte[] mockSecret, int proofVerifierCacheSize
+    ) {
+        assert null != scramMechanism : "scramMechanism";
+        assert null != credentialLookup : "credentialLookup";
+        assert null != nonceSupplier : "nonceSupplier";
+        assert mockIteration >= ServerFirstMessage.ITERATION_MIN_VALUE : "mockIteration";
+        assert null != mockSecret : "mockSecret";
+        assert proofVerifierCacheSize > 0 : "proofVerifierCacheSize";
+
+        this.scramMechanism = scramMechanism;
+        this.credentialLookup = credentialLookup;
+        this.nonceSupplier = nonceSupplier;
+        this.mockIteration = mockIteration;
+        this.mockSecret = mockSecret;
+        this.proofVerifierCacheSize = proofVerifierCacheSize;
+        this.proofVerifiers = new ConcurrentHashMap<>();
+        byte[] mockKeys = new byte[scramMechanism.algorithmKeyLength() / 8];
+        this.mockProofVerifier = new ScramProofVerifier(scramMechanism, mockKeys, mockKeys);
+    }
+
+    /**
+     * Selects the SCRAM mechanism of the server. It must not be a channel binding (PLUS) mechanism.
+     * @param scramMechanism The SCRAM mechanism
+     * @return The next step in the chain (PreBuilder).
+     * @throws IllegalArgumentException If the mechanism is null or supports channel binding
+     */
+    public static PreBuilder scramMechanism(ScramMechanism scramMechanism) throws IllegalArgumentException {
+        checkNotNull(scramMechanism, "scramMechanism");
+        checkArgument(! scramMechanism.supportsChannelBinding(), "scramMechanism (channel binding not supported)");
+
+        return new PreBuilder(scramMechanism);
+    }
+
+    /**
+     * This class is not meant to be used directly.
+     * Use {@link ScramServer#scramMechanism(ScramMechanism)} instead.
+     */
+    public static class PreBuilder {
+        protected final ScramMechanism scramMechanism;
+
+        private PreBuilder(ScramMechanism scramMechanism) {
+            this.scramMechanism = scramMechanism;
+        }
+
+        /**
+         * Selects how the server looks up the verifiers of the users.
+         * @param credentialLookup The credential lookup
+         * @return The next step in the chain (Builder).
+         * @throws IllegalArgumentException If credentialLookup is null
+         */
+        public Builder credentialLookup(ScramCredentialLookup credentialLookup) throws IllegalArgumentException {
+            return new Builder(scramMechanism, checkNotNull(credentialLookup, "credentialLookup"));
+        }
+    }
+
+    /**
+     * This class is not meant to be used directly.
+     * Use instead {@link ScramServer#scramMechanism(ScramMechanism)} and chained methods.
+     */
+    public static class Builder extends PreBuilder {
+        private final ScramCredentialLookup credentialLookup;
+        private Supplier<String> nonceSupplier;
+        private int nonceLength = DEFAULT_NONCE_LENGTH;
+        private int mockIteration = ServerFirstMessage.ITERATION_MIN_VALUE;
+        private int proofVerifierCacheSize = DEFAULT_PROOF_VERIFIER_CACHE_SIZE;
+
+        private Builder(ScramMechanism scramMechanism, ScramCredentialLookup credentialLookup) {
+            super(scramMechanism);
+            this.credentialLookup = credentialLookup;
+        }
+
+        /**
+         * Optional call. The server will use a default nonce generator,
+         * unless an external one is provided by this method, for example a {@link NoncePool}.
+         * @param nonceSupplier A supplier of valid nonce Strings: only ASCII printable characters,
+         *                      except the comma (','), are permitted. It must be thread-safe
+         * @return The same class
+         * @throws IllegalArgumentException If nonceSupplier is null
+         */
+        public Builder nonceSupplier(Supplier<String> nonceSupplier) throws IllegalArgumentException {
+            this.nonceSupplier = checkNotNull(nonceSupplier, "nonceSupplier");
+
+            return this;
+        }
+
+        /**
+         * Sets a non-default ({@link ScramServer#DEFAULT_NONCE_LENGTH}) length for the server nonce generation,
+         * if no alternate nonceSupplier is provided via {@link Builder#nonceSupplier(Supplier)}.
+         * @param length The length of the nonce. Must be positive and greater than 0
+         * @return The same class
+         * @throws IllegalArgumentException If length is less than 1
+         */
+        public Builder nonceLength(int length) throws IllegalArgumentException {
+            this.nonceLength = gt0(length, "length");
+
+            return this;
+        }
+
+        /**
+         * Sets the iteration count sent for unknown users. It should be the one most users have,
+         * so that unknown users are not told apart. By default, {@link ServerFirstMessage#ITERATION_MIN_VALUE}.
+         * @param iteration The iteration count
+         * @return The same class
+         * @throws IllegalArgumentException If the iteration count is less than the minimum
+         */
+        public Builder mockIteration(int iteration) throws IllegalArgumentException {
+            checkArgument(iteration >= ServerFirstMessage.ITERATION_MIN_VALUE, "iteration");
+            this.mockIteration = iteration;
+
+            return this;
+        }
+
+        /**
+         * Sets a non-default ({@link ScramServer#DEFAULT_PROOF_VERIFIER_CACHE_SIZE}) maximum number of credentials
+         * whose keyed HMAC state is cached. Each entry holds two keyed HMACs, a few hundred bytes.
+         * The bound is approximate: concurrent misses may exceed it briefly.
+         * @param size The maximum number of cached credentials
+         * @return The same class
+         * @throws IllegalArgumentException If size is less than 1
+         */
+        public Builder proofVerifierCacheSize(int size) throws IllegalArgumentException {
+            this.proofVerifierCacheSize = gt0(size, "size");
+
+            return this;
+        }
+
+        /**
+         * Gets the server, fully constructed and configured.
+         * If no nonceSupplier was provided, a default nonce generator would be used,
+         * of the {@link ScramServer#DEFAULT_NONCE_LENGTH} length, unless {@link Builder#nonceLength(int)} is called.
+         * @return The fully built instance.
+         */
+        public ScramServer setup() {
+            Supplier<String> serverNonceSupplier = nonceSupplier;
+            if(null == serverNonceSupplier) {
+                NonceGenerator nonceGenerator = new NonceGenerator();
+                int length = nonceLength;
+                serverNonceSupplier = () -> nonceGenerator.nonce(length);
+            }
+            byte[] mockSecret = new byte[scramMechanism.algorithmKeyLength() / 8];
+            new SecureRandom().nextBytes(mockSecret);
+
+            return new ScramServer(
+                    scramMechanism, credentialLookup, serverNonceSupplier, mockIteration, mockSecret,
+                    proofVerifierCacheSize
+            );
+        }
+    }
+
+    public ScramMechanism getScramMechanism() {
+        return scramMechanism;
+    }
+
+    public ScramCredentialLookup getCredentialLookup() {
+        return credentialLookup;
+    }
+
+    /**
+     * Creates a session for a new authentication. Sessions are cheap, as they share this server's configuration.
+     * @return The session
+     */
+    public ScramServerSession scramServerSession() {
+        return new ScramServerSession(this);
+    }
+
+    String serverNonce() {
+        return nonceSupplier.get();
+    }
+
+    /**
+     * Looks up the verifier of the user, which must be for this server's mechanism,
+     * and have an iteration count that clients accept.
+     */
+    Optional<ScramVerifier> lookup(String user) {
+        return credentialLookup.lookup(user).filter(
+                verifier -> scramMechanism.getName().equals(verifier.getScramMechanism().getName())
+                        && verifier.getIteration() >= ServerFirstMessage.ITERATION_MIN_VALUE
+        );
+    }
+
+    /**
+     * A verifier for an unknown user, whose salt only depends on the username,
+     * and whose keys no proof can match.
+     */
+    ScramVerifier mockVerifier(String user) {
+        byte[] salt = Arrays.copyOf(
+                ScramFunctions.hmac(scramMechanism, user.getBytes(StandardCharsets.UTF_8), mockSecret),
+                MOCK_SALT_LENGTH
+        );
+        byte[] keys = new byte[scramMechanism.algorithmKeyLength() / 8];
+
+        return new ScramVerifier(scramMechanism, salt, mockIteration, keys, keys);
+    }
+
+    /**
+     * The keyed proof verifier of a looked-up verifier. It is shared: sessions must only
+     * {@link ScramProofVerifier#copy() copy} it, which reads its keyed state but never updates it.
+     * It is keyed (and cached) if the verifier is not cached yet.
+     * @return The proof verifier, or empty if the keys do not have the length of the mechanism
+     */
+    Optional<ScramProofVerifier> proofVerifier(ScramVerifier verifier) {
+        ScramProofVerifier proofVerifier = proofVerifiers.get(verifier);
+        if(null == proofVerifier) {
+            try {
+                proofVerifier = new ScramProofVerifier(verifier);
+            } catch (IllegalArgumentException e) {
+                return Optional.empty();
+            }
+            if(proofVerifiers.size() >= proofVerifierCacheSize) {
+                Iterator<ScramVerifier> evicted = proofVerifiers.keySet().iterator();
+                if(evicted.hasNext()) {
+                    evicted.next();
+                    evicted.remove();
+                }
+            }
+            proofVerifiers.put(verifier, proofVerifier);
+        }
+
+        return Optional.of(proofVerifier);
+    }
+
+    /**
+     * The proof verifier for the keys of the mock verifiers, which no proof can match. It is shared, as above.
+     */
+    ScramProofVerifier mockProofVerifier() {
+        return mockProofVerifier;
+    }
+
+    int proofVerifierCacheEntries() {
+        return proofVerifiers.size();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.AuthMessage;
+import com.ongres.scram.common.ScramProofVerifier;
+import com.ongres.scram.common.ScramStringFormatting;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.gssapi.Gs2CbindFlag;
+import com.ongres.scram.common.message.ClientFinalMessage;
+import com.ongres.scram.common.message.ClientFinalMessageView;
+import com.ongres.scram.common.message.ClientFirstMessage;
+import com.ongres.scram.common.message.ServerFinalMessage;
+import com.ongres.scram.common.message.ServerFirstMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
+
+
+/**
+ * The server side of a single SCRAM authentication, created by {@link ScramServer#scramServerSession()}.
+ * It is a state machine that processes the client-first-message, answering with the server-first-message,
+ * and then the client-final-message, answering with the server-final-message, which carries either the server
+ * signature or an error. After that, {@link #isAuthenticated()} tells whether the user was authenticated.
+ *
+ * Messages that cannot be parsed are rejected with a {@link ScramParseException}, and the connection should then be
+ * closed. Authentication failures, instead, are reported to the client with the error of the server-final-message.
+ *
+ * Authorization identities are not supported: a client-first-message with an authzid (asking to act as another
+ * user) fails with {@link ServerFinalMessage.Error#OTHER_ERROR}, rather than authenticating the user while ignoring it.
+ *
+ * This class is not thread-safe: use one session per authentication.
+ */
+public class ScramServerSession {
+    public enum State {
+        /**
+         * Waiting for the client-first-message.
+         */
+        INITIAL,
+        /**
+         * The server-first-message was sent. Waiting for the client-final-message.
+         */
+        SERVER_FIRST_SENT,
+        /**
+         * The server-final-message was sent. The authentication succeeded or failed.
+         */
+        COMPLETED
+    }
+
+    private final ScramServer scramServer;
+    private State state = State.INITIAL;
+    private String user;
+    private ScramProofVerifier sharedProofVerifier;
+    private byte[] clientFirstMessageBare;
+    private byte[] serverFirstMessage;
+    private String channelBinding;
+    private String nonce;
+    private Optional<ServerFinalMessage.Error> error = Optional.empty();
+
+    ScramServerSession(ScramServer scramServer) {
+        this.scramServer = scramServer;
+    }
+
+    private void checkState(State expected) throws IllegalStateException {
+        if(state != expected) {
+            throw new IllegalStateException("Invalid session state: expected " + expected + ", but is " + state);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * The user being authenticated.
+     * @return The username, decoded from its SCRAM (saslname) representation if it was valid
+     * @throws IllegalStateException If the client-first-message was not processed yet
+     */
+    public String getUser() throws IllegalStateException {
+        if(State.INITIAL == state) {
+            throw new IllegalStateException("The client-first-message was not processed yet");
+        }
+
+        return user;
+    }
+
+    /**
+     * Whether the authentication completed and succeeded.
+     * @return True if the user was authenticated
+     */
+    public boolean isAuthenticated() {
+        return State.COMPLETED == state && ! error.isPresent();
+    }
+
+    /**
+     * The error sent to the client in the server-final-message, if the authentication failed.
+     * @return The error, or empty if the authentication did not fail (or did not complete yet)
+     */
+    public Optional<ServerFinalMessage.Error> getError() {
+        return State.COMPLETED == state ? error : Optional.empty();
+    }
+
+    /**
+     * Processes the client-first-message, looking up the user's verifier, and generates the server-first-message.
+     * If the user is unknown, the message requires channel binding or it carries an authzid,
+     * a server-first-message is sent anyway, and the authentication fails when the client-final-message is processed.
+     * @param clientFirstMessage The received client-first-message
+     * @return The server-first-message
+     * @throws ScramParseException If the message is not a valid client-first-message
+     * @throws IllegalArgumentException If the message is null or empty
+     * @throws IllegalStateException If a client-first-message was already processed
+     */
+    public String processClientFirstMessage(String clientFirstMessage)
+    throws ScramParseException, IllegalArgumentException, IllegalStateException {
+        checkState(State.INITIAL);
+        checkNotEmpty(clientFirstMessage, "clientFirstMessage");
+        ClientFirstMessage message = ClientFirstMessage.parseFrom(clientFirstMessage);
+
+        try {
+            user = ScramStringFormatting.fromSaslName(message.getUser());
+        } catch (IllegalArgumentException e) {
+            user = message.getUser();
+            error = Optional.of(ServerFinalMessage.Error.INVALID_USERNAME_ENCODING);
+        }
+        if(Gs2CbindFlag.CHANNEL_BINDING_REQUIRED == message.getChannelBindingFlag()) {
+            error = Optional.of(ServerFinalMessage.Error.CHANNEL_BINDING_NOT_SUPPORTED);
+        } else if(message.getAuthzid().isPresent()) {
+            error = Optional.of(ServerFinalMessage.Error.OTHER_ERROR);
+        }
+        Optional<ScramVerifier> found = error.isPresent() ? Optional.empty() : scramServer.lookup(user);
+        Optional<ScramProofVerifier> foundProofVerifier = found.flatMap(scramServer::proofVerifier);
+        ScramVerifier verifier;
+        if(foundProofVerifier.isPresent()) {
+            verifier = found.get();
+            sharedProofVerifier = foundProofVerifier.get();
+        } else {
+            verifier = scramServer.mockVerifier(user);
+            sharedProofVerifier = scramServer.mockProofVerifier();
+        }
+
+        ServerFirstMessage serverFirst = new ServerFirstMessage(
+                message.getNonce(), scramServer.serverNonce(),
+                ScramStringFormatting.base64Encode(verifier.getSalt()), verifier.getIteration()
+        );
+        clientFirstMessageBare = clientFirstMessage.substring(
+                clientFirstMessage.indexOf(',', clientFirstMessage.indexOf(',') + 1) + 1
+        ).getBytes(StandardCharsets.UTF_8);
+        String serverFirstMessage = serverFirst.toString();
+        this.serverFirstMessage = serverFirstMessage.getBytes(StandardCharsets.UTF_8);
+        String withoutProof = ClientFinalMessage.builder(
+                message.getGs2Header(), Optional.empty(), serverFirst.getNonce()
+        ).withoutProof();
+        channelBinding = withoutProof.substring(2, withoutProof.indexOf(','));
+        nonce = serverFirst.getNonce();
+        state = State.SERVER_FIRST_SENT;
+
+        return serverFirstMessage;
+    }
+
+    /**
+     * Processes the client-final-message, verifying the channel binding, nonce and proof,
+     * and generates the server-final-message. Only the StoredKey and ServerKey of the user are used.
+     * @param clientFinalMessage The received client-final-message
+     * @return The server-final-message, with the server signature or, if the authentication failed, an error
+     * @throws ScramParseException If the message is not a valid client-final-message
+     * @throws IllegalArgumentException If the message is null or empty
+     * @throws IllegalStateException If the client-first-message was not processed,
+     *                               or a client-final-message was already processed
+     */
+    public String processClientFinalMessage(String clientFinalMessage)
+    throws ScramParseException, IllegalArgumentException, IllegalStateException {
+        checkState(State.SERVER_FIRST_SENT);
+        checkNotEmpty(clientFinalMessage, "clientFinalMessage");
+
+        byte[] clientFinalMessageBytes = clientFinalMessage.getBytes(StandardCharsets.UTF_8);
+        ClientFinalMessageView message = new ClientFinalMessageView()
+                .parse(clientFinalMessageBytes, 0, clientFinalMessageBytes.length);
+        state = State.COMPLETED;
+
+        if(! error.isPresent() && ! message.channelBindingEquals(channelBinding)) {
+            error = Optional.of(ServerFinalMessage.Error.CHANNEL_BINDINGS_DONT_MATCH);
+        } else if(! error.isPresent() && ! message.nonceEquals(nonce)) {
+            error = Optional.of(ServerFinalMessage.Error.OTHER_ERROR);
+        }
+        if(error.isPresent()) {
+            return new ServerFinalMessage(error.get()).toString();
+        }
+
+        // Fail closed: the error is only cleared once the proof is verified, so the session is not authenticated
+        // if verifying it throws
+        error = Optional.of(ServerFinalMessage.Error.INVALID_PROOF);
+        ScramProofVerifier proofVerifier = sharedProofVerifier.copy();
+        byte[] proof = new byte[proofVerifier.getProofLength()];
+        AuthMessage authMessage = new AuthMessage(
+                clientFirstMessageBare, serverFirstMessage, clientFinalMessageBytes,
+                message.getWithoutProofOffset(), message.getWithoutProofLength()
+        );
+        if(message.getProofDecodedLength() != proof.length
+                || message.decodeProof(proof, 0) != proof.length
+                || ! proofVerifier.verifyClientProof(authMessage, proof, 0)) {
+            return new ServerFinalMessage(error.get()).toString();
+        }
+        byte[] serverSignature = new byte[proof.length];
+        proofVerifier.serverSignature(authMessage, serverSignature, 0);
+        String serverFinalMessage = new ServerFinalMessage(serverSignature).toString();
+        error = Optional.empty();
+
+        return serverFinalMessage;
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.ScramMechanism;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.common.ScramVerifierCodec;
+import com.ongres.scram.common.exception.ScramParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static com.ongres.scram.common.util.Preconditions.checkArgument;
+import static com.ongres.scram.common.util.Preconditions.checkNotNull;
+
+
+/**
+ * A read-only, memory-mapped, file of SCRAM verifiers, indexed by username. It is a {@link ScramCredentialLookup},
+ * to be used by a {@link ScramServer}.
+ *
+ * Opening a file only maps it and checks its header, whatever the number of users, and lookups read straight from
+ * the mapping. Pages are loaded on demand and kept in the page cache of the operating system, so that they are shared
+ * by all the processes that map the same file, and survive restarts. Files are created with a {@link Writer}, from
+ * {@link ScramVerifier}s or PostgreSQL verifier strings, and replaced atomically.
+ *
+ * The file (at most 2GB) contains, with all integers in big-endian order:
+ * <ul>
+ *     <li>A header: the magic bytes {@code SCRAMVF}, the format version, the number of users, and the offset and
+ *     number of slots of the index.</li>
+ *     <li>The records, one per user: the mechanism id (1 for SCRAM-SHA-1, 2 for SCRAM-SHA-256), the lengths of the
+ *     username and salt, the iteration count, the username (normalized as {@link ScramCredentialStore} does),
+ *     the salt, the StoredKey and the ServerKey.</li>
+ *     <li>The index: an open-addressing hash table, with linear probing, of slots with the hash of the username and
+ *     the offset of its record (0 if the slot is empty). It is at most three quarters full.</li>
+ * </ul>
+ *
+ * This class is thread-safe.
+ */
+public class ScramVerifierFile implements ScramCredentialLookup {
+    private static final byte[] MAGIC = { 'S', 'C', 'R', 'A', 'M', 'V', 'F', 0 };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int USERS = 12;
+    private static final int INDEX_OFFSET = 16;
+    private static final int INDEX_SLOTS = 20;
+    private static final int INDEX_SLOT_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final ScramMechanisms[] MECHANISMS = {
+            null, ScramMechanisms.SCRAM_SHA_1, ScramMechanisms.SCRAM_SHA_256
+    };
+
+    private final ByteBuffer buffer;
+    private final int users;
+    private final int indexOffset;
+    private final int indexSlots;
+
+    private ScramVerifierFile(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        for(int i = 0; i < magic.length && i < buffer.limit(); i++) {
+            magic[i] = buffer.get(i);
+        }
+        if(buffer.limit() < HEADER_SIZE || ! Arrays.equals(MAGIC, magic) || buffer.getInt(MAGIC.length) != VERSION) {
+            throw new IOException("Not a SCRAM verifier file, or an unsupported version");
+        }
+        this.buffer = buffer;
+        this.users = buffer.getInt(USERS);
+        this.indexOffset = buffer.getInt(INDEX_OFFSET);
+        this.indexSlots = buffer.getInt(INDEX_SLOTS);
+        if(users < 0 || indexSlots <= users || indexOffset < HEADER_SIZE
+                || (long) indexOffset + (long) indexSlots * INDEX_SLOT_SIZE != buffer.limit()) {
+            throw new IOException("Corrupt SCRAM verifier file header");
+        }
+    }
+
+    /**
+     * Opens a file of verifiers, mapping it read-only. The mapping stays valid until the instance is garbage
+     * collected, even if the file is replaced meanwhile.
+     * @param path The file
+     * @return The file of verifiers
+     * @throws IOException If the file cannot be read, or is not a valid file of verifiers
+     * @throws IllegalArgumentException If the path is null
+     */
+    public static ScramVerifierFile open(Path path) throws IOException, IllegalArgumentException {
+        checkNotNull(path, "path");
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("SCRAM verifier file too large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return new ScramVerifierFile(buffer);
+        }
+    }
+
+    /**
+     * Creates a writer of a new file of verifiers, which will replace the given file, if it exists, once committed.
+     * @param path The file to write
+     * @return The writer
+     * @throws IOException If the temporary file cannot be created in the directory of the file
+     * @throws IllegalArgumentException If the path is null
+     */
+    public static Writer writer(Path path) throws IOException, IllegalArgumentException {
+        return new Writer(checkNotNull(path, "path"));
+    }
+
+    private static int mechanismId(ScramMechanism scramMechanism) {
+        for(int id = 1; id < MECHANISMS.length; id++) {
+            if(MECHANISMS[id].getName().equals(scramMechanism.getName())) {
+                return id;
+            }
+        }
+
+        return 0;
+    }
+
+    private boolean keyEquals(int record, byte[] key) {
+        if((buffer.get(record + 1) & 0xff) != key.length) {
+            return false;
+        }
+        for(int i = 0; i < key.length; i++) {
+            if(buffer.get(record + RECORD_HEADER_SIZE + i) != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private byte[] read(int offset, int length) {
+        byte[] value = new byte[length];
+        for(int i = 0; i < length; i++) {
+            value[i] = buffer.get(offset + i);
+        }
+
+        return value;
+    }
+
+    /**
+     * Finds the record of the key in the index.
+     * @return The offset of the record, or 0 if the key is not present
+     */
+    private int find(byte[] key) {
+        int hash = UserKeys.hash(key);
+        int index = UserKeys.home(hash, indexSlots);
+        for(int i = 0; i < indexSlots; i++, index = UserKeys.next(index, indexSlots)) {
+            int slot = indexOffset + index * INDEX_SLOT_SIZE;
+            int record = buffer.getInt(slot + 4);
+            if(0 == record) {
+                return 0;
+            }
+            if(buffer.getInt(slot) == hash && keyEquals(record, key)) {
+                return record;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalStateException If the record of the user is corrupt
+     */
+    @Override
+    public Optional<ScramVerifier> lookup(String user) throws IllegalStateException {
+        byte[] key = UserKeys.key(user);
+        try {
+            int record = find(key);
+            if(0 == record) {
+                return Optional.empty();
+            }
+            int mechanismId = buffer.get(record);
+            if(mechanismId < 1 || mechanismId >= MECHANISMS.length) {
+                throw new IllegalStateException("Corrupt SCRAM verifier file: unknown mechanism id " + mechanismId);
+            }
+            ScramMechanism scramMechanism = MECHANISMS[mechanismId];
+            int keyLength = scramMechanism.algorithmKeyLength() / 8;
+            int salt = record + RECORD_HEADER_SIZE + key.length;
+            int saltLength = buffer.get(record + 2) & 0xff;
+
+            return Optional.of(new ScramVerifier(
+                    scramMechanism, read(salt, saltLength), buffer.getInt(record + 4),
+                    read(salt + saltLength, keyLength), read(salt + saltLength + keyLength, keyLength)
+            ));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IllegalStateException("Corrupt SCRAM verifier file", e);
+        }
+    }
+
+    /**
+     * The number of users in the file.
+     * @return The number of users
+     */
+    public int size() {
+        return users;
+    }
+
+    /**
+     * Writes a new file of verifiers. Records are written to a temporary file, in the same directory, as they are
+     * added, so memory only grows by a few bytes per user. On {@link #commit()}, the index is appended, and the
+     * temporary file atomically replaces the target file, so that readers either map the old or the new file.
+     *
+     * Closing the writer without committing discards the temporary file. This class is not thread-safe.
+     */
+    public static class Writer implements Closeable {
+        private final Path path;
+        private final Path temporaryPath;
+        private final FileChannel channel;
+        private final ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+        private long position = HEADER_SIZE;
+        private int users;
+        private int[] hashes = new int[1024];
+        private int[] records = new int[1024];
+        private boolean closed;
+
+        private Writer(Path path) throws IOException {
+            this.path = path.toAbsolutePath();
+            this.temporaryPath = Files.createTempFile(
+                    this.path.getParent(), this.path.getFileName().toString(), ".tmp"
+            );
+            this.channel = FileChannel.open(temporaryPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        private void checkOpen() throws IllegalStateException {
+            if(closed) {
+                throw new IllegalStateException("The writer was already committed or closed");
+            }
+        }
+
+        private void flush() throws IOException {
+            output.flip();
+            while(output.hasRemaining()) {
+                position += channel.write(output, position);
+            }
+            output.clear();
+        }
+
+        private void put(byte[] value) throws IOException {
+            for(int offset = 0; offset < value.length; ) {
+                if(! output.hasRemaining()) {
+                    flush();
+                }
+                int length = Math.min(output.remaining(), value.length - offset);
+                output.put(value, offset, length);
+                offset += length;
+            }
+        }
+
+        /**
+         * Adds a user. Users must not be repeated.
+         * @param user The username
+         * @param verifier The verifier of the user
+         * @return The same writer
+         * @throws IOException If the record cannot be written
+         * @throws IllegalArgumentException If any argument is null, the user is empty or its normalized form longer
+         *                                  than 255 bytes, the mechanism is not supported or the salt is longer
+         *                                  than 255 bytes
+         * @throws IllegalStateException If the writer was closed, or the file would exceed 2GB
+         */
+        public Writer add(String user, ScramVerifier verifier)
+        throws IOException, IllegalArgumentException, IllegalStateException {
+            checkOpen();
+            byte[] key = UserKeys.key(user);
+            checkNotNull(verifier, "verifier");
+            checkArgument(key.length <= 255, "user too long");
+            int mechanismId = mechanismId(verifier.getScramMechanism());
+            checkArgument(mechanismId > 0, "verifier mechanism");
+            byte[] salt = verifier.getSalt();
+            checkArgument(salt.length <= 255, "salt too long");
+            byte[] storedKey = verifier.getStoredKey();
+            byte[] serverKey = verifier.getServerKey();
+            long record = position + output.position();
+            if(record + RECORD_HEADER_SIZE + key.length + salt.length + storedKey.length + serverKey.length
+                    + (long) (users + 1) * 4 / 3 * INDEX_SLOT_SIZE + INDEX_SLOT_SIZE > Integer.MAX_VALUE) {
+                throw new IllegalStateException("The SCRAM verifier file would exceed 2GB");
+            }
+
+            if(output.remaining() < RECORD_HEADER_SIZE) {
+                flush();
+            }
+            output.put((byte) mechanismId).put((byte) key.length).put((byte) salt.length).put((byte) 0)
+                    .putInt(verifier.getIteration());
+            put(key);
+            put(salt);
+            put(storedKey);
+            put(serverKey);
+
+            if(users == hashes.length) {
+                hashes = Arrays.copyOf(hashes, users * 2);
+                records = Arrays.copyOf(records, users * 2);
+            }
+            hashes[users] = UserKeys.hash(key);
+            records[users] = (int) record;
+            users++;
+
+            return this;
+        }
+
+        /**
+         * Adds a user, with its verifier in the text format used by PostgreSQL to store SCRAM passwords
+         * (as in the {@code rolpassword} column of {@code pg_authid}), parsed with {@link ScramVerifierCodec}.
+         * @param user The username
+         * @param verifier The verifier string
+         * @return The same writer
+         * @throws ScramParseException If the verifier is not valid
+         * @throws IOException If the record cannot be written
+         * @throws IllegalArgumentException See {@link #add(String, ScramVerifier)}
+         * @throws IllegalStateException See {@link #add(String, ScramVerifier)}
+         */
+        public Writer add(String user, CharSequence verifier)
+        throws ScramParseException, IOException, IllegalArgumentException, IllegalStateException {
+            return add(user, ScramVerifierCodec.parse(verifier));
+        }
+
+        /**
+         * Writes the index and the header, and replaces the target file with the written one.
+         * The writer is closed.
+         * @throws IOException If the file cannot be written or moved
+         * @throws IllegalArgumentException If a user was added more than once
+         * @throws IllegalStateException If the writer was already closed
+         */
+        public void commit() throws IOException, IllegalArgumentException, IllegalStateException {
+            checkOpen();
+            flush();
+            int indexOffset = (int) position;
+            int indexSlots = (int) ((long) users * 4 / 3 + 1);
+            ByteBuffer index = ByteBuffer.allocate(indexSlots * INDEX_SLOT_SIZE);
+            for(int i = 0; i < users; i++) {
+                int slot = UserKeys.home(hashes[i], indexSlots);
+                while(0 != index.getInt(slot * INDEX_SLOT_SIZE + 4)) {
+                    checkArgument(
+                            index.getInt(slot * INDEX_SLOT_SIZE) != hashes[i]
+                                    || ! sameUser(index.getInt(slot * INDEX_SLOT_SIZE + 4), records[i]),
+                            "Duplicate user"
+                    );
+                    slot = UserKeys.next(slot, indexSlots);
+                }
+                index.putInt(slot * INDEX_SLOT_SIZE, hashes[i]).putInt(slot * INDEX_SLOT_SIZE + 4, records[i]);
+            }
+            while(index.hasRemaining()) {
+                position += channel.write(index, position);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putInt(VERSION).putInt(users).putInt(indexOffset).putInt(indexSlots).flip();
+            channel.write(header, 0);
+            channel.force(true);
+            closed = true;
+            channel.close();
+
+            try {
+                Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        /**
+         * Whether two records have the same username, reading them back from the temporary file.
+         */
+        private boolean sameUser(int record1, int record2) throws IOException {
+            ByteBuffer user1 = ByteBuffer.allocate(RECORD_HEADER_SIZE + 255);
+            ByteBuffer user2 = ByteBuffer.allocate(RECORD_HEADER_SIZE + 255);
+            channel.read(user1, record1);
+            channel.read(user2, record2);
+            int length = user1.get(1) & 0xff;
+            if(length != (user2.get(1) & 0xff)) {
+                return false;
+            }
+            user1.limit(RECORD_HEADER_SIZE + length).position(RECORD_HEADER_SIZE);
+            user2.limit(RECORD_HEADER_SIZE + length).position(RECORD_HEADER_SIZE);
+
+            return user1.equals(user2);
+        }
+
+        /**
+         * Closes the writer. If it was not committed, the temporary file is deleted.
+         * @throws IOException If the temporary file cannot be closed or deleted
+         */
+        @Override
+        public void close() throws IOException {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            channel.close();
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+
+import static com.ongres.scram.common.util.Preconditions.checkNotEmpty;
+
+
+/**
+ * How usernames are keyed and hashed by the hash tables of this package, {@link ScramCredentialStore} and
+ * {@link ScramVerifierFile}. Hashes are persisted by the latter, so they must not change.
+ */
+class UserKeys {
+    private UserKeys() {
+    }
+
+    /**
+     * The key of a user: the UTF-8 bytes of its username, normalized with Unicode NFKC (the normalization of SASLprep).
+     * @param user The username
+     * @return The key
+     * @throws IllegalArgumentException If the user is null or empty
+     */
+    static byte[] key(String user) throws IllegalArgumentException {
+        checkNotEmpty(user, "user");
+
+        return Normalizer.normalize(user, Normalizer.Form.NFKC).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The hash of a key, with all its bits well mixed.
+     */
+    static int hash(byte[] key) {
+        int h = 1;
+        for(byte b : key) {
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The first slot to probe for the hash, in a table of the given capacity, which need not be a power of two.
+     * It depends on the high bits of the hash, so the low bits may be used to select stripes.
+     */
+    static int home(int hash, int capacity) {
+        return (int) (((hash & 0xffffffffL) * capacity) >>> 32);
+    }
+
+    /**
+     * The slot following the given one, wrapping around at the end of the table.
+     */
+    static int next(int index, int capacity) {
+        return index + 1 == capacity ? 0 : index + 1;
+    }
+}
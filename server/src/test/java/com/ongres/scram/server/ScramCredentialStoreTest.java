@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.ScramCredentials;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.ongres.scram.common.RfcExample.*;
+import static org.junit.Assert.*;
+
+
+public class ScramCredentialStoreTest {
+    private static final ScramCredentials CREDENTIALS = ScramCredentials.fromPassword(
+            ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, PASSWORD,
+            Base64.getDecoder().decode(SERVER_SALT), SERVER_ITERATIONS
+    );
+    private static final ScramVerifier VERIFIER = new ScramVerifier(
+            ScramMechanisms.SCRAM_SHA_1, Base64.getDecoder().decode(SERVER_SALT), SERVER_ITERATIONS,
+            CREDENTIALS.getStoredKey(), CREDENTIALS.getServerKey()
+    );
+
+    private static ScramVerifier verifier(int i) {
+        byte[] key = new byte[20];
+        key[0] = (byte) i;
+        key[1] = (byte) (i >>> 8);
+
+        return new ScramVerifier(ScramMechanisms.SCRAM_SHA_1, new byte[] { (byte) i }, 4096 + i, key, key);
+    }
+
+    @Test
+    public void putLookupRemove() {
+        ScramCredentialStore store = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_1).setup();
+        assertFalse(store.lookup(USER).isPresent());
+
+        assertTrue(store.put(USER, VERIFIER));
+        assertEquals(VERIFIER, store.lookup(USER).get());
+        assertTrue(store.contains(USER));
+        assertFalse(store.contains("other"));
+        assertEquals(1, store.size());
+
+        assertFalse(store.put(USER, verifier(1)));
+        assertEquals(verifier(1), store.lookup(USER).get());
+        assertEquals(1, store.size());
+
+        assertTrue(store.remove(USER));
+        assertFalse(store.remove(USER));
+        assertFalse(store.lookup(USER).isPresent());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void usernamesAreNormalized() {
+        ScramCredentialStore store = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_1).setup();
+        store.put("ﬁle", VERIFIER);
+
+        assertTrue(store.contains("file"));
+        assertTrue(store.contains("ﬁle"));
+        assertFalse(store.contains("File"));
+    }
+
+    @Test
+    public void growsAndReusesDeletedSlots() {
+        ScramCredentialStore store = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_1).stripes(1).setup();
+        long initialSize = store.getOffHeapSize();
+        for(int i = 0; i < 1000; i++) {
+            assertTrue(store.put("user" + i, verifier(i)));
+        }
+        assertTrue(store.getOffHeapSize() > initialSize);
+        for(int i = 0; i < 1000; i += 2) {
+            assertTrue(store.remove("user" + i));
+        }
+        long grownSize = store.getOffHeapSize();
+        for(int round = 0; round < 10; round++) {
+            for(int i = 0; i < 1000; i += 2) {
+                assertTrue(store.put("user" + i, verifier(i)));
+                assertTrue(store.remove("user" + i));
+            }
+        }
+
+        assertEquals(500, store.size());
+        assertEquals(grownSize, store.getOffHeapSize());
+        for(int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, store.lookup("user" + i).isPresent());
+        }
+        assertEquals(verifier(999), store.lookup("user999").get());
+    }
+
+    @Test
+    public void layout() {
+        ScramCredentialStore sha1 = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_1)
+                .expectedUsers(1000).stripes(3).setup();
+        ScramCredentialStore sha256 = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_256)
+                .maxUserLength(20).maxSaltLength(20).setup();
+
+        assertEquals(4, sha1.getStripes());
+        assertEquals(132, sha1.getSlotSize());
+        assertEquals(0, sha1.getOffHeapSize() % (4 * 132));
+        assertTrue(sha1.getOffHeapSize() >= 1000 * 4 / 3 * 132);
+        assertEquals(116, sha256.getSlotSize());
+    }
+
+    @Test
+    public void invalidPuts() {
+        ScramCredentialStore store = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_1)
+                .maxUserLength(4).maxSaltLength(16).setup();
+        ScramVerifier[] verifiers = new ScramVerifier[] {
+                null,
+                new ScramVerifier(ScramMechanisms.SCRAM_SHA_256, new byte[16], 4096, new byte[32], new byte[32]),
+                new ScramVerifier(ScramMechanisms.SCRAM_SHA_1, new byte[17], 4096, new byte[20], new byte[20]),
+                new ScramVerifier(ScramMechanisms.SCRAM_SHA_1, new byte[16], 4096, new byte[19], new byte[20])
+        };
+        for(ScramVerifier verifier : verifiers) {
+            try {
+                store.put("user", verifier);
+                fail("put should fail");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        try {
+            store.put("users", VERIFIER);
+            fail("put should fail for a too long user");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertFalse(store.contains("users"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void concurrentReadsAndWrites() throws InterruptedException {
+        ScramCredentialStore store = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_1).stripes(2).setup();
+        for(int i = 0; i < 100; i++) {
+            store.put("user" + i, verifier(i));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while(! done.get()) {
+                        for(int i = 0; i < 100; i++) {
+                            assertEquals(verifier(i), store.lookup("user" + i).get());
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for(int i = 100; i < 5000; i++) {
+            store.put("user" + i, verifier(i));
+            if(i >= 150) {
+                store.remove("user" + (i - 50));
+            }
+            store.put("user" + (i % 100), verifier(i % 100));
+        }
+        done.set(true);
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void scramServerLookup() throws ScramParseException {
+        ScramCredentialStore store = ScramCredentialStore.builder(ScramMechanisms.SCRAM_SHA_1).setup();
+        store.put(USER, VERIFIER);
+        ScramServerSession session = ScramServer
+                .scramMechanism(ScramMechanisms.SCRAM_SHA_1)
+                .credentialLookup(store)
+                .nonceSupplier(() -> SERVER_NONCE)
+                .setup()
+                .scramServerSession();
+
+        session.processClientFirstMessage(CLIENT_FIRST_MESSAGE);
+        assertEquals(SERVER_FINAL_MESSAGE, session.processClientFinalMessage(CLIENT_FINAL_MESSAGE));
+        assertTrue(session.isAuthenticated());
+    }
+}
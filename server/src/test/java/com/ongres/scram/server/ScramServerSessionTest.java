@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.ScramCredentials;
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.common.exception.ScramParseException;
+import com.ongres.scram.common.message.ServerFinalMessage;
+import com.ongres.scram.common.message.ServerFirstMessage;
+import com.ongres.scram.common.stringprep.StringPreparations;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ongres.scram.common.RfcExample.*;
+import static org.junit.Assert.*;
+
+
+public class ScramServerSessionTest {
+    private static final ScramCredentials CREDENTIALS = ScramCredentials.fromPassword(
+            ScramMechanisms.SCRAM_SHA_1, StringPreparations.NO_PREPARATION, PASSWORD,
+            Base64.getDecoder().decode(SERVER_SALT), SERVER_ITERATIONS
+    );
+    private static final ScramVerifier VERIFIER = new ScramVerifier(
+            ScramMechanisms.SCRAM_SHA_1, Base64.getDecoder().decode(SERVER_SALT), SERVER_ITERATIONS,
+            CREDENTIALS.getStoredKey(), CREDENTIALS.getServerKey()
+    );
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final ScramServer scramServer = ScramServer
+            .scramMechanism(ScramMechanisms.SCRAM_SHA_1)
+            .credentialLookup(user -> {
+                lookups.incrementAndGet();
+                return USER.equals(user) ? Optional.of(VERIFIER) : Optional.empty();
+            })
+            .nonceSupplier(() -> SERVER_NONCE)
+            .setup();
+
+    private ScramServerSession afterClientFirstMessage(String clientFirstMessage) throws ScramParseException {
+        ScramServerSession session = scramServer.scramServerSession();
+        session.processClientFirstMessage(clientFirstMessage);
+
+        return session;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void channelBindingMechanismNotSupported() {
+        ScramServer.scramMechanism(ScramMechanisms.SCRAM_SHA_256_PLUS);
+    }
+
+    @Test
+    public void rfcExample() throws ScramParseException {
+        ScramServerSession session = scramServer.scramServerSession();
+        assertEquals(ScramServerSession.State.INITIAL, session.getState());
+
+        assertEquals(SERVER_FIRST_MESSAGE, session.processClientFirstMessage(CLIENT_FIRST_MESSAGE));
+        assertEquals(USER, session.getUser());
+        assertEquals(ScramServerSession.State.SERVER_FIRST_SENT, session.getState());
+        assertFalse(session.isAuthenticated());
+
+        assertEquals(SERVER_FINAL_MESSAGE, session.processClientFinalMessage(CLIENT_FINAL_MESSAGE));
+        assertEquals(ScramServerSession.State.COMPLETED, session.getState());
+        assertTrue(session.isAuthenticated());
+        assertFalse(session.getError().isPresent());
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void proofVerifierIsCachedPerCredential() throws ScramParseException {
+        for(int i = 0; i < 3; i++) {
+            ScramServerSession session = afterClientFirstMessage(CLIENT_FIRST_MESSAGE);
+            assertEquals(SERVER_FINAL_MESSAGE, session.processClientFinalMessage(CLIENT_FINAL_MESSAGE));
+            assertTrue(session.isAuthenticated());
+        }
+        assertEquals(1, scramServer.proofVerifierCacheEntries());
+
+        for(String user : new String[] { "unknown", "other" }) {
+            ScramServerSession session = afterClientFirstMessage("n,,n=" + user + ",r=" + CLIENT_NONCE);
+            assertEquals("e=invalid-proof", session.processClientFinalMessage(CLIENT_FINAL_MESSAGE));
+        }
+        assertEquals(1, scramServer.proofVerifierCacheEntries());
+    }
+
+    @Test
+    public void proofVerifierCacheIsBounded() throws ScramParseException {
+        ScramServer server = ScramServer
+                .scramMechanism(ScramMechanisms.SCRAM_SHA_1)
+                .credentialLookup(user -> Optional.of(new ScramVerifier(
+                        ScramMechanisms.SCRAM_SHA_1, user.getBytes(), SERVER_ITERATIONS,
+                        CREDENTIALS.getStoredKey(), CREDENTIALS.getServerKey()
+                )))
+                .nonceSupplier(() -> SERVER_NONCE)
+                .proofVerifierCacheSize(2)
+                .setup();
+        for(String user : new String[] { "a", "b", "c", "d", "a" }) {
+            server.scramServerSession().processClientFirstMessage("n,,n=" + user + ",r=" + CLIENT_NONCE);
+            assertTrue(server.proofVerifierCacheEntries() <= 2);
+        }
+        assertEquals(2, server.proofVerifierCacheEntries());
+    }
+
+    @Test
+    public void concurrentSessionsShareCachedProofVerifier() throws InterruptedException {
+        AtomicInteger authenticated = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < 200; i++) {
+                    try {
+                        ScramServerSession session = afterClientFirstMessage(CLIENT_FIRST_MESSAGE);
+                        if(SERVER_FINAL_MESSAGE.equals(session.processClientFinalMessage(CLIENT_FINAL_MESSAGE))
+                                && session.isAuthenticated()) {
+                            authenticated.incrementAndGet();
+                        }
+                    } catch (ScramParseException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threads.length * 200, authenticated.get());
+        assertEquals(1, scramServer.proofVerifierCacheEntries());
+    }
+
+    @Test
+    public void invalidProof() throws ScramParseException {
+        ScramServerSession session = afterClientFirstMessage(CLIENT_FIRST_MESSAGE);
+
+        assertEquals(
+                "e=invalid-proof",
+                session.processClientFinalMessage(
+                        CLIENT_FINAL_MESSAGE_WITHOUT_PROOF + ",p=AAAAAAAAAAAAAAAAAAAAAAAAAAA="
+                )
+        );
+        assertFalse(session.isAuthenticated());
+        assertEquals(ServerFinalMessage.Error.INVALID_PROOF, session.getError().get());
+    }
+
+    @Test
+    public void proofOfWrongLength() throws ScramParseException {
+        assertEquals(
+                "e=invalid-proof",
+                afterClientFirstMessage(CLIENT_FIRST_MESSAGE)
+                        .processClientFinalMessage(CLIENT_FINAL_MESSAGE_WITHOUT_PROOF + ",p=AAAA")
+        );
+    }
+
+    @Test
+    public void unknownUserGetsStableMockSalt() throws ScramParseException {
+        String clientFirstMessage = "n,,n=unknown,r=" + CLIENT_NONCE;
+        ServerFirstMessage first = ServerFirstMessage.parseFrom(
+                scramServer.scramServerSession().processClientFirstMessage(clientFirstMessage), CLIENT_NONCE
+        );
+        ServerFirstMessage second = ServerFirstMessage.parseFrom(
+                scramServer.scramServerSession().processClientFirstMessage(clientFirstMessage), CLIENT_NONCE
+        );
+
+        assertEquals(first.getSalt(), second.getSalt());
+        assertEquals(ScramServer.MOCK_SALT_LENGTH, Base64.getDecoder().decode(first.getSalt()).length);
+        assertEquals(ServerFirstMessage.ITERATION_MIN_VALUE, first.getIteration());
+        assertNotEquals(SERVER_SALT, ServerFirstMessage.parseFrom(
+                scramServer.scramServerSession().processClientFirstMessage("n,,n=other,r=" + CLIENT_NONCE),
+                CLIENT_NONCE
+        ).getSalt());
+    }
+
+    @Test
+    public void unknownUserFailsAsInvalidProof() throws ScramParseException {
+        ScramServerSession session = afterClientFirstMessage("n,,n=unknown,r=" + CLIENT_NONCE);
+
+        assertEquals("e=invalid-proof", session.processClientFinalMessage(CLIENT_FINAL_MESSAGE));
+        assertEquals("unknown", session.getUser());
+        assertFalse(session.isAuthenticated());
+    }
+
+    @Test
+    public void verifierOfOtherMechanismIsIgnored() throws ScramParseException {
+        ScramServer sha256Server = ScramServer
+                .scramMechanism(ScramMechanisms.SCRAM_SHA_256)
+                .credentialLookup(user -> Optional.of(VERIFIER))
+                .setup();
+        String serverFirstMessage = sha256Server.scramServerSession()
+                .processClientFirstMessage(CLIENT_FIRST_MESSAGE);
+
+        assertNotEquals(SERVER_SALT, ServerFirstMessage.parseFrom(serverFirstMessage, CLIENT_NONCE).getSalt());
+    }
+
+    @Test
+    public void verifierWithKeysOfWrongLengthIsIgnored() throws ScramParseException {
+        ScramVerifier sha256VerifierWithSha1Keys = new ScramVerifier(
+                ScramMechanisms.SCRAM_SHA_256, Base64.getDecoder().decode(SERVER_SALT), SERVER_ITERATIONS,
+                CREDENTIALS.getStoredKey(), CREDENTIALS.getServerKey()
+        );
+        ScramServerSession session = ScramServer
+                .scramMechanism(ScramMechanisms.SCRAM_SHA_256)
+                .credentialLookup(user -> Optional.of(sha256VerifierWithSha1Keys))
+                .nonceSupplier(() -> SERVER_NONCE)
+                .setup()
+                .scramServerSession();
+        String serverFirstMessage = session.processClientFirstMessage(CLIENT_FIRST_MESSAGE);
+        assertNotEquals(SERVER_SALT, ServerFirstMessage.parseFrom(serverFirstMessage, CLIENT_NONCE).getSalt());
+
+        String wrongProof = Base64.getEncoder().encodeToString(new byte[32]);
+        assertEquals(
+                "e=invalid-proof",
+                session.processClientFinalMessage(CLIENT_FINAL_MESSAGE_WITHOUT_PROOF + ",p=" + wrongProof)
+        );
+        assertEquals(ScramServerSession.State.COMPLETED, session.getState());
+        assertFalse(session.isAuthenticated());
+        assertEquals(ServerFinalMessage.Error.INVALID_PROOF, session.getError().get());
+    }
+
+    @Test
+    public void channelBindingRequired() throws ScramParseException {
+        ScramServerSession session = afterClientFirstMessage("p=tls-unique,,n=user,r=" + CLIENT_NONCE);
+
+        assertEquals("e=channel-binding-not-supported", session.processClientFinalMessage(CLIENT_FINAL_MESSAGE));
+        assertEquals(0, lookups.get());
+    }
+
+    @Test
+    public void authzidIsRejected() throws ScramParseException {
+        ScramServerSession session = afterClientFirstMessage("n,a=admin,n=user,r=" + CLIENT_NONCE);
+
+        assertEquals("e=other-error", session.processClientFinalMessage(CLIENT_FINAL_MESSAGE));
+        assertEquals(USER, session.getUser());
+        assertFalse(session.isAuthenticated());
+        assertEquals(ServerFinalMessage.Error.OTHER_ERROR, session.getError().get());
+        assertEquals(0, lookups.get());
+    }
+
+    @Test
+    public void channelBindingsDontMatch() throws ScramParseException {
+        assertEquals(
+                "e=channel-bindings-dont-match",
+                afterClientFirstMessage(CLIENT_FIRST_MESSAGE).processClientFinalMessage(
+                        "c=eSws,r=" + FULL_NONCE + ",p=" + CLIENT_FINAL_MESSAGE_PROOF
+                )
+        );
+    }
+
+    @Test
+    public void nonceDoesNotMatch() throws ScramParseException {
+        assertEquals(
+                "e=other-error",
+                afterClientFirstMessage(CLIENT_FIRST_MESSAGE).processClientFinalMessage(
+                        "c=biws,r=" + CLIENT_NONCE + "x,p=" + CLIENT_FINAL_MESSAGE_PROOF
+                )
+        );
+    }
+
+    @Test
+    public void invalidMessages() throws ScramParseException {
+        try {
+            scramServer.scramServerSession().processClientFirstMessage("n,,r=" + CLIENT_NONCE);
+            fail("Parsing should fail");
+        } catch (ScramParseException e) {
+            // Expected
+        }
+        for(String invalid : new String[] { CLIENT_FINAL_MESSAGE_WITHOUT_PROOF, "c=biws,r=" + FULL_NONCE + ",p=v0*" }) {
+            try {
+                afterClientFirstMessage(CLIENT_FIRST_MESSAGE).processClientFinalMessage(invalid);
+                fail("Parsing should fail for '" + invalid + "'");
+            } catch (ScramParseException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void clientFinalMessageBeforeClientFirstMessage() throws ScramParseException {
+        scramServer.scramServerSession().processClientFinalMessage(CLIENT_FINAL_MESSAGE);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void clientFinalMessageTwice() throws ScramParseException {
+        ScramServerSession session = afterClientFirstMessage(CLIENT_FIRST_MESSAGE);
+        session.processClientFinalMessage(CLIENT_FINAL_MESSAGE);
+
+        session.processClientFinalMessage(CLIENT_FINAL_MESSAGE);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017, OnGres.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package com.ongres.scram.server;
+
+
+import com.ongres.scram.common.ScramMechanisms;
+import com.ongres.scram.common.ScramVerifier;
+import com.ongres.scram.common.ScramVerifierCodec;
+import com.ongres.scram.common.exception.ScramParseException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+
+public class ScramVerifierFileTest {
+    private static final String SHA_256_VERIFIER = "SCRAM-SHA-256$4096:W22ZaJ0SNY7soEsUEjb6gQ==$"
+            + "WG5d8oPm3OtcPnkdi4Uo7BkeZkBFzpcXkuLmtbsT4qY=:lQq/CMjVNHXzHmbdhQm8pagmzcWQnpHg8YeL+RBOL5A=";
+
+    private final Path directory;
+    private final Path path;
+
+    public ScramVerifierFileTest() throws IOException {
+        directory = Files.createTempDirectory("scram");
+        path = directory.resolve("verifiers");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try(Stream<Path> files = Files.list(directory)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static ScramVerifier verifier(int i) {
+        byte[] key = new byte[20];
+        key[0] = (byte) i;
+        key[1] = (byte) (i >>> 8);
+
+        return new ScramVerifier(ScramMechanisms.SCRAM_SHA_1, new byte[] { (byte) i, 1 }, 4096 + i, key, key);
+    }
+
+    @Test
+    public void writeAndLookup() throws IOException, ScramParseException {
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            for(int i = 0; i < 5000; i++) {
+                writer.add("user" + i, verifier(i));
+            }
+            writer.add("ﬁle", SHA_256_VERIFIER);
+            writer.commit();
+        }
+        ScramVerifierFile file = ScramVerifierFile.open(path);
+
+        assertEquals(5001, file.size());
+        for(int i = 0; i < 5000; i++) {
+            assertEquals(verifier(i), file.lookup("user" + i).get());
+        }
+        assertEquals(SHA_256_VERIFIER, ScramVerifierCodec.write(file.lookup("file").get()));
+        assertFalse(file.lookup("user5000").isPresent());
+        assertFalse(file.lookup("User1").isPresent());
+        try(Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void replaceWhileOpen() throws IOException {
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            writer.add("user", verifier(1)).commit();
+        }
+        ScramVerifierFile file = ScramVerifierFile.open(path);
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            writer.add("user", verifier(2)).add("other", verifier(3)).commit();
+        }
+
+        assertEquals(verifier(1), file.lookup("user").get());
+        assertFalse(file.lookup("other").isPresent());
+        assertEquals(verifier(2), ScramVerifierFile.open(path).lookup("user").get());
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            writer.commit();
+        }
+        ScramVerifierFile file = ScramVerifierFile.open(path);
+
+        assertEquals(0, file.size());
+        assertFalse(file.lookup("user").isPresent());
+    }
+
+    @Test
+    public void closeWithoutCommit() throws IOException {
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            writer.add("user", verifier(1));
+        }
+
+        try(Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void duplicateUser() throws IOException {
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            writer.add("user", verifier(1)).add("other", verifier(2)).add("user", verifier(3));
+            writer.commit();
+            fail("Commit should fail for a duplicate user");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void invalidAdds() throws IOException {
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            try {
+                writer.add("user", "SCRAM-SHA-256$4096:salt");
+                fail("Adding an invalid verifier string should fail");
+            } catch (ScramParseException e) {
+                // Expected
+            }
+            try {
+                writer.add("user", new ScramVerifier(
+                        ScramMechanisms.SCRAM_SHA_1, new byte[256], 4096, new byte[20], new byte[20]
+                ));
+                fail("Adding a verifier with a too long salt should fail");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            writer.commit();
+            try {
+                writer.add("user", verifier(1));
+                fail("Adding after commit should fail");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+
+        assertEquals(0, ScramVerifierFile.open(path).size());
+    }
+
+    @Test
+    public void notAVerifierFile() throws IOException {
+        Files.write(path, "SCRAM-SHA-256$4096:salt$key:key".getBytes(StandardCharsets.US_ASCII));
+        try {
+            ScramVerifierFile.open(path);
+            fail("Opening a file that is not a verifier file should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void scramServerLookup() throws IOException, ScramParseException {
+        try(ScramVerifierFile.Writer writer = ScramVerifierFile.writer(path)) {
+            writer.add("user", SHA_256_VERIFIER).add("sha1", verifier(1)).commit();
+        }
+        ScramServer scramServer = ScramServer
+                .scramMechanism(ScramMechanisms.SCRAM_SHA_256)
+                .credentialLookup(ScramVerifierFile.open(path))
+                .setup();
+
+        assertTrue(scramServer.lookup("user").isPresent());
+        assertFalse(scramServer.lookup("sha1").isPresent());
+    }
+}